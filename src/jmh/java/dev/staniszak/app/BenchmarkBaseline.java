@@ -0,0 +1,91 @@
+package dev.staniszak.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * Compares a JMH run (-rf json) with the checked in baseline (benchmarks/baseline.json) and fails when a benchmark
+ * got slower by more than the tolerance, or when a benchmark that ran has no baseline yet (a new benchmark has to get
+ * its baseline recorded in the same change). Baseline entries that were not run are only listed.
+ * Scores are comparable only between runs on the same machine, record a new baseline when the machine changes.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.BenchmarkBaseline 
+ *            -Djmh.args="benchmarks/baseline.json target/jmh-result.json 25"
+ *        (baseline, new results, tolerance in percent - 25 by default)
+ */
+
+public class BenchmarkBaseline {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkBaseline <baseline.json> <result.json> [tolerance %]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.25;
+        Map<String, JsonNode> baseline = read(new File(args[0]));
+        Map<String, JsonNode> result = read(new File(args[1]));
+
+        List<String> regressions = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> entry : result.entrySet()) {
+            JsonNode old = baseline.get(entry.getKey());
+            if (old == null) {
+                System.out.printf("  NO BASELINE %s%n", entry.getKey());
+                unknown.add(entry.getKey());
+                continue;
+            }
+            double before = old.path("primaryMetric").path("score").asDouble();
+            double after = entry.getValue().path("primaryMetric").path("score").asDouble();
+            String unit = entry.getValue().path("primaryMetric").path("scoreUnit").asText();
+            // Throughput is better when higher, every other mode measures time.
+            boolean throughput = "thrpt".equals(entry.getValue().path("mode").asText());
+            double slowdown = throughput ? before / after - 1 : after / before - 1;
+
+            String verdict = slowdown > tolerance ? "SLOWER" : slowdown < -tolerance ? "faster" : "ok";
+            System.out.printf("  %-10s %s: %.3f -> %.3f %s (%+.0f%%)%n", verdict, entry.getKey(), before, after, unit, slowdown * 100);
+            if (slowdown > tolerance) {
+                regressions.add(entry.getKey());
+            }
+        }
+        for (String missing : baseline.keySet()) {
+            if (!result.containsKey(missing)) {
+                System.out.printf("  not run    %s%n", missing);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            System.out.println(unknown.size() + " benchmark(s) without a baseline, add their results to " + args[0] + ".");
+        }
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions.");
+        } else {
+            System.out.println(regressions.size() + " benchmark(s) slower than the baseline by more than " + Math.round(tolerance * 100) + "%.");
+        }
+        if (!regressions.isEmpty() || !unknown.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /* Benchmark name with its parameters, eg. LibraryTreeBenchmark.scan{tracks=1000}, so both files line up. */
+    private static Map<String, JsonNode> read(File file) throws IOException {
+        Map<String, JsonNode> runs = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText().replace("dev.staniszak.app.", ""));
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").fields().forEachRemaining((param) -> params.put(param.getKey(), param.getValue().asText()));
+            if (!params.isEmpty()) {
+                key.append(params.toString());
+            }
+            runs.put(key.toString(), run);
+        }
+        return runs;
+    }
+}
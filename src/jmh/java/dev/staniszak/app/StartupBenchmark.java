@@ -0,0 +1,99 @@
+package dev.staniszak.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Cold start of the whole application, measured in separate JVMs:
+ * time to the first frame of the window and time until the player of the last played track is ready to play.
+ * Numbers come from the "startup: <phase> <millis> ms" lines of StartupTimeline (-Dplayer.logStartup=true),
+ * the application quits on its own once it is ready (-Dplayer.exitWhenReady=true).
+ *
+ * Variants: the old order (everything loaded before the window is shown), fast start, and fast start with the AppCDS archive
+ * when it exists (mvn -Pappcds package).
+ *
+ * Needs the packaged application (mvn package) and a display.
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.StartupBenchmark -Djmh.args="5"
+ *        (argument is the number of launches per variant, the first launch of each variant is a warmup for the disk cache)
+ */
+
+public class StartupBenchmark {
+
+    private static final String JAR = "target/javafx_media_player_gui_mvc-1.0-SNAPSHOT.jar";
+    private static final String ARCHIVE = "target/app.jsa";
+
+    public static void main(String[] args) throws Exception {
+        int runs = 5;
+        if (args.length > 0 && args[0].matches("\\d+")) {
+            runs = Integer.parseInt(args[0]);
+        }
+        if (!new File(JAR).isFile()) {
+            System.err.println("Package the application first: mvn package");
+            System.exit(1);
+        }
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("load-then-show", List.of("-Dplayer.fastStart=false"));
+        variants.put("fast-start", List.of());
+        if (new File(ARCHIVE).isFile()) {
+            variants.put("fast-start+appcds", List.of("-XX:SharedArchiveFile=" + ARCHIVE));
+        }
+
+        System.out.printf("%-20s %18s %18s%n", "variant", "first-frame (ms)", "ready-to-play (ms)");
+        for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+            List<Long> firstFrame = new ArrayList<>();
+            List<Long> ready = new ArrayList<>();
+            for (int run = 0; run <= runs; run++) {
+                Map<String, Long> phases = launch(variant.getValue());
+                if (run == 0) {
+                    continue; // <- warmup
+                }
+                firstFrame.add(phases.getOrDefault("first-frame", -1L) + phases.getOrDefault("jvm-to-main", 0L));
+                ready.add(phases.getOrDefault("ready-to-play", -1L) + phases.getOrDefault("jvm-to-main", 0L));
+            }
+            System.out.printf("%-20s %18d %18d%n", variant.getKey(), median(firstFrame), median(ready));
+        }
+        System.out.println("Times are medians since the process was started, -1 means the phase was never reached.");
+    }
+
+    private static Map<String, Long> launch(List<String> options) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(options);
+        command.add("-Dplayer.logStartup=true");
+        command.add("-Dplayer.exitWhenReady=true");
+        command.add("-jar");
+        command.add(JAR);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Map<String, Long> phases = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // startup: <phase> <millis> ms
+                String[] parts = line.split(" ");
+                if (parts.length == 4 && parts[0].equals("startup:")) {
+                    phases.put(parts[1], Long.parseLong(parts[2]));
+                }
+            }
+        }
+        process.waitFor();
+        return phases;
+    }
+
+    private static long median(List<Long> values) {
+        if (values.isEmpty()) {
+            return -1;
+        }
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+}
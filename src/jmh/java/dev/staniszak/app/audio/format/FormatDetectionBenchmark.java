@@ -0,0 +1,176 @@
+package dev.staniszak.app.audio.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.staniszak.app.audio.pipeline.SyntheticTracks;
+
+/*
+ * Format detection of a library of 1000 files (every format the registry knows, with and without ID3 tags), per file:
+ *   probe     - telling the format from a header that is in memory already,
+ *   uncached  - what the first scan of a library pays: opening the file and reading its header,
+ *   cached    - what every rescan pays: one lookup of path, size and modification time.
+ * Setup checks that every file is detected as what it is, a real encoded MP3 (ID3 tag in front) included.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatDetectionBenchmark {
+
+    private static final int FILES = 1000;
+
+    private Path directory;
+    private Path[] files;
+    private long[] sizes;
+    private long[] modified;
+    private TrackFormat[] expected;
+    private ByteBuffer[] headers;
+    private FormatRegistry cached;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("format-bench");
+        byte[][] samples = {
+            mp3(), id3(mp3()), flac(), id3(flac()), ogg("\u0001vorbis"), ogg("OpusHead"),
+            chunk("RIFF", "WAVE"), chunk("FORM", "AIFF"), mp4(), adts(), "not audio at all".getBytes(StandardCharsets.US_ASCII)
+        };
+        TrackFormat[] formats = {
+            TrackFormat.MP3, TrackFormat.MP3, TrackFormat.FLAC, TrackFormat.FLAC, TrackFormat.VORBIS, TrackFormat.OPUS,
+            TrackFormat.WAV, TrackFormat.AIFF, TrackFormat.MP4, TrackFormat.AAC, TrackFormat.UNKNOWN
+        };
+        files = new Path[FILES];
+        sizes = new long[FILES];
+        modified = new long[FILES];
+        expected = new TrackFormat[FILES];
+        for (int i = 0; i < FILES; i++) {
+            files[i] = directory.resolve(String.format("%04d.track", i)); // <- the name says nothing about the format
+            Files.write(files[i], samples[i % samples.length]);
+            sizes[i] = Files.size(files[i]);
+            modified[i] = Files.getLastModifiedTime(files[i]).toMillis();
+            expected[i] = formats[i % formats.length];
+        }
+        headers = new ByteBuffer[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            byte[] header = Arrays.copyOf(samples[i], Math.min(samples[i].length, FormatRegistry.HEADER_BYTES));
+            headers[i] = ByteBuffer.allocateDirect(header.length).put(header).flip();
+        }
+
+        cached = new FormatRegistry(FILES);
+        for (int i = 0; i < FILES; i++) {
+            TrackFormat format = cached.detect(files[i], sizes[i], modified[i]);
+            if (format != expected[i]) {
+                throw new IllegalStateException(files[i] + " detected as " + format + ", expected " + expected[i]);
+            }
+        }
+        Path encoded = directory.resolve("encoded.mp3");
+        SyntheticTracks.encode(encoded, 1, 44_100, 1, -6, 0.95);
+        if (cached.detect(encoded) != TrackFormat.MP3) {
+            throw new IllegalStateException("encoded track detected as " + cached.detect(encoded));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TrackFormat probe() {
+        next = next + 1 == headers.length ? 0 : next + 1;
+        return FormatRegistry.probe(headers[next]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public int uncached() {
+        FormatRegistry registry = new FormatRegistry(FILES);
+        int tracks = 0;
+        for (int i = 0; i < FILES; i++) {
+            tracks += registry.detect(files[i], sizes[i], modified[i]).isPlayable() ? 1 : 0;
+        }
+        return tracks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public int cached() {
+        int tracks = 0;
+        for (int i = 0; i < FILES; i++) {
+            tracks += cached.detect(files[i], sizes[i], modified[i]).isPlayable() ? 1 : 0;
+        }
+        return tracks;
+    }
+
+    ////////Headers////////
+
+    private static byte[] mp3() {
+        return new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x64, 0, 0, 0, 0 };
+    }
+
+    private static byte[] adts() {
+        return new byte[] { (byte) 0xFF, (byte) 0xF1, (byte) 0x50, (byte) 0x80, 0, 0, 0, 0 };
+    }
+
+    private static byte[] flac() {
+        return new byte[] { 'f', 'L', 'a', 'C', 0, 0, 0, 34 }; // <- STREAMINFO block header
+    }
+
+    /* ID3v2.3 tag with 100 bytes of padding in front of the audio. */
+    private static byte[] id3(byte[] audio) {
+        byte[] tagged = new byte[10 + 100 + audio.length];
+        tagged[0] = 'I';
+        tagged[1] = 'D';
+        tagged[2] = '3';
+        tagged[3] = 3;
+        tagged[9] = 100;
+        System.arraycopy(audio, 0, tagged, 110, audio.length);
+        return tagged;
+    }
+
+    /* First Ogg page: 27 byte header, one segment, then the first packet of the codec. */
+    private static byte[] ogg(String codec) {
+        byte[] page = new byte[28 + 30];
+        System.arraycopy("OggS".getBytes(StandardCharsets.US_ASCII), 0, page, 0, 4);
+        page[5] = 2;   // <- beginning of stream
+        page[26] = 1;  // <- segments
+        page[27] = 30; // <- segment length
+        byte[] packet = codec.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(packet, 0, page, 28, packet.length);
+        return page;
+    }
+
+    private static byte[] chunk(String container, String type) {
+        return (container + "\u0000\u0000\u0010\u0000" + type + "fmt ").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] mp4() {
+        return "\u0000\u0000\u0000 ftypM4A \u0000\u0000\u0000\u0000".getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,138 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One block (1024 frames = 23.2 ms of 44.1 kHz audio) through the parts of the pipeline:
+ *   decode    - Mp3PcmSource only,
+ *   render    - decode + ReplayGain + Equalizer + volume and 16 bit conversion (what the audio thread does),
+ *   dsp       - the same on an already decoded track, with a crossfade every 10 s of audio (MemorySource, no decoder).
+ * eq = flat skips every band, boost runs all 10 of them.
+ * Real-time factor = 23220 us / time of the block, e.g. 100 us/op is 232x. Run with -prof gc: render and dsp must not allocate
+ * (files are opened again only when a track loops, every 30 s of audio).
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioPipelineBenchmark {
+
+    private static final int SECONDS = 30;
+    private static final int SAMPLE_RATE = 44_100;
+
+    @Param({ "flat", "boost" })
+    public String eq;
+
+    private Path directory;
+    private Path file;
+    private Mp3PcmSource decoder;
+    private AudioPipeline pipeline;
+    private AudioPipeline memoryPipeline;
+    private AudioPipeline.Track[] memoryTracks;
+    private int nextMemoryTrack = 0;
+    private final float[] samples = new float[AudioPipeline.BLOCK_FRAMES * 2];
+    private final byte[] out = new byte[AudioPipeline.BLOCK_FRAMES * AudioPipeline.BYTES_PER_FRAME];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pipeline-bench");
+        file = directory.resolve("track.mp3");
+        SyntheticTracks.encode(file, SECONDS, SAMPLE_RATE, 1, -4.5, 0.9);
+
+        decoder = new Mp3PcmSource(file);
+
+        pipeline = new AudioPipeline();
+        pipeline.setRepeat(true);
+        configure(pipeline);
+        pipeline.setCurrent(new AudioPipeline.Track(new Mp3PcmSource(file), gain(), SECONDS * 1000));
+
+        // Three copies of the decoded track take turns, each one crossfades into the next.
+        SyntheticTracks.MemorySource decoded = SyntheticTracks.MemorySource.decode(file);
+        memoryTracks = new AudioPipeline.Track[3];
+        for (int i = 0; i < memoryTracks.length; i++) {
+            SyntheticTracks.MemorySource copy = new SyntheticTracks.MemorySource(decodedSamples(decoded), SAMPLE_RATE);
+            memoryTracks[i] = new AudioPipeline.Track(copy, gain(), 10_000);
+        }
+        memoryPipeline = new AudioPipeline();
+        memoryPipeline.setCrossfadeMillis(2_000);
+        configure(memoryPipeline);
+        memoryPipeline.setCurrent(memoryTracks[0]);
+        memoryPipeline.setNext(memoryTracks[1]);
+        nextMemoryTrack = 2;
+    }
+
+    private static float[] decodedSamples(SyntheticTracks.MemorySource decoded) {
+        // 10 s of the decoded track.
+        float[] samples = new float[10 * SAMPLE_RATE * 2];
+        decoded.seek(0);
+        decoded.read(samples, 0, samples.length / 2);
+        return samples;
+    }
+
+    private void configure(AudioPipeline target) {
+        if (eq.equals("boost")) {
+            target.getEqualizer().setGains(4, 3, 1, -1, -2, -1, 1, 2, 3, 4);
+        }
+        target.setVolume(0.8);
+    }
+
+    private static ReplayGain gain() {
+        ReplayGain gain = new ReplayGain();
+        gain.setTrack(-4.5, 0.9);
+        return gain;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        decoder.close();
+        pipeline.clear();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public float[] decode() throws IOException {
+        if (decoder.read(samples, 0, AudioPipeline.BLOCK_FRAMES) == 0) {
+            decoder.seek(0);
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public byte[] render() throws IOException {
+        pipeline.render(out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] dsp() throws IOException {
+        memoryPipeline.render(out);
+        if (memoryPipeline.takeSwitched()) {
+            AudioPipeline.Track next = memoryTracks[nextMemoryTrack];
+            nextMemoryTrack = (nextMemoryTrack + 1) % memoryTracks.length;
+            next.getSource().seek(0);
+            memoryPipeline.setNext(next);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,137 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import dev.staniszak.app.metadata.Mp3MetadataReader;
+import dev.staniszak.app.metadata.TrackMetadata;
+
+/*
+ * Plays two encoded tracks through the whole pipeline as fast as it can, on one thread, without an audio device:
+ * decoder, ReplayGain from the tags, crossfade from the first track into the second, all 10 equalizer bands, 16 bit output.
+ * This is everything the audio thread of PcmAudioEngine does, apart from the write to the line.
+ *
+ * Checks that
+ *   - ReplayGain and the duration were read from the tags (Mp3MetadataReader),
+ *   - the crossfade happened and both tracks were played to the end,
+ *   - real-time factor (seconds of audio per second of wall time) is above MIN_REAL_TIME_FACTOR,
+ *   - rendering does not allocate (bytes per block, measured with ThreadMXBean; the decoder is included).
+ * The first pass warms up the JIT, the second one is measured.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.audio.pipeline.PipelineRealTimeCheck -Djmh.args="60"
+ *        (seconds of each track)
+ */
+
+public class PipelineRealTimeCheck {
+
+    private static final double MIN_REAL_TIME_FACTOR = 50;
+    private static final int SAMPLE_RATE = 44_100;
+    private static final double CROSSFADE_MILLIS = 5_000;
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+
+        Path directory = Files.createTempDirectory("pipeline-check");
+        Path first = directory.resolve("first.mp3");
+        Path second = directory.resolve("second.mp3");
+        long encodeStart = System.nanoTime();
+        SyntheticTracks.encode(first, seconds, SAMPLE_RATE, 1, -6.2, 0.95);
+        SyntheticTracks.encode(second, seconds, SAMPLE_RATE, 2, 2.5, 0.7);
+        System.out.printf("Encoded 2 x %d s in %.1f s%n", seconds, (System.nanoTime() - encodeStart) / 1e9);
+
+        boolean ok = true;
+        try {
+            TrackMetadata metadata = Mp3MetadataReader.read(first);
+            if (Math.abs(metadata.getReplayGainDb() + 6.2) > 0.01 || Math.abs(metadata.getDurationMillis() - seconds * 1000) > 100) {
+                System.out.printf("Tags not read: gain %.2f dB, duration %d ms%n", metadata.getReplayGainDb(), metadata.getDurationMillis());
+                ok = false;
+            }
+
+            play(first, second, false);
+            ok &= play(first, second, true);
+        } finally {
+            Files.deleteIfExists(first);
+            Files.deleteIfExists(second);
+            Files.deleteIfExists(directory);
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean play(Path first, Path second, boolean report) throws IOException {
+        AudioPipeline pipeline = new AudioPipeline();
+        pipeline.getEqualizer().setGains(4, 3, 1, -1, -2, -1, 1, 2, 3, 4);
+        pipeline.setCrossfadeMillis(CROSSFADE_MILLIS);
+        pipeline.setVolume(0.8);
+        pipeline.setCurrent(open(first));
+        pipeline.setNext(open(second));
+        byte[] out = new byte[AudioPipeline.BLOCK_FRAMES * AudioPipeline.BYTES_PER_FRAME];
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        long frames = 0;
+        long blocks = 0;
+        int switches = 0;
+        int rendered;
+        while ((rendered = pipeline.render(out)) > 0) {
+            frames += rendered;
+            blocks++;
+            if (pipeline.takeSwitched()) {
+                switches++;
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        pipeline.clear();
+        if (!report) {
+            return true;
+        }
+
+        double audioSeconds = (double) frames / SAMPLE_RATE;
+        double factor = audioSeconds / (nanos / 1e9);
+        // Both tracks minus the overlap of the crossfade.
+        double expectedSeconds = 2 * trackSeconds(first) - CROSSFADE_MILLIS / 1000;
+        System.out.printf("%.1f s of audio in %.3f s: real-time factor %.0fx (%d blocks, %.1f us/block)%n",
+            audioSeconds, nanos / 1e9, factor, blocks, nanos / 1e3 / blocks);
+        System.out.printf("crossfades %d, allocated %d bytes (%.1f bytes/block)%n", switches, allocated, (double) allocated / blocks);
+
+        boolean ok = true;
+        if (switches != 1 || Math.abs(audioSeconds - expectedSeconds) > 0.5) {
+            System.out.printf("Expected one crossfade and %.1f s of audio%n", expectedSeconds);
+            ok = false;
+        }
+        if (factor < MIN_REAL_TIME_FACTOR) {
+            System.out.printf("Real-time factor below %.0fx%n", MIN_REAL_TIME_FACTOR);
+            ok = false;
+        }
+        return ok;
+    }
+
+    /* com.sun.management.ThreadMXBean through the platform MBean server, the application module does not read jdk.management. */
+    private static long allocatedBytes() {
+        try {
+            return (Long) ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME),
+                "getThreadAllocatedBytes", new Object[] { Thread.currentThread().getId() }, new String[] { "long" });
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double trackSeconds(Path file) throws IOException {
+        return Mp3MetadataReader.read(file).getDurationMillis() / 1000.0;
+    }
+
+    private static AudioPipeline.Track open(Path file) throws IOException {
+        TrackMetadata metadata = Mp3MetadataReader.read(file);
+        ReplayGain gain = new ReplayGain();
+        gain.setTrack(metadata.getReplayGainDb(), metadata.getReplayGainPeak());
+        return new AudioPipeline.Track(new Mp3PcmSource(file), gain, metadata.getDurationMillis());
+    }
+}
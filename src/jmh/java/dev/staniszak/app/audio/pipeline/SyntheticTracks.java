@@ -0,0 +1,174 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+
+import de.sciss.jump3r.lowlevel.LameEncoder;
+
+/*
+ * Real MP3 files for the pipeline benchmarks, encoded with jump3r (Java port of LAME), so the decoder sees
+ * what it sees in a library: joint stereo, bit reservoir, an ID3v2.3 tag with ReplayGain in TXXX frames.
+ *
+ * The signal is something like music, not a sine: a chord progression with harmonics and a different mix per channel,
+ * a bass line, notes with an attack/decay envelope and noise "hi-hats". Same seed gives the same file.
+ */
+
+public class SyntheticTracks {
+
+    private static final double[][] CHORDS = {
+        { 220.00, 261.63, 329.63 },   // Am
+        { 174.61, 220.00, 261.63 },   // F
+        { 261.63, 329.63, 392.00 },   // C
+        { 196.00, 246.94, 293.66 },   // G
+    };
+
+    /* Encodes `seconds` of music into file (joint stereo, 192 kbps CBR) tagged with the given ReplayGain. */
+    public static void encode(Path file, int seconds, int sampleRate, long seed, double replayGainDb, double replayGainPeak) throws IOException {
+        encode(file, seconds, sampleRate, seed, replayGainDb, replayGainPeak, 192);
+    }
+
+    /* Same music at another bitrate (CBR), e.g. a re-encoded copy of a track. */
+    public static void encode(Path file, int seconds, int sampleRate, long seed, double replayGainDb, double replayGainPeak, int kbps) throws IOException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+        LameEncoder encoder = new LameEncoder(format, kbps, LameEncoder.CHANNEL_MODE_JOINT_STEREO, LameEncoder.QUALITY_MIDDLE, false);
+        byte[] pcm = new byte[encoder.getPCMBufferSize()];
+        byte[] mp3 = new byte[encoder.getMP3BufferSize()];
+        int framesPerBuffer = pcm.length / 4;
+
+        Random random = new Random(seed);
+        double beat = 60.0 / (100 + random.nextInt(40));
+        long total = (long) seconds * sampleRate;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(replayGainTag(replayGainDb, replayGainPeak));
+            for (long frame = 0; frame < total; frame += framesPerBuffer) {
+                int count = (int) Math.min(framesPerBuffer, total - frame);
+                for (int i = 0; i < count; i++) {
+                    double time = (double) (frame + i) / sampleRate;
+                    int bar = (int) (time / (beat * 4));
+                    double inBeat = (time % beat) / beat;
+                    double[] chord = CHORDS[bar % CHORDS.length];
+                    double envelope = Math.exp(-3 * inBeat);
+
+                    double left = 0;
+                    double right = 0;
+                    for (int note = 0; note < chord.length; note++) {
+                        double phase = 2 * Math.PI * chord[note] * time;
+                        double tone = Math.sin(phase) + 0.5 * Math.sin(2 * phase) + 0.25 * Math.sin(3 * phase);
+                        left += tone * (note == 0 ? 0.8 : 0.5);
+                        right += tone * (note == 2 ? 0.8 : 0.5);
+                    }
+                    double bass = Math.sin(2 * Math.PI * chord[0] / 4 * time) * 0.9;
+                    double hat = inBeat % 0.5 < 0.04 ? (random.nextDouble() * 2 - 1) * 0.4 : 0;
+                    left = 0.12 * envelope * left + 0.3 * bass + hat;
+                    right = 0.12 * envelope * right + 0.3 * bass + hat * 0.7;
+                    writeSample(pcm, i * 4, left);
+                    writeSample(pcm, i * 4 + 2, right);
+                }
+                int encoded = encoder.encodeBuffer(pcm, 0, count * 4, mp3);
+                out.write(mp3, 0, encoded);
+            }
+            int encoded = encoder.encodeFinish(mp3);
+            out.write(mp3, 0, encoded);
+        } finally {
+            encoder.close();
+        }
+    }
+
+    private static void writeSample(byte[] pcm, int offset, double sample) {
+        int value = (int) Math.max(-32768, Math.min(32767, sample * 32767));
+        pcm[offset] = (byte) value;
+        pcm[offset + 1] = (byte) (value >> 8);
+    }
+
+    /* ID3v2.3 with two TXXX frames, the way foobar2000 writes them. */
+    private static byte[] replayGainTag(double gainDb, double peak) throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        userText(frames, "REPLAYGAIN_TRACK_GAIN", String.format(Locale.ROOT, "%.2f dB", gainDb));
+        userText(frames, "REPLAYGAIN_TRACK_PEAK", String.format(Locale.ROOT, "%.6f", peak));
+        byte[] body = frames.toByteArray();
+
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        tag.write(new byte[] { 'I', 'D', '3', 3, 0, 0 });
+        int size = body.length;
+        tag.write(new byte[] { (byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F), (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F) });
+        tag.write(body);
+        return tag.toByteArray();
+    }
+
+    private static void userText(ByteArrayOutputStream out, String description, String value) throws IOException {
+        byte[] text = (description + '\0' + value).getBytes(StandardCharsets.ISO_8859_1);
+        int size = text.length + 1;
+        out.write(new byte[] { 'T', 'X', 'X', 'X', (byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size, 0, 0 });
+        out.write(0); // <- ISO-8859-1
+        out.write(text);
+    }
+
+    /* Decoded track in memory, for measuring the DSP stages without the decoder. seek(0) plays it again, close() does nothing. */
+    public static class MemorySource implements PcmSource {
+        private final float[] samples;
+        private final int sampleRate;
+        private long position = 0;
+
+        public MemorySource(float[] samples, int sampleRate) {
+            this.samples = samples;
+            this.sampleRate = sampleRate;
+        }
+
+        public static MemorySource decode(Path file) throws IOException {
+            try (Mp3PcmSource source = new Mp3PcmSource(file)) {
+                float[] buffer = new float[AudioPipeline.BLOCK_FRAMES * 2];
+                float[] all = new float[1 << 20];
+                int length = 0;
+                int frames;
+                while ((frames = source.read(buffer, 0, AudioPipeline.BLOCK_FRAMES)) > 0) {
+                    if (length + frames * 2 > all.length) {
+                        all = Arrays.copyOf(all, all.length * 2);
+                    }
+                    System.arraycopy(buffer, 0, all, length, frames * 2);
+                    length += frames * 2;
+                }
+                return new MemorySource(Arrays.copyOf(all, length), source.getSampleRate());
+            }
+        }
+
+        public long getFrames() {
+            return samples.length / 2;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public int read(float[] buffer, int offset, int frames) {
+            int count = (int) Math.min(frames, getFrames() - position);
+            System.arraycopy(samples, (int) position * 2, buffer, offset * 2, count * 2);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void seek(double millis) {
+            position = Math.min(getFrames(), Math.round(millis * sampleRate / 1000));
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package dev.staniszak.app.audio.spectrum;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.staniszak.app.audio.pipeline.AudioPipeline;
+
+/*
+ * FFTs per second at the sizes the analyzer can use:
+ *   fft      - transform alone (in place, the input is copied back first, so every call sees the same signal),
+ *   analyse  - a whole spectrum frame: window, FFT, 128 log bands, smoothing, peak hold, publish into the ring.
+ * At 4096 and one frame every 16 ms the analyzer needs ~60 frames/s, anything above a few thousand ops/s is plenty.
+ * Run with -prof gc: neither may allocate.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FftBenchmark {
+
+    @Param({ "1024", "4096", "16384" })
+    public int size;
+
+    private Fft fft;
+    private float[] signal;
+    private float[] re;
+    private float[] im;
+    private SpectrumAnalyzer analyzer;
+
+    @Setup
+    public void setUp() {
+        fft = new Fft(size);
+        Random random = new Random(7);
+        signal = new float[size];
+        for (int i = 0; i < size; i++) {
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * 440 * i / 44_100.0) + 0.1 * (random.nextFloat() * 2 - 1));
+        }
+        re = new float[size];
+        im = new float[size];
+
+        analyzer = new SpectrumAnalyzer(size);
+        analyzer.setBands(128);
+        analyzer.getTap().prepare(44_100);
+        float[] block = new float[AudioPipeline.BLOCK_FRAMES];
+        for (int filled = 0; filled < size; filled += block.length) {
+            System.arraycopy(signal, filled, block, 0, Math.min(block.length, size - filled));
+            analyzer.append(block, block.length);
+        }
+    }
+
+    @Benchmark
+    public float fft() {
+        System.arraycopy(signal, 0, re, 0, size);
+        Arrays.fill(im, 0);
+        fft.transform(re, im);
+        return re[size / 8];
+    }
+
+    @Benchmark
+    public boolean analyse() {
+        boolean analysed = analyzer.analyse(System.nanoTime());
+        // Nobody reads the frames here, keep the ring from filling up.
+        SpscRing<SpectrumFrame> frames = analyzer.getFrames();
+        if (frames.peek() != null) {
+            frames.release();
+        }
+        return analysed;
+    }
+}
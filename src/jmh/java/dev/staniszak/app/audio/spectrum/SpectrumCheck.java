@@ -0,0 +1,204 @@
+package dev.staniszak.app.audio.spectrum;
+
+import java.util.Random;
+
+/*
+ * Behaviour checks of the building blocks of SpectrumAnalyzer:
+ *   Fft       - every size from 2 to 16384 against a plain DFT in double precision (random input),
+ *               a pure tone lands in its bin (and the mirrored one) with amplitude size / 2,
+ *               sizes that are not a power of two are refused,
+ *   SpscRing  - capacity rounding, empty and full ring, FIFO order across the wrap-around,
+ *               and a producer and a consumer thread passing RING_ITEMS slots: nothing is lost, duplicated
+ *               or reordered, slots are never read half written, a full ring drops (claim() is null) instead of waiting.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.audio.spectrum.SpectrumCheck
+ */
+
+public class SpectrumCheck {
+
+    private static final double MAX_RELATIVE_ERROR = 1e-4; // <- float FFT against double DFT, relative to the largest bin
+    private static final long RING_ITEMS = 1_000_000;
+
+    private static boolean ok = true;
+
+    /* Two copies of the same number, a torn read sees them differ. */
+    private static class Slot {
+        long value;
+        long copy;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        fftAgainstDft();
+        fftTone();
+        fftSizes();
+        ringBasics();
+        ringThreads();
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    ////////Fft////////
+
+    private static void fftAgainstDft() {
+        System.out.println("Fft against DFT:");
+        Random random = new Random(1);
+        boolean within = true;
+        for (int size = 2; size <= 16384; size <<= 1) {
+            float[] re = new float[size];
+            float[] im = new float[size];
+            for (int i = 0; i < size; i++) {
+                re[i] = random.nextFloat() * 2 - 1;
+                im[i] = random.nextFloat() * 2 - 1;
+            }
+            double[][] expected = dft(re, im);
+            new Fft(size).transform(re, im);
+
+            double largest = 0;
+            double error = 0;
+            for (int k = 0; k < size; k++) {
+                largest = Math.max(largest, Math.hypot(expected[0][k], expected[1][k]));
+                error = Math.max(error, Math.hypot(re[k] - expected[0][k], im[k] - expected[1][k]));
+            }
+            if (error / largest > MAX_RELATIVE_ERROR) {
+                System.out.printf("  size %d: relative error %.2g%n", size, error / largest);
+                within = false;
+            }
+        }
+        check("sizes 2 to 16384 within " + MAX_RELATIVE_ERROR + " of the largest bin", within);
+    }
+
+    private static void fftTone() {
+        System.out.println("Fft of a tone:");
+        int size = 4096;
+        int bin = 93;
+        float[] re = new float[size];
+        float[] im = new float[size];
+        for (int i = 0; i < size; i++) {
+            re[i] = (float) Math.cos(2 * Math.PI * bin * i / size);
+        }
+        new Fft(size).transform(re, im);
+        boolean clean = true;
+        for (int k = 0; k < size; k++) {
+            double magnitude = Math.hypot(re[k], im[k]);
+            double expected = k == bin || k == size - bin ? size / 2.0 : 0;
+            clean &= Math.abs(magnitude - expected) < 0.05;
+        }
+        check("bin " + bin + " and its mirror hold size / 2, the rest is zero", clean);
+    }
+
+    private static void fftSizes() {
+        System.out.println("Fft sizes:");
+        boolean refused = true;
+        for (int size : new int[] { -2, 0, 1, 3, 6, 1000 }) {
+            try {
+                new Fft(size);
+                refused = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        check("sizes that are not a power of two (or below 2) are refused", refused);
+    }
+
+    /* O(size^2), the angles are looked up: k * n is taken modulo size. */
+    private static double[][] dft(float[] re, float[] im) {
+        int size = re.length;
+        double[] cos = new double[size];
+        double[] sin = new double[size];
+        for (int i = 0; i < size; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / size);
+            sin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+        double[][] out = new double[2][size];
+        for (int k = 0; k < size; k++) {
+            double sumRe = 0;
+            double sumIm = 0;
+            for (int n = 0, angle = 0; n < size; n++, angle = (angle + k) & (size - 1)) {
+                sumRe += re[n] * cos[angle] - im[n] * sin[angle];
+                sumIm += re[n] * sin[angle] + im[n] * cos[angle];
+            }
+            out[0][k] = sumRe;
+            out[1][k] = sumIm;
+        }
+        return out;
+    }
+
+    ////////SpscRing////////
+
+    private static void ringBasics() {
+        System.out.println("SpscRing:");
+        check("capacity is rounded up to a power of two", new SpscRing<>(1, Slot::new).capacity() == 2
+            && new SpscRing<>(3, Slot::new).capacity() == 4 && new SpscRing<>(4, Slot::new).capacity() == 4
+            && new SpscRing<>(5, Slot::new).capacity() == 8);
+
+        SpscRing<Slot> ring = new SpscRing<>(4, Slot::new);
+        check("empty ring has nothing to peek", ring.peek() == null && ring.size() == 0);
+        for (int i = 0; i < 4; i++) {
+            ring.claim().value = i;
+            ring.publish();
+        }
+        check("full ring refuses a claim", ring.claim() == null && ring.size() == 4);
+
+        // Keep it half full for a few rounds, so head and tail wrap around many times.
+        boolean ordered = true;
+        long expected = 0;
+        for (long next = 4; next < 1000; next++) {
+            ordered &= ring.peek().value == expected++;
+            ring.release();
+            Slot slot = ring.claim();
+            ordered &= slot != null;
+            slot.value = next;
+            ring.publish();
+        }
+        while (ring.peek() != null) {
+            ordered &= ring.peek().value == expected++;
+            ring.release();
+        }
+        check("first in, first out across the wrap-around", ordered && expected == 1000 && ring.size() == 0);
+    }
+
+    private static void ringThreads() throws InterruptedException {
+        SpscRing<Slot> ring = new SpscRing<>(64, Slot::new);
+        long[] dropped = new long[1];
+        Thread producer = new Thread(() -> {
+            for (long i = 0; i < RING_ITEMS; i++) {
+                Slot slot = ring.claim();
+                if (slot == null) {
+                    dropped[0]++;
+                    Thread.yield(); // <- let the consumer catch up, on one core it would not run otherwise
+                    continue;
+                }
+                slot.value = i;
+                slot.copy = i;
+                ring.publish();
+            }
+        }, "ring-producer");
+
+        long received = 0;
+        long last = -1;
+        boolean ordered = true;
+        boolean whole = true;
+        producer.start();
+        while (producer.isAlive() || ring.peek() != null) {
+            Slot slot = ring.peek();
+            if (slot == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            whole &= slot.value == slot.copy;
+            ordered &= slot.value > last;
+            last = slot.value;
+            received++;
+            ring.release();
+        }
+        producer.join();
+        System.out.printf("  %d items: %d received, %d dropped on a full ring%n", RING_ITEMS, received, dropped[0]);
+        check("nothing lost, duplicated or reordered between two threads", ordered && received + dropped[0] == RING_ITEMS);
+        check("slots are never read half written", whole);
+    }
+
+    private static void check(String what, boolean passed) {
+        System.out.println((passed ? "  OK: " : "  FAILED: ") + what);
+        ok &= passed;
+    }
+}
@@ -0,0 +1,114 @@
+package dev.staniszak.app.controller;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.audio.FakeAudioEngine;
+import dev.staniszak.app.audio.SimulatedClock;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.playlist.PlayQueue;
+
+/*
+ * Headless load test of the playback flow: MediaPlayerModel and Playback on a FakeAudioEngine, no display, no audio device.
+ *
+ * A queue of TRACKS fake tracks (30 s to 6 min long) plays with repeat all, the simulated clock moves in STEP_MILLIS steps
+ * (a frame of the UI) and from time to time the "user" presses next, previous, pause/play or seeks (seeded, so every run is the same).
+ * After every step the harness checks that the engine plays the track the queue is at, at the end it checks
+ * that every automatic transition was pre-buffered. Reports tracks and simulated hours per second of wall time.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.controller.PlaybackSimulation -Djmh.args="50000 5000"
+ *        (tracks to play, size of the queue)
+ */
+
+public class PlaybackSimulation {
+
+    private static final double STEP_MILLIS = 250;
+    private static final int WARMUP_TRACKS = 20_000;
+
+    public static void main(String[] args) {
+        int played = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int queueSize = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        run(WARMUP_TRACKS, queueSize, false);
+        boolean ok = run(played, queueSize, true);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean run(int played, int queueSize, boolean report) {
+        List<Path> tracks = new ArrayList<>(queueSize);
+        for (int i = 0; i < queueSize; i++) {
+            tracks.add(Paths.get("/simulated/Album " + (i / 12), String.format("%02d - Track %d.mp3", i % 12, i)));
+        }
+
+        PlayerMetrics.get().reset();
+        SimulatedClock clock = new SimulatedClock();
+        FakeAudioEngine engine = new FakeAudioEngine(clock, PlaybackSimulation::duration);
+        MediaPlayerModel model = new MediaPlayerModel(engine, tracks.get(0).toString());
+        engine.setSpectrumBands(64);
+        engine.setSpectrumInterval(0.064);
+        long[] spectrumFrames = new long[1];
+        engine.setSpectrumListener((timestamp, duration, magnitudes, phases) -> spectrumFrames[0]++);
+
+        PlayQueue queue = new PlayQueue();
+        queue.setTracks(tracks);
+        queue.setRepeatAll(true);
+        Playback playback = new Playback(model, queue);
+
+        Random user = new Random(42);
+        long userActions = 0;
+        long mismatches = 0;
+
+        long start = System.nanoTime();
+        playback.next();
+        while (playback.getStarted() < played) {
+            clock.advance(STEP_MILLIS);
+            switch (user.nextInt(4000)) {
+                case 0:
+                    playback.next();
+                    userActions++;
+                    break;
+                case 1:
+                    playback.previous();
+                    userActions++;
+                    break;
+                case 2:
+                    engine.pause();
+                    engine.play();
+                    userActions++;
+                    break;
+                case 3:
+                    engine.seek(engine.getDurationMillis() * user.nextDouble());
+                    userActions++;
+                    break;
+                default:
+            }
+            if (engine.getStatus() != AudioEngine.Status.PLAYING || !queue.current().toString().equals(engine.getTrack())) {
+                mismatches++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        // Every track except the first one and the ones the user jumped to was pre-buffered.
+        long notPreloaded = engine.getOpened() - 1 - engine.getPreloadHits();
+        boolean ok = mismatches == 0 && notPreloaded <= userActions;
+        if (report) {
+            double seconds = nanos / 1e9;
+            System.out.printf("%d tracks (%.0f simulated hours) in %.2f s: %.0f tracks/s, %.0f simulated hours/s%n",
+                playback.getStarted(), clock.millis() / 3.6e6, seconds, playback.getStarted() / seconds, clock.millis() / 3.6e6 / seconds);
+            System.out.printf("user actions %d, spectrum frames %d, not pre-buffered %d, mismatches %d, avg transition %.4f ms%n",
+                userActions, spectrumFrames[0], notPreloaded, mismatches, PlayerMetrics.get().getTrackTransitionMeanMillis());
+            System.out.println(ok ? "OK" : "FAILED");
+        }
+        return ok;
+    }
+
+    /* 30 s to 6 min, always the same for the same path. */
+    private static double duration(String track) {
+        return 30_000 + Math.floorMod(track.hashCode() * 2654435761L, 330_000L);
+    }
+}
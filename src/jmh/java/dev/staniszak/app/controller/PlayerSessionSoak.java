@@ -0,0 +1,167 @@
+package dev.staniszak.app.controller;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.audio.PlayerSession;
+import dev.staniszak.app.audio.pipeline.SyntheticTracks;
+import dev.staniszak.app.model.MediaPlayerModel;
+import javafx.application.Platform;
+
+/*
+ * Soak test of the player lifecycle: cycles through changeMedia() of JavaFxAudioEngine
+ * (it closes the session of the old player and attaches a new one) with the controller's set of listeners registered on the engine,
+ * and reports heap and listener counts every REPORT_EVERY cycles.
+ *
+ * Two real MP3 tracks (encoded by SyntheticTracks) are played in turn, and a cycle only moves on when the new player
+ * has become ready, is playing and has delivered a spectrum, so every listener path runs on every player.
+ * Checks at the end:
+ *   - attached listeners are the same in every report,
+ *   - heap after GC at the last report has not grown more than MAX_HEAP_GROWTH_MB over the first report after warm-up,
+ *   - one open session is left,
+ *   - no cycle got stuck (a player that never played fails the run after STUCK_SECONDS).
+ *
+ * Needs JavaFX runtime (a display and audio backend).
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.controller.PlayerSessionSoak -Djmh.args=10000
+ */
+
+public class PlayerSessionSoak {
+
+    private static final int REPORT_EVERY = 1000;
+    private static final int TRACK_SECONDS = 5;
+    private static final long MAX_HEAP_GROWTH_MB = 16;
+    private static final long STUCK_SECONDS = 10;
+
+    /* Touched on the FX thread only. */
+    private static long readies = 0;
+    private static long playing = 0;
+    private static long spectrumUpdates = 0;
+    private static boolean waitingForPlaying = false;
+    private static boolean waitingForSpectrum = false; // <- only after PLAYING, a late frame of the old player must not count
+    private static Runnable nextCycle = () -> { };
+
+    private static int firstListeners = -1;
+    private static boolean listenersFlat = true;
+    private static long baselineHeapMb = -1;
+    private static long lastHeapMb = 0;
+    private static volatile int cyclesDone = 0;
+
+    public static void main(String[] args) throws Exception {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Path directory = Files.createTempDirectory("soak");
+        Path[] tracks = { directory.resolve("a.mp3"), directory.resolve("b.mp3") };
+        SyntheticTracks.encode(tracks[0], TRACK_SECONDS, 44_100, 1, -6, 0.95);
+        SyntheticTracks.encode(tracks[1], TRACK_SECONDS, 44_100, 2, -6, 0.95);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            MediaPlayerModel model = new MediaPlayerModel(tracks[0].toString());
+            attach(model.getEngine());
+            report(0);
+            runCycle(model, tracks, 1, cycles, done);
+        });
+
+        // Watchdog: every cycle has to get to a spectrum update in time.
+        int seen = -1;
+        while (!done.await(STUCK_SECONDS, TimeUnit.SECONDS)) {
+            if (cyclesDone == seen) {
+                System.out.println("STUCK: cycle " + (seen + 1) + " never got to play.");
+                System.exit(1);
+            }
+            seen = cyclesDone;
+        }
+
+        boolean sessions = PlayerSession.getOpenSessions() == 1;
+        boolean heap = lastHeapMb - baselineHeapMb <= MAX_HEAP_GROWTH_MB;
+        boolean players = readies >= cycles && playing >= cycles;
+        System.out.printf("ready %d, playing %d, spectrum updates %d in %d cycles%n", readies, playing, spectrumUpdates, cycles);
+        System.out.println(sessions ? "OK: one open session left." : "LEAK: " + PlayerSession.getOpenSessions() + " open sessions.");
+        System.out.println(listenersFlat ? "OK: attached listeners stayed at " + firstListeners + "."
+            : "LEAK: attached listeners changed between reports.");
+        System.out.println(heap ? "OK: heap after GC grew " + (lastHeapMb - baselineHeapMb) + " MB."
+            : "LEAK: heap after GC grew from " + baselineHeapMb + " MB to " + lastHeapMb + " MB.");
+        if (!players) {
+            System.out.println("FAILED: not every player became ready and played.");
+        }
+        Platform.exit();
+        System.exit(sessions && listenersFlat && heap && players ? 0 : 1);
+    }
+
+    /* One track change, the next one starts from the spectrum listener once the new player plays. */
+    private static void runCycle(MediaPlayerModel model, Path[] tracks, int cycle, int cycles, CountDownLatch done) {
+        nextCycle = () -> {
+            cyclesDone = cycle;
+            if (cycle % REPORT_EVERY == 0) {
+                report(cycle);
+            }
+            if (cycle == cycles) {
+                model.getEngine().stop();
+                done.countDown();
+            } else {
+                // Not from inside the listener: the engine is still delivering the event of the old player.
+                Platform.runLater(() -> runCycle(model, tracks, cycle + 1, cycles, done));
+            }
+        };
+        waitingForPlaying = true;
+        model.changeMedia(tracks[cycle % 2].toString());
+    }
+
+    /* Same set of registrations as MediaPlayerController.initPlayer(), done once, the engine carries them over to every player. */
+    private static void attach(AudioEngine engine) {
+        engine.addListener(new AudioEngine.Listener() {
+            @Override
+            public void statusChanged(AudioEngine.Status status) {
+                if (status == AudioEngine.Status.PLAYING) {
+                    playing++;
+                    if (waitingForPlaying) {
+                        waitingForPlaying = false;
+                        waitingForSpectrum = true;
+                    }
+                }
+            }
+
+            @Override
+            public void ready() {
+                readies++;
+            }
+
+            @Override
+            public void endOfMedia() {
+            }
+        });
+        engine.setSpectrumListener((timestamp, duration, magnitudes, phases) -> {
+            spectrumUpdates++;
+            if (waitingForSpectrum) {
+                waitingForSpectrum = false;
+                nextCycle.run();
+            }
+        });
+    }
+
+    /* Heap is measured after GC. The first report after warm-up (class loading, JIT, media caches) is the baseline. */
+    private static void report(int cycle) {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        int listeners = PlayerSession.getAttachedListeners();
+        System.out.printf("cycle %6d  heap %5d MB  sessions %d  listeners %d%n",
+            cycle, usedMb, PlayerSession.getOpenSessions(), listeners);
+
+        if (firstListeners < 0) {
+            firstListeners = listeners;
+        } else if (listeners != firstListeners) {
+            listenersFlat = false;
+        }
+        if (cycle == REPORT_EVERY || baselineHeapMb < 0) {
+            baselineHeapMb = usedMb;
+        }
+        lastHeapMb = usedMb;
+    }
+}
@@ -0,0 +1,150 @@
+package dev.staniszak.app.duplicates;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.pipeline.PcmSource;
+import dev.staniszak.app.audio.pipeline.SyntheticTracks;
+
+/*
+ * Runs the duplicate finder over a small library of encoded tracks (SyntheticTracks) and checks what it finds:
+ *   a.mp3            - the original (192 kbps, 44.1 kHz),
+ *   a-copy.mp3       - byte for byte copy of a.mp3                     -> IDENTICAL with a.mp3,
+ *   a-128.mp3        - same music at 128 kbps                          -> SAME_RECORDING,
+ *   a-48k.mp3        - same music at 48 kHz, 160 kbps                  -> SAME_RECORDING,
+ *   a-retagged.mp3   - same audio as a.mp3, other ReplayGain tag        -> SAME_RECORDING (its bytes differ),
+ *   b.mp3, c.mp3     - other music (b has exactly the size of a.mp3, the quick hash has to tell them apart).
+ * Prints the similarity of every fingerprint to the original, then runs the job
+ *   1. throttled as if a track were playing (checks that the throttle held it back),
+ *   2. again, unthrottled: everything comes from the ContentIndex, nothing is read or decoded (resumed job).
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.duplicates.DuplicateFinderCheck -Djmh.args="40"
+ *        (seconds of each track)
+ */
+
+public class DuplicateFinderCheck {
+
+    private static final int SAMPLE_RATE = 44_100;
+    private static final long THROTTLED_BYTES_PER_SECOND = 4L << 20;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        Path directory = Files.createTempDirectory("duplicates-check");
+        Path a = directory.resolve("a.mp3");
+        Path copy = directory.resolve("a-copy.mp3");
+        Path lower = directory.resolve("a-128.mp3");
+        Path resampled = directory.resolve("a-48k.mp3");
+        Path retagged = directory.resolve("a-retagged.mp3");
+        Path b = directory.resolve("b.mp3");
+        Path c = directory.resolve("c.mp3");
+        SyntheticTracks.encode(a, seconds, SAMPLE_RATE, 1, -6.5, 0.9);
+        Files.copy(a, copy, StandardCopyOption.REPLACE_EXISTING);
+        SyntheticTracks.encode(lower, seconds, SAMPLE_RATE, 1, -6.5, 0.9, 128);
+        SyntheticTracks.encode(resampled, seconds, 48_000, 1, -6.5, 0.9, 160);
+        SyntheticTracks.encode(retagged, seconds, SAMPLE_RATE, 1, -7.25, 0.95);
+        SyntheticTracks.encode(b, seconds, SAMPLE_RATE, 2, -6.5, 0.9);
+        SyntheticTracks.encode(c, seconds, SAMPLE_RATE, 3, -6.5, 0.9);
+        List<Path> tracks = List.of(a, copy, lower, resampled, retagged, b, c);
+        System.out.printf("library: %d tracks of %d s in %s (a.mp3 %d bytes, b.mp3 %d bytes)%n",
+            tracks.size(), seconds, directory, Files.size(a), Files.size(b));
+
+        AcousticFingerprint fingerprinter = new AcousticFingerprint();
+        int[] original = fingerprint(fingerprinter, a);
+        System.out.printf("fingerprint of a.mp3: %d frames%n", original.length);
+        for (Path track : tracks.subList(1, tracks.size())) {
+            int[] other = fingerprint(fingerprinter, track);
+            System.out.printf("  similarity to %-15s %.3f (summary distance %d)%n", track.getFileName() + ":",
+                AcousticFingerprint.similarity(original, other),
+                AcousticFingerprint.summaryDistance(AcousticFingerprint.summary(original), AcousticFingerprint.summary(other)));
+        }
+
+        boolean ok = true;
+        Path indexFile = directory.resolve("duplicates.idx");
+        long bytes = 0;
+        for (Path track : tracks) {
+            bytes += Files.size(track);
+        }
+
+        IoThrottle throttled = new IoThrottle(THROTTLED_BYTES_PER_SECOND, 0);
+        throttled.setPlaying(true);
+        long start = System.nanoTime();
+        List<DuplicateGroup> groups = run(new DuplicateFinder(indexFile, throttled), tracks, seconds);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("first run (throttled to %d MiB/s while playing): %.2f s, waited %d ms for the disk%n",
+            THROTTLED_BYTES_PER_SECOND >> 20, elapsed, throttled.getThrottledMillis());
+        ok &= check(groups, Set.of(a, copy), Set.of(a, copy, lower, resampled, retagged));
+        if (throttled.getThrottledMillis() == 0) {
+            System.out.println("  throttle never held the job back");
+            ok = false;
+        }
+
+        IoThrottle unthrottled = new IoThrottle(0, 0);
+        start = System.nanoTime();
+        groups = run(new DuplicateFinder(indexFile, unthrottled), tracks, seconds);
+        elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("second run (resumed from the index, %d bytes in the library): %.3f s%n", bytes, elapsed);
+        ok &= check(groups, Set.of(a, copy), Set.of(a, copy, lower, resampled, retagged));
+        if (elapsed > 1) {
+            System.out.println("  second run took longer than 1 s, it has read the tracks again");
+            ok = false;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static int[] fingerprint(AcousticFingerprint fingerprinter, Path track) throws IOException {
+        try (PcmSource source = FormatRegistry.SHARED.detect(track).openPcm(track)) {
+            return fingerprinter.compute(source);
+        }
+    }
+
+    private static List<DuplicateGroup> run(DuplicateFinder finder, List<Path> tracks, int seconds) throws InterruptedException, ExecutionException {
+        CompletableFuture<List<DuplicateGroup>> result = new CompletableFuture<>();
+        finder.start(tracks, (track) -> seconds * 1000, new DuplicateFinder.Listener() {
+            @Override
+            public void onProgress(DuplicateFinder.Stage stage, int done, int total) { }
+
+            @Override
+            public void onFinished(List<DuplicateGroup> groups, boolean cancelled) {
+                result.complete(groups);
+            }
+        });
+        return result.get();
+    }
+
+    private static boolean check(List<DuplicateGroup> groups, Set<Path> identical, Set<Path> sameRecording) {
+        List<Set<Path>> found = new ArrayList<>();
+        boolean ok = true;
+        for (DuplicateGroup group : groups) {
+            System.out.printf("  %s: %s%n", group.getKind(),
+                group.getTracks().stream().map((track) -> track.getFileName().toString()).collect(Collectors.joining(", ")));
+            found.add(Set.copyOf(group.getTracks()));
+        }
+        if (groups.size() != 2 || groups.get(0).getKind() != DuplicateGroup.Kind.IDENTICAL || !found.get(0).equals(identical)) {
+            System.out.println("  expected one IDENTICAL group of " + identical.size() + " tracks first");
+            ok = false;
+        }
+        if (groups.size() != 2 || groups.get(1).getKind() != DuplicateGroup.Kind.SAME_RECORDING || !found.get(1).equals(sameRecording)) {
+            System.out.println("  expected one SAME_RECORDING group of " + sameRecording.size() + " tracks");
+            ok = false;
+        }
+        return ok;
+    }
+}
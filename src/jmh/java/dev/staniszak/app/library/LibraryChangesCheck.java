@@ -0,0 +1,121 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import dev.staniszak.app.playlist.PlayQueue;
+import dev.staniszak.app.search.LibrarySearchIndex;
+
+/*
+ * Runs the steps of MediaPlayerController.applyLibraryChanges() / applyListings() without the UI on a small library
+ * on disk, for changes that reach more than one level:
+ *   - a whole Artist/Album/CD1 tree is deleted while its tracks are queued (and one of them is playing),
+ *   - a new Artist/Album/CD1 tree appears,
+ * and checks that the play queue, the Track Table store and the search index drop / pick up the nested tracks,
+ * and that the queue goes on with the track that followed the deleted ones.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.library.LibraryChangesCheck
+ */
+
+public class LibraryChangesCheck {
+
+    private static final byte[] FRAME = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0 }; // <- enough for the format detection
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws IOException {
+        Path root = Files.createTempDirectory("library-changes");
+        try {
+            Path gone = root.resolve("Artist");
+            Path kept = root.resolve("Other");
+            List<Path> goneTracks = List.of(
+                track(gone.resolve("Album").resolve("CD1").resolve("a.mp3")),
+                track(gone.resolve("Album").resolve("CD1").resolve("b.mp3")),
+                track(gone.resolve("Album").resolve("c.mp3")));
+            List<Path> keptTracks = List.of(track(kept.resolve("d.mp3")), track(kept.resolve("e.mp3")));
+
+            LibraryIndex index = LibraryIndex.load(root.resolve("library.idx"));
+            PlayQueue queue = new PlayQueue();
+            TrackStore store = new TrackStore();
+            LibrarySearchIndex search = new LibrarySearchIndex();
+            apply(index, root, queue, store, search);
+            check("all tracks listed", queue.size() == 5 && store.size() == 5 && search.size() == 5);
+
+            // Playing the last track of the Artist tree, the kept tracks follow it in the queue.
+            List<Path> order = new ArrayList<>(goneTracks);
+            order.addAll(keptTracks);
+            queue.setTracks(order);
+            queue.jumpTo(goneTracks.get(2));
+
+            delete(gone);
+            index.invalidate(root); // <- what LibraryWatcher reports: only the root saw the Artist folder go
+            apply(index, root, queue, store, search);
+            check("queue dropped the nested tracks", queue.getTracks().equals(keptTracks));
+            check("store dropped the nested tracks", store.size() == 2 && goneTracks.stream().allMatch((t) -> store.find(t) < 0));
+            check("search dropped the nested tracks", search.size() == 2 && search.search("cd1", 10).isEmpty());
+            check("queue goes on after the deleted track", keptTracks.get(0).equals(queue.next()));
+
+            Path added = root.resolve("New");
+            List<Path> addedTracks = List.of(
+                track(added.resolve("Album").resolve("CD1").resolve("f.mp3")),
+                track(added.resolve("Album").resolve("g.mp3")));
+            index.invalidate(root);
+            apply(index, root, queue, store, search);
+            check("queue picked up the nested tracks", queue.getTracks().containsAll(addedTracks) && queue.size() == 4);
+            check("store picked up the nested tracks", store.size() == 4 && addedTracks.stream().allMatch((t) -> store.find(t) >= 0));
+            check("search picked up the nested tracks", search.search("cd1", 10).equals(List.of(addedTracks.get(0))));
+        } finally {
+            delete(root);
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /* The changed directory is listed as a subtree and stands for everything below it, as in the controller. */
+    private static void apply(LibraryIndex index, Path directory, PlayQueue queue, TrackStore store, LibrarySearchIndex search) {
+        Set<Path> present = new HashSet<>();
+        List<Path> added = new ArrayList<>();
+        for (LibraryEntry entry : index.listTracks(directory)) {
+            present.add(entry.getPath());
+            search.add(entry.getPath(), null);
+            if (store.find(entry.getPath()) < 0) {
+                added.add(entry.getPath());
+            }
+            store.add(entry.getPath(), entry.getLastModified(), LibraryIndex.UNKNOWN_DURATION);
+        }
+        search.retain(directory, present);
+        store.retain(directory, present);
+        queue.retain(directory, present);
+        queue.addAll(added);
+    }
+
+    private static Path track(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        byte[] bytes = new byte[FRAME.length * 64];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = FRAME[i % FRAME.length];
+        }
+        Files.write(path, bytes);
+        return path;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void check(String what, boolean passed) {
+        System.out.println((passed ? "OK: " : "FAILED: ") + what);
+        ok &= passed;
+    }
+}
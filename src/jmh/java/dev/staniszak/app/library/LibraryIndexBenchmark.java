@@ -0,0 +1,89 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Startup cost of the library: full scan without an index (first run, or a lost index)
+ * against a run that starts from the saved LibraryIndex.
+ * Library is a synthetic tree of .mp3 files (see SyntheticLibrary), 100 tracks per folder, 10 folders per parent.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LibraryIndexBenchmark {
+
+    @Param({ "10000", "200000" })
+    public int tracks;
+
+    private Path workDir;
+    private Path library;
+    private Path indexFile;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws Exception {
+        workDir = Files.createTempDirectory("library-bench");
+        library = workDir.resolve("library");
+        indexFile = workDir.resolve("library.idx");
+        SyntheticLibrary.create(library, tracks, 100, 10);
+
+        LibraryIndex index = LibraryIndex.load(indexFile);
+        index.startScan(library);
+        scan(index);
+        index.finishScan();
+        index.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLibrary() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int coldScan() throws Exception {
+        return scan(DirectoryLister.FILE_SYSTEM);
+    }
+
+    @Benchmark
+    public int warmStartup() throws Exception {
+        LibraryIndex index = LibraryIndex.load(indexFile);
+        index.startScan(library);
+        return scan(index);
+    }
+
+    private int scan(DirectoryLister lister) throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        new LibraryScanner(lister).scan(library, new LibraryScanner.Listener() {
+            @Override
+            public void onTrack(LibraryEntry track, Path parent) {
+                count.incrementAndGet();
+            }
+        }).getDone().get();
+        return count.get();
+    }
+}
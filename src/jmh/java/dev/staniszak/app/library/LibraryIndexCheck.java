@@ -0,0 +1,157 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * Save / load round trip of LibraryIndex on a small library on disk (Artist/Album/CD1 and a few tracks):
+ *   - a saved index answers every listing of an unchanged library from memory (no directory is read) with the same
+ *     entries, and keeps the durations,
+ *   - a track rewritten in place (directory mtime unchanged) is reported with its new size and loses its duration,
+ *     which survives another save and load,
+ *   - a directory that got a new track is read again, a removed directory is dropped by finishScan(),
+ *   - an index of another library root is thrown away by startScan(),
+ *   - a truncated file and a file of another format load as an empty index.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.library.LibraryIndexCheck
+ */
+
+public class LibraryIndexCheck {
+
+    private static final byte[] FRAME = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0 }; // <- enough for the format detection
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("library-index");
+        try {
+            run(directory);
+        } finally {
+            delete(directory);
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void run(Path directory) throws IOException {
+        Path root = directory.resolve("library");
+        Path album = root.resolve("Artist").resolve("Album");
+        Path a = track(album.resolve("CD1").resolve("a.mp3"), 64);
+        Path b = track(album.resolve("CD1").resolve("b.mp3"), 64);
+        Path c = track(album.resolve("c.mp3"), 64);
+        track(root.resolve("Other").resolve("d.mp3"), 64);
+        Path file = directory.resolve("data").resolve("library.idx");
+
+        LibraryIndex index = scan(LibraryIndex.load(file), root);
+        List<String> listed = describe(index.listTracks(root));
+        index.setDuration(a, 180_000);
+        index.setDuration(c, 240_000);
+        index.save();
+
+        LibraryIndex loaded = LibraryIndex.load(file);
+        loaded.startScan(root);
+        List<String> again = describe(loaded.listTracks(root));
+        check("unchanged library is answered from the file (" + loaded.getHits() + " hits, " + loaded.getMisses() + " misses)",
+            loaded.getMisses() == 0 && loaded.getHits() == 5);
+        check("same tracks, sizes and modification times", again.equals(listed) && listed.size() == 4);
+        check("durations are kept", loaded.getDuration(a) == 180_000 && loaded.getDuration(c) == 240_000
+            && loaded.getDuration(b) == LibraryIndex.UNKNOWN_DURATION);
+
+        // Rewritten in place: a tag editor saves a bigger file, the directory does not notice.
+        long directoryTime = Files.getLastModifiedTime(album).toMillis();
+        track(c, 128);
+        Files.setLastModifiedTime(c, FileTime.fromMillis(Files.getLastModifiedTime(c).toMillis() + 10_000));
+        Files.setLastModifiedTime(album, FileTime.fromMillis(directoryTime));
+        loaded = scan(LibraryIndex.load(file), root);
+        loaded.save();
+        loaded = scan(LibraryIndex.load(file), root);
+        LibraryEntry rewritten = find(loaded.list(album), c);
+        check("track rewritten in place has its new size after save and load", rewritten != null && rewritten.getSize() == 128 * 4);
+        check("and no duration, the other one keeps it", loaded.getDuration(c) == LibraryIndex.UNKNOWN_DURATION
+            && loaded.getDuration(a) == 180_000);
+
+        // New track in Other, CD1 removed. Directory times are moved on, so this does not depend on their resolution.
+        Path e = track(root.resolve("Other").resolve("e.mp3"), 64);
+        delete(album.resolve("CD1"));
+        bump(root.resolve("Other"));
+        bump(album);
+        loaded = scan(LibraryIndex.load(file), root);
+        loaded.save();
+        loaded = LibraryIndex.load(file);
+        loaded.startScan(root);
+        List<String> changed = describe(loaded.listTracks(root));
+        check("new track and removed directory survive save and load", loaded.getMisses() == 0
+            && changed.equals(describe(DirectoryLister.FILE_SYSTEM.listTracks(root)))
+            && changed.size() == 3 && find(loaded.list(root.resolve("Other")), e) != null);
+
+        loaded.startScan(directory.resolve("other-library"));
+        loaded.startScan(root);
+        loaded.listTracks(root);
+        check("index of another library is thrown away", loaded.getHits() == 0 && loaded.getMisses() == 4);
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        loaded = LibraryIndex.load(file);
+        loaded.startScan(root);
+        check("truncated file loads as an empty index", loaded.listTracks(root).size() == 3 && loaded.getHits() == 0);
+        Files.write(file, "not an index at all".getBytes());
+        loaded = LibraryIndex.load(file);
+        loaded.startScan(root);
+        check("file of another format loads as an empty index", loaded.listTracks(root).size() == 3 && loaded.getHits() == 0);
+    }
+
+    /* A full scan, as LibraryScanner does it. */
+    private static LibraryIndex scan(LibraryIndex index, Path root) {
+        index.startScan(root);
+        index.listTracks(root);
+        index.finishScan();
+        return index;
+    }
+
+    private static List<String> describe(List<LibraryEntry> entries) {
+        List<String> described = new ArrayList<>();
+        for (LibraryEntry entry : entries) {
+            described.add(entry.getPath() + " " + entry.getSize() + " " + entry.getLastModified());
+        }
+        described.sort(Comparator.naturalOrder());
+        return described;
+    }
+
+    private static LibraryEntry find(List<LibraryEntry> entries, Path track) {
+        return entries.stream().filter((entry) -> entry.getPath().equals(track)).findFirst().orElse(null);
+    }
+
+    private static Path track(Path path, int frames) throws IOException {
+        Files.createDirectories(path.getParent());
+        byte[] bytes = new byte[FRAME.length * frames];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = FRAME[i % FRAME.length];
+        }
+        Files.write(path, bytes);
+        return path;
+    }
+
+    private static void bump(Path directory) throws IOException {
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(Files.getLastModifiedTime(directory).toMillis() + 10_000));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void check(String what, boolean passed) {
+        System.out.println((passed ? "OK: " : "FAILED: ") + what);
+        ok &= passed;
+    }
+}
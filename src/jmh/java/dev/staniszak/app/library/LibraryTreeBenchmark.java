@@ -0,0 +1,105 @@
+package dev.staniszak.app.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.control.TreeItem;
+
+/*
+ * Cost of showing a library in File View:
+ *   - legacyGetNodesForDirectory: the old Utils.getNodesForDirectory(), the whole tree of TreeItems built on the FX thread.
+ *   - lazyTreeFirstLevel: what the FX thread does now, LazyTreeItem root and its first level.
+ *   - scan: the background walk of LibraryScanner over the file system (no Library Index), which replaced the eager build.
+ * Library is a synthetic tree of .mp3 files (see SyntheticLibrary), 100 tracks per folder, 10 folders per parent.
+ * The million track case needs a few GB of inodes and minutes of setup, run it on its own: -p tracks=1000000
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LibraryTreeBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int tracks;
+
+    private Path workDir;
+    private Path library;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws IOException {
+        workDir = Files.createTempDirectory("tree-bench");
+        library = workDir.resolve("library");
+        SyntheticLibrary.create(library, tracks, 100, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLibrary() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TreeItem<String> legacyGetNodesForDirectory() {
+        return getNodesForDirectory(library.toFile(), true);
+    }
+
+    @Benchmark
+    public int lazyTreeFirstLevel() {
+        LazyTreeItem root = LazyTreeItem.root(library, DirectoryLister.FILE_SYSTEM, new TreeItemIndex());
+        return root.getChildren().size();
+    }
+
+    @Benchmark
+    public int scan() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        new LibraryScanner(DirectoryLister.FILE_SYSTEM).scan(library, new LibraryScanner.Listener() {
+            @Override
+            public void onTrack(LibraryEntry track, Path parent) {
+                count.incrementAndGet();
+            }
+        }).getDone().get();
+        return count.get();
+    }
+
+    /* Copy of Utils.getNodesForDirectory() before the lazy File View, without its "Loading ..." line per file. */
+    private static TreeItem<String> getNodesForDirectory(File directory, boolean isParent) {
+        TreeItem<String> root = new TreeItem<String>(directory.getName());
+        if (isParent) {
+            root.setValue(directory.getName() + " \u2605");
+        }
+        for (File f : directory.listFiles()) {
+            if (f.isDirectory() && f.listFiles().length > 0) {
+                root.getChildren().add(getNodesForDirectory(f, false));
+            } else {
+                if (f.getName().endsWith(".mp3")) {
+                    root.getChildren().add(new TreeItem<String>(f.getName()));
+                }
+            }
+        }
+        return root;
+    }
+}
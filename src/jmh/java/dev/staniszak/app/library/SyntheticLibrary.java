@@ -0,0 +1,42 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Builds a fake library of .mp3 files for benchmarks.
+ * A file holds only an MPEG frame header, just enough for FormatRegistry to take it for a track.
+ */
+
+public class SyntheticLibrary {
+
+    /* MPEG 1 layer III, 128 kbps, 44.1 kHz. */
+    static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x64 };
+
+    /*
+     Creates `tracks` files, `perFolder` in each folder, folders are nested so that every folder has at most `fanOut` sub folders.
+     Returns the number of created folders.
+     */
+    public static int create(Path root, int tracks, int perFolder, int fanOut) throws IOException {
+        Files.createDirectories(root);
+        int folders = (tracks + perFolder - 1) / perFolder;
+        for (int folder = 0; folder < folders; folder++) {
+            Path directory = folderPath(root, folder, fanOut);
+            Files.createDirectories(directory);
+            for (int track = 0; track < perFolder && folder * perFolder + track < tracks; track++) {
+                Files.write(directory.resolve(String.format("%03d - Track %d.mp3", track, folder * perFolder + track)), FRAME_HEADER);
+            }
+        }
+        return folders;
+    }
+
+    /* Folder number written in base fanOut gives its position in the tree, e.g. 123 -> a1/a2/a3. */
+    private static Path folderPath(Path root, int folder, int fanOut) {
+        Path path = root;
+        for (char digit : Integer.toString(folder, fanOut).toCharArray()) {
+            path = path.resolve("Album " + digit);
+        }
+        return path;
+    }
+}
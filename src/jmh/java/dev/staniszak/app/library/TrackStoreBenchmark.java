@@ -0,0 +1,165 @@
+package dev.staniszak.app.library;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Sorting the Track Table (TrackStore) by each of its columns, has to stay under 100 ms at 500k tracks.
+ * legacySortObjects is the usual way for comparison: an object per track sorted by folder and name with a Comparator
+ * over its strings (shuffled before every call, outside of the measured time).
+ * Ranks of the strings are computed by the first sort after tracks were added (ranks), later sorts reuse them.
+ * Memory per track is reported by TrackStoreCheck.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class TrackStoreBenchmark {
+
+    @Param({ "500000" })
+    public int tracks;
+
+    private TrackStore store;
+    private List<Track> objects;
+    private StringPool pool;
+
+    /* One track of legacySortObjects. */
+    static class Track {
+        final Path path;
+        final String name;
+        final long lastModified;
+        final int duration;
+
+        Track(Path path, long lastModified, int duration) {
+            this.path = path;
+            this.name = path.getFileName().toString();
+            this.lastModified = lastModified;
+            this.duration = duration;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createStore() {
+        store = new TrackStore();
+        objects = new ArrayList<>(tracks);
+        fill(tracks, 7, (path, modified, duration) -> {
+            store.add(path, modified, duration);
+            objects.add(new Track(path, modified, duration));
+        });
+        store.sort(TrackStore.Column.NAME, true); // <- computes the ranks
+        pool = new StringPool();
+        for (Track track : objects) {
+            pool.intern(track.name);
+            pool.intern(track.path.getParent().toString());
+        }
+    }
+
+    interface Sink {
+        void accept(Path track, long lastModified, int durationMillis);
+    }
+
+    /*
+     Synthetic library: Artist/Album/NN - Title.mp3, 12 tracks per album, titles of two random words (mostly unique names),
+     modification times over 10 years, durations of 1 to 10 minutes (every 20th track not parsed yet).
+     */
+    static void fill(int tracks, long seed, Sink sink) {
+        Random random = new Random(seed);
+        String[] words = new String[5000];
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            word.setLength(0);
+            int length = 3 + random.nextInt(7);
+            word.append((char) ('A' + random.nextInt(26)));
+            for (int j = 1; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        Path root = Path.of("/music");
+        long now = 1_700_000_000_000L;
+        for (int i = 0; i < tracks; i++) {
+            int album = i / 12;
+            Path folder = root.resolve(words[album / 8 % words.length] + " " + (album / 8)).resolve("Album " + album);
+            String name = String.format("%02d - %s %s.mp3", i % 12 + 1, words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+            long modified = now - (long) (random.nextDouble() * 10 * 365 * 24 * 3600 * 1000L);
+            int duration = i % 20 == 0 ? LibraryIndex.UNKNOWN_DURATION : 60_000 + random.nextInt(540_000);
+            sink.accept(folder.resolve(name), modified, duration);
+        }
+    }
+
+    @Benchmark
+    public int sortByName() {
+        store.sort(TrackStore.Column.NAME, true);
+        return store.rowAt(0);
+    }
+
+    @Benchmark
+    public int sortByFolder() {
+        store.sort(TrackStore.Column.FOLDER, true);
+        return store.rowAt(0);
+    }
+
+    @Benchmark
+    public int sortByDuration() {
+        store.sort(TrackStore.Column.DURATION, false);
+        return store.rowAt(0);
+    }
+
+    @Benchmark
+    public int sortByDate() {
+        store.sort(TrackStore.Column.DATE, false);
+        return store.rowAt(0);
+    }
+
+    /* What the first sort after a scan pays on top: alphabetical ranks of all names and folders. */
+    @Benchmark
+    public int ranks() {
+        StringPool fresh = new StringPool();
+        for (int i = 0; i < pool.size(); i++) {
+            fresh.intern(pool.get(i));
+        }
+        return fresh.ranks().length;
+    }
+
+    /* Interning alone, to subtract from ranks. */
+    @Benchmark
+    public int intern() {
+        StringPool fresh = new StringPool();
+        for (int i = 0; i < pool.size(); i++) {
+            fresh.intern(pool.get(i));
+        }
+        return fresh.size();
+    }
+
+    @Setup(Level.Invocation)
+    public void shuffle() {
+        Collections.shuffle(objects, new Random(11)); // <- legacySortObjects would sort sorted tracks otherwise
+    }
+
+    @Benchmark
+    public Track legacySortObjects() {
+        objects.sort(Comparator.comparing((Track track) -> track.path.getParent().toString()).thenComparing((track) -> track.name));
+        return objects.get(0);
+    }
+}
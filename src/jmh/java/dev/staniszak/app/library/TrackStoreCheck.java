@@ -0,0 +1,111 @@
+package dev.staniszak.app.library;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.scene.control.TreeItem;
+
+/*
+ * Builds a TrackStore of 500k tracks (the synthetic library of TrackStoreBenchmark) and checks that
+ *   - sorting by every column (both directions) takes less than MAX_SORT_MILLIS, the first sort after the tracks were
+ *     added (which computes the ranks of the strings) is reported on its own,
+ *   - memory per track stays below MAX_BYTES_PER_TRACK.
+ * Memory is measured as used heap after a full GC, before and after the store is built (the paths that were added
+ * are not kept), and compared with the estimate of the store and with a TreeItem<String> per track, what File View
+ * holds for a fully expanded library.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.library.TrackStoreCheck -Djmh.args="500000"
+ */
+
+public class TrackStoreCheck {
+
+    private static final long MAX_SORT_MILLIS = 100;
+    private static final long MAX_BYTES_PER_TRACK = 200;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        boolean ok = true;
+
+        long before = usedHeap();
+        TrackStore store = new TrackStore();
+        TrackStoreBenchmark.fill(tracks, 7, store::add);
+        store.sort(TrackStore.Column.NAME, true); // <- ranks are part of what the store keeps
+        long measured = (usedHeap() - before) / tracks;
+        System.out.printf("TrackStore: %d tracks, %d bytes per track measured, %d estimated%n",
+            store.size(), measured, store.estimateBytesPerTrack());
+        if (measured > MAX_BYTES_PER_TRACK) {
+            System.out.printf("  more than %d bytes per track%n", MAX_BYTES_PER_TRACK);
+            ok = false;
+        }
+
+        before = usedHeap();
+        List<TreeItem<String>> items = new ArrayList<>(tracks);
+        TrackStoreBenchmark.fill(tracks, 7, (path, modified, duration) -> items.add(new TreeItem<>(path.getFileName().toString())));
+        System.out.printf("TreeItem<String> per track: %d bytes per track (the item and its name only)%n", (usedHeap() - before) / tracks);
+        items.clear();
+
+        // First sort of a freshly filled store: ranks of all strings + the sort.
+        TrackStore fresh = new TrackStore();
+        TrackStoreBenchmark.fill(tracks, 7, fresh::add);
+        long start = System.nanoTime();
+        fresh.sort(TrackStore.Column.NAME, true);
+        System.out.printf("first sort (ranks + sort): %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        fresh = null;
+
+        for (TrackStore.Column column : TrackStore.Column.values()) {
+            for (boolean ascending : new boolean[] { true, false }) {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    start = System.nanoTime();
+                    store.sort(column, ascending);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                boolean fast = best <= MAX_SORT_MILLIS * 1_000_000;
+                ok &= fast && inOrder(store, column, ascending);
+                System.out.printf("sort by %-8s %-4s: %6.1f ms%s%n", column, ascending ? "asc" : "desc", best / 1e6,
+                    fast ? "" : "  (more than " + MAX_SORT_MILLIS + " ms)");
+            }
+        }
+
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /* Rows really are in the order of the column. */
+    private static boolean inOrder(TrackStore store, TrackStore.Column column, boolean ascending) {
+        for (int i = 1; i < store.size(); i++) {
+            int a = store.rowAt(i - 1);
+            int b = store.rowAt(i);
+            int compared;
+            switch (column) {
+                case FOLDER:
+                    compared = store.getFolder(a).compareTo(store.getFolder(b));
+                    break;
+                case DURATION:
+                    compared = Integer.compare(store.getDuration(a), store.getDuration(b));
+                    break;
+                case DATE:
+                    compared = Long.compare(store.getLastModified(a) / 1000, store.getLastModified(b) / 1000);
+                    break;
+                default:
+                    compared = store.getName(a).compareTo(store.getName(b));
+            }
+            if (ascending ? compared > 0 : compared < 0) {
+                Path first = store.getPath(a);
+                System.out.printf("  not sorted by %s at %d: %s, %s%n", column, i, first, store.getPath(b));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
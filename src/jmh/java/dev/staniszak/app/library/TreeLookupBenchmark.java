@@ -0,0 +1,137 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.control.TreeItem;
+
+/*
+ * Lookups between File View and the disk, for a track at the bottom of a library `depth` folders deep
+ * (every folder holds TRACKS_PER_FOLDER tracks and the next folder):
+ *   - path of the selected track: old Utils.findStarNode() against TreeItemIndex.pathOf()
+ *   - item of the last played track: old Utils.findTreeItemByValue() (depth first search of the whole tree) 
+ *     against TreeItemIndex.resolve() (hash lookup, directories on the way are already read).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeLookupBenchmark {
+
+    private static final int TRACKS_PER_FOLDER = 50;
+
+    @Param({ "2", "8", "32" })
+    public int depth;
+
+    private Path workDir;
+    private Path deepestTrack;
+    private String deepestName;
+
+    private TreeItem<String> legacyRoot;
+    private TreeItem<String> legacySelected;
+
+    private TreeItemIndex index;
+    private TreeItem<String> selected;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws IOException {
+        workDir = Files.createTempDirectory("lookup-bench");
+        Path library = workDir.resolve("library");
+        legacyRoot = new TreeItem<>(library.getFileName() + " \u2605");
+
+        Path directory = library;
+        TreeItem<String> legacyDirectory = legacyRoot;
+        for (int level = 0; level <= depth; level++) {
+            Files.createDirectories(directory);
+            for (int track = 0; track < TRACKS_PER_FOLDER; track++) {
+                String name = String.format("%02d - Track %d-%d.mp3", track, level, track);
+                Files.write(directory.resolve(name), SyntheticLibrary.FRAME_HEADER);
+                legacyDirectory.getChildren().add(new TreeItem<>(name));
+                deepestTrack = directory.resolve(name);
+                deepestName = name;
+                legacySelected = legacyDirectory.getChildren().get(track);
+            }
+            if (level < depth) {
+                directory = directory.resolve("Folder " + level);
+                TreeItem<String> child = new TreeItem<>(directory.getFileName().toString());
+                legacyDirectory.getChildren().add(child);
+                legacyDirectory = child;
+            }
+        }
+
+        index = new TreeItemIndex();
+        LazyTreeItem.root(library, DirectoryLister.FILE_SYSTEM, index);
+        selected = index.resolve(deepestTrack);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLibrary() throws IOException {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String legacyFindStarNode() {
+        return findStarNode(legacySelected.getParent(), legacySelected.getValue());
+    }
+
+    @Benchmark
+    public Path pathOf() {
+        return index.pathOf(selected);
+    }
+
+    @Benchmark
+    public TreeItem<String> legacyFindTreeItemByValue() {
+        return findTreeItemByValue(legacyRoot, deepestName);
+    }
+
+    @Benchmark
+    public TreeItem<String> resolve() {
+        return index.resolve(deepestTrack);
+    }
+
+    /* Copy of Utils.findStarNode() before TreeItemIndex. */
+    private static String findStarNode(TreeItem<String> parent, String toReturn) {
+        if (parent.getValue().contains(" \u2605")) {
+            return "\\" + toReturn; 
+        } else {
+            return findStarNode(parent.getParent(), parent.getValue() + "\\" + toReturn);
+        }
+    }
+
+    /* Copy of Utils.findTreeItemByValue() before TreeItemIndex. */
+    private static TreeItem<String> findTreeItemByValue(TreeItem<String> root, String value) {
+        if (root.getValue().equals(value)) {
+            return root;
+        }
+        for (TreeItem<String> child : root.getChildren()) {
+            TreeItem<String> result = findTreeItemByValue(child, value);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+}
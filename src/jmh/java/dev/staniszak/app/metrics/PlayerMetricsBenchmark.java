@@ -0,0 +1,53 @@
+package dev.staniszak.app.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Price of the instrumentation that is always on: one histogram sample (every view update and spectrum frame),
+ * the pulse check and a spectrum update count, and a read of the whole MXBean for comparison.
+ * Run with -prof gc, recording must not allocate.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerMetricsBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long now = 0;
+
+    @Benchmark
+    public LatencyHistogram recordSample() {
+        now += 1_337;
+        histogram.record(now & 0xFFFFFF);
+        return histogram;
+    }
+
+    /* What the FX thread adds to one frame of a playing track with the visualizer on. */
+    @Benchmark
+    public void frame() {
+        now += 16_666_667;
+        PlayerMetrics.pulse(now);
+        PlayerMetrics.viewUpdated(120_000);
+        PlayerMetrics.spectrumUpdated(false);
+        PlayerMetrics.spectrumRendered(800_000);
+    }
+
+    @Benchmark
+    public double readPercentile() {
+        return histogram.getPercentileMillis(99);
+    }
+}
@@ -0,0 +1,170 @@
+package dev.staniszak.app.playlist;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Behaviour checks of PlayQueue and M3uPlaylist for the cases that are easy to get wrong and hard to notice while listening:
+ *   - the playing track is removed (LibraryWatcher saw its folder change) while shuffle is on: the queue goes on
+ *     with the track that would have followed it, the other tracks keep their order,
+ *   - the same path is queued twice: both are played, jumpTo() finds the first one, removal drops both,
+ *   - an empty queue (and one that became empty): navigation answers null, modes can be switched,
+ *   - M3U files with a UTF-8 byte order mark, CRLF line ends, in Latin-1, and with Windows paths.
+ * No files other than the playlists in a temporary directory, no audio.
+ * Playlist entries with non-ASCII names need file names in UTF-8 (sun.jnu.encoding, from the locale), they are skipped otherwise.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.playlist.PlayQueueCheck
+ */
+
+public class PlayQueueCheck {
+
+    private static final Path ALBUM = Path.of("/music/Artist/Album");
+    private static final Path OTHER = Path.of("/music/Other");
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws IOException {
+        removeCurrentWhileShuffled();
+        duplicatePath();
+        emptyQueue();
+        playlists();
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void removeCurrentWhileShuffled() {
+        System.out.println("current track removed while shuffled:");
+        List<Path> tracks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tracks.add(ALBUM.resolve(i + ".mp3"));
+            tracks.add(OTHER.resolve(i + ".mp3"));
+        }
+        PlayQueue queue = new PlayQueue(new Random(7));
+        queue.setTracks(tracks);
+        queue.setShuffle(true);
+        List<Path> order = new ArrayList<>();
+        for (Path track = queue.next(); track != null; track = queue.next()) {
+            order.add(track);
+        }
+
+        // Same seed, same order. Play up to an Album track a few steps in, then the Album folder loses everything but 0.mp3.
+        queue = new PlayQueue(new Random(7));
+        queue.setTracks(tracks);
+        queue.setShuffle(true);
+        int playing = 2;
+        while (!order.get(playing).startsWith(ALBUM) || order.get(playing).endsWith("0.mp3")) {
+            playing++;
+        }
+        for (int i = 0; i <= playing; i++) {
+            queue.next();
+        }
+        check("queue is at the track to remove", order.get(playing).equals(queue.current()));
+        queue.retain(ALBUM, Set.of(ALBUM.resolve("0.mp3")));
+
+        List<Path> expected = new ArrayList<>();
+        for (Path track : order.subList(playing + 1, order.size())) {
+            if (!track.startsWith(ALBUM) || track.endsWith("0.mp3")) {
+                expected.add(track);
+            }
+        }
+        List<Path> rest = new ArrayList<>();
+        for (Path track = queue.next(); track != null; track = queue.next()) {
+            rest.add(track);
+        }
+        check("removed tracks are gone", queue.size() == 7 && !queue.contains(ALBUM.resolve("1.mp3")));
+        check("goes on with the track that followed, in the same order", rest.equals(expected));
+        queue.setShuffle(false);
+        check("shuffle off keeps the original order", queue.getTracks().equals(List.of(
+            ALBUM.resolve("0.mp3"), OTHER.resolve("0.mp3"), OTHER.resolve("1.mp3"), OTHER.resolve("2.mp3"),
+            OTHER.resolve("3.mp3"), OTHER.resolve("4.mp3"), OTHER.resolve("5.mp3"))));
+    }
+
+    private static void duplicatePath() {
+        System.out.println("duplicate path:");
+        Path a = ALBUM.resolve("a.mp3");
+        Path b = ALBUM.resolve("b.mp3");
+        PlayQueue queue = new PlayQueue();
+        queue.setTracks(List.of(a, b, a));
+        check("both copies are played", a.equals(queue.next()) && b.equals(queue.next()) && a.equals(queue.next())
+            && queue.next() == null);
+        check("jumpTo finds the first one", queue.jumpTo(a) && b.equals(queue.peekNext()));
+        queue.retain(ALBUM, Set.of(b));
+        check("removal drops both", queue.getTracks().equals(List.of(b)) && !queue.contains(a));
+        check("the one left plays next", b.equals(queue.next()));
+    }
+
+    private static void emptyQueue() {
+        System.out.println("empty queue:");
+        PlayQueue queue = new PlayQueue();
+        check("navigation answers null", queue.current() == null && queue.peekNext() == null && queue.next() == null
+            && queue.previous() == null && !queue.jumpTo(ALBUM.resolve("a.mp3")));
+        queue.setShuffle(true);
+        queue.setRepeatAll(true);
+        check("with shuffle and repeat all as well", queue.next() == null && queue.previous() == null);
+        queue.retain(ALBUM, Set.of());
+
+        queue.add(ALBUM.resolve("a.mp3"));
+        queue.next();
+        queue.retain(ALBUM, new HashSet<>());
+        check("queue that became empty answers null", queue.size() == 0 && queue.current() == null
+            && queue.next() == null && queue.previous() == null);
+        queue.add(OTHER.resolve("b.mp3"));
+        check("and plays what is added afterwards", OTHER.resolve("b.mp3").equals(queue.next()));
+    }
+
+    private static void playlists() throws IOException {
+        System.out.println("M3U files:");
+        Path directory = Files.createTempDirectory("playlists");
+        try {
+            Path bom = directory.resolve("bom.m3u8");
+            Files.write(bom, "\uFEFF#EXTM3U\r\n#EXTINF:200,Artist - Title\r\nAlbum/01 Track.mp3\r\n\r\n/music/b.mp3\r\n"
+                .getBytes(StandardCharsets.UTF_8));
+            check("byte order mark and CRLF", M3uPlaylist.read(bom).equals(List.of(
+                directory.resolve("Album/01 Track.mp3"), Path.of("/music/b.mp3"))));
+
+            Path bomFirstEntry = directory.resolve("bom-entry.m3u");
+            Files.write(bomFirstEntry, "\uFEFF  /music/a.mp3\n".getBytes(StandardCharsets.UTF_8));
+            check("byte order mark before a padded entry", M3uPlaylist.read(bomFirstEntry).equals(List.of(Path.of("/music/a.mp3"))));
+
+            Path windows = directory.resolve("windows.m3u");
+            Files.write(windows, "Album\\02 Track.mp3\nhttp://radio.example/stream\n".getBytes(StandardCharsets.US_ASCII));
+            check("Windows path, stream skipped", M3uPlaylist.read(windows).equals(List.of(directory.resolve("Album/02 Track.mp3"))));
+
+            if (!"UTF-8".equals(System.getProperty("sun.jnu.encoding"))) {
+                System.out.println("  skipped: non-ASCII names, file names are not UTF-8 here (run with eg. LC_ALL=C.UTF-8)");
+                return;
+            }
+            Path utf8 = directory.resolve("utf8.m3u");
+            Files.write(utf8, "\uFEFF/music/Zażółć/01.mp3\n".getBytes(StandardCharsets.UTF_8));
+            check("UTF-8 with a byte order mark", M3uPlaylist.read(utf8).equals(List.of(Path.of("/music/Zażółć/01.mp3"))));
+
+            Path latin1 = directory.resolve("latin1.m3u");
+            Files.write(latin1, "#EXTM3U\n/music/Café/Déjà vu.mp3\n".getBytes(StandardCharsets.ISO_8859_1));
+            check("Latin-1", M3uPlaylist.read(latin1).equals(List.of(Path.of("/music/Café/Déjà vu.mp3"))));
+
+            Path written = directory.resolve("written.m3u8");
+            List<Path> tracks = List.of(directory.resolve("Album/01 Zażółć.mp3"), Path.of("/music/Café/b.mp3"));
+            M3uPlaylist.write(written, tracks, (track) -> null);
+            check("written playlist reads back", M3uPlaylist.read(written).equals(tracks));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void check(String what, boolean passed) {
+        System.out.println((passed ? "  OK: " : "  FAILED: ") + what);
+        ok &= passed;
+    }
+}
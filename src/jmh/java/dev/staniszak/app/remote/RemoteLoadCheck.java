@@ -0,0 +1,576 @@
+package dev.staniszak.app.remote;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.audio.FakeAudioEngine;
+import dev.staniszak.app.audio.SimulatedClock;
+import dev.staniszak.app.controller.Playback;
+import dev.staniszak.app.metrics.LatencyHistogram;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.playlist.PlayQueue;
+import dev.staniszak.app.utils.BackgroundExecutors;
+import javafx.util.Duration;
+
+/*
+ * Load test of the remote control API: hundreds of local clients against a RemoteControlServer in front of a simulated player
+ * (MediaPlayerModel and Playback on a FakeAudioEngine, 128 spectrum bands). A single "player" thread stands in for
+ * the FX thread: it advances the simulated clock every 16 ms frame and runs the commands, its lateness is measured
+ * before the clients connect and while they run.
+ *
+ * Clients:
+ *   - streams:    GET /events, read everything, count "state" events and measure the gaps between them (none over a second),
+ *   - stalled:    GET /events on a socket that is never read (the slow clients the player must not notice),
+ *   - commanders: status, volume, seek, queue, next and pause/play in a loop, measure the latency of every request.
+ * The server is limited to streams + stalled event clients, one more has to be turned away (503).
+ * Then an EventStream whose socket never takes a byte is offered a thousand events: offers must not block,
+ * the stream must keep only its ring of events. A second server with a token checks that requests without the token,
+ * with a foreign Host or a POST from a foreign Origin are turned away. At the end the server is stopped, no writer thread may survive it.
+ *
+ * Usage: mvn -Pjmh test-compile exec:exec -Dbench.main=dev.staniszak.app.remote.RemoteLoadCheck -Djmh.args="300 20 50 20"
+ *        (event streams, stalled streams, commanders, seconds)
+ */
+
+public class RemoteLoadCheck {
+
+    private static final long FRAME_MILLIS = 16;
+    private static final int TRACKS = 500;
+    private static final long THINK_MILLIS = 50;
+    private static final int WARMUP_SECONDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int stalled = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int commanders = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        // Read once, when RemoteControlServer is loaded.
+        System.setProperty("player.httpMaxClients", String.valueOf(streams + stalled));
+        int eventHz = Integer.getInteger("player.httpEventHz", 10);
+
+        SimulatedPlayer player = new SimulatedPlayer();
+        player.start();
+        RemoteControlServer server = new RemoteControlServer(player, player.thread, null);
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        boolean ok = true;
+
+        Thread.sleep(3000);
+        double idleP99 = player.frameLateness.getPercentileMillis(99);
+        double idleMax = player.frameLateness.getMaxMillis();
+        player.frameLateness.reset();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS + seconds);
+        LatencyHistogram stateGaps = new LatencyHistogram();
+        LongAdder stateEvents = new LongAdder();
+        LongAdder spectrumEvents = new LongAdder();
+        LongAdder streamErrors = new LongAdder();
+        long[] perStream = new long[streams];
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch connected = new CountDownLatch(streams);
+        for (int i = 0; i < streams; i++) {
+            int stream = i;
+            threads.add(start("stream-" + i, () -> {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(base + "/events").openConnection();
+                    connection.setReadTimeout(5000);
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                        connected.countDown();
+                        long last = 0;
+                        String line;
+                        while (System.nanoTime() < deadline && (line = reader.readLine()) != null) {
+                            if (line.equals("event: state")) {
+                                long now = System.nanoTime();
+                                if (last != 0) {
+                                    stateGaps.record(now - last);
+                                }
+                                last = now;
+                                perStream[stream]++;
+                                stateEvents.increment();
+                            } else if (line.equals("event: spectrum")) {
+                                spectrumEvents.increment();
+                            }
+                        }
+                    }
+                    connection.disconnect();
+                } catch (IOException e) {
+                    streamErrors.increment();
+                    connected.countDown();
+                }
+            }));
+        }
+        List<Socket> stalledSockets = new ArrayList<>();
+        for (int i = 0; i < stalled; i++) {
+            Socket socket = new Socket();
+            socket.setReceiveBufferSize(4096);
+            socket.connect(server.getAddress());
+            socket.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            stalledSockets.add(socket);
+        }
+        connected.await(30, TimeUnit.SECONDS);
+        Thread.sleep(500);
+        int clients = server.getClients();
+        int refused = request(base, "GET", "/events").code;
+        System.out.printf("event clients: %d connected (%d reading, %d never reading), one more got %d%n", clients, streams, stalled, refused);
+        if (clients != streams + stalled || refused != 503) {
+            System.out.println("  expected " + (streams + stalled) + " clients and 503 for the next one");
+            ok = false;
+        }
+
+        LatencyHistogram commandLatency = new LatencyHistogram();
+        LongAdder commandErrors = new LongAdder();
+        for (int i = 0; i < commanders; i++) {
+            Random random = new Random(i);
+            threads.add(start("commander-" + i, () -> {
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    int code = command(base, random);
+                    commandLatency.record(System.nanoTime() - start);
+                    if (code != 200) {
+                        commandErrors.increment();
+                    }
+                    try {
+                        Thread.sleep(THINK_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        // Threads starting and the JIT compiling the server are not what is measured.
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        commandLatency.reset();
+        stateGaps.reset();
+        player.frameLateness.reset();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(seconds + 30));
+        }
+
+        long expected = (long) seconds * eventHz;
+        long fewest = Long.MAX_VALUE;
+        for (long events : perStream) {
+            fewest = Math.min(fewest, events);
+        }
+        System.out.printf("player frame lateness: idle p99 %.2f ms max %.2f ms, under load p99 %.2f ms max %.2f ms%n",
+            idleP99, idleMax, player.frameLateness.getPercentileMillis(99), player.frameLateness.getMaxMillis());
+        System.out.printf("commands: %d in %d s (%.0f/s), p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d errors%n",
+            commandLatency.getCount(), seconds, commandLatency.getCount() / (double) seconds,
+            commandLatency.getPercentileMillis(50), commandLatency.getPercentileMillis(99), commandLatency.getMaxMillis(),
+            commandErrors.sum());
+        System.out.printf("events: %d state, %d spectrum, fewest state events of a stream %d (%d ticks), "
+                + "gap between state events p50 %.0f ms p99 %.0f ms max %.0f ms, %d stream errors%n",
+            stateEvents.sum(), spectrumEvents.sum(), fewest, expected,
+            stateGaps.getPercentileMillis(50), stateGaps.getPercentileMillis(99), stateGaps.getMaxMillis(), streamErrors.sum());
+        System.out.printf("events dropped for slow clients: %d, heap used %d MB%n",
+            PlayerMetrics.get().getRemoteEventsDropped(), PlayerMetrics.get().getHeapUsedMb());
+        if (commandErrors.sum() > 0 || streamErrors.sum() > 0) {
+            System.out.println("  requests failed");
+            ok = false;
+        }
+        // Histogram buckets double, a busy single core machine easily lands a bucket higher, limits leave room for that.
+        if (commandLatency.getPercentileMillis(99) > 300) {
+            System.out.println("  command p99 above 300 ms");
+            ok = false;
+        }
+        // A hiccup of the broadcaster (or the machine) reaches every stream at once, so the gaps are checked for stalls only.
+        if (fewest < expected * 7 / 10 || stateGaps.getMaxMillis() > 1000) {
+            System.out.println("  a reading client did not get the events at the tick rate");
+            ok = false;
+        }
+        if (player.frameLateness.getPercentileMillis(99) > Math.max(40, idleP99 * 4)) {
+            System.out.println("  player thread fell behind while clients were connected");
+            ok = false;
+        }
+
+        ok &= checkStalledStream();
+        ok &= checkAccess(player);
+
+        server.stop();
+        for (Socket socket : stalledSockets) {
+            socket.close();
+        }
+        Thread.sleep(2000);
+        long writers = Thread.getAllStackTraces().keySet().stream()
+            .filter((thread) -> thread.getName().startsWith("remote-events-client-")).count();
+        System.out.printf("writer threads left after stop: %d%n", writers);
+        ok &= writers == 0;
+
+        System.out.println(ok ? "OK" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /* A mix of what a kiosk controller does. Pause is always followed by play, the track keeps moving. */
+    private static int command(String base, Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 40) {
+            return request(base, "GET", "/status").code;
+        } else if (roll < 60) {
+            return request(base, "POST", "/volume?value=" + random.nextInt(101) / 100.0).code;
+        } else if (roll < 75) {
+            return request(base, "POST", "/seek?ms=" + random.nextInt(30_000)).code;
+        } else if (roll < 85) {
+            return request(base, "GET", "/queue?offset=" + random.nextInt(TRACKS) + "&limit=50").code;
+        } else if (roll < 90) {
+            return request(base, "POST", "/next").code;
+        }
+        int code = request(base, "POST", "/pause").code;
+        return code != 200 ? code : request(base, "POST", "/play").code;
+    }
+
+    private static class Response {
+        final int code;
+
+        Response(int code) {
+            this.code = code;
+        }
+    }
+
+    private static Response request(String base, String method, String path) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setReadTimeout(10_000);
+            if (method.equals("POST")) {
+                connection.setDoOutput(true);
+                connection.getOutputStream().close();
+            }
+            int code = connection.getResponseCode();
+            try (InputStream body = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (body != null) {
+                    body.readAllBytes();
+                }
+            }
+            return new Response(code);
+        } catch (IOException e) {
+            return new Response(-1);
+        }
+    }
+
+    private static Thread start(String name, Runnable runnable) {
+        Thread thread = new Thread(null, runnable, name, 256 * 1024);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /* EventStream in front of a socket that never takes a byte: offers return at once, only the ring is kept. */
+    private static boolean checkStalledStream() throws InterruptedException {
+        CountDownLatch unblock = new CountDownLatch(1);
+        AtomicLong written = new AtomicLong();
+        BlockedExchange exchange = new BlockedExchange(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written.addAndGet(length);
+            }
+        });
+        int capacity = 32;
+        EventStream stream = new EventStream(exchange, capacity, (closed) -> { });
+        Thread writer = start("stalled-writer", stream);
+        byte[] event = "event: state\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+        long slowest = 0;
+        int offered = 1000;
+        for (int i = 0; i < offered; i++) {
+            long start = System.nanoTime();
+            stream.offer(event);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+            if (i == 0) {
+                Thread.sleep(50); // <- writer takes the first event and blocks on it
+            }
+        }
+        long dropped = stream.getDropped();
+        System.out.printf("stalled stream: %d events offered, slowest offer %.3f ms, %d dropped, %d kept%n",
+            offered, slowest / 1e6, dropped, offered - 1 - dropped);
+        unblock.countDown();
+        stream.close();
+        writer.join(2000);
+        boolean ok = slowest < TimeUnit.MILLISECONDS.toNanos(5) && dropped == offered - 1 - capacity && !writer.isAlive();
+        if (!ok) {
+            System.out.println("  expected non-blocking offers and exactly " + capacity + " events kept");
+        }
+        return ok;
+    }
+
+    /* Server with a token: status codes of requests a web page (or anybody without the token) could send. */
+    private static boolean checkAccess(SimulatedPlayer player) throws IOException {
+        RemoteControlServer server = new RemoteControlServer(player, player.thread, "secret");
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+        int port = server.getAddress().getPort();
+        String local = "localhost:" + port;
+        String bearer = "Authorization: Bearer secret\r\n";
+        Object[][] cases = {
+            // request line, headers, expected status
+            {"GET /status", "Host: 127.0.0.1:" + port + "\r\n", 401},
+            {"GET /status", "Host: 127.0.0.1:" + port + "\r\nAuthorization: Bearer wrong\r\n", 401},
+            {"GET /status", "Host: 127.0.0.1:" + port + "\r\n" + bearer, 200},
+            {"GET /status?token=secret", "Host: " + local + "\r\n", 200},
+            {"GET /status", "Host: evil.example:" + port + "\r\n" + bearer, 403},
+            {"GET /events?token=secret", "Host: evil.example:" + port + "\r\n", 403},
+            {"POST /volume?value=0.5", "Host: " + local + "\r\nOrigin: http://evil.example\r\n" + bearer, 403},
+            {"POST /volume?value=0.5", "Host: " + local + "\r\nOrigin: null\r\n" + bearer, 403},
+            {"POST /volume?value=0.5", "Host: " + local + "\r\nOrigin: http://" + local + "\r\n" + bearer, 200},
+        };
+        boolean ok = true;
+        for (Object[] test : cases) {
+            int code = rawRequest(server.getAddress(), (String) test[0], (String) test[1]);
+            if (code != (int) test[2]) {
+                System.out.println("  " + test[0] + " with " + ((String) test[1]).replace("\r\n", ", ") + "got " + code + ", expected " + test[2]);
+                ok = false;
+            }
+        }
+        server.stop();
+        System.out.printf("access checks: %d requests%s%n", cases.length, ok ? ", all answered as expected" : "");
+        return ok;
+    }
+
+    /* Status code of a request sent over a plain socket, HttpURLConnection does not let us set Host. */
+    private static int rawRequest(InetSocketAddress address, String requestLine, String headers) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(address);
+            socket.setSoTimeout(5000);
+            String request = requestLine + " HTTP/1.1\r\n" + headers + "Content-Length: 0\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            String status = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            return status == null ? -1 : Integer.parseInt(status.split(" ")[1]);
+        }
+    }
+
+    /* Simulated player on its own thread, which plays the part of the FX thread. */
+    private static class SimulatedPlayer implements RemotePlayer {
+
+        final ScheduledExecutorService thread = Executors.newSingleThreadScheduledExecutor(BackgroundExecutors.daemonFactory("player"));
+        final LatencyHistogram frameLateness = new LatencyHistogram();
+        final SimulatedClock clock = new SimulatedClock();
+        final FakeAudioEngine engine = new FakeAudioEngine(clock, SimulatedPlayer::duration);
+        final PlayQueue queue = new PlayQueue();
+        MediaPlayerModel model;
+        Playback playback;
+        float[] spectrum;
+        long lastFrame = 0;
+
+        void start() throws Exception {
+            thread.submit(() -> {
+                List<Path> tracks = new ArrayList<>();
+                for (int i = 0; i < TRACKS; i++) {
+                    tracks.add(Paths.get("/kiosk/Album " + (i / 10), String.format("%02d - Track %d.mp3", i % 10, i)));
+                }
+                model = new MediaPlayerModel(engine, tracks.get(0).toString());
+                engine.setSpectrumBands(128);
+                engine.setSpectrumInterval(0.05);
+                // The fake sends the same magnitudes every time, they are moved a little so every spectrum event is new.
+                engine.setSpectrumListener((timestamp, duration, magnitudes, phases) -> {
+                    float[] moved = magnitudes.clone();
+                    for (int i = 0; i < moved.length; i++) {
+                        moved[i] -= (float) ((timestamp * 37 + i) % 12);
+                    }
+                    spectrum = moved;
+                });
+                queue.setTracks(tracks);
+                queue.setRepeatAll(true);
+                playback = new Playback(model, queue);
+                playback.next();
+            }).get();
+            thread.scheduleAtFixedRate(() -> {
+                long now = System.nanoTime();
+                if (lastFrame != 0) {
+                    frameLateness.record(Math.max(0, now - lastFrame - TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS)));
+                }
+                lastFrame = now;
+                clock.advance(FRAME_MILLIS);
+            }, FRAME_MILLIS, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        static double duration(String track) {
+            return 30_000 + Math.floorMod(track.hashCode() * 2654435761L, 330_000L);
+        }
+
+        @Override
+        public PlayerState getState() {
+            return new PlayerState(engine.getStatus(), engine.getTrack(), engine.getCurrentTimeMillis(), engine.getDurationMillis(),
+                engine.getVolume(), model.Repeat());
+        }
+
+        @Override
+        public float[] getSpectrum() {
+            return spectrum;
+        }
+
+        @Override
+        public void play() {
+            AudioEngine.Status status = engine.getStatus();
+            if (status == AudioEngine.Status.PAUSED || status == AudioEngine.Status.READY || status == AudioEngine.Status.STOPPED) {
+                engine.play();
+            }
+        }
+
+        @Override
+        public void pause() {
+            if (engine.getStatus() == AudioEngine.Status.PLAYING) {
+                engine.pause();
+            }
+        }
+
+        @Override
+        public boolean next() {
+            return playback.next();
+        }
+
+        @Override
+        public boolean previous() {
+            return playback.previous();
+        }
+
+        @Override
+        public void seek(double millis) {
+            model.seek(Duration.millis(Math.min(millis, engine.getDurationMillis())));
+        }
+
+        @Override
+        public void setVolume(double volume) {
+            engine.setVolume(volume);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return queue.size();
+        }
+
+        @Override
+        public List<Path> getQueue(int offset, int limit) {
+            List<Path> tracks = queue.getTracks();
+            int from = Math.min(offset, tracks.size());
+            return new ArrayList<>(tracks.subList(from, Math.min(tracks.size(), from + limit)));
+        }
+
+        @Override
+        public boolean playQueued(Path track) {
+            return queue.jumpTo(track) && playback.play(track);
+        }
+
+        @Override
+        public void enqueue(Path track) {
+            queue.add(track);
+        }
+    }
+
+    /* Exchange of a client that never reads: only the response body is used by EventStream. */
+    private static class BlockedExchange extends HttpExchange {
+
+        private final OutputStream body;
+
+        BlockedExchange(OutputStream body) {
+            this.body = body;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return body;
+        }
+
+        @Override
+        public void close() { }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return new Headers();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return new Headers();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return URI.create("/events");
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public void sendResponseHeaders(int code, long length) { }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return 200;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) { }
+
+        @Override
+        public void setStreams(InputStream in, OutputStream out) { }
+
+        @Override
+        public com.sun.net.httpserver.HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
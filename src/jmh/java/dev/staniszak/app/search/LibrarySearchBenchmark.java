@@ -0,0 +1,91 @@
+package dev.staniszak.app.search;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.staniszak.app.metadata.TrackMetadata;
+
+/*
+ * Latency of one search box query against a library of 200k tagged tracks (target: well under 10 ms).
+ * Names and tags are random words from a vocabulary of a few thousand generated words plus some real ones,
+ * so postings of common words are long, as in a real library.
+ * Index is built in memory only, no files are created.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibrarySearchBenchmark {
+
+    private static final String[] KNOWN = { "beatles", "love", "night", "live", "remastered", "symphony", "blues", "dance" };
+
+    @Param({ "200000" })
+    public int tracks;
+
+    private LibrarySearchIndex index;
+
+    @Setup(Level.Trial)
+    public void buildIndex() {
+        Random random = new Random(42);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = i < KNOWN.length ? KNOWN[i] : word(random);
+        }
+
+        index = new LibrarySearchIndex();
+        Path root = Path.of("/music");
+        for (int i = 0; i < tracks; i++) {
+            String artist = vocabulary[random.nextInt(500)];
+            String album = vocabulary[random.nextInt(vocabulary.length)] + " " + vocabulary[random.nextInt(vocabulary.length)];
+            String title = vocabulary[random.nextInt(vocabulary.length)] + " " + vocabulary[random.nextInt(vocabulary.length)];
+            Path track = root.resolve(artist).resolve(album).resolve(String.format("%02d %s.mp3", i % 20, title));
+            index.add(track, new TrackMetadata(title, artist, album, 320, 200_000));
+        }
+    }
+
+    @Benchmark
+    public List<Path> prefix() {
+        return index.search("beat", 200);
+    }
+
+    @Benchmark
+    public List<Path> twoWords() {
+        return index.search("love nig", 200);
+    }
+
+    @Benchmark
+    public List<Path> fuzzy() {
+        return index.search("beatels", 200);
+    }
+
+    @Benchmark
+    public List<Path> singleLetter() {
+        return index.search("s", 200);
+    }
+
+    private static String word(Random random) {
+        char[] letters = new char[4 + random.nextInt(6)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters);
+    }
+}
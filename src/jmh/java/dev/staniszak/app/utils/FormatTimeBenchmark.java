@@ -0,0 +1,97 @@
+package dev.staniszak.app.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.util.Duration;
+
+/*
+ * Formatting of the play time label: the old String.format version against Utils.formatTime, 
+ * both the String returning one and the one that appends into a reused StringBuilder (what PlaybackViewUpdater calls).
+ * Tracks shorter and longer than an hour take different branches.
+ * Run with -prof gc to see allocations per call.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatTimeBenchmark {
+
+    @Param({ "200", "4000" })
+    public long totalSeconds;
+
+    private final StringBuilder out = new StringBuilder(24);
+    private Duration total;
+    private long playedSeconds = 0;
+
+    @Setup
+    public void setUp() {
+        total = Duration.seconds(totalSeconds);
+    }
+
+    /* Position moves, like it does while the track plays. */
+    private long nextPlayed() {
+        playedSeconds = playedSeconds == totalSeconds ? 0 : playedSeconds + 1;
+        return playedSeconds;
+    }
+
+    @Benchmark
+    public String legacyFormatTime() {
+        return formatTime(Duration.seconds(nextPlayed()), total);
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return Utils.formatTime(Duration.seconds(nextPlayed()), total);
+    }
+
+    @Benchmark
+    public StringBuilder formatTimeReused() {
+        out.setLength(0);
+        Utils.formatTime(out, nextPlayed(), totalSeconds);
+        return out;
+    }
+
+    /* Copy of Utils.formatTime() before it appended into a StringBuilder. */
+    private static String formatTime(Duration played, Duration total) {
+        int playedMinutes = (int)Math.floor(played.toMinutes());
+        int totalMinutes = (int)Math.floor(total.toMinutes());
+
+        int playedHours = (int)Math.floor(played.toHours());
+        int totalHours = (int)Math.floor(total.toHours());
+
+        if (totalHours > 0) {
+            totalMinutes -= totalHours * 60;
+            if (playedHours > 0) {
+                playedMinutes -= playedHours * 60;  
+            }
+        } 
+
+        int playedSeconds = (int)Math.floor(played.toSeconds()) - playedMinutes * 60;
+        int totalSeconds = (int)Math.floor(total.toSeconds()) - totalMinutes * 60;
+
+        if (totalHours > 0) {
+            return String.format("%d:%02d:%02d/%d:%02d:%02d", 
+                playedHours, playedMinutes, playedSeconds,
+                totalHours, totalMinutes, totalSeconds);
+        } else {
+            return String.format("%02d:%02d/%02d:%02d",
+                playedMinutes, playedSeconds, totalMinutes, 
+                totalSeconds);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package dev.staniszak.app.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.staniszak.app.common.UserConfig;
+
+/*
+ * Reading and writing user.json, with and without a saved play queue (an opened playlist is stored in the config):
+ *   - loadConfig / saveConfig: what startup and closing the window pay.
+ *   - legacySaveConfig: the old save, Jackson straight into user.json (no temporary file and rename).
+ *   - saveConfigLater: what the FX thread pays for a session save now (copy of the config, the write happens later).
+ * The benchmark JVM works in a temporary directory (user.dir), the config of the project is never touched.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonConfigBenchmark {
+
+    @Param({ "0", "5000" })
+    public int queue;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Path workDir;
+    private File configFile;
+    private UserConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("config-bench");
+        System.setProperty("user.dir", workDir.toString());
+        configFile = workDir.resolve(JsonConfigManager.getCONFIG_FILE_PATH()).toFile();
+
+        config = new UserConfig(workDir.resolve("library").toString(), workDir.resolve("library/Album/01 - Track.mp3").toString());
+        config.setUser_position_millis(123_456);
+        List<String> tracks = new ArrayList<>(queue);
+        for (int i = 0; i < queue; i++) {
+            tracks.add(workDir.resolve("library/Album " + (i / 12) + "/" + String.format("%02d - Track %d.mp3", i % 12, i)).toString());
+        }
+        config.setUser_queue(tracks);
+        JsonConfigManager.saveConfig(config);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteConfig() throws IOException {
+        JsonConfigManager.flushConfig();
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public UserConfig loadConfig() throws IOException {
+        return JsonConfigManager.loadConfig();
+    }
+
+    @Benchmark
+    public void saveConfig() throws IOException {
+        JsonConfigManager.saveConfig(config);
+    }
+
+    @Benchmark
+    public void legacySaveConfig() throws IOException {
+        objectMapper.writeValue(configFile, config);
+    }
+
+    @Benchmark
+    public void saveConfigLater() {
+        JsonConfigManager.saveConfigLater(config);
+    }
+}
@@ -0,0 +1,106 @@
+package dev.staniszak.app.visualizer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.effect.GaussianBlur;
+import javafx.scene.paint.Color;
+
+/*
+ * Per frame cost of the audio visualizer on the JavaFX application thread: 
+ * the old drawWaveform() (new effects and colors for every bar) against SpectrumRenderer.
+ * Canvas is not part of a scene, so we measure recording of the drawing commands, which is the part that runs on the FX thread.
+ * Run with -prof gc to see allocations per frame.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectrumRendererBenchmark {
+
+    private Canvas legacyCanvas;
+    private Canvas canvas;
+    private SpectrumRenderer renderer;
+    private float[][] frames;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() {
+        legacyCanvas = new Canvas(1600, 600);
+        canvas = new Canvas(1600, 600);
+        renderer = new SpectrumRenderer(canvas);
+
+        // A few different spectrum frames, so both sides draw changing data.
+        Random random = new Random(42);
+        frames = new float[16][SpectrumRenderer.MAX_BANDS];
+        for (float[] magnitudes : frames) {
+            for (int i = 0; i < magnitudes.length; i++) {
+                magnitudes[i] = -90 + random.nextFloat() * 60;
+            }
+        }
+    }
+
+    @Benchmark
+    public Canvas legacyDrawWaveform() {
+        drawWaveform(legacyCanvas, nextFrame());
+        return legacyCanvas;
+    }
+
+    @Benchmark
+    public Canvas spectrumRenderer() {
+        renderer.update(nextFrame());
+        renderer.render();
+        return canvas;
+    }
+
+    private float[] nextFrame() {
+        frame = (frame + 1) & (frames.length - 1);
+        return frames[frame];
+    }
+
+    /* Copy of MediaPlayerController.drawWaveform() before SpectrumRenderer. */
+    private static void drawWaveform(Canvas canvas, float[] magnitudes) {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setEffect(new GaussianBlur(5));
+
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        double barWidth = width / magnitudes.length;
+        double halfHeight = height / 2;
+
+        for (int i = 0; i < magnitudes.length; i++) {
+            double magnitude = magnitudes[i] + 90;
+            double barHeight = magnitude * 3;
+
+            Color color = Color.hsb(i * -180.0 / magnitudes.length, 1.0, 1.0);
+            gc.setFill(color);
+
+            gc.fillRect(i * barWidth, halfHeight - barHeight / 2, barWidth, barHeight);
+
+            DropShadow dropShadow = new DropShadow();
+            dropShadow.setOffsetY(2.0);
+            dropShadow.setOffsetX(2.0);
+            dropShadow.setColor(Color.rgb(50, 50, 50, 0.5));
+            gc.setEffect(dropShadow);
+        }
+        gc.setEffect(null);
+    }
+}
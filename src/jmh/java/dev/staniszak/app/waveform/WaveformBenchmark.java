@@ -0,0 +1,80 @@
+package dev.staniszak.app.waveform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.staniszak.app.audio.pipeline.SyntheticTracks;
+
+/*
+ * Waveform overview of a 30 s track:
+ *   cached    - what the slider waits for when a track starts: attributes of the track + one read of its cache file,
+ *               has to stay well under 1 ms (1000 us),
+ *   generate  - decoding the whole track and reducing it to 2048 points, what a waveform worker does once per track.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveformBenchmark {
+
+    private Path directory;
+    private Path track;
+    private WaveformService service;
+    private final WaveformGenerator generator = new WaveformGenerator();
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("waveform-bench");
+        track = directory.resolve("track.mp3");
+        SyntheticTracks.encode(track, 30, 44_100, 3, -6, 0.95);
+        WaveformCache cache = new WaveformCache(directory.resolve("cache"));
+        long size = Files.size(track);
+        long lastModified = Files.getLastModifiedTime(track).toMillis();
+        cache.put(track, size, lastModified, generator.generate(track));
+        service = new WaveformService(cache);
+        if (service.getCached(track) == null) {
+            throw new IllegalStateException("overview was not cached");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public WaveformOverview cached() {
+        return service.getCached(track);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public WaveformOverview generate() throws IOException {
+        return generator.generate(track);
+    }
+}
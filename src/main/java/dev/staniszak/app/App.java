@@ -1,5 +1,7 @@
 package dev.staniszak.app;
 
+import dev.staniszak.app.utils.StartupTimeline;
+
 public class App {
  
     /*
@@ -11,6 +13,7 @@ public class App {
     You need create a wrapper main class (like this one) that does not extend javafx.application.Application. 
      */   
     public static void main(String[] args) {
+        StartupTimeline.start();
         InnerApp.main(args);
     }
 
@@ -1,6 +1,7 @@
 package dev.staniszak.app;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
@@ -8,7 +9,10 @@ import javafx.stage.Stage;
 import java.io.IOException;
 
 import dev.staniszak.app.controller.MediaPlayerController;
-import dev.staniszak.app.utils.JsonConfigManager;
+import dev.staniszak.app.controller.StartupState;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.utils.BackgroundExecutors;
+import dev.staniszak.app.utils.StartupTimeline;
 import dev.staniszak.app.view.MediaPlayerView;
 
 /**
@@ -16,29 +20,89 @@ import dev.staniszak.app.view.MediaPlayerView;
  */
 public class InnerApp extends Application {
 
+    /* Fast start is on by default, -Dplayer.fastStart=false loads everything before the window is shown (the old way). */
+    private static final boolean FAST_START = Boolean.parseBoolean(System.getProperty("player.fastStart", "true"));
+    /* Startup measurements (StartupBenchmark, AppCDS training run): quit as soon as the player is ready, or after the timeout. */
+    private static final boolean EXIT_WHEN_READY = Boolean.getBoolean("player.exitWhenReady");
+    private static final long EXIT_TIMEOUT_MILLIS = Long.getLong("player.exitTimeoutMillis", 20_000);
+
     private static Scene scene;
 
     @Override
     public void start(Stage stage) throws IOException {
-
-        /* Creat default config file and audio library if do not exist. */ 
-        JsonConfigManager.writeDefaultConfig();
-        JsonConfigManager.initDefaultDir(JsonConfigManager.getLIB_FILE_PATH());
+        StartupTimeline.mark("fx-start");
 
         MediaPlayerView view = new MediaPlayerView();
-        /* Controller provides functionality for the View and connects it with model */
-        MediaPlayerController controller = new MediaPlayerController(view, stage);
         BorderPane root = view.getRoot();
         scene = new Scene(root, 600, 400);
         scene.getStylesheets().add(getClass().getResource("/css/mediaplayer.css").toExternalForm());
         stage.setTitle("MVC media player");
         stage.setScene(scene);
         stage.setMaximized(true); // <- Similar to setting stage to the full screen. 
+        // First pulse after show() is the first frame the user sees.
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                StartupTimeline.mark("first-frame");
+                scene.removePostLayoutPulseListener(this);
+            }
+        });
+
+        if (!FAST_START) {
+            /* Controller provides functionality for the View and connects it with model */
+            new MediaPlayerController(view, stage);
+            StartupTimeline.mark("controller");
+            PlayerMetrics.register();
+            stage.show();
+            StartupTimeline.mark("window-shown");
+            exitWhenReady();
+            return;
+        }
+
+        /*
+         Fast start: window goes up right away, config, library index, metadata cache and the player of the last played track
+         are read in parallel on the IO pool. Controller is created once they are all there.
+         */
+        view.getScanStatus().setText("Loading...");
         stage.show();
+        StartupTimeline.mark("window-shown");
+        // JMX starts a fair amount of machinery, the window does not wait for it.
+        BackgroundExecutors.io().execute(PlayerMetrics::register);
+
+        StartupState.loadAsync(BackgroundExecutors.io()).whenComplete((state, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                error.printStackTrace();
+                Platform.exit();
+                return;
+            }
+            new MediaPlayerController(view, stage, state);
+            StartupTimeline.mark("controller");
+        }));
+        exitWhenReady();
+    }
+
+    private static void exitWhenReady() {
+        if (!EXIT_WHEN_READY) {
+            return;
+        }
+        Thread watcher = new Thread(() -> {
+            long deadline = System.currentTimeMillis() + EXIT_TIMEOUT_MILLIS;
+            while (!StartupTimeline.isMarked("ready-to-play") && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            System.out.print(StartupTimeline.report());
+            Platform.exit();
+        }, "startup-exit");
+        watcher.setDaemon(true);
+        watcher.start();
     }
 
     public static void main(String[] args) {
         launch();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package dev.staniszak.app.audio;
+
+import dev.staniszak.app.audio.spectrum.SpectrumFrame;
+import dev.staniszak.app.audio.spectrum.SpscRing;
+
+/*
+ * Everything the application needs from whatever actually plays the audio.
+ *
+ * The engine has one current track (changeMedia) and can prepare the following one ahead (preload).
+ * Listeners are registered on the engine, not on a track, they keep receiving events when the track changes.
+ * Times are in milliseconds: an unknown duration is NaN, an endless stream is positive infinity.
+ *
+ * Implementations:
+ *   - JavaFxAudioEngine: javafx.scene.media.MediaPlayer, used by the application.
+ *   - PcmAudioEngine: our own decoder and DSP pipeline on a javax.sound line (-Dplayer.engine=pcm).
+ *   - RoutingAudioEngine: one of the two above per track, depending on the format of the file.
+ *   - FakeAudioEngine: no audio at all, time moves only when its SimulatedClock is advanced,
+ *     so playback logic can be driven (and benchmarked) deterministically without a display or a sound card.
+ *
+ * Engines are not thread safe. JavaFxAudioEngine must be used on the JavaFX application thread and delivers events there,
+ * PcmAudioEngine delivers events through the executor it was given,
+ * FakeAudioEngine delivers events on the thread that advances the clock (or calls its methods).
+ */
+
+public interface AudioEngine {
+
+    /* Same states as MediaPlayer.Status. */
+    enum Status { UNKNOWN, READY, PAUSED, PLAYING, STOPPED, STALLED, HALTED, DISPOSED }
+
+    interface Listener {
+        default void statusChanged(Status status) { }
+        /* Current track has been opened, its duration is known (see getDurationMillis). */
+        default void ready() { }
+        default void endOfMedia() { }
+        default void error(String message) { }
+    }
+
+    /* Same arguments as javafx.scene.media.AudioSpectrumListener. */
+    interface SpectrumListener {
+        void spectrumDataUpdate(double timestamp, double duration, float[] magnitudes, float[] phases);
+    }
+
+    ////////Tracks////////
+
+    /*
+     Makes the track the current one, the previous track is stopped and released.
+     When the track has been preloaded, the engine switches to it without opening it again.
+     autoPlay starts playing as soon as possible.
+     */
+    void changeMedia(String filepath, boolean autoPlay);
+
+    /* Opens the track that is going to be played next, so changeMedia() can start it without a gap. */
+    void preload(String filepath);
+
+    ////////Transport////////
+
+    void play();
+
+    void pause();
+
+    void stop();
+
+    void seek(double millis);
+
+    Status getStatus();
+
+    double getCurrentTimeMillis();
+
+    double getDurationMillis();
+
+    /* Playback goes on from the beginning of the track at the end of media, until repeat is switched off. */
+    void setRepeat(boolean repeat);
+
+    double getVolume();
+
+    /* Volume in range [0.0, 1.0], it is kept when the track changes. */
+    void setVolume(double volume);
+
+    ////////Events////////
+
+    /* Returns the action that removes the listener again. */
+    Runnable addListener(Listener listener);
+
+    /* Null switches the spectrum analysis off. Settings are kept when the track changes. */
+    void setSpectrumListener(SpectrumListener listener);
+
+    int getSpectrumBands();
+
+    void setSpectrumBands(int bands);
+
+    double getSpectrumInterval();
+
+    void setSpectrumInterval(double seconds);
+
+    void setSpectrumThreshold(int decibels);
+
+    /*
+     Engines that analyse the audio themselves (PcmAudioEngine) publish spectrum frames here instead of calling the listener,
+     the ring has one reader (SpectrumRenderer on the JavaFX application thread). Null when the engine uses the listener.
+     */
+    default SpscRing<SpectrumFrame> getSpectrumFrames() {
+        return null;
+    }
+
+    /* Releases the current and the preloaded track. */
+    void dispose();
+}
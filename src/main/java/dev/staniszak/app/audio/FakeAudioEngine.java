@@ -0,0 +1,274 @@
+package dev.staniszak.app.audio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToDoubleFunction;
+
+/*
+ * AudioEngine that plays nothing: tracks are never opened, their durations come from a function
+ * and playback position moves only when the SimulatedClock is advanced.
+ *
+ * Everything happens synchronously on the calling thread:
+ *   - changeMedia() makes the track READY right away (ready() is fired) and PLAYING if asked to.
+ *   - advance of the clock moves the position, fires spectrum updates every spectrum interval of played time
+ *     and ends the track. At the end of media the track loops (repeat), or endOfMedia() is fired and
+ *     the rest of the elapsed time goes to the track the listeners switched to. If they did not, the engine stops.
+ * Tracks are at least MIN_DURATION_MILLIS long, so a single advance always ends a finite number of tracks.
+ *
+ * Counters (opened tracks, preloaded hits, spectrum updates) let a harness check what the application asked for.
+ */
+
+public class FakeAudioEngine implements AudioEngine {
+
+    public static final double MIN_DURATION_MILLIS = 1;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ToDoubleFunction<String> durations;
+
+    private String track;
+    private String preloaded;
+    private Status status = Status.UNKNOWN;
+    private double positionMillis = 0;
+    private double durationMillis = Double.NaN;
+    private double volume = 1.0;
+    private boolean repeat = false;
+
+    private SpectrumListener spectrumListener;
+    private int spectrumBands = 128;
+    private double spectrumInterval = 0.1;
+    private int spectrumThreshold = -60;
+    private double nextSpectrumMillis = 0;
+    private float[] magnitudes;
+    private float[] phases;
+
+    private long opened = 0;
+    private long preloadHits = 0;
+    private long spectrumUpdates = 0;
+
+    /* durations - duration in millis of the track at the given path. */
+    public FakeAudioEngine(SimulatedClock clock, ToDoubleFunction<String> durations) {
+        this.durations = durations;
+        this.fillSpectrum();
+        clock.follow(this::advance);
+    }
+
+    public String getTrack() {
+        return track;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public long getPreloadHits() {
+        return preloadHits;
+    }
+
+    public long getSpectrumUpdates() {
+        return spectrumUpdates;
+    }
+
+    ////////Tracks////////
+
+    @Override
+    public void changeMedia(String filepath, boolean autoPlay) {
+        if (filepath.equals(preloaded)) {
+            preloadHits++;
+        }
+        preloaded = null;
+        opened++;
+
+        track = filepath;
+        positionMillis = 0;
+        nextSpectrumMillis = 0;
+        durationMillis = Math.max(MIN_DURATION_MILLIS, durations.applyAsDouble(filepath));
+        setStatus(Status.READY);
+        for (Listener listener : listeners) {
+            listener.ready();
+        }
+        if (autoPlay && track.equals(filepath)) {
+            play();
+        }
+    }
+
+    @Override
+    public void preload(String filepath) {
+        preloaded = filepath;
+    }
+
+    ////////Transport////////
+
+    @Override
+    public void play() {
+        if (track != null && status != Status.DISPOSED) {
+            setStatus(Status.PLAYING);
+        }
+    }
+
+    @Override
+    public void pause() {
+        if (status == Status.PLAYING) {
+            setStatus(Status.PAUSED);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (track != null && status != Status.DISPOSED) {
+            positionMillis = 0;
+            nextSpectrumMillis = 0;
+            setStatus(Status.STOPPED);
+        }
+    }
+
+    @Override
+    public void seek(double millis) {
+        if (track != null && !Double.isNaN(millis)) {
+            positionMillis = Math.max(0, Math.min(durationMillis, millis));
+            nextSpectrumMillis = positionMillis;
+        }
+    }
+
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public double getCurrentTimeMillis() {
+        return positionMillis;
+    }
+
+    @Override
+    public double getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+    }
+
+    @Override
+    public double getVolume() {
+        return volume;
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        this.volume = volume;
+    }
+
+    private void setStatus(Status newStatus) {
+        if (status == newStatus) {
+            return;
+        }
+        status = newStatus;
+        for (Listener listener : listeners) {
+            listener.statusChanged(newStatus);
+        }
+    }
+
+    ////////Clock////////
+
+    private void advance(double elapsedMillis) {
+        double remaining = elapsedMillis;
+        while (remaining > 0 && status == Status.PLAYING) {
+            double left = durationMillis - positionMillis;
+            if (remaining < left) {
+                positionMillis += remaining;
+                emitSpectrum();
+                return;
+            }
+
+            remaining -= left;
+            positionMillis = durationMillis;
+            emitSpectrum();
+            if (repeat) {
+                positionMillis = 0;
+                nextSpectrumMillis = 0;
+                continue;
+            }
+
+            String ended = track;
+            for (Listener listener : listeners) {
+                listener.endOfMedia();
+            }
+            if (ended.equals(track) && positionMillis == durationMillis && status == Status.PLAYING) {
+                // Nobody started another track, the player stays at the end.
+                setStatus(Status.STOPPED);
+            }
+        }
+    }
+
+    /* Every update carries the same synthetic spectrum (see fillSpectrum), the fake costs next to nothing per update. */
+    private void emitSpectrum() {
+        SpectrumListener listener = this.spectrumListener;
+        if (listener == null) {
+            return;
+        }
+        double step = spectrumInterval * 1000;
+        while (nextSpectrumMillis <= positionMillis) {
+            listener.spectrumDataUpdate(nextSpectrumMillis / 1000, spectrumInterval, magnitudes, phases);
+            spectrumUpdates++;
+            nextSpectrumMillis += step;
+        }
+    }
+
+    ////////Events////////
+
+    @Override
+    public Runnable addListener(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public void setSpectrumListener(SpectrumListener listener) {
+        this.spectrumListener = listener;
+        this.nextSpectrumMillis = positionMillis;
+    }
+
+    @Override
+    public int getSpectrumBands() {
+        return spectrumBands;
+    }
+
+    @Override
+    public void setSpectrumBands(int bands) {
+        this.spectrumBands = bands;
+        this.fillSpectrum();
+    }
+
+    @Override
+    public double getSpectrumInterval() {
+        return spectrumInterval;
+    }
+
+    @Override
+    public void setSpectrumInterval(double seconds) {
+        this.spectrumInterval = seconds;
+    }
+
+    @Override
+    public void setSpectrumThreshold(int decibels) {
+        this.spectrumThreshold = decibels;
+        this.fillSpectrum();
+    }
+
+    /* Synthetic spectrum: loud bass falling to the threshold in the highest band. */
+    private void fillSpectrum() {
+        magnitudes = new float[spectrumBands];
+        phases = new float[spectrumBands];
+        for (int band = 0; band < spectrumBands; band++) {
+            magnitudes[band] = (float) spectrumThreshold * band / spectrumBands;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        track = null;
+        preloaded = null;
+        setStatus(Status.DISPOSED);
+    }
+}
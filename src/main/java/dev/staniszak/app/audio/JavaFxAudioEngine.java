@@ -0,0 +1,280 @@
+package dev.staniszak.app.audio;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaException;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+
+/*
+ * AudioEngine on top of javafx.scene.media.MediaPlayer.
+ *
+ * MediaPlayer plays exactly one media, so every track gets a new player.
+ * Double buffering: player of the track that is going to play next is created (and prerolled) by preload(),
+ * changeMedia() with the same file only swaps players.
+ * Everything the engine attaches to a player goes through a PlayerSession, it is removed before the player is disposed.
+ * Volume, repeat and spectrum settings live in the engine and are applied to every new player.
+ *
+ * Must be used on the JavaFX application thread (the first player may be created on any thread, see StartupState).
+ */
+
+public class JavaFxAudioEngine implements AudioEngine {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private MediaPlayer player;
+    private PlayerSession session;
+    private MediaPlayer nextPlayer;
+    private String nextFilepath;
+
+    private double volume = 1.0;
+    private boolean repeat = false;
+    private SpectrumListener spectrumListener;
+    // MediaPlayer defaults.
+    private int spectrumBands = 128;
+    private double spectrumInterval = 0.1;
+    private int spectrumThreshold = -60;
+
+    ////////Tracks////////
+
+    @Override
+    public void changeMedia(String filepath, boolean autoPlay) {
+        MediaPlayer previous = this.player;
+        if (this.session != null) {
+            this.session.close();
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+
+        if (this.nextPlayer != null && filepath.equals(this.nextFilepath)) {
+            // Pre-buffered track, swap players.
+            this.player = this.nextPlayer;
+            this.nextPlayer = null;
+            this.nextFilepath = null;
+        } else {
+            this.disposeNext();
+            this.player = new MediaPlayer(new Media(new File(filepath).toURI().toString()));
+        }
+
+        this.attach(this.player);
+        if (autoPlay) {
+            this.player.play();
+        }
+
+        // Releasing old player takes time, we do it after the new one has been started.
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    /*
+    MediaPlayer starts to open and buffer its media as soon as it is created, 
+    so when changeMedia() is called with the same file, the player is ready to play immediately.
+    */
+    @Override
+    public void preload(String filepath) {
+        if (filepath.equals(this.nextFilepath)) {
+            return;
+        }
+        this.disposeNext();
+
+        File file = new File(filepath);
+        if (file.exists()) {
+            this.nextPlayer = new MediaPlayer(new Media(file.toURI().toString()));
+            this.nextFilepath = filepath;
+        }
+    }
+
+    private void attach(MediaPlayer newPlayer) {
+        this.session = new PlayerSession();
+        this.session.listen(newPlayer.statusProperty(), (obs, oldStatus, newStatus) -> {
+            Status status = Status.valueOf(newStatus.name());
+            for (Listener listener : listeners) {
+                listener.statusChanged(status);
+            }
+        });
+        this.session.handle(newPlayer::setOnReady, this::fireReady);
+        this.session.handle(newPlayer::setOnEndOfMedia, () -> {
+            for (Listener listener : listeners) {
+                listener.endOfMedia();
+            }
+        });
+        this.session.handle(newPlayer::setOnError, () -> {
+            MediaException error = newPlayer.getError();
+            for (Listener listener : listeners) {
+                listener.error(error == null ? "unknown media error" : error.getMessage());
+            }
+        });
+        this.session.onClose(() -> newPlayer.setAudioSpectrumListener(null));
+
+        newPlayer.setCycleCount(repeat ? MediaPlayer.INDEFINITE : 1);
+        newPlayer.setVolume(volume);
+        newPlayer.setAudioSpectrumNumBands(spectrumBands);
+        newPlayer.setAudioSpectrumInterval(spectrumInterval);
+        newPlayer.setAudioSpectrumThreshold(spectrumThreshold);
+        this.applySpectrumListener();
+
+        // Pre-buffered player is usually ready before we get here, in that case setOnReady is never called.
+        if (newPlayer.getStatus() != MediaPlayer.Status.UNKNOWN) {
+            this.fireReady();
+        }
+    }
+
+    private void fireReady() {
+        for (Listener listener : listeners) {
+            listener.ready();
+        }
+    }
+
+    private void disposeNext() {
+        if (this.nextPlayer != null) {
+            this.nextPlayer.dispose();
+            this.nextPlayer = null;
+            this.nextFilepath = null;
+        }
+    }
+
+    ////////Transport////////
+
+    @Override
+    public void play() {
+        if (player != null) {
+            player.play();
+        }
+    }
+
+    @Override
+    public void pause() {
+        if (player != null) {
+            player.pause();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (player != null) {
+            player.stop();
+        }
+    }
+
+    @Override
+    public void seek(double millis) {
+        if (player != null) {
+            player.seek(Duration.millis(millis));
+        }
+    }
+
+    @Override
+    public Status getStatus() {
+        return player == null ? Status.UNKNOWN : Status.valueOf(player.getStatus().name());
+    }
+
+    @Override
+    public double getCurrentTimeMillis() {
+        return player == null ? 0 : player.getCurrentTime().toMillis();
+    }
+
+    /* Duration can be null if media has no duration (eg. resources\no-tracks\default.mp3), we report it as 0. */
+    @Override
+    public double getDurationMillis() {
+        if (player == null) {
+            return Double.NaN;
+        }
+        Duration duration = player.getMedia().getDuration();
+        return duration == null ? 0 : duration.toMillis();
+    }
+
+    @Override
+    public void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+        if (player != null) {
+            player.setCycleCount(repeat ? MediaPlayer.INDEFINITE : 1);
+        }
+    }
+
+    @Override
+    public double getVolume() {
+        return volume;
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        this.volume = volume;
+        if (player != null) {
+            player.setVolume(volume);
+        }
+    }
+
+    ////////Events////////
+
+    @Override
+    public Runnable addListener(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    /* Player does not analyse the audio at all when there is no spectrum listener. */
+    @Override
+    public void setSpectrumListener(SpectrumListener listener) {
+        this.spectrumListener = listener;
+        this.applySpectrumListener();
+    }
+
+    private void applySpectrumListener() {
+        if (player != null) {
+            SpectrumListener listener = this.spectrumListener;
+            player.setAudioSpectrumListener(listener == null ? null : listener::spectrumDataUpdate);
+        }
+    }
+
+    @Override
+    public int getSpectrumBands() {
+        return spectrumBands;
+    }
+
+    @Override
+    public void setSpectrumBands(int bands) {
+        this.spectrumBands = bands;
+        if (player != null) {
+            player.setAudioSpectrumNumBands(bands);
+        }
+    }
+
+    @Override
+    public double getSpectrumInterval() {
+        return spectrumInterval;
+    }
+
+    @Override
+    public void setSpectrumInterval(double seconds) {
+        this.spectrumInterval = seconds;
+        if (player != null) {
+            player.setAudioSpectrumInterval(seconds);
+        }
+    }
+
+    @Override
+    public void setSpectrumThreshold(int decibels) {
+        this.spectrumThreshold = decibels;
+        if (player != null) {
+            player.setAudioSpectrumThreshold(decibels);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (player != null) {
+            player.dispose();
+            player = null;
+        }
+        disposeNext();
+    }
+}
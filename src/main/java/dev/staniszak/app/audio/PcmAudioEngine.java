@@ -0,0 +1,554 @@
+package dev.staniszak.app.audio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.format.TrackFormat;
+import dev.staniszak.app.audio.pipeline.AudioPipeline;
+import dev.staniszak.app.audio.pipeline.Equalizer;
+import dev.staniszak.app.audio.pipeline.ReplayGain;
+import dev.staniszak.app.audio.spectrum.SpectrumAnalyzer;
+import dev.staniszak.app.audio.spectrum.SpectrumFrame;
+import dev.staniszak.app.audio.spectrum.SpscRing;
+import dev.staniszak.app.metadata.Mp3MetadataReader;
+import dev.staniszak.app.metadata.TrackMetadata;
+import dev.staniszak.app.utils.BackgroundExecutors;
+
+/*
+ * AudioEngine that decodes the tracks itself (MP3, FLAC, Ogg Vorbis, WAV, AIFF, see TrackFormat) and plays them through javax.sound SourceDataLine,
+ * so the samples go through our own AudioPipeline: ReplayGain, crossfade and the 10 band Equalizer.
+ * Selected with -Dplayer.engine=pcm, settings:
+ *   -Dplayer.crossfadeSeconds=0        crossfade between tracks of the play queue, 0 is off
+ *   -Dplayer.replayGain=true           normalize tracks with their ReplayGain tags
+ *   -Dplayer.replayGainPreamp=0        dB added to every track (and the only gain of tracks without tags)
+ *   -Dplayer.eq=0,0,0,0,0,0,0,0,0,0    equalizer gains in dB, 31 Hz ... 16 kHz
+ *
+ * Audio thread ("pcm-audio") renders one block after another and writes it to the line. Writing blocks while the line
+ * is full, so the line (LINE_BUFFER_BLOCKS blocks, about 100 ms) sets the pace and the latency of pause and seek.
+ * Line is owned by the audio thread, it is opened again when the sample rate changes.
+ * Commands come from one thread (JavaFX application thread) and change the pipeline under the lock,
+ * events are delivered through the given executor (Platform::runLater in the application).
+ * Tracks are opened on a thread of their own ("pcm-open"), the calling thread never touches the disk.
+ * A track changeMedia() has to open is ready a little later (the ready event says when), like with JavaFX MediaPlayer.
+ *
+ * Preloaded track is handed to the pipeline as its next track. With the crossfade on, the pipeline switches to it
+ * on its own before the current track ends: endOfMedia is reported at that moment and the following changeMedia()
+ * with the same track only confirms what is already playing.
+ *
+ * Spectrum comes from our own SpectrumAnalyzer at the end of the pipeline, its frames are read from getSpectrumFrames()
+ * (the spectrum listener is never called, setting one only switches the analysis on, null switches it off).
+ */
+
+public class PcmAudioEngine implements AudioEngine {
+
+    private static final int LINE_BUFFER_BLOCKS = 4;
+    private static final double CROSSFADE_SECONDS = Double.parseDouble(System.getProperty("player.crossfadeSeconds", "0"));
+    private static final boolean REPLAY_GAIN = Boolean.parseBoolean(System.getProperty("player.replayGain", "true"));
+    private static final double REPLAY_GAIN_PREAMP = Double.parseDouble(System.getProperty("player.replayGainPreamp", "0"));
+
+    private final Executor events;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AudioPipeline pipeline = new AudioPipeline();
+    private final Object lock = new Object();
+    private final byte[] block = new byte[AudioPipeline.BLOCK_FRAMES * AudioPipeline.BYTES_PER_FRAME];
+    private final SpectrumAnalyzer analyzer = new SpectrumAnalyzer(SpectrumAnalyzer.DEFAULT_FFT_SIZE);
+    /* Opening a track reads its header and tags and decodes the first frame, slow on a network share: never on the caller's thread.
+       One thread of its own, so a track change does not wait behind library scans in the shared IO pool. */
+    private final ExecutorService opener = Executors.newSingleThreadExecutor(BackgroundExecutors.daemonFactory("pcm-open"));
+
+    // Guarded by lock.
+    private double currentDuration = Double.NaN;
+    private String nextPath;
+    private double nextDuration = Double.NaN;
+    private String handedOver; // <- track the pipeline crossfaded into, not confirmed by changeMedia() yet
+    private boolean ended = false;
+    private boolean flushRequested = false;
+    private String opening; // <- track changeMedia() is opening, null when none
+    private long opens = 0; // <- generation of changeMedia(), an older track that gets opened late is dropped
+    private boolean playWhenOpened = false;
+    private String preloading; // <- track preload() is opening
+    private long preloads = 0;
+
+    private volatile Status status = Status.UNKNOWN;
+    private volatile boolean disposed = false;
+    private volatile int bufferedFrames = 0; // <- written to the line, not played yet
+
+    // Owned by the audio thread.
+    private SourceDataLine line;
+    private int lineSampleRate = 0;
+
+    private double volume = 1.0;
+    private int spectrumBands = 128;
+    private double spectrumInterval = 0.1;
+    private int spectrumThreshold = -60;
+
+    public PcmAudioEngine(Executor events) {
+        this.events = events;
+        this.pipeline.setCrossfadeMillis(CROSSFADE_SECONDS * 1000);
+        this.pipeline.getEqualizer().setGains(Equalizer.parseGains(System.getProperty("player.eq")));
+        this.pipeline.addStage(analyzer.getTap());
+        this.analyzer.setBands(spectrumBands);
+        this.analyzer.setInterval(spectrumInterval);
+        this.analyzer.setThreshold(spectrumThreshold);
+        this.analyzer.setLatency(() -> bufferedFrames);
+
+        Thread thread = new Thread(this::run, "pcm-audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public Equalizer getEqualizer() {
+        return pipeline.getEqualizer();
+    }
+
+    public void setCrossfadeSeconds(double seconds) {
+        pipeline.setCrossfadeMillis(seconds * 1000);
+    }
+
+    ////////Tracks////////
+
+    /*
+     A preloaded track starts right away. Any other track is opened on the opener thread, the previous one stops
+     at once and the new one is ready (and plays, with autoPlay or a play() in the meantime) when it has been opened.
+     */
+    @Override
+    public void changeMedia(String filepath, boolean autoPlay) {
+        long generation;
+        synchronized (lock) {
+            if (filepath.equals(handedOver)) {
+                // Crossfade has already started this track.
+                handedOver = null;
+                Status playing = status;
+                fire(Listener::ready);
+                fire((listener) -> listener.statusChanged(playing));
+                return;
+            }
+            handedOver = null;
+            preloads++; // <- a preload still being opened would be the track that plays now
+            preloading = null;
+            AudioPipeline.Track track = filepath.equals(nextPath) ? pipeline.takeNext() : null;
+            double duration = nextDuration;
+            pipeline.setNext(null);
+            nextPath = null;
+            generation = ++opens;
+            if (track != null) {
+                opening = null;
+                startLocked(track, duration, autoPlay);
+                return;
+            }
+            // After the end of media the tail of the previous track is still in the line, the next one is written after it.
+            // Anything else (user picked another track) throws away what the line still holds.
+            flushRequested = !ended;
+            pipeline.clear();
+            currentDuration = Double.NaN;
+            opening = filepath;
+            playWhenOpened = autoPlay;
+            lock.notifyAll();
+        }
+
+        opener.execute(() -> {
+            AudioPipeline.Track track;
+            try {
+                track = open(filepath, readMetadata(filepath));
+            } catch (IOException e) {
+                synchronized (lock) {
+                    if (generation != opens) {
+                        return;
+                    }
+                    opening = null;
+                }
+                fire((listener) -> listener.error("Cannot open " + filepath + ": " + e));
+                setStatus(Status.HALTED);
+                return;
+            }
+            synchronized (lock) {
+                if (generation != opens || disposed) {
+                    discard(track); // <- another track was chosen while this one was being opened
+                    return;
+                }
+                opening = null;
+                startLocked(track, track.getDurationMillis(), playWhenOpened);
+            }
+        });
+    }
+
+    private void startLocked(AudioPipeline.Track track, double duration, boolean autoPlay) {
+        pipeline.setCurrent(track);
+        currentDuration = duration;
+        flushRequested = flushRequested || !ended;
+        ended = false;
+        setStatus(Status.READY);
+        fire(Listener::ready);
+        if (autoPlay) {
+            setStatus(Status.PLAYING);
+        }
+        lock.notifyAll();
+    }
+
+    /* Track is opened (and its first frame decoded) on the opener thread, the audio thread only plays it. */
+    @Override
+    public void preload(String filepath) {
+        long generation;
+        synchronized (lock) {
+            if (filepath.equals(nextPath) || filepath.equals(handedOver) || filepath.equals(preloading)) {
+                return;
+            }
+            preloading = filepath;
+            generation = ++preloads;
+        }
+        opener.execute(() -> {
+            AudioPipeline.Track track;
+            try {
+                track = open(filepath, readMetadata(filepath));
+            } catch (IOException e) {
+                // Missing or broken track, changeMedia() reports it if it ever gets played.
+                synchronized (lock) {
+                    if (generation == preloads) {
+                        preloading = null;
+                    }
+                }
+                return;
+            }
+            synchronized (lock) {
+                if (generation != preloads || disposed) {
+                    discard(track);
+                    return;
+                }
+                preloading = null;
+                pipeline.setNext(track);
+                nextPath = filepath;
+                nextDuration = track.getDurationMillis();
+            }
+        });
+    }
+
+    private static void discard(AudioPipeline.Track track) {
+        try {
+            track.getSource().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Tags (and so ReplayGain and the exact duration) are read for MP3 only, other formats play without them. */
+    private static TrackMetadata readMetadata(String filepath) {
+        Path file = Path.of(filepath);
+        if (FormatRegistry.SHARED.detect(file) != TrackFormat.MP3) {
+            return null;
+        }
+        try {
+            return Mp3MetadataReader.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static AudioPipeline.Track open(String filepath, TrackMetadata metadata) throws IOException {
+        ReplayGain gain = new ReplayGain(REPLAY_GAIN, REPLAY_GAIN_PREAMP);
+        double duration = Double.NaN;
+        if (metadata != null) {
+            gain.setTrack(metadata.getReplayGainDb(), metadata.getReplayGainPeak());
+            duration = metadata.getDurationMillis();
+        }
+        Path file = Path.of(filepath);
+        return new AudioPipeline.Track(FormatRegistry.SHARED.detect(file).openPcm(file), gain, duration);
+    }
+
+    ////////Transport////////
+
+    @Override
+    public void play() {
+        synchronized (lock) {
+            if (!pipeline.hasCurrent()) {
+                playWhenOpened |= opening != null;
+                return;
+            }
+            if (ended) {
+                seekLocked(0);
+            }
+            setStatus(Status.PLAYING);
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (lock) {
+            playWhenOpened = false;
+            if (pipeline.hasCurrent()) {
+                setStatus(Status.PAUSED);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            playWhenOpened = false;
+            if (pipeline.hasCurrent()) {
+                seekLocked(0);
+                setStatus(Status.STOPPED);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void seek(double millis) {
+        synchronized (lock) {
+            seekLocked(millis);
+            lock.notifyAll();
+        }
+    }
+
+    private void seekLocked(double millis) {
+        try {
+            pipeline.seek(millis);
+            ended = false;
+            flushRequested = true;
+            bufferedFrames = 0;
+        } catch (IOException e) {
+            fire((listener) -> listener.error(e.getMessage()));
+        }
+    }
+
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    /* Position of what is being heard: decoded position minus what waits in the line. */
+    @Override
+    public double getCurrentTimeMillis() {
+        synchronized (lock) {
+            int sampleRate = pipeline.getSampleRate();
+            double buffered = sampleRate == 0 ? 0 : bufferedFrames * 1000.0 / sampleRate;
+            return Math.max(0, pipeline.getPositionMillis() - buffered);
+        }
+    }
+
+    @Override
+    public double getDurationMillis() {
+        synchronized (lock) {
+            return currentDuration;
+        }
+    }
+
+    @Override
+    public void setRepeat(boolean repeat) {
+        pipeline.setRepeat(repeat);
+    }
+
+    @Override
+    public double getVolume() {
+        return volume;
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        this.volume = volume;
+        pipeline.setVolume(volume);
+    }
+
+    ////////Audio thread////////
+
+    private void run() {
+        try {
+            while (!disposed) {
+                int frames;
+                int sampleRate;
+                boolean flush;
+                boolean switched;
+                synchronized (lock) {
+                    while (!disposed && (status != Status.PLAYING || ended || !pipeline.hasCurrent())) {
+                        idleLine();
+                        lock.wait();
+                    }
+                    if (disposed) {
+                        break;
+                    }
+                    try {
+                        frames = pipeline.render(block);
+                    } catch (IOException e) {
+                        ended = true;
+                        fire((listener) -> listener.error(e.getMessage()));
+                        setStatus(Status.HALTED);
+                        continue;
+                    }
+                    switched = pipeline.takeSwitched();
+                    if (switched) {
+                        handedOver = nextPath;
+                        currentDuration = nextDuration;
+                        nextPath = null;
+                    }
+                    if (frames == 0) {
+                        // Whatever is still in the line plays out (idleLine leaves the line running), the next track is written right after it.
+                        ended = true;
+                        fire(Listener::endOfMedia);
+                        continue;
+                    }
+                    sampleRate = pipeline.getSampleRate();
+                    flush = flushRequested;
+                    flushRequested = false;
+                }
+                if (switched) {
+                    fire(Listener::endOfMedia);
+                }
+                write(frames, sampleRate, flush);
+            }
+        } catch (InterruptedException e) {
+            // Engine was disposed.
+        } finally {
+            if (line != null) {
+                line.close();
+            }
+        }
+    }
+
+    /*
+     Called under the lock while there is nothing to play.
+     At the end of media the line keeps running, so its last ~100 ms are heard (it simply runs dry afterwards),
+     pause, stop and seek stop it right away.
+     */
+    private void idleLine() {
+        if (line == null) {
+            return;
+        }
+        if (line.isRunning() && !ended) {
+            line.stop();
+        }
+        if (flushRequested) {
+            line.flush();
+            flushRequested = false;
+            bufferedFrames = 0;
+        }
+    }
+
+    private void write(int frames, int sampleRate, boolean flush) {
+        if (!openLine(sampleRate)) {
+            return;
+        }
+        if (flush) {
+            line.flush();
+        }
+        if (!line.isRunning()) {
+            line.start();
+        }
+        line.write(block, 0, frames * AudioPipeline.BYTES_PER_FRAME);
+        bufferedFrames = (line.getBufferSize() - line.available()) / AudioPipeline.BYTES_PER_FRAME;
+    }
+
+    /* Line for 16 bit stereo at the sample rate of the track. False when there is no audio output. */
+    private boolean openLine(int sampleRate) {
+        if (line != null && lineSampleRate == sampleRate) {
+            return true;
+        }
+        if (line != null) {
+            line.drain();
+            line.close();
+            line = null;
+        }
+        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+        try {
+            SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+            opened.open(format, block.length * LINE_BUFFER_BLOCKS);
+            line = opened;
+            lineSampleRate = sampleRate;
+            return true;
+        } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            synchronized (lock) {
+                ended = true;
+            }
+            fire((listener) -> listener.error("No audio output: " + e.getMessage()));
+            setStatus(Status.HALTED);
+            return false;
+        }
+    }
+
+    ////////Events////////
+
+    private void setStatus(Status newStatus) {
+        if (status != newStatus) {
+            status = newStatus;
+            fire((listener) -> listener.statusChanged(newStatus));
+        }
+    }
+
+    private void fire(Consumer<Listener> event) {
+        events.execute(() -> {
+            for (Listener listener : listeners) {
+                event.accept(listener);
+            }
+        });
+    }
+
+    @Override
+    public Runnable addListener(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public void setSpectrumListener(SpectrumListener listener) {
+        analyzer.setEnabled(listener != null);
+    }
+
+    @Override
+    public SpscRing<SpectrumFrame> getSpectrumFrames() {
+        return analyzer.getFrames();
+    }
+
+    @Override
+    public int getSpectrumBands() {
+        return spectrumBands;
+    }
+
+    @Override
+    public void setSpectrumBands(int bands) {
+        this.spectrumBands = bands;
+        analyzer.setBands(bands);
+    }
+
+    @Override
+    public double getSpectrumInterval() {
+        return spectrumInterval;
+    }
+
+    @Override
+    public void setSpectrumInterval(double seconds) {
+        this.spectrumInterval = seconds;
+        analyzer.setInterval(seconds);
+    }
+
+    @Override
+    public void setSpectrumThreshold(int decibels) {
+        this.spectrumThreshold = decibels;
+        analyzer.setThreshold(decibels);
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (lock) {
+            disposed = true;
+            pipeline.clear();
+            nextPath = null;
+            lock.notifyAll();
+        }
+        opener.shutdown();
+        analyzer.close();
+        setStatus(Status.DISPOSED);
+    }
+}
@@ -0,0 +1,87 @@
+package dev.staniszak.app.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+
+/*
+ * Everything JavaFxAudioEngine attaches to one MediaPlayer: property listeners, callbacks (setOnReady, setOnEndOfMedia...)
+ * and the audio spectrum listener.
+ *
+ * Each registration remembers how to undo itself. When the track changes, the engine closes the session
+ * and every listener is removed from the old player, so nothing keeps pointing from the old player back into the application,
+ * no matter how many tracks have been played.
+ *
+ * Number of open sessions and attached listeners is counted, so long running soak tests can check that it stays flat.
+ */
+
+public class PlayerSession implements AutoCloseable {
+
+    private static final AtomicInteger OPEN_SESSIONS = new AtomicInteger();
+    private static final AtomicInteger ATTACHED_LISTENERS = new AtomicInteger();
+
+    private final List<Runnable> unbinders = new ArrayList<>();
+    private boolean closed = false;
+
+    public PlayerSession() {
+        OPEN_SESSIONS.incrementAndGet();
+    }
+
+    public static int getOpenSessions() {
+        return OPEN_SESSIONS.get();
+    }
+
+    public static int getAttachedListeners() {
+        return ATTACHED_LISTENERS.get();
+    }
+
+    public void listen(Observable observable, InvalidationListener listener) {
+        observable.addListener(listener);
+        remember(() -> observable.removeListener(listener));
+    }
+
+    public <T> void listen(ObservableValue<T> observable, ChangeListener<? super T> listener) {
+        observable.addListener(listener);
+        remember(() -> observable.removeListener(listener));
+    }
+
+    /* For callbacks of MediaPlayer, eg. session.handle(player::setOnReady, this::playerReady). On close the callback is set to null. */
+    public <T> void handle(Consumer<T> setter, T handler) {
+        setter.accept(handler);
+        remember(() -> setter.accept(null));
+    }
+
+    /* Anything else that has to be undone when the session is closed. */
+    public void onClose(Runnable unbinder) {
+        remember(unbinder);
+    }
+
+    private void remember(Runnable unbinder) {
+        if (closed) {
+            throw new IllegalStateException("Player session is closed");
+        }
+        unbinders.add(unbinder);
+        ATTACHED_LISTENERS.incrementAndGet();
+    }
+
+    /* Removes everything that has been registered through this session, last registered first. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = unbinders.size() - 1; i >= 0; i--) {
+            unbinders.get(i).run();
+        }
+        ATTACHED_LISTENERS.addAndGet(-unbinders.size());
+        unbinders.clear();
+        OPEN_SESSIONS.decrementAndGet();
+    }
+}
@@ -0,0 +1,219 @@
+package dev.staniszak.app.audio;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.format.TrackFormat;
+import dev.staniszak.app.audio.spectrum.SpectrumFrame;
+import dev.staniszak.app.audio.spectrum.SpscRing;
+
+/*
+ * AudioEngine that plays every track with the engine that can play its format (see TrackFormat, FormatRegistry):
+ * the preferred engine whenever it can, the other one otherwise. In the application the preferred engine is JavaFX
+ * MediaPlayer (PcmAudioEngine with -Dplayer.engine=pcm), so FLAC and Ogg Vorbis go to our own decoders,
+ * AAC/ALAC in MP4 to JavaFX. Files of an unknown format are left to the preferred engine, it reports the error.
+ *
+ * Only one engine is active at a time. Listeners are registered on the router, events of the engine that is not
+ * active are dropped (e.g. STOPPED of the previous engine after a switch). Volume, repeat and spectrum settings go
+ * to both engines, the spectrum listener only to the active one, so the other one does not analyse silence.
+ * Both engines deliver their events on the JavaFX application thread, the router must be used there as well.
+ */
+
+public class RoutingAudioEngine implements AudioEngine {
+
+    private final AudioEngine preferred;
+    private final AudioEngine fallback;
+    private final boolean preferredIsPcm;
+    private final FormatRegistry formats;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private AudioEngine active;
+    private SpectrumListener spectrumListener;
+
+    /* preferredIsPcm tells which of the two engines decodes with our pipeline. */
+    public RoutingAudioEngine(AudioEngine preferred, AudioEngine fallback, boolean preferredIsPcm, FormatRegistry formats) {
+        this.preferred = preferred;
+        this.fallback = fallback;
+        this.preferredIsPcm = preferredIsPcm;
+        this.formats = formats;
+        this.active = preferred;
+        this.forward(preferred);
+        this.forward(fallback);
+    }
+
+    private void forward(AudioEngine engine) {
+        engine.addListener(new Listener() {
+            @Override
+            public void statusChanged(Status status) {
+                if (active == engine) {
+                    listeners.forEach((listener) -> listener.statusChanged(status));
+                }
+            }
+
+            @Override
+            public void ready() {
+                if (active == engine) {
+                    listeners.forEach(Listener::ready);
+                }
+            }
+
+            @Override
+            public void endOfMedia() {
+                if (active == engine) {
+                    listeners.forEach(Listener::endOfMedia);
+                }
+            }
+
+            @Override
+            public void error(String message) {
+                if (active == engine) {
+                    listeners.forEach((listener) -> listener.error(message));
+                }
+            }
+        });
+    }
+
+    /* Engine the track goes to. Public for tests and harnesses. */
+    public AudioEngine engineFor(String filepath) {
+        TrackFormat format = formats.detect(Path.of(filepath));
+        boolean preferredPlays = preferredIsPcm ? format.isPcmPlayable() : format.isJavaFxPlayable();
+        boolean fallbackPlays = preferredIsPcm ? format.isJavaFxPlayable() : format.isPcmPlayable();
+        return !preferredPlays && fallbackPlays ? fallback : preferred;
+    }
+
+    public AudioEngine getActive() {
+        return active;
+    }
+
+    ////////Tracks////////
+
+    @Override
+    public void changeMedia(String filepath, boolean autoPlay) {
+        AudioEngine target = engineFor(filepath);
+        if (target != active) {
+            AudioEngine previous = active;
+            active = target;
+            previous.setSpectrumListener(null);
+            previous.stop();
+            target.setSpectrumListener(spectrumListener);
+        }
+        target.changeMedia(filepath, autoPlay);
+    }
+
+    /* Track is prepared by the engine that is going to play it, switching engines is not gapless. */
+    @Override
+    public void preload(String filepath) {
+        engineFor(filepath).preload(filepath);
+    }
+
+    ////////Transport////////
+
+    @Override
+    public void play() {
+        active.play();
+    }
+
+    @Override
+    public void pause() {
+        active.pause();
+    }
+
+    @Override
+    public void stop() {
+        active.stop();
+    }
+
+    @Override
+    public void seek(double millis) {
+        active.seek(millis);
+    }
+
+    @Override
+    public Status getStatus() {
+        return active.getStatus();
+    }
+
+    @Override
+    public double getCurrentTimeMillis() {
+        return active.getCurrentTimeMillis();
+    }
+
+    @Override
+    public double getDurationMillis() {
+        return active.getDurationMillis();
+    }
+
+    @Override
+    public void setRepeat(boolean repeat) {
+        preferred.setRepeat(repeat);
+        fallback.setRepeat(repeat);
+    }
+
+    @Override
+    public double getVolume() {
+        return active.getVolume();
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        preferred.setVolume(volume);
+        fallback.setVolume(volume);
+    }
+
+    ////////Events////////
+
+    @Override
+    public Runnable addListener(Listener listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public void setSpectrumListener(SpectrumListener listener) {
+        this.spectrumListener = listener;
+        active.setSpectrumListener(listener);
+    }
+
+    @Override
+    public int getSpectrumBands() {
+        return active.getSpectrumBands();
+    }
+
+    @Override
+    public void setSpectrumBands(int bands) {
+        preferred.setSpectrumBands(bands);
+        fallback.setSpectrumBands(bands);
+    }
+
+    @Override
+    public double getSpectrumInterval() {
+        return active.getSpectrumInterval();
+    }
+
+    @Override
+    public void setSpectrumInterval(double seconds) {
+        preferred.setSpectrumInterval(seconds);
+        fallback.setSpectrumInterval(seconds);
+    }
+
+    @Override
+    public void setSpectrumThreshold(int decibels) {
+        preferred.setSpectrumThreshold(decibels);
+        fallback.setSpectrumThreshold(decibels);
+    }
+
+    /* Frames of whichever engine analyses the audio itself, the other one calls the listener. */
+    @Override
+    public SpscRing<SpectrumFrame> getSpectrumFrames() {
+        SpscRing<SpectrumFrame> frames = preferred.getSpectrumFrames();
+        return frames != null ? frames : fallback.getSpectrumFrames();
+    }
+
+    @Override
+    public void dispose() {
+        preferred.dispose();
+        fallback.dispose();
+    }
+}
@@ -0,0 +1,35 @@
+package dev.staniszak.app.audio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleConsumer;
+
+/*
+ * Time that moves only when somebody says so. Drives FakeAudioEngine (and anything else that wants to follow it),
+ * so a simulated hour of playback takes as long as the code that reacts to it, and runs the same way every time.
+ */
+
+public class SimulatedClock {
+
+    private final List<DoubleConsumer> followers = new CopyOnWriteArrayList<>();
+    private double millis = 0;
+
+    public double millis() {
+        return millis;
+    }
+
+    /* Follower is told how many milliseconds passed, on the thread that advances the clock. */
+    public void follow(DoubleConsumer follower) {
+        followers.add(follower);
+    }
+
+    public void advance(double elapsedMillis) {
+        if (elapsedMillis < 0) {
+            throw new IllegalArgumentException("Clock cannot go back: " + elapsedMillis);
+        }
+        millis += elapsedMillis;
+        for (DoubleConsumer follower : followers) {
+            follower.accept(elapsedMillis);
+        }
+    }
+}
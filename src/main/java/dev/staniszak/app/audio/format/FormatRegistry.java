@@ -0,0 +1,210 @@
+package dev.staniszak.app.audio.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Tells the format of a file from its first bytes (magic numbers), not from its name:
+ *   fLaC                     FLAC
+ *   OggS + \1vorbis/OpusHead Ogg Vorbis / Ogg Opus (codec from the first packet, byte 28)
+ *   RIFF....WAVE             WAV
+ *   FORM....AIFF/AIFC        AIFF
+ *   ....ftyp                 MP4 (m4a)
+ *   FF Ex/Fx frame header    MP3 (layer I-III) or AAC (ADTS, layer bits 00)
+ *   ID3                      tag in front of the audio, the header right after it decides (MP3 mostly, AAC, FLAC)
+ *
+ * Only HEADER_BYTES are read, through direct buffers taken from a small pool (no heap copy, nothing allocated per file
+ * once the pool is warm). One more read is needed only when an ID3 tag has to be skipped.
+ *
+ * Results are remembered per path together with size and modification time of the file, so listing the same directory
+ * again (File View, rescans of changed directories) does not read any headers. Unchanged directories are not even listed,
+ * LibraryIndex answers for them. The cache is bounded (least recently used paths go first, -Dplayer.formatCacheSize).
+ * Methods may be called from any thread.
+ */
+
+public class FormatRegistry {
+
+    public static final FormatRegistry SHARED = new FormatRegistry(Integer.getInteger("player.formatCacheSize", 200_000));
+
+    static final int HEADER_BYTES = 64;
+    private static final int POOLED_BUFFERS = 16;
+
+    private static class Detected {
+        final long size;
+        final long lastModified;
+        final TrackFormat format;
+
+        Detected(long size, long lastModified, TrackFormat format) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.format = format;
+        }
+    }
+
+    private final LinkedHashMap<Path, Detected> cache;
+    private final ArrayBlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+    private final AtomicLong headerReads = new AtomicLong();
+
+    public FormatRegistry(int capacity) {
+        this.cache = new LinkedHashMap<Path, Detected>(Math.min(capacity, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Detected> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /* Format of the file, UNKNOWN when it cannot be read or is not audio. */
+    public TrackFormat detect(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return TrackFormat.UNKNOWN;
+            }
+            return detect(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return TrackFormat.UNKNOWN;
+        }
+    }
+
+    /* Same as above when size and modification time are known already (directory listing). */
+    public TrackFormat detect(Path file, long size, long lastModified) {
+        synchronized (cache) {
+            Detected known = cache.get(file);
+            if (known != null && known.size == size && known.lastModified == lastModified) {
+                return known.format;
+            }
+        }
+        TrackFormat format = size < 4 ? TrackFormat.UNKNOWN : readHeader(file);
+        synchronized (cache) {
+            cache.put(file, new Detected(size, lastModified, format));
+        }
+        return format;
+    }
+
+    /* Headers read from disk since start (cache misses). */
+    public long getHeaderReads() {
+        return headerReads.get();
+    }
+
+    private TrackFormat readHeader(Path file) {
+        headerReads.incrementAndGet();
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(HEADER_BYTES);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(channel, buffer, 0);
+            long tag = id3Length(buffer);
+            if (tag == 0) {
+                return probe(buffer);
+            }
+            read(channel, buffer, tag);
+            TrackFormat format = probe(buffer);
+            // Only these are found behind an ID3 tag, anything else there is a broken or a non audio file.
+            return format == TrackFormat.MP3 || format == TrackFormat.AAC || format == TrackFormat.FLAC ? format : TrackFormat.UNKNOWN;
+        } catch (IOException | SecurityException e) {
+            return TrackFormat.UNKNOWN;
+        } finally {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /* Length of the ID3v2 tag the buffer starts with (header, body and footer), 0 when there is none. */
+    private static long id3Length(ByteBuffer header) {
+        if (header.remaining() < 10 || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+            return 0;
+        }
+        int size = 0;
+        for (int i = 6; i < 10; i++) {
+            size = (size << 7) | (header.get(i) & 0x7F); // <- syncsafe integer
+        }
+        boolean footer = (header.get(5) & 0x10) != 0;
+        return 10L + size + (footer ? 10 : 0);
+    }
+
+    /* Format of the data the buffer starts with (position 0 up to its limit). */
+    public static TrackFormat probe(ByteBuffer header) {
+        int length = header.limit();
+        if (length < 4) {
+            return TrackFormat.UNKNOWN;
+        }
+        if (matches(header, 0, "fLaC")) {
+            return TrackFormat.FLAC;
+        }
+        if (matches(header, 0, "OggS")) {
+            if (length >= 35 && header.get(28) == 1 && matches(header, 29, "vorbis")) {
+                return TrackFormat.VORBIS;
+            }
+            if (length >= 36 && matches(header, 28, "OpusHead")) {
+                return TrackFormat.OPUS;
+            }
+            return TrackFormat.UNKNOWN; // <- Ogg with another codec (FLAC in Ogg, Speex, Theora...)
+        }
+        if (length >= 12 && matches(header, 0, "RIFF") && matches(header, 8, "WAVE")) {
+            return TrackFormat.WAV;
+        }
+        if (length >= 12 && matches(header, 0, "FORM") && (matches(header, 8, "AIFF") || matches(header, 8, "AIFC"))) {
+            return TrackFormat.AIFF;
+        }
+        if (length >= 8 && matches(header, 4, "ftyp")) {
+            return TrackFormat.MP4;
+        }
+        return frameSync(header);
+    }
+
+    /*
+     MPEG audio frame header: 11 sync bits, version, layer, then bitrate and sample rate indexes.
+     Layer 00 is reserved in MPEG audio, ADTS (AAC) uses exactly that. Reserved values elsewhere mean it is not audio.
+     */
+    private static TrackFormat frameSync(ByteBuffer header) {
+        int b0 = header.get(0) & 0xFF;
+        int b1 = header.get(1) & 0xFF;
+        int b2 = header.get(2) & 0xFF;
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return TrackFormat.UNKNOWN;
+        }
+        int version = (b1 >> 3) & 0x3;
+        int layer = (b1 >> 1) & 0x3;
+        if (layer == 0) {
+            // ADTS: MPEG-4 (0) or MPEG-2 (1) id bit in place of the version, sampling frequency index below 13.
+            return (b1 & 0xF0) == 0xF0 && ((b2 >> 2) & 0xF) < 13 ? TrackFormat.AAC : TrackFormat.UNKNOWN;
+        }
+        int bitrate = (b2 >> 4) & 0xF;
+        int sampleRate = (b2 >> 2) & 0x3;
+        return version != 1 && bitrate != 0xF && sampleRate != 0x3 ? TrackFormat.MP3 : TrackFormat.UNKNOWN;
+    }
+
+    private static boolean matches(ByteBuffer header, int offset, String magic) {
+        if (header.limit() < offset + magic.length()) {
+            return false;
+        }
+        for (int i = 0; i < magic.length(); i++) {
+            if (header.get(offset + i) != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
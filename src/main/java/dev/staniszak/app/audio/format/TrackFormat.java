@@ -0,0 +1,70 @@
+package dev.staniszak.app.audio.format;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import dev.staniszak.app.audio.pipeline.FlacPcmSource;
+import dev.staniszak.app.audio.pipeline.Mp3PcmSource;
+import dev.staniszak.app.audio.pipeline.PcmSource;
+import dev.staniszak.app.audio.pipeline.SampledPcmSource;
+import dev.staniszak.app.audio.pipeline.VorbisPcmSource;
+
+/*
+ * Audio formats the player recognizes (see FormatRegistry) and who can play them:
+ *   - javaFx: javafx.scene.media.Media plays it (MP3, WAV, AIFF, AAC/ALAC in MP4),
+ *   - pcm:    one of our decoders feeds the AudioPipeline with it (MP3, FLAC, Ogg Vorbis, WAV, AIFF).
+ * A format nobody can play (raw AAC, Opus, UNKNOWN) is not a track, the library does not show it.
+ */
+
+public enum TrackFormat {
+
+    MP3(true, true),
+    FLAC(false, true),
+    WAV(true, true),
+    AIFF(true, true),
+    MP4(true, false),    // <- .m4a, .mp4: AAC or ALAC in an MP4 container
+    AAC(false, false),   // <- raw ADTS stream, .aac
+    VORBIS(false, true), // <- Ogg Vorbis, .ogg
+    OPUS(false, false),  // <- Ogg Opus, .opus
+    UNKNOWN(false, false);
+
+    private final boolean javaFx;
+    private final boolean pcm;
+
+    TrackFormat(boolean javaFx, boolean pcm) {
+        this.javaFx = javaFx;
+        this.pcm = pcm;
+    }
+
+    public boolean isJavaFxPlayable() {
+        return javaFx;
+    }
+
+    public boolean isPcmPlayable() {
+        return pcm;
+    }
+
+    public boolean isPlayable() {
+        return javaFx || pcm;
+    }
+
+    /* Decoder of the format for the PcmAudioEngine. */
+    public PcmSource openPcm(Path file) throws IOException {
+        switch (this) {
+            case MP3:
+            case UNKNOWN:
+                // Unknown data is given to the MP3 decoder, as before formats were detected: it finds no frames in an empty
+                // or non audio file and the track is simply empty (e.g. the placeholder track of an empty library).
+                return new Mp3PcmSource(file);
+            case FLAC:
+                return new FlacPcmSource(file);
+            case VORBIS:
+                return new VorbisPcmSource(file);
+            case WAV:
+            case AIFF:
+                return new SampledPcmSource(file);
+            default:
+                throw new IOException(this + " cannot be decoded by the PCM engine: " + file);
+        }
+    }
+}
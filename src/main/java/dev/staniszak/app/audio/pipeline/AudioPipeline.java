@@ -0,0 +1,304 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.IOException;
+
+/*
+ * Turns decoded tracks into blocks of 16 bit little endian stereo PCM, ready to be written to a SourceDataLine.
+ *
+ * For every block (BLOCK_FRAMES frames):
+ *   1. the current track is read and normalized by its own ReplayGain,
+ *   2. during a crossfade the previous track is read, normalized and mixed in (equal power curves),
+ *   3. the mix goes through the DSP stages (Equalizer first, then whatever was added with addStage()),
+ *   4. volume, clipping and conversion to 16 bit.
+ *
+ * Crossfade: when the next track has been set (see setNext) and the current one is closer to its end than the crossfade length,
+ * the next track becomes the current one and the old one fades out under it. The switch is reported once by takeSwitched().
+ * Tracks with a different sample rate are not crossfaded, the next one starts when the current one ends.
+ * Repeat loops the current track inside the pipeline, without a gap.
+ *
+ * All buffers are allocated in the constructor, render() does not allocate (apart from what the decoder does).
+ * Pipeline is not thread safe, PcmAudioEngine calls it under its lock. Volume, crossfade length, repeat
+ * and equalizer gains may be changed from any thread.
+ */
+
+public class AudioPipeline {
+
+    public static final int BLOCK_FRAMES = 1024;
+    public static final int BYTES_PER_FRAME = 4; // <- 16 bit stereo
+
+    /*
+     Track as the pipeline plays it: decoded audio, its normalization and length (0 when unknown).
+     Without a duration (NaN, e.g. no tags) the length the source knows from its container is used.
+     */
+    public static class Track {
+        private final PcmSource source;
+        private final ReplayGain gain;
+        private final double durationMillis;
+        private final long lengthFrames;
+
+        public Track(PcmSource source, ReplayGain gain, double durationMillis) {
+            this.source = source;
+            this.gain = gain;
+            long length = source.getLength();
+            this.durationMillis = !(durationMillis > 0) && length > 0 ? length * 1000.0 / source.getSampleRate() : durationMillis;
+            this.lengthFrames = this.durationMillis > 0 ? Math.round(this.durationMillis * source.getSampleRate() / 1000) : 0;
+        }
+
+        public double getDurationMillis() {
+            return durationMillis;
+        }
+
+        public PcmSource getSource() {
+            return source;
+        }
+
+        public ReplayGain getGain() {
+            return gain;
+        }
+
+        long remaining() {
+            return lengthFrames - source.getPosition();
+        }
+
+        void close() {
+            try {
+                source.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final float[] mix = new float[BLOCK_FRAMES * 2];
+    private final float[] fade = new float[BLOCK_FRAMES * 2];
+    private final Equalizer equalizer = new Equalizer();
+    private volatile DspStage[] stages = { equalizer };
+
+    private Track current;
+    private Track next;
+    private Track outgoing;
+    private long fadePosition = 0;
+    private long fadeLength = 0;
+    private boolean switched = false;
+    private int sampleRate = 0;
+
+    private volatile float volume = 1f;
+    private volatile double crossfadeMillis = 0;
+    private volatile boolean repeat = false;
+
+    ////////Settings////////
+
+    public Equalizer getEqualizer() {
+        return equalizer;
+    }
+
+    /* Stage is added after the ones that are already there, e.g. a spectrum analyzer that looks at the final signal. */
+    public synchronized void addStage(DspStage stage) {
+        DspStage[] extended = new DspStage[stages.length + 1];
+        System.arraycopy(stages, 0, extended, 0, stages.length);
+        extended[stages.length] = stage;
+        if (sampleRate > 0) {
+            stage.prepare(sampleRate);
+        }
+        stages = extended;
+    }
+
+    public void setVolume(double volume) {
+        this.volume = (float) Math.max(0, Math.min(1, volume));
+    }
+
+    /* 0 switches the crossfade off, the next track starts when the current one ends. */
+    public void setCrossfadeMillis(double millis) {
+        this.crossfadeMillis = Math.max(0, millis);
+    }
+
+    public void setRepeat(boolean repeat) {
+        this.repeat = repeat;
+    }
+
+    ////////Tracks////////
+
+    /* Replaces whatever is playing (a running crossfade too). Old tracks are closed. */
+    public void setCurrent(Track track) {
+        if (current != null && current != track) {
+            current.close();
+        }
+        closeOutgoing();
+        this.current = track;
+        this.switched = false;
+        if (track.source.getSampleRate() != sampleRate) {
+            this.sampleRate = track.source.getSampleRate();
+            for (DspStage stage : stages) {
+                stage.prepare(sampleRate);
+            }
+        }
+        resetStages();
+    }
+
+    /* Track that plays after the current one (crossfaded if the crossfade is on). Null drops the one that was set. */
+    public void setNext(Track track) {
+        if (next != null && next != track) {
+            next.close();
+        }
+        this.next = track;
+    }
+
+    /* Removes the next track from the pipeline without closing it. */
+    public Track takeNext() {
+        Track track = this.next;
+        this.next = null;
+        return track;
+    }
+
+    public boolean hasCurrent() {
+        return current != null;
+    }
+
+    /* True once after a crossfade has made the next track the current one. */
+    public boolean takeSwitched() {
+        boolean result = switched;
+        switched = false;
+        return result;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public double getPositionMillis() {
+        return current == null || sampleRate == 0 ? 0 : current.source.getPosition() * 1000.0 / sampleRate;
+    }
+
+    public void seek(double millis) throws IOException {
+        if (current != null) {
+            closeOutgoing();
+            current.source.seek(millis);
+            resetStages();
+        }
+    }
+
+    /* Closes every track. */
+    public void clear() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        closeOutgoing();
+        setNext(null);
+        fadePosition = 0;
+        fadeLength = 0;
+    }
+
+    ////////Rendering////////
+
+    /* Renders the next block into out (at least BLOCK_FRAMES * BYTES_PER_FRAME bytes). Returns frames, 0 when the current track has ended. */
+    public int render(byte[] out) throws IOException {
+        if (current == null) {
+            return 0;
+        }
+        startCrossfade();
+
+        int frames = current.source.read(mix, 0, BLOCK_FRAMES);
+        if (frames == 0 && repeat && outgoing == null) {
+            current.source.seek(0);
+            frames = current.source.read(mix, 0, BLOCK_FRAMES);
+        }
+        current.gain.process(mix, frames);
+        if (fadePosition < fadeLength) {
+            frames = crossfade(frames);
+        }
+        if (frames == 0) {
+            return 0;
+        }
+
+        DspStage[] chain = stages;
+        for (DspStage stage : chain) {
+            stage.process(mix, frames);
+        }
+        toPcm(out, frames);
+        return frames;
+    }
+
+    private void startCrossfade() {
+        long length = Math.round(crossfadeMillis * sampleRate / 1000);
+        if (next == null || outgoing != null || repeat || length == 0 || current.lengthFrames == 0
+            || next.source.getSampleRate() != sampleRate) {
+            return;
+        }
+        long remaining = current.remaining();
+        if (remaining > length) {
+            return;
+        }
+        outgoing = current;
+        current = next;
+        next = null;
+        fadePosition = 0;
+        fadeLength = Math.max(1, remaining);
+        switched = true;
+    }
+
+    /* Fades the current track in over the whole fade, the outgoing one out as long as it has something to play. */
+    private int crossfade(int frames) throws IOException {
+        int faded = 0;
+        if (outgoing != null) {
+            faded = outgoing.source.read(fade, 0, BLOCK_FRAMES);
+            outgoing.gain.process(fade, faded);
+            if (faded < BLOCK_FRAMES) {
+                closeOutgoing();
+            }
+        }
+        for (int i = frames * 2; i < faded * 2; i++) {
+            mix[i] = 0;
+        }
+        int total = Math.max(frames, faded);
+
+        // Gains at both ends of the block, linear in between.
+        double start = Math.min(1.0, (double) fadePosition / fadeLength) * Math.PI / 2;
+        double end = Math.min(1.0, (double) (fadePosition + total) / fadeLength) * Math.PI / 2;
+        float inFrom = (float) Math.sin(start);
+        float inStep = total == 0 ? 0 : (float) (Math.sin(end) - Math.sin(start)) / total;
+        float outFrom = (float) Math.cos(start);
+        float outStep = total == 0 ? 0 : (float) (Math.cos(end) - Math.cos(start)) / total;
+        for (int i = 0; i < total; i++) {
+            float in = inFrom + inStep * i;
+            mix[2 * i] *= in;
+            mix[2 * i + 1] *= in;
+            if (i < faded) {
+                float out = outFrom + outStep * i;
+                mix[2 * i] += fade[2 * i] * out;
+                mix[2 * i + 1] += fade[2 * i + 1] * out;
+            }
+        }
+        fadePosition += total;
+        if (fadePosition >= fadeLength) {
+            closeOutgoing();
+        }
+        return total;
+    }
+
+    private void closeOutgoing() {
+        if (outgoing != null) {
+            outgoing.close();
+            outgoing = null;
+        }
+    }
+
+    /* Stops a running crossfade too, the filters would ring with the old signal anyway. */
+    private void resetStages() {
+        fadePosition = 0;
+        fadeLength = 0;
+        for (DspStage stage : stages) {
+            stage.reset();
+        }
+    }
+
+    private void toPcm(byte[] out, int frames) {
+        float gain = volume * 32767f;
+        for (int i = 0, o = 0, end = frames * 2; i < end; i++, o += 2) {
+            float sample = mix[i] * gain;
+            int value = sample >= 32767f ? 32767 : sample <= -32768f ? -32768 : (int) sample;
+            out[o] = (byte) value;
+            out[o + 1] = (byte) (value >> 8);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dev.staniszak.app.audio.pipeline;
+
+/*
+ * One step of the audio pipeline, works in place on a block of interleaved stereo samples.
+ *
+ * process() runs on the audio thread for every block, it must not allocate and must not block.
+ * Settings may be changed from any thread, a stage picks them up at the beginning of the next block.
+ */
+
+public interface DspStage {
+
+    /* Called before the first block and whenever the sample rate changes, filters have to be designed again. */
+    void prepare(int sampleRate);
+
+    void process(float[] samples, int frames);
+
+    /* Forget the history (filter state), e.g. after a seek, so the old signal does not ring into the new one. */
+    void reset();
+}
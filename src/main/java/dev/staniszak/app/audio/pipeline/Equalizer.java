@@ -0,0 +1,187 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.util.Arrays;
+
+/*
+ * 10 band graphic equalizer: one peaking biquad per octave band (31 Hz - 16 kHz), coefficients from
+ * the RBJ Audio EQ Cookbook, filters in transposed direct form II.
+ *
+ * Gains are set from any thread (in dB, clamped to +-MAX_GAIN_DB), coefficients are designed again on the audio thread
+ * at the beginning of the next block. Bands at 0 dB are not processed at all, a flat equalizer costs nothing.
+ * Bands above Nyquist (e.g. 16 kHz at 22.05 kHz sample rate) are left out.
+ * Everything lives in preallocated arrays, process() does not allocate.
+ */
+
+public class Equalizer implements DspStage {
+
+    public static final double[] FREQUENCIES = { 31.25, 62.5, 125, 250, 500, 1000, 2000, 4000, 8000, 16000 };
+    public static final int BANDS = FREQUENCIES.length;
+    public static final double MAX_GAIN_DB = 12;
+    private static final double Q = 1.41; // <- one octave wide
+
+    private final double[] gains = new double[BANDS];
+    private final double[] designed = new double[BANDS]; // <- copy of gains the filters were designed for
+    private volatile boolean changed = true;
+    private int sampleRate = 44_100;
+
+    // Normalized coefficients (a0 = 1) and state of the active bands, [band] and [band * 2 + channel].
+    private final int[] active = new int[BANDS];
+    private final boolean[] enabled = new boolean[BANDS];
+    private int activeCount = 0;
+    private final double[] b0 = new double[BANDS];
+    private final double[] b1 = new double[BANDS];
+    private final double[] b2 = new double[BANDS];
+    private final double[] a1 = new double[BANDS];
+    private final double[] a2 = new double[BANDS];
+    private final double[] z1 = new double[BANDS * 2];
+    private final double[] z2 = new double[BANDS * 2];
+    private final double[] packedCoefficients = new double[BANDS * 5]; // <- b0 b1 b2 a1 a2 of the active bands
+    private final double[] packedState = new double[BANDS * 4];        // <- z1 z2 left, z1 z2 right
+
+    /* Gains in dB, missing bands are flat. */
+    public void setGains(double... decibels) {
+        synchronized (gains) {
+            for (int band = 0; band < BANDS; band++) {
+                double gain = band < decibels.length ? decibels[band] : 0;
+                gains[band] = Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, gain));
+            }
+        }
+        changed = true;
+    }
+
+    public void setGain(int band, double decibels) {
+        synchronized (gains) {
+            gains[band] = Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, decibels));
+        }
+        changed = true;
+    }
+
+    public double getGain(int band) {
+        synchronized (gains) {
+            return gains[band];
+        }
+    }
+
+    /* Parses "g1,g2,...,g10" in dB (-Dplayer.eq=...), a broken value gives a flat equalizer. */
+    public static double[] parseGains(String value) {
+        double[] decibels = new double[BANDS];
+        if (value == null || value.isBlank()) {
+            return decibels;
+        }
+        String[] parts = value.split(",");
+        try {
+            for (int band = 0; band < Math.min(BANDS, parts.length); band++) {
+                decibels[band] = Double.parseDouble(parts[band].trim());
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Equalizer gains '" + value + "' are not valid, equalizer is flat. " + e);
+            return new double[BANDS];
+        }
+        return decibels;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.changed = true;
+        this.reset();
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(z1, 0);
+        Arrays.fill(z2, 0);
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        if (changed) {
+            design();
+        }
+        double[] c = packedCoefficients;
+        double[] s = packedState;
+        int count = activeCount;
+        if (count == 0) {
+            return;
+        }
+        // Coefficients and state of the active bands packed next to each other, so the inner loop walks plain arrays.
+        for (int i = 0; i < count; i++) {
+            int band = active[i];
+            c[i * 5] = b0[band];
+            c[i * 5 + 1] = b1[band];
+            c[i * 5 + 2] = b2[band];
+            c[i * 5 + 3] = a1[band];
+            c[i * 5 + 4] = a2[band];
+            s[i * 4] = z1[band * 2];
+            s[i * 4 + 1] = z2[band * 2];
+            s[i * 4 + 2] = z1[band * 2 + 1];
+            s[i * 4 + 3] = z2[band * 2 + 1];
+        }
+        /*
+         Every frame goes through all bands before the next one. A single biquad is limited by the latency of its feedback,
+         here the filters of the other bands (and the other channel) run in the meantime.
+         */
+        for (int i = 0, end = frames * 2; i < end; i += 2) {
+            double left = samples[i];
+            double right = samples[i + 1];
+            for (int k = 0; k < count; k++) {
+                int ck = k * 5;
+                int sk = k * 4;
+                double leftOut = c[ck] * left + s[sk];
+                double rightOut = c[ck] * right + s[sk + 2];
+                s[sk] = c[ck + 1] * left - c[ck + 3] * leftOut + s[sk + 1];
+                s[sk + 1] = c[ck + 2] * left - c[ck + 4] * leftOut;
+                s[sk + 2] = c[ck + 1] * right - c[ck + 3] * rightOut + s[sk + 3];
+                s[sk + 3] = c[ck + 2] * right - c[ck + 4] * rightOut;
+                left = leftOut;
+                right = rightOut;
+            }
+            samples[i] = (float) left;
+            samples[i + 1] = (float) right;
+        }
+        for (int i = 0; i < count; i++) {
+            int band = active[i];
+            z1[band * 2] = flushDenormal(s[i * 4]);
+            z2[band * 2] = flushDenormal(s[i * 4 + 1]);
+            z1[band * 2 + 1] = flushDenormal(s[i * 4 + 2]);
+            z2[band * 2 + 1] = flushDenormal(s[i * 4 + 3]);
+        }
+    }
+
+    /* State of a filter fed with silence decays towards denormal numbers, which are very slow on most CPUs. */
+    private static double flushDenormal(double value) {
+        return Math.abs(value) < 1e-30 ? 0 : value;
+    }
+
+    private void design() {
+        changed = false;
+        synchronized (gains) {
+            System.arraycopy(gains, 0, designed, 0, BANDS);
+        }
+        int count = 0;
+        for (int band = 0; band < BANDS; band++) {
+            if (designed[band] == 0 || FREQUENCIES[band] >= sampleRate * 0.45) {
+                enabled[band] = false;
+                continue;
+            }
+            double amplitude = Math.pow(10, designed[band] / 40);
+            double omega = 2 * Math.PI * FREQUENCIES[band] / sampleRate;
+            double alpha = Math.sin(omega) / (2 * Q);
+            double cos = Math.cos(omega);
+            double a0 = 1 + alpha / amplitude;
+            b0[band] = (1 + alpha * amplitude) / a0;
+            b1[band] = -2 * cos / a0;
+            b2[band] = (1 - alpha * amplitude) / a0;
+            a1[band] = -2 * cos / a0;
+            a2[band] = (1 - alpha / amplitude) / a0;
+            if (!enabled[band]) {
+                // Band that was flat starts from silence.
+                z1[band * 2] = z1[band * 2 + 1] = 0;
+                z2[band * 2] = z2[band * 2 + 1] = 0;
+                enabled[band] = true;
+            }
+            active[count++] = band;
+        }
+        activeCount = count;
+    }
+}
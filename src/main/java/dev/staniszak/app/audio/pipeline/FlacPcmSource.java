@@ -0,0 +1,147 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jflac.ChannelData;
+import org.jflac.FLACDecoder;
+import org.jflac.frame.Frame;
+import org.jflac.metadata.StreamInfo;
+
+/*
+ * FLAC decoded with jFLAC.
+ *
+ * jFLAC decodes one frame at a time into its ChannelData, integer samples per channel, reused for every frame.
+ * We read them straight from there (without jFLAC's conversion to bytes), keep the rest of the frame for the next read().
+ * Any bit depth (8 - 32 bit) is scaled to [-1.0, 1.0], tracks with more than two channels play their first two.
+ *
+ * Seeking backwards opens the file again, frames before the target are decoded and thrown away
+ * (FLAC decodes at hundreds of times real time, a seek across a whole track takes a moment only on a slow disk).
+ */
+
+public class FlacPcmSource implements PcmSource {
+
+    private final Path file;
+    private InputStream input;
+    private FLACDecoder decoder;
+
+    private int sampleRate;
+    private int channels;
+    private float scale;
+    private ChannelData[] pending;
+    private int pendingLength = 0; // <- frames
+    private int pendingPosition = 0;
+    private long position = 0;
+    private long length = -1;
+
+    public FlacPcmSource(Path file) throws IOException {
+        this.file = file;
+        this.open();
+    }
+
+    private void open() throws IOException {
+        this.input = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        this.decoder = new FLACDecoder(input);
+        try {
+            decoder.readMetadata();
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw new IOException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
+        StreamInfo info = decoder.getStreamInfo();
+        if (info == null) {
+            input.close();
+            throw new IOException("Cannot read " + file + ": no FLAC stream info");
+        }
+        this.sampleRate = info.getSampleRate();
+        this.channels = info.getChannels();
+        this.scale = 1f / (1L << (info.getBitsPerSample() - 1));
+        this.length = info.getTotalSamples() > 0 ? info.getTotalSamples() : -1; // <- 0 when the encoder did not know it
+        this.pendingLength = 0;
+        this.pendingPosition = 0;
+        this.position = 0;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public int read(float[] buffer, int offset, int frames) throws IOException {
+        int done = 0;
+        while (done < frames) {
+            if (pendingPosition >= pendingLength) {
+                if (!decodeNext()) {
+                    break;
+                }
+                continue;
+            }
+            int count = Math.min(frames - done, pendingLength - pendingPosition);
+            int[] left = pending[0].getOutput();
+            int[] right = pending[channels > 1 ? 1 : 0].getOutput();
+            int out = (offset + done) * 2;
+            for (int i = 0, in = pendingPosition; i < count; i++, in++) {
+                buffer[out + 2 * i] = left[in] * scale;
+                buffer[out + 2 * i + 1] = right[in] * scale;
+            }
+            pendingPosition += count;
+            done += count;
+        }
+        position += done;
+        return done;
+    }
+
+    /* Decodes the next frame. False at the end of the file. */
+    private boolean decodeNext() throws IOException {
+        Frame frame;
+        try {
+            frame = decoder.readNextFrame();
+        } catch (IOException | RuntimeException e) {
+            // Damaged end of a file, what was decoded so far is the whole track.
+            return false;
+        }
+        if (frame == null) {
+            return false;
+        }
+        pending = decoder.getChannelData();
+        pendingLength = frame.header.blockSize;
+        pendingPosition = 0;
+        return true;
+    }
+
+    @Override
+    public void seek(double millis) throws IOException {
+        long target = Math.max(0, Math.round(millis * sampleRate / 1000.0));
+        if (target < position) {
+            this.input.close();
+            this.open();
+        }
+        while (position < target) {
+            if (pendingPosition >= pendingLength && !decodeNext()) {
+                break;
+            }
+            int skip = (int) Math.min(target - position, pendingLength - pendingPosition);
+            pendingPosition += skip;
+            position += skip;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
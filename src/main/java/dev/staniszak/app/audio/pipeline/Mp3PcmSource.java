@@ -0,0 +1,198 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/*
+ * MP3 decoded with JLayer (pure Java, MPEG 1/2/2.5 layer I-III).
+ *
+ * JLayer decodes one MPEG frame at a time into its own 16 bit buffer, which it reuses for every frame.
+ * We convert what the pipeline asks for into floats and keep the rest of the frame for the next read().
+ * The first frame is decoded when the source is opened, so the sample rate is known before anything plays.
+ *
+ * Seeking backwards opens the file again. Frames before the target are skipped without decoding,
+ * only the one right before it is decoded and thrown away, so the bit reservoir of layer III is filled
+ * and the first frame we play does not click.
+ */
+
+public class Mp3PcmSource implements PcmSource {
+
+    private static final float SCALE = 1f / 32768f;
+    private static final int DEFAULT_SAMPLE_RATE = 44_100; // <- for files without a single frame
+
+    private final Path file;
+    private InputStream input;
+    private Bitstream bitstream;
+    private Decoder decoder;
+
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+    private short[] pending;       // <- decoded frame, interleaved
+    private int pendingLength = 0; // <- samples, not frames
+    private int pendingPosition = 0;
+    private int channels = 2;
+    private long position = 0;
+    private boolean ended = false;
+
+    public Mp3PcmSource(Path file) throws IOException {
+        this.file = file;
+        this.open();
+        if (this.decodeNext()) {
+            this.sampleRate = decoder.getOutputFrequency();
+        }
+    }
+
+    private void open() throws IOException {
+        this.input = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        this.bitstream = new Bitstream(input);
+        this.decoder = new Decoder();
+        this.pendingLength = 0;
+        this.pendingPosition = 0;
+        this.position = 0;
+        this.ended = false;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read(float[] buffer, int offset, int frames) throws IOException {
+        int done = 0;
+        while (done < frames) {
+            if (pendingPosition >= pendingLength) {
+                if (!decodeNext()) {
+                    break;
+                }
+                continue;
+            }
+            int available = (pendingLength - pendingPosition) / channels;
+            int count = Math.min(frames - done, available);
+            int out = (offset + done) * 2;
+            if (channels == 2) {
+                for (int i = 0, in = pendingPosition; i < count * 2; i++, in++) {
+                    buffer[out + i] = pending[in] * SCALE;
+                }
+            } else {
+                for (int i = 0, in = pendingPosition; i < count; i++, in++) {
+                    float sample = pending[in] * SCALE;
+                    buffer[out + 2 * i] = sample;
+                    buffer[out + 2 * i + 1] = sample;
+                }
+            }
+            pendingPosition += count * channels;
+            done += count;
+        }
+        position += done;
+        return done;
+    }
+
+    /* Decodes the next frame into pending. False at the end of the file. Broken frames are skipped. */
+    private boolean decodeNext() throws IOException {
+        while (!ended) {
+            Header header = readHeader();
+            if (header != null && decode(header)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Header readHeader() throws IOException {
+        try {
+            Header header = bitstream.readFrame();
+            if (header == null) {
+                ended = true;
+            }
+            return header;
+        } catch (BitstreamException e) {
+            throw new IOException("Cannot read " + file, e);
+        }
+    }
+
+    private boolean decode(Header header) {
+        try {
+            SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+            pending = output.getBuffer();
+            pendingLength = output.getBufferLength();
+            pendingPosition = 0;
+            channels = output.getChannelCount();
+            return pendingLength > 0;
+        } catch (DecoderException e) {
+            // Damaged frame, go on with the next one.
+            return false;
+        } finally {
+            bitstream.closeFrame();
+        }
+    }
+
+    @Override
+    public void seek(double millis) throws IOException {
+        long target = Math.max(0, Math.round(millis * sampleRate / 1000.0));
+        if (target < position) {
+            this.closeStream();
+            this.open();
+        } else {
+            // Rest of the current frame.
+            int skip = (int) Math.min(target - position, (pendingLength - pendingPosition) / channels);
+            pendingPosition += skip * channels;
+            position += skip;
+        }
+
+        while (pendingPosition >= pendingLength && !ended) {
+            Header header = readHeader();
+            if (header == null) {
+                break;
+            }
+            long frameLength = Math.round(header.ms_per_frame() * sampleRate / 1000.0);
+            if (position + 2 * frameLength <= target) {
+                bitstream.closeFrame();
+                position += frameLength;
+                continue;
+            }
+            if (!decode(header)) {
+                position += frameLength;
+                continue;
+            }
+            int decoded = pendingLength / channels;
+            if (position + decoded <= target) {
+                // Frame right before the target only fills the bit reservoir.
+                position += decoded;
+                pendingPosition = pendingLength;
+            } else {
+                pendingPosition = (int) (target - position) * channels;
+                position = target;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closeStream();
+    }
+
+    private void closeStream() throws IOException {
+        try {
+            bitstream.close();
+        } catch (BitstreamException e) {
+            throw new IOException(e);
+        } finally {
+            input.close();
+        }
+    }
+}
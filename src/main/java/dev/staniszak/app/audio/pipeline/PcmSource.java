@@ -0,0 +1,30 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * Decoded audio of one track: interleaved stereo float samples in range [-1.0, 1.0].
+ * Mono tracks are read with the same sample in both channels, so the rest of the pipeline deals only with stereo.
+ *
+ * Sources are used by one thread at a time (the pipeline), read() must not allocate, it runs for every block.
+ */
+
+public interface PcmSource extends Closeable {
+
+    int getSampleRate();
+
+    /* Fills buffer from offset (in frames) with up to frames frames. Returns how many were read, 0 at the end of the track. */
+    int read(float[] buffer, int offset, int frames) throws IOException;
+
+    /* Next read() continues from the given time. */
+    void seek(double millis) throws IOException;
+
+    /* Frames read (or skipped by seek) since the beginning of the track. */
+    long getPosition();
+
+    /* Frames in the whole track when the container says so (FLAC, WAV, Ogg), -1 when only decoding would tell. */
+    default long getLength() {
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+package dev.staniszak.app.audio.pipeline;
+
+/*
+ * ReplayGain normalization of one track: every track is brought to the same loudness (89 dB SPL reference),
+ * so a quiet old recording and a loud modern master play at the same volume.
+ *
+ * Gain comes from the tags of the track (see Mp3MetadataReader), a track without tags is played at the preamp only.
+ * Positive gain is limited by the peak of the track, normalization never makes the track clip.
+ * Each track in the pipeline has its own ReplayGain, during a crossfade both tracks are normalized before they are mixed.
+ */
+
+public class ReplayGain implements DspStage {
+
+    private volatile boolean enabled = true;
+    private volatile double preampDb = 0;
+    private double trackGainDb = Double.NaN;
+    private double trackPeak = Double.NaN;
+    private volatile float scale = 1f;
+
+    public ReplayGain() {
+    }
+
+    public ReplayGain(boolean enabled, double preampDb) {
+        this.enabled = enabled;
+        this.preampDb = preampDb;
+    }
+
+    /* NaN gain: the track has not been analysed. NaN (or 0) peak: the peak is unknown, gain is not limited. */
+    public synchronized void setTrack(double gainDb, double peak) {
+        this.trackGainDb = gainDb;
+        this.trackPeak = peak;
+        this.update();
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        this.update();
+    }
+
+    public synchronized void setPreamp(double decibels) {
+        this.preampDb = decibels;
+        this.update();
+    }
+
+    /* Linear gain applied to the samples. */
+    public float getScale() {
+        return scale;
+    }
+
+    private void update() {
+        if (!enabled) {
+            scale = 1f;
+            return;
+        }
+        double decibels = preampDb + (Double.isNaN(trackGainDb) ? 0 : trackGainDb);
+        double linear = Math.pow(10, decibels / 20);
+        if (trackPeak > 0 && linear * trackPeak > 1) {
+            linear = 1 / trackPeak;
+        }
+        scale = (float) linear;
+    }
+
+    @Override
+    public void prepare(int sampleRate) {
+        // Gain does not depend on the sample rate.
+    }
+
+    @Override
+    public void process(float[] samples, int frames) {
+        float gain = scale;
+        if (gain == 1f) {
+            return;
+        }
+        for (int i = 0, end = frames * 2; i < end; i++) {
+            samples[i] *= gain;
+        }
+    }
+
+    @Override
+    public void reset() {
+        // No history.
+    }
+}
@@ -0,0 +1,143 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/*
+ * Uncompressed audio (WAV, AIFF) read through javax.sound.
+ *
+ * Whatever the file holds (8 - 32 bit, big or little endian, float) is converted by javax.sound into
+ * 16 bit signed little endian, which we turn into floats. Tracks with more than two channels play their first two.
+ * Seeking skips bytes (the data is not compressed), seeking backwards opens the file again.
+ */
+
+public class SampledPcmSource implements PcmSource {
+
+    private static final float SCALE = 1f / 32768f;
+    private static final int BUFFER_FRAMES = 4096;
+
+    private final Path file;
+    private AudioInputStream input;
+    private int sampleRate;
+    private int channels;
+    private int frameSize;
+    private byte[] bytes;
+    private long position = 0;
+    private long length = -1;
+
+    public SampledPcmSource(Path file) throws IOException {
+        this.file = file;
+        this.open();
+    }
+
+    private void open() throws IOException {
+        AudioInputStream source;
+        try {
+            source = AudioSystem.getAudioInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
+        AudioFormat format = source.getFormat();
+        AudioFormat target = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+        if (!format.matches(target)) {
+            try {
+                source = AudioSystem.getAudioInputStream(target, source);
+            } catch (IllegalArgumentException e) {
+                source.close();
+                throw new IOException("Cannot read " + file + ": " + format + " is not supported", e);
+            }
+        }
+        this.input = source;
+        this.sampleRate = Math.round(format.getSampleRate());
+        this.channels = format.getChannels();
+        this.frameSize = channels * 2;
+        this.length = source.getFrameLength() == AudioSystem.NOT_SPECIFIED ? -1 : source.getFrameLength();
+        if (bytes == null || bytes.length != BUFFER_FRAMES * frameSize) {
+            this.bytes = new byte[BUFFER_FRAMES * frameSize];
+        }
+        this.position = 0;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public int read(float[] buffer, int offset, int frames) throws IOException {
+        int done = 0;
+        while (done < frames) {
+            int wanted = Math.min(frames - done, BUFFER_FRAMES) * frameSize;
+            int read = readFully(wanted);
+            int count = read / frameSize;
+            if (count == 0) {
+                break;
+            }
+            int right = channels > 1 ? 2 : 0;
+            int out = (offset + done) * 2;
+            for (int i = 0, in = 0; i < count; i++, in += frameSize) {
+                buffer[out + 2 * i] = (short) ((bytes[in] & 0xFF) | (bytes[in + 1] << 8)) * SCALE;
+                buffer[out + 2 * i + 1] = (short) ((bytes[in + right] & 0xFF) | (bytes[in + right + 1] << 8)) * SCALE;
+            }
+            done += count;
+            if (read < wanted) {
+                break;
+            }
+        }
+        position += done;
+        return done;
+    }
+
+    /* Reads whole frames only, a stream may return less than asked before its end. */
+    private int readFully(int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = input.read(bytes, total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public void seek(double millis) throws IOException {
+        long target = Math.max(0, Math.round(millis * sampleRate / 1000.0));
+        if (target < position) {
+            this.input.close();
+            this.open();
+        }
+        long remaining = (target - position) * frameSize;
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+        }
+        position = target - remaining / frameSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
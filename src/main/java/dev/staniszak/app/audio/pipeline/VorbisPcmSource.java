@@ -0,0 +1,273 @@
+package dev.staniszak.app.audio.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.jcraft.jogg.Packet;
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.StreamState;
+import com.jcraft.jogg.SyncState;
+import com.jcraft.jorbis.Block;
+import com.jcraft.jorbis.Comment;
+import com.jcraft.jorbis.DspState;
+import com.jcraft.jorbis.Info;
+
+/*
+ * Ogg Vorbis decoded with JOrbis.
+ *
+ * Ogg pages are read from the file, their packets go through the Vorbis synthesis, JOrbis keeps the decoded samples
+ * as float arrays per channel, we copy from there and tell it how much we took (synthesis_read).
+ * Only the first logical stream of the file is played (chained files are rare in a music library).
+ *
+ * Seeking backwards (or far ahead) opens the file again. Pages that end before the target are skipped without being decoded
+ * (their granule position says where they end), the decoder starts again on the page that contains the target
+ * and the samples before the target are thrown away. The position may be off by one Vorbis block (a few ms)
+ * after a seek, the decoder needs a block to settle after the jump.
+ * The length of the track is the granule position of the last page, found by looking at the end of the file only.
+ */
+
+public class VorbisPcmSource implements PcmSource {
+
+    private static final int CHUNK = 1 << 14;
+    private static final int FAR_SEEK_SECONDS = 5; // <- seeking further ahead skips pages too, instead of decoding them
+    private static final int TAIL_BYTES = 1 << 16;  // <- an Ogg page is at most ~64 KB, the last one starts in here
+
+    private final Path file;
+    private InputStream input;
+    private SyncState sync;
+    private StreamState stream;
+    private final Page page = new Page();
+    private final Packet packet = new Packet();
+    private Info info;
+    private DspState dsp;
+    private Block block;
+
+    private final float[][][] pcm = new float[1][][];
+    private int[] index;
+    private int serial;
+    private int channels;
+    private int sampleRate;
+    private long position = 0;
+    private long length = -1;
+    private boolean ended = false;
+
+    public VorbisPcmSource(Path file) throws IOException {
+        this.file = file;
+        this.open();
+        this.length = readLength();
+    }
+
+    private void open() throws IOException {
+        this.input = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        this.sync = new SyncState();
+        this.stream = new StreamState();
+        this.info = new Info();
+        this.position = 0;
+        this.ended = false;
+        try {
+            readHeaders();
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        this.channels = info.channels;
+        this.sampleRate = info.rate;
+        this.index = new int[channels];
+        this.dsp = new DspState();
+        this.dsp.synthesis_init(info);
+        this.block = new Block(dsp);
+    }
+
+    /* Identification, comment and setup header, the three packets every Vorbis stream starts with. */
+    private void readHeaders() throws IOException {
+        Comment comment = new Comment();
+        info.init();
+        comment.init();
+        if (!readPage()) {
+            throw new IOException("Cannot read " + file + ": not an Ogg file");
+        }
+        serial = page.serialno();
+        stream.init(serial);
+        stream.pagein(page);
+        int headers = 0;
+        while (headers < 3) {
+            int result = stream.packetout(packet);
+            if (result == 0) {
+                if (!readPage()) {
+                    throw new IOException("Cannot read " + file + ": Vorbis headers are incomplete");
+                }
+                stream.pagein(page);
+                continue;
+            }
+            if (result < 0 || info.synthesis_headerin(comment, packet) < 0) {
+                throw new IOException("Cannot read " + file + ": not a Vorbis stream");
+            }
+            headers++;
+        }
+    }
+
+    /* Next page of the file into page. False at the end of the file. */
+    private boolean readPage() throws IOException {
+        while (true) {
+            int result = sync.pageout(page);
+            if (result == 1) {
+                return true;
+            }
+            if (result == 0) {
+                int offset = sync.buffer(CHUNK);
+                int read = input.read(sync.data, offset, CHUNK);
+                if (read <= 0) {
+                    return false;
+                }
+                sync.wrote(read);
+            }
+            // -1: garbage between pages, pageout skips it on the next call.
+        }
+    }
+
+    /* Granule position (samples) of the last page of our stream, -1 when there is none. */
+    private long readLength() {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, TAIL_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            long start = size - tail.capacity();
+            while (tail.hasRemaining() && channel.read(tail, start + tail.position()) > 0) {
+                // reading until the buffer is full
+            }
+            for (int i = tail.position() - 27; i >= 0; i--) {
+                if (tail.get(i) == 'O' && tail.get(i + 1) == 'g' && tail.get(i + 2) == 'g' && tail.get(i + 3) == 'S'
+                        && tail.getInt(i + 14) == serial) {
+                    long granule = tail.getLong(i + 6);
+                    if (granule >= 0) {
+                        return granule;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read(float[] buffer, int offset, int frames) throws IOException {
+        int done = 0;
+        while (done < frames) {
+            int available = dsp.synthesis_pcmout(pcm, index);
+            if (available == 0) {
+                if (!decodeNext()) {
+                    break;
+                }
+                continue;
+            }
+            int count = Math.min(frames - done, available);
+            float[] left = pcm[0][0];
+            float[] right = pcm[0][channels > 1 ? 1 : 0];
+            int leftStart = index[0];
+            int rightStart = index[channels > 1 ? 1 : 0];
+            int out = (offset + done) * 2;
+            for (int i = 0; i < count; i++) {
+                buffer[out + 2 * i] = left[leftStart + i];
+                buffer[out + 2 * i + 1] = right[rightStart + i];
+            }
+            dsp.synthesis_read(count);
+            done += count;
+        }
+        position += done;
+        return done;
+    }
+
+    /* Feeds the next packet into the synthesis. False at the end of the stream. */
+    private boolean decodeNext() throws IOException {
+        while (true) {
+            int result = stream.packetout(packet);
+            if (result == 1) {
+                if (block.synthesis(packet) == 0) {
+                    dsp.synthesis_blockin(block);
+                }
+                return true;
+            }
+            if (result < 0) {
+                continue; // <- hole in the data (damaged or skipped page), the next packet is fine
+            }
+            if (ended || !readPage()) {
+                ended = true;
+                return false;
+            }
+            if (page.serialno() != serial) {
+                continue; // <- page of another logical stream
+            }
+            stream.pagein(page);
+            if (page.eos() != 0) {
+                ended = true; // <- packets of this page are still decoded
+            }
+        }
+    }
+
+    @Override
+    public void seek(double millis) throws IOException {
+        long target = Math.max(0, Math.round(millis * sampleRate / 1000.0));
+        if (target < position || target - position > FAR_SEEK_SECONDS * sampleRate) {
+            this.input.close();
+            this.open();
+            skipPages(target);
+        }
+        while (position < target) {
+            int available = dsp.synthesis_pcmout(pcm, index);
+            if (available == 0) {
+                if (!decodeNext()) {
+                    break;
+                }
+                continue;
+            }
+            int skip = (int) Math.min(target - position, available);
+            dsp.synthesis_read(skip);
+            position += skip;
+        }
+    }
+
+    /* Right after open(): leaves out every page that ends before the target, the decoder starts with the next one. */
+    private void skipPages(long target) throws IOException {
+        while (readPage()) {
+            long end = page.granulepos(); // <- -1 when no packet ends on this page
+            if (page.serialno() == serial && end >= target) {
+                stream.pagein(page);
+                if (page.eos() != 0) {
+                    ended = true;
+                }
+                return;
+            }
+            if (end >= 0 && page.serialno() == serial) {
+                position = end;
+            }
+        }
+        ended = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
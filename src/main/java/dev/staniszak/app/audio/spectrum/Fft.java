@@ -0,0 +1,84 @@
+package dev.staniszak.app.audio.spectrum;
+
+/*
+ * In-place radix-2 FFT (iterative, decimation in time) on separate arrays of real and imaginary parts.
+ *
+ * Twiddle factors and the bit reversal permutation are computed once per size in the constructor,
+ * transform() only works on the given arrays, it does not allocate.
+ * An Fft object is not thread safe, it is cheap enough to have one per thread.
+ */
+
+public class Fft {
+
+    private final int size;
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] reversed;
+
+    /* size must be a power of two (at least 2). */
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.cos = new float[size / 2];
+        this.sin = new float[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            double angle = -2 * Math.PI * i / size;
+            cos[i] = (float) Math.cos(angle);
+            sin[i] = (float) Math.sin(angle);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        this.reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /* Forward transform of the first getSize() values, the result replaces the input. */
+    public void transform(float[] re, float[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                float swap = re[i];
+                re[i] = re[j];
+                re[j] = swap;
+                swap = im[i];
+                im[i] = im[j];
+                im[j] = swap;
+            }
+        }
+
+        // First stage separately: its only twiddle is 1.
+        for (int i = 0; i < size; i += 2) {
+            float re1 = re[i + 1];
+            float im1 = im[i + 1];
+            re[i + 1] = re[i] - re1;
+            im[i + 1] = im[i] - im1;
+            re[i] += re1;
+            im[i] += im1;
+        }
+
+        for (int half = 2; half < size; half <<= 1) {
+            int step = size / (half * 2);
+            for (int start = 0; start < size; start += half * 2) {
+                for (int k = 0, w = 0; k < half; k++, w += step) {
+                    int even = start + k;
+                    int odd = even + half;
+                    float wr = cos[w];
+                    float wi = sin[w];
+                    float tr = re[odd] * wr - im[odd] * wi;
+                    float ti = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - tr;
+                    im[odd] = im[even] - ti;
+                    re[even] += tr;
+                    im[even] += ti;
+                }
+            }
+        }
+    }
+}
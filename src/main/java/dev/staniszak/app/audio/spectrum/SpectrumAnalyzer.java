@@ -0,0 +1,303 @@
+package dev.staniszak.app.audio.spectrum;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+import dev.staniszak.app.audio.pipeline.AudioPipeline;
+import dev.staniszak.app.audio.pipeline.DspStage;
+
+/*
+ * Spectrum of the audio we play, computed from our own PCM (PcmAudioEngine) instead of JavaFX AudioSpectrumListener,
+ * so we choose the band layout and the timing.
+ *
+ * Data flow, nothing is allocated and nobody waits on a lock:
+ *   audio thread  -- tap (last DspStage of the pipeline) mixes every block down to mono --> input SpscRing
+ *   "spectrum-analyzer" thread: keeps the last HISTORY samples, every interval takes FFT size of them, Hann window, FFT,
+ *                               power summed into logarithmic bands (20 Hz .. 20 kHz), smoothing and peak hold
+ *                               --> frames SpscRing --> SpectrumRenderer reads the newest frame once per frame of the UI.
+ * When a ring is full the newer data is dropped (audio thread never waits for the analyzer, analyzer never waits for the UI).
+ *
+ * Samples reach the tap before they are heard (the audio line holds about 100 ms), the analyzer takes its window
+ * that much back in history (see setLatency), so bars move with the sound and not ahead of it.
+ * While the analyzer is disabled the tap does not copy anything and the thread sleeps.
+ */
+
+public class SpectrumAnalyzer implements AutoCloseable {
+
+    public static final int MAX_BANDS = 256;
+    public static final int DEFAULT_FFT_SIZE = 4096;
+    private static final int HISTORY = 1 << 15; // <- samples, FFT window + latency of the line must fit
+    private static final double MIN_FREQUENCY = 20;
+    private static final double MAX_FREQUENCY = 20_000;
+    private static final float ATTACK = 0.7f;   // <- share of a rise applied per frame
+    private static final float RELEASE = 0.25f; // <- share of a fall applied per frame
+    private static final double PEAK_HOLD_SECONDS = 0.6;
+    private static final double PEAK_FALL_DB_PER_SECOND = 40;
+
+    /* Block of mono samples on its way from the audio thread. */
+    private static class SampleBlock {
+        final float[] samples = new float[AudioPipeline.BLOCK_FRAMES];
+        int length;
+    }
+
+    private final SpscRing<SampleBlock> input = new SpscRing<>(64, SampleBlock::new);
+    private final SpscRing<SpectrumFrame> frames = new SpscRing<>(8, SpectrumFrame::new);
+    private final Tap tap = new Tap();
+
+    private volatile boolean enabled = false;
+    private volatile boolean closed = false;
+    private volatile int bands = 64;
+    private volatile long intervalNanos = 16_000_000;
+    private volatile float threshold = -60;
+    private volatile int sampleRate = 44_100;
+    private volatile boolean resetRequested = false;
+    private volatile IntSupplier latency = () -> 0;
+    private Thread thread;
+
+    // Analyzer thread only.
+    private final Fft fft;
+    private final float[] window;
+    private final float[] re;
+    private final float[] im;
+    private final float[] history = new float[HISTORY];
+    private long written = 0;        // <- samples appended to history so far
+    private long analysedAt = -1;    // <- value of written at the last frame
+    private long lastFrameNanos = 0;
+    private final int[] bandStart = new int[MAX_BANDS + 1];
+    private int layoutBands = 0;
+    private int layoutRate = 0;
+    private final float[] smoothed = new float[MAX_BANDS];
+    private final float[] peaks = new float[MAX_BANDS];
+    private final float[] peakHold = new float[MAX_BANDS];
+    private long droppedBlocks = 0;
+
+    public SpectrumAnalyzer(int fftSize) {
+        this.fft = new Fft(fftSize);
+        this.re = new float[fftSize];
+        this.im = new float[fftSize];
+        this.window = new float[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            window[i] = (float) (0.5 * (1 - Math.cos(2 * Math.PI * i / fftSize)));
+        }
+        Arrays.fill(smoothed, -200);
+        Arrays.fill(peaks, -200);
+    }
+
+    /* Stage to add at the end of the audio pipeline. */
+    public DspStage getTap() {
+        return tap;
+    }
+
+    /* Ring the renderer reads from (one consumer). */
+    public SpscRing<SpectrumFrame> getFrames() {
+        return frames;
+    }
+
+    /* Disabled analyzer costs nothing on the audio thread. */
+    public synchronized void setEnabled(boolean enabled) {
+        if (closed) {
+            return;
+        }
+        this.enabled = enabled;
+        if (enabled && thread == null) {
+            thread = new Thread(this::run, "spectrum-analyzer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setBands(int bands) {
+        this.bands = Math.max(1, Math.min(MAX_BANDS, bands));
+    }
+
+    public void setInterval(double seconds) {
+        this.intervalNanos = (long) (seconds * 1e9);
+    }
+
+    public void setThreshold(float decibels) {
+        this.threshold = decibels;
+    }
+
+    /* Frames written to the output but not heard yet, e.g. what waits in the SourceDataLine. */
+    public void setLatency(IntSupplier latency) {
+        this.latency = latency;
+    }
+
+    /* Blocks the audio thread could not hand over because the analyzer was behind. */
+    public long getDroppedBlocks() {
+        return droppedBlocks;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        enabled = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    ////////Audio thread////////
+
+    private class Tap implements DspStage {
+        @Override
+        public void prepare(int rate) {
+            sampleRate = rate;
+            resetRequested = true;
+        }
+
+        @Override
+        public void process(float[] samples, int count) {
+            if (!enabled) {
+                return;
+            }
+            SampleBlock block = input.claim();
+            if (block == null) {
+                droppedBlocks++;
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                block.samples[i] = (samples[2 * i] + samples[2 * i + 1]) * 0.5f;
+            }
+            block.length = count;
+            input.publish();
+        }
+
+        @Override
+        public void reset() {
+            // After a seek the old history has nothing to do with what plays now.
+            resetRequested = true;
+        }
+    }
+
+    ////////Analyzer thread////////
+
+    private void run() {
+        while (!closed) {
+            if (!enabled) {
+                LockSupport.park(this);
+                continue;
+            }
+            drainInput();
+            long now = System.nanoTime();
+            long wait = lastFrameNanos + intervalNanos - now;
+            if (wait <= 0) {
+                if (written != analysedAt) {
+                    analyse(now);
+                }
+                lastFrameNanos = now;
+                wait = intervalNanos;
+            }
+            // Wake up often enough to keep the input ring short.
+            LockSupport.parkNanos(this, Math.min(wait, 4_000_000));
+        }
+    }
+
+    /* Public for benchmarks: appends mono samples to the history, as if they came from the tap. */
+    public void append(float[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            history[(int) (written++ & (HISTORY - 1))] = samples[i];
+        }
+    }
+
+    private void drainInput() {
+        if (resetRequested) {
+            resetRequested = false;
+            written = 0;
+            analysedAt = -1;
+        }
+        SampleBlock block;
+        while ((block = input.peek()) != null) {
+            append(block.samples, block.length);
+            input.release();
+        }
+    }
+
+    /* Public for benchmarks: computes one frame from the history and publishes it. False when there is not enough audio yet. */
+    public boolean analyse(long nanos) {
+        int size = fft.getSize();
+        long end = written - Math.max(0, Math.min(latency.getAsInt(), HISTORY - size));
+        if (end < size) {
+            return false;
+        }
+        analysedAt = written;
+        long start = end - size;
+        for (int i = 0; i < size; i++) {
+            re[i] = history[(int) ((start + i) & (HISTORY - 1))] * window[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+
+        int count = bands;
+        int rate = sampleRate;
+        if (count != layoutBands || rate != layoutRate) {
+            layout(count, rate);
+        }
+        double seconds = lastFrameNanos == 0 ? 0 : Math.min(0.5, (nanos - lastFrameNanos) / 1e9);
+        float floor = threshold;
+        // Full scale sine through the Hann window has |X| = N / 4 in its bin, that is 0 dB.
+        double normalize = 16.0 / ((double) size * size);
+
+        for (int band = 0; band < count; band++) {
+            double power = 0;
+            for (int bin = bandStart[band]; bin < bandStart[band + 1]; bin++) {
+                power += re[bin] * re[bin] + im[bin] * im[bin];
+            }
+            float decibels = (float) (10 * Math.log10(power * normalize + 1e-20));
+            decibels = Math.max(floor, Math.min(0, decibels));
+
+            float previous = Math.max(floor, smoothed[band]);
+            float value = previous + (decibels > previous ? ATTACK : RELEASE) * (decibels - previous);
+            smoothed[band] = value;
+
+            if (value >= peaks[band]) {
+                peaks[band] = value;
+                peakHold[band] = (float) PEAK_HOLD_SECONDS;
+            } else if (peakHold[band] > 0) {
+                peakHold[band] -= seconds;
+            } else {
+                peaks[band] = Math.max(value, peaks[band] - (float) (PEAK_FALL_DB_PER_SECOND * seconds));
+            }
+        }
+
+        SpectrumFrame frame = frames.claim();
+        if (frame == null) {
+            return true; // <- renderer is behind (or hidden), it gets the next one
+        }
+        System.arraycopy(smoothed, 0, frame.getMagnitudes(), 0, count);
+        System.arraycopy(peaks, 0, frame.getPeaks(), 0, count);
+        frame.setBands(count);
+        frames.publish();
+        return true;
+    }
+
+    /*
+     Band edges at equal steps on a logarithmic frequency scale. Bass bands are narrower than an FFT bin,
+     they take at least one bin each and push the following edges up a little.
+     */
+    private void layout(int count, int rate) {
+        int size = fft.getSize();
+        double binHz = (double) rate / size;
+        double top = Math.min(MAX_FREQUENCY, rate / 2.0);
+        int lastBin = size / 2;
+        for (int band = 0; band <= count; band++) {
+            double frequency = MIN_FREQUENCY * Math.pow(top / MIN_FREQUENCY, (double) band / count);
+            bandStart[band] = Math.min(lastBin, (int) Math.round(frequency / binHz));
+        }
+        for (int band = 0; band < count; band++) {
+            if (bandStart[band + 1] <= bandStart[band]) {
+                bandStart[band + 1] = Math.min(lastBin, bandStart[band] + 1);
+            }
+        }
+        layoutBands = count;
+        layoutRate = rate;
+    }
+}
@@ -0,0 +1,20 @@
+package dev.staniszak.app.audio.spectrum;
+
+import lombok.Getter;
+
+/*
+ * One picture of the spectrum, as the SpectrumAnalyzer hands it to the renderer through its SpscRing.
+ * Values are in dB, from the threshold up to 0 (full scale), only the first `bands` entries are valid.
+ */
+
+@Getter
+public class SpectrumFrame {
+
+    private final float[] magnitudes = new float[SpectrumAnalyzer.MAX_BANDS]; // <- smoothed
+    private final float[] peaks = new float[SpectrumAnalyzer.MAX_BANDS];      // <- peak hold
+    private int bands = 0;
+
+    void setBands(int bands) {
+        this.bands = bands;
+    }
+}
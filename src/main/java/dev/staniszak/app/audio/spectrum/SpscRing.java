@@ -0,0 +1,73 @@
+package dev.staniszak.app.audio.spectrum;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Lock-free ring buffer for exactly one producer thread and one consumer thread.
+ *
+ * Slots are allocated up front and reused: the producer claims a free slot, fills it in place and publishes it,
+ * the consumer peeks at the oldest published slot, reads it and releases it. Nothing is allocated or copied by the ring.
+ * When the ring is full claim() returns null, the producer decides what to drop (it never waits for the consumer).
+ *
+ * head and tail only grow, each one is written by one side only (lazySet is enough, the other side reads it with get()).
+ */
+
+public class SpscRing<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // <- next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // <- next slot to write, written by the producer
+
+    /* capacity is rounded up to a power of two. */
+    public SpscRing(int capacity, Supplier<T> factory) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = factory.get();
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /* Published slots the consumer has not released yet. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    ////////Producer////////
+
+    /* Free slot to fill, or null when the consumer is a whole ring behind. Call publish() when the slot is filled. */
+    @SuppressWarnings("unchecked")
+    public T claim() {
+        long next = tail.get();
+        if (next - head.get() >= slots.length) {
+            return null;
+        }
+        return (T) slots[(int) next & mask];
+    }
+
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    ////////Consumer////////
+
+    /* Oldest published slot, or null when there is none. It stays valid until release(). */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long next = head.get();
+        if (next == tail.get()) {
+            return null;
+        }
+        return (T) slots[(int) next & mask];
+    }
+
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+}
@@ -1,14 +1,26 @@
 package dev.staniszak.app.common;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import lombok.Getter;
 import lombok.Setter;
 
+/* User settings and the state of the last session, saved as JSON by JsonConfigManager. 
+   Fields that are missing in an older config file keep their defaults. */
+
 @Getter
 @Setter
 public class UserConfig {
 
         private String user_star_directory;
         private String user_lastplayed_track;
+        private double user_position_millis = 0; // <- where the last played track was left
+        private double user_volume = 1.0;
+        private boolean user_repeat = false;
+        private boolean user_repeat_all = false;
+        private boolean user_shuffle = false;
+        private List<String> user_queue = new ArrayList<>(); // <- tracks of an opened playlist, empty when the queue follows the library
 
         public UserConfig() { }
  
@@ -17,4 +29,16 @@ public class UserConfig {
             this.user_lastplayed_track = user_lastplayed_track;
         }
 
+        /* Copy, so a snapshot can be written on another thread while the application keeps changing the original. */
+        public UserConfig(UserConfig other) {
+            this.user_star_directory = other.user_star_directory;
+            this.user_lastplayed_track = other.user_lastplayed_track;
+            this.user_position_millis = other.user_position_millis;
+            this.user_volume = other.user_volume;
+            this.user_repeat = other.user_repeat;
+            this.user_repeat_all = other.user_repeat_all;
+            this.user_shuffle = other.user_shuffle;
+            this.user_queue = new ArrayList<>(other.user_queue);
+        }
+
 }
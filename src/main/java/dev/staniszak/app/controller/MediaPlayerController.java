@@ -1,23 +1,73 @@
 package dev.staniszak.app.controller;
 
-import java.awt.Dimension;
-import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
-
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.audio.AudioEngine.Status;
+import dev.staniszak.app.audio.format.FormatRegistry;
 import dev.staniszak.app.common.UserConfig;
+import dev.staniszak.app.duplicates.DuplicateFinder;
+import dev.staniszak.app.duplicates.DuplicateGroup;
+import dev.staniszak.app.duplicates.IoThrottle;
+import dev.staniszak.app.library.LazyTreeItem;
+import dev.staniszak.app.library.LibraryIndex;
+import dev.staniszak.app.library.LibraryScanner;
+import dev.staniszak.app.library.LibraryWatcher;
+import dev.staniszak.app.library.TrackStore;
+import dev.staniszak.app.library.TreeItemIndex;
+import dev.staniszak.app.library.LibraryEntry;
+import dev.staniszak.app.library.LibraryScanner.ScanTask;
+import dev.staniszak.app.metadata.MetadataService;
+import dev.staniszak.app.metadata.TrackMetadata;
 import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.playlist.M3uPlaylist;
+import dev.staniszak.app.playlist.PlayQueue;
+import dev.staniszak.app.remote.PlayerState;
+import dev.staniszak.app.remote.RemoteControlServer;
+import dev.staniszak.app.remote.RemotePlayer;
+import dev.staniszak.app.search.LibrarySearchIndex;
+import dev.staniszak.app.utils.BackgroundExecutors;
 import dev.staniszak.app.utils.JsonConfigManager;
+import dev.staniszak.app.utils.StartupTimeline;
 import dev.staniszak.app.utils.Utils;
+import dev.staniszak.app.view.DuplicatesWindow;
 import dev.staniszak.app.view.MediaPlayerView;
-import javafx.scene.canvas.GraphicsContext;
+import dev.staniszak.app.view.SearchResultCell;
+import dev.staniszak.app.view.TrackTable;
+import dev.staniszak.app.view.TrackTreeCell;
+import dev.staniszak.app.visualizer.AdaptiveSpectrum;
+import dev.staniszak.app.visualizer.SpectrumRenderer;
+import dev.staniszak.app.visualizer.WaveformRenderer;
+import dev.staniszak.app.waveform.WaveformCache;
+import dev.staniszak.app.waveform.WaveformOverview;
+import dev.staniszak.app.waveform.WaveformService;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.scene.control.TreeItem;
-import javafx.scene.effect.DropShadow;
-import javafx.scene.effect.GaussianBlur;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.media.MediaPlayer.Status;
-import javafx.scene.paint.Color;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 
@@ -31,38 +81,115 @@ import javafx.util.Duration;
 
 public class MediaPlayerController {
 
+    /* Tracks found by the library scan are handed to the FX thread in batches of this size. */
+    private static final int QUEUE_BATCH = 500;
+    /* While a track plays, its position is handed to the config writer this often (see saveSession). */
+    private static final double SESSION_SAVE_SECONDS = 5;
+    /* File View is repainted with freshly parsed tags at most this often. */
+    private static final double METADATA_REFRESH_MILLIS = 250;
+    private static final int MAX_SEARCH_RESULTS = 200;
+
     private MediaPlayerView view;
     private MediaPlayerModel model;
+    private AudioEngine engine;
+    private Playback playback;
     private boolean stopRequested = false;
     private boolean atEndOfMedia = false;
     private Stage primaryStage;
     private DirectoryChooser directoryChooser;
+    private FileChooser playlistChooser;
     private UserConfig userConfig;
     private String filePath;
     private String lastPlayed;
-    private Dimension dimension;
     private double changeWidth;
-
+    private LibraryIndex libraryIndex;
+    private LibraryScanner libraryScanner;
+    private ScanTask currentScan;
+    private LibraryWatcher libraryWatcher;
+    private PlaybackViewUpdater viewUpdater;
+    private SpectrumRenderer spectrumRenderer;
+    private AdaptiveSpectrum adaptiveSpectrum;
+    private WaveformService waveformService;
+    private WaveformRenderer waveformRenderer;
+    private Path waveformTrack; // <- track whose overview the slider shows (or waits for)
+    private TreeItemIndex treeItemIndex;
+    private TrackTable trackTable;
+    private DuplicateFinder duplicateFinder;
+    private DuplicatesWindow duplicatesWindow; // <- created when Tools > Find Duplicates is used for the first time
+    private RemoteControlServer remoteServer; // <- null unless -Dplayer.httpPort is set
+    /* Durations parsed by the metadata workers, applied to the Track Table on the FX thread with the next refresh. */
+    private final Queue<Map.Entry<Path, Integer>> parsedDurations = new ConcurrentLinkedQueue<>();
+    private MetadataService metadataService;
+    private PauseTransition metadataRefresh;
+    private final AtomicBoolean metadataRefreshQueued = new AtomicBoolean();
+    /* Search index of the current library, replaced together with the tree (a cancelled scan keeps filling the old one). */
+    private volatile LibrarySearchIndex searchIndex = new LibrarySearchIndex();
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(BackgroundExecutors.daemonFactory("library-search"));
+    private final AtomicLong searchGeneration = new AtomicLong();
+    /* What plays next. Follows the library (in File View order) until the user opens a playlist. */
+    private PlayQueue playQueue = new PlayQueue();
+    private List<Path> libraryTracks = new ArrayList<>();
+    private boolean queueFollowsLibrary = true;
+    /* Position of the last played track from the previous session, applied once its player is ready. */
+    private double resumePositionMillis;
+    private Timeline sessionTimer;
+
+    /* Reads everything it needs from the disk on the calling thread. */
     public MediaPlayerController(MediaPlayerView view, Stage primaryStage) {
+        this(view, primaryStage, StartupState.load());
+    }
+
+    /* State has been loaded in advance (in the background while the window was already shown, see InnerApp). */
+    public MediaPlayerController(MediaPlayerView view, Stage primaryStage, StartupState state) {
         this.view = view;
-        try {
-        this.userConfig = JsonConfigManager.loadConfig();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.userConfig = state.getUserConfig();
 
         this.filePath = userConfig.getUser_star_directory();
         this.lastPlayed = userConfig.getUser_lastplayed_track();
+        this.resumePositionMillis = userConfig.getUser_position_millis();
+
+        /* Library index remembers the library between runs, only directories that changed are read again. */
+        this.libraryIndex = state.getLibraryIndex();
+        this.libraryScanner = new LibraryScanner(this.libraryIndex);
+
+        /* Tags and durations are read in parallel in the background, results are cached between runs (-Dplayer.metadataCacheSize=...). */
+        this.metadataService = new MetadataService(state.getMetadataCache());
 
-        this.model = new MediaPlayerModel(this.lastPlayed);
+        this.model = state.getModel();
+        this.engine = model.getEngine();
+        this.playback = new Playback(model, playQueue);
+        /* Play time label is refreshed 4 times a second by default (-Dplayer.labelRefreshHz=...), sliders every frame. */
+        this.viewUpdater = new PlaybackViewUpdater(view, model, Double.parseDouble(System.getProperty("player.labelRefreshHz", "4")));
         this.primaryStage = primaryStage;
 
         directoryChooser = new DirectoryChooser();
         directoryChooser.setTitle("Choose directory");
         directoryChooser.setInitialDirectory( new File(this.filePath));
 
-        this.dimension = Toolkit.getDefaultToolkit().getScreenSize();
-        this.changeWidth = dimension.getWidth() / 2.2;
+        playlistChooser = new FileChooser();
+        playlistChooser.setTitle("Playlist");
+        playlistChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Playlists (*.m3u, *.m3u8)", "*.m3u", "*.m3u8"));
+        playlistChooser.setInitialDirectory(new File(this.filePath));
+
+        // JavaFX knows the screen already, asking AWT would start a whole second toolkit just for this.
+        this.changeWidth = Screen.getPrimary().getBounds().getWidth() / 2.2;
+
+        this.spectrumRenderer = new SpectrumRenderer(view.getCanvas());
+        this.adaptiveSpectrum = new AdaptiveSpectrum(view.getCanvas(), view.getMediaPane(), primaryStage, spectrumRenderer);
+
+        /* Waveform overviews are generated in the background (decoding a whole track), once per track, and kept on disk. */
+        this.waveformService = new WaveformService(new WaveformCache(JsonConfigManager.getWaveformCachePath()));
+        this.waveformRenderer = new WaveformRenderer(view.getWaveformCanvas(), view.getDurationSlider());
+        this.waveformService.setListener((track, overview) -> Platform.runLater(() -> this.waveformReady(track, overview)));
+
+        /* Track Table shows the whole library flat (View > Track Table), its rows live in a columnar TrackStore. */
+        this.trackTable = new TrackTable(view.getTrackTable());
+
+        /* Duplicate finder reads the whole library, slowly while a track plays (-Dplayer.duplicatesPlayingMBps=4),
+           as fast as the disk goes otherwise (-Dplayer.duplicatesIdleMBps=0 is no limit). */
+        this.duplicateFinder = new DuplicateFinder(JsonConfigManager.getDuplicatesIndexPath(), new IoThrottle(
+            (long) (Double.parseDouble(System.getProperty("player.duplicatesPlayingMBps", "4")) * 1024 * 1024),
+            (long) (Double.parseDouble(System.getProperty("player.duplicatesIdleMBps", "0")) * 1024 * 1024)));
 
         init();
 
@@ -74,18 +201,14 @@ public class MediaPlayerController {
 
         this.view.getPlayButton().setOnAction( (event) -> {
 
-            Status status = model.GetPlayer().getStatus();
+            Status status = engine.getStatus();
 
             if ( status == Status.PAUSED || status == Status.READY || status == Status.STOPPED) {
 
-                if (atEndOfMedia) {
-                  model.seek(model.GetPlayer().getStartTime()); 
-                  atEndOfMedia = false;
-                }
-                model.GetPlayer().play();
+                this.resume();
 
             } else if (status == Status.PLAYING || status == Status.STALLED) {
-                model.GetPlayer().pause();
+                engine.pause();
             }  
         });
 
@@ -95,13 +218,19 @@ public class MediaPlayerController {
             if(view.getRepeatButton().getStyleClass().contains("repeat-button-clicked")) {
                 view.getRepeatButton().getStyleClass().remove("repeat-button-clicked");
                 model.setRepeat(false);
+                this.playback.preloadNext();
             } else {
                 view.getRepeatButton().getStyleClass().add("repeat-button-clicked");
                 model.setRepeat(true);
             }
+            this.saveSession();
 
         });
 
+        this.view.getNextButton().setOnAction((event) -> this.playback.next());
+
+        this.view.getPreviousButton().setOnAction((event) -> this.playback.previous());
+
         ////////Menues////////
 
         /*
@@ -113,7 +242,7 @@ public class MediaPlayerController {
          This event handler is Responsible for:
          Opens menu dialog for user to choose directory.
          Checks if the selected File is a directory. 
-         Calls getNodesForDirectory to populate File View with directories and files.
+         Calls loadLibrary to populate File View with directories and files (scan of the previous directory is cancelled).
          */
 
         this.view.getMenuBar().getMenus().get(0).setOnAction((event) -> {
@@ -122,21 +251,69 @@ public class MediaPlayerController {
 
             if (selectedDirectoy != null && selectedDirectoy.isDirectory()) {
                 this.filePath = selectedDirectoy.getAbsolutePath();
-                view.getFileView().setRoot(Utils.getNodesForDirectory(selectedDirectoy, true));
+                this.loadLibrary(selectedDirectoy, false);
+                this.saveSession();
             }
         });
 
+        /* Playlist menu: open an M3U/M3U8 playlist (it replaces the play queue), save the queue, shuffle and repeat all. 
+           Reading and writing the file happens off the FX thread. */
+        this.view.getImportPlaylistItem().setOnAction((event) -> {
+            File playlist = playlistChooser.showOpenDialog(this.primaryStage);
+            if (playlist == null) {
+                return;
+            }
+            BackgroundExecutors.io().execute(() -> {
+                try {
+                    List<Path> tracks = M3uPlaylist.read(playlist.toPath());
+                    Platform.runLater(() -> this.playPlaylist(tracks));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        });
+
+        this.view.getExportPlaylistItem().setOnAction((event) -> {
+            File playlist = playlistChooser.showSaveDialog(this.primaryStage);
+            if (playlist == null) {
+                return;
+            }
+            List<Path> tracks = new ArrayList<>(this.playQueue.getTracks());
+            BackgroundExecutors.io().execute(() -> {
+                try {
+                    M3uPlaylist.write(playlist.toPath(), tracks, this.metadataService::getCached);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        });
+
+        this.view.getShuffleItem().setOnAction((event) -> {
+            this.playQueue.setShuffle(this.view.getShuffleItem().isSelected());
+            this.playback.preloadNext();
+            this.saveSession();
+        });
+
+        this.view.getRepeatAllItem().setOnAction((event) -> {
+            this.playQueue.setRepeatAll(this.view.getRepeatAllItem().isSelected());
+            this.playback.preloadNext();
+            this.saveSession();
+        });
+
         ////////File View////////
 
+        /* Tracks are shown with their tags, see TrackTreeCell. */
+        this.view.getFileView().setCellFactory((tree) -> new TrackTreeCell(this.metadataService));
+        this.metadataRefresh = new PauseTransition(Duration.millis(METADATA_REFRESH_MILLIS));
+        this.metadataRefresh.setOnFinished((event) -> this.metadataRefreshed());
+        this.metadataService.setListener(this::metadataParsed);
+
         /* Initialize File View with default or user-selected directory. */
-        File directory =  new File(this.filePath);
-        this.view.getFileView().setRoot(Utils.getNodesForDirectory(directory, true));
-
-        /* Tree Item with the name of the Last Played track is marked as selected. */ 
-        if (this.lastPlayed != null) {
-        this.view.getFileView().getSelectionModel()
-        .select(Utils.findTreeItemByValue(view.getFileView().getRoot(), Utils.getFileName(this.lastPlayed)));
-        } 
+        this.loadLibrary(new File(this.filePath), true);
+
+        /* When the heap is running low, forget the content of collapsed directories (keep the path to the selected track). */
+        LazyTreeItem.setMemoryPressureHandler(() -> 
+            LazyTreeItem.trimCollapsed(view.getFileView().getSelectionModel().getSelectedItem()));
         
         /* How it looks for the user: 
            User clicks on the track name in the File navigation menu on the left side of the screen,
@@ -146,28 +323,92 @@ public class MediaPlayerController {
            This event handler is Responsible for:
            When user double clicks on ANY place in the File navigation menu (File View).
            Event Hadler checks currently selected Tree Item.
-           if the item passes all checks, method calls Utils.findStarNode to construct absolute file path to the selected file.
-           Calls model to change track (which creates new MediaPlayer, not my implementation btw, as this is how JavaFx media Player works) 
-           and we have to initialize newly created player.
+           if the item passes all checks, Tree Item Index gives us absolute file path of the selected file.
+           Play queue moves to the track (see playFromLibrary) and Playback hands it to the model,
+           which changes track (JavaFX engine creates new MediaPlayer, not my implementation btw, as this is how JavaFx media Player works).
          */
         this.view.getFileView().addEventHandler(MouseEvent.MOUSE_CLICKED, (event) ->
         {
             if (event.getClickCount() == 2) {
                 TreeItem<String> selectedItem = this.view.getFileView().getSelectionModel().getSelectedItem();
                     /* selectedItem.isLeaf() checks if the selected Item does not have any children. 
-                       (If an item has no children it is either a file or an empty directory, so we also check for .mp3).
+                       (If an item has no children it is either a file or an empty directory, so we also check it is a track).
                     */ 
-                if (selectedItem != null && selectedItem.isLeaf() && selectedItem.getValue().endsWith(".mp3")) {
-                    // Construct absolute file path to the selected file.
-                    this.lastPlayed = this.filePath + Utils.findStarNode(selectedItem.getParent(), selectedItem.getValue());
-                    // Change track and Init new player.
-                    model.changeMedia(this.lastPlayed);
-                    this.initPlayer();
+                if (selectedItem != null && selectedItem.isLeaf()) {
+                    // Absolute file path of the selected file, change track and Init new player.
+                    Path selected = this.treeItemIndex.pathOf(selectedItem);
+                    if (selected != null && LibraryScanner.isTrack(selected)) {
+                        this.playFromLibrary(selected);
+                    }
                 } 
             }
 
         });
 
+        ////////Track Table////////
+
+        /* How it looks for the user:
+           View > Track Table shows every track of the library in one table in place of File View, column headers sort it.
+           Double click (or Enter) plays the track, the play queue keeps following the library in File View order.
+         */
+        this.view.getTrackTableItem().setOnAction((event) -> this.view.showTrackTable(this.view.getTrackTableItem().isSelected()));
+        this.view.getTrackTable().addEventHandler(MouseEvent.MOUSE_CLICKED, (event) -> {
+            int index = this.view.getTrackTable().getSelectionModel().getSelectedIndex();
+            if (event.getClickCount() == 2 && index >= 0) {
+                this.playFromLibrary(this.trackTable.pathAt(index));
+            }
+        });
+        this.view.getTrackTable().setOnKeyPressed((event) -> {
+            int index = this.view.getTrackTable().getSelectionModel().getSelectedIndex();
+            if (event.getCode() == KeyCode.ENTER && index >= 0) {
+                this.playFromLibrary(this.trackTable.pathAt(index));
+            }
+        });
+
+        ////////Duplicates////////
+
+        /* How it looks for the user:
+           Tools > Find Duplicates opens a window and looks for duplicates among the tracks the scan has found,
+           identical files first, then the same recording in different files (re-encoded, retagged). Double click plays a track.
+           Stop keeps what has been read so far, Start continues from there (see DuplicateFinder).
+         */
+        this.view.getFindDuplicatesItem().setOnAction((event) -> this.showDuplicates());
+
+        ////////Search////////
+
+        /* How it looks for the user:
+           User types into the search box above File View, matching tracks show up under it while typing.
+           Selecting a result reveals the track in File View, double click (or Enter) plays it. Escape clears the search.
+           Searching runs on its own thread (see runSearch), typing never waits for it.
+         */
+        this.view.getSearchResults().setCellFactory((list) -> new SearchResultCell(this.metadataService));
+        this.view.getSearchField().textProperty().addListener((obs, oldText, newText) -> this.runSearch(newText));
+        this.view.getSearchField().setOnKeyPressed((event) -> {
+            if (event.getCode() == KeyCode.ESCAPE) {
+                this.view.getSearchField().clear();
+            } else if (event.getCode() == KeyCode.DOWN && this.view.getSearchResults().isVisible()) {
+                this.view.getSearchResults().requestFocus();
+                this.view.getSearchResults().getSelectionModel().selectFirst();
+            }
+        });
+        this.view.getSearchResults().getSelectionModel().selectedItemProperty().addListener((obs, oldTrack, track) -> {
+            if (track != null) {
+                this.revealTrack(track);
+            }
+        });
+        this.view.getSearchResults().addEventHandler(MouseEvent.MOUSE_CLICKED, (event) -> {
+            Path track = this.view.getSearchResults().getSelectionModel().getSelectedItem();
+            if (event.getClickCount() == 2 && track != null && this.revealTrack(track)) {
+                this.playFromLibrary(track);
+            }
+        });
+        this.view.getSearchResults().setOnKeyPressed((event) -> {
+            Path track = this.view.getSearchResults().getSelectionModel().getSelectedItem();
+            if (event.getCode() == KeyCode.ENTER && track != null && this.revealTrack(track)) {
+                this.playFromLibrary(track);
+            }
+        });
+
         ////////Sliders////////
 
         this.view.getDurationSlider().valueProperty().addListener((ov) -> { 
@@ -177,6 +418,8 @@ public class MediaPlayerController {
                                                  0.5  is a value of the slider.              
                */
                model.seek(model.getDuration().multiply(view.getDurationSlider().getValue()));
+               viewUpdater.refresh();
+               this.saveSession();
             }
         });
 
@@ -187,14 +430,40 @@ public class MediaPlayerController {
                    Player volume accepts values in [0.0, 1.0] range.
                    In the view, we have set up slider to match this range. 
                 */
-                model.GetPlayer().setVolume(view.getVolumeSlider().getValue());
+                engine.setVolume(view.getVolumeSlider().getValue());
+                this.saveSession();
             }
         });
 
 
         ////////Player////////
 
+        this.restoreSession();
         this.initPlayer(); 
+        this.playback.preloadNext();
+
+        /* Session state is saved while the app runs, so a crash loses at most a few seconds of position. */
+        this.sessionTimer = new Timeline(new KeyFrame(Duration.seconds(SESSION_SAVE_SECONDS), (event) -> {
+            if (engine.getStatus() == Status.PLAYING) {
+                this.saveSession();
+            }
+        }));
+        this.sessionTimer.setCycleCount(Animation.INDEFINITE);
+        this.sessionTimer.play();
+
+        ////////Remote Control////////
+
+        /* Local HTTP API (see RemoteControlServer), for kiosks: -Dplayer.httpPort=8080, -Dplayer.httpHost=127.0.0.1, -Dplayer.httpToken=... */
+        String httpPort = System.getProperty("player.httpPort");
+        if (httpPort != null && !httpPort.isEmpty()) {
+            this.remoteServer = new RemoteControlServer(new RemoteCommands(), Platform::runLater, System.getProperty("player.httpToken"));
+            try {
+                this.remoteServer.start(new InetSocketAddress(System.getProperty("player.httpHost", "127.0.0.1"), Integer.parseInt(httpPort)));
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                this.remoteServer = null;
+            }
+        }
 
 
         ///////Stage////////
@@ -207,182 +476,697 @@ public class MediaPlayerController {
     
             if (width < this.changeWidth && view.getRoot().getLeft() != null) {
                 view.getRoot().setLeft(null);
-                view.getRoot().setCenter(view.getFileView());
+                view.getRoot().setCenter(view.getLibraryPane());
             } else if (width > this.changeWidth) {
                 view.getRoot().setCenter(view.getMediaPane());
-                view.getRoot().setLeft(view.getFileView());
+                view.getRoot().setLeft(view.getLibraryPane());
             }
         });
 
 
         /*   
-          When user closes application, save the location of the user directory and of the last played track.
+          When user closes application, write the session right away (location of the user directory, last played track, position...).
          */
         this.primaryStage.setOnCloseRequest((event) -> {
 
-            this.userConfig.setUser_star_directory(this.filePath); 
-            this.userConfig.setUser_lastplayed_track(this.lastPlayed);
+            this.sessionTimer.stop();
+            this.saveSession();
+            JsonConfigManager.flushConfig();
+            this.libraryWatcher.close();
+            if (this.remoteServer != null) {
+                this.remoteServer.stop();
+            }
+            DuplicateFinder.Job duplicates = this.duplicateFinder.getRunning();
+            if (duplicates != null) {
+                duplicates.cancel();
+            }
+            this.libraryIndex.saveIfDirty();
+            this.metadataService.getCache().saveIfDirty();
+        });
+    }
+    /*
+    Populates File View with the content of the directory.
+    Root of File View is a LazyTreeItem, so directories are read only when the user (or a revealed track) opens them.
+    In the background LibraryScanner walks the whole library, brings Library Index up to date (and saves it) 
+    and reports library size in the status label.
+    Every directory found by the scan is handed to LibraryWatcher, which keeps File View in sync with the disk.
+    Any scan that is still running (e.g. user picked another directory) is cancelled and its watcher is closed.
+    When restoreLastPlayed is set, Tree Item of the Last Played track is marked as selected,
+    Tree Item Index reads only directories on the path to the track to find it.
+    */
+    private void loadLibrary(File directory, boolean restoreLastPlayed) {
+        if (this.currentScan != null) {
+            this.currentScan.cancel();
+        }
+        if (this.libraryWatcher != null) {
+            this.libraryWatcher.close();
+        }
+
+        this.libraryIndex.startScan(directory.toPath());
+        this.treeItemIndex = new TreeItemIndex();
+        LibrarySearchIndex search = new LibrarySearchIndex();
+        this.searchIndex = search;
+        this.view.getSearchField().clear();
+        this.libraryTracks = new ArrayList<>();
+        this.trackTable.setStore(new TrackStore(), directory.toPath().toString());
+        if (this.queueFollowsLibrary) {
+            this.playQueue.clear();
+        }
+        LazyTreeItem root = LazyTreeItem.root(directory.toPath(), this.libraryIndex, this.treeItemIndex);
+        this.view.getFileView().setRoot(root);
+
+        LibraryWatcher watcher = new LibraryWatcher(directory.toPath(), 
+            (changed) -> Platform.runLater(() -> this.applyLibraryChanges(root, changed)));
+        watcher.start();
+        this.libraryWatcher = watcher;
+
+        if (restoreLastPlayed && this.lastPlayed != null && !this.lastPlayed.isEmpty()) {
+            TreeItem<String> lastPlayedItem = this.treeItemIndex.resolve(Paths.get(this.lastPlayed));
+            if (lastPlayedItem != null) {
+                this.view.getFileView().getSelectionModel().select(lastPlayedItem);
+            }
+        }
+
+        this.view.getScanStatus().setText("Scanning...");
+        this.currentScan = libraryScanner.scan(directory.toPath(), new LibraryScanner.Listener() {
+            private List<LibraryEntry> batch = new ArrayList<>(QUEUE_BATCH);
 
-            try {
-            JsonConfigManager.saveConfig(this.userConfig);
-            } catch (IOException e) {
-                e.printStackTrace();
+            @Override
+            public void onDirectory(Path libraryDirectory, Path parent) {
+                watcher.register(libraryDirectory);
+            }
+
+            @Override
+            public void onTrack(LibraryEntry track, Path parent) {
+                search.add(track.getPath(), metadataService.getCached(track.getPath()));
+                batch.add(track);
+                if (batch.size() == QUEUE_BATCH) {
+                    flush();
+                }
+                metadataService.request(track.getPath(), track.getSize(), track.getLastModified());
+            }
+
+            @Override
+            public void onProgress(int directories, int tracks) {
+                Platform.runLater(() -> {
+                    if (view.getFileView().getRoot() == root) {
+                        view.getScanStatus().setText(tracks + " tracks in " + directories + " folders");
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(boolean cancelled) {
+                flush();
+                // Tracks were appended as the scan found them, the table gets its order back once.
+                Platform.runLater(() -> {
+                    if (view.getFileView().getRoot() == root) {
+                        trackTable.resortLater();
+                    }
+                });
+                if (!cancelled) {
+                    libraryIndex.finishScan();
+                    libraryIndex.saveIfDirty();
+                }
+            }
+
+            private void flush() {
+                List<LibraryEntry> tracks = batch;
+                batch = new ArrayList<>(QUEUE_BATCH);
+                Platform.runLater(() -> addLibraryTracks(root, tracks));
             }
         });
     }
-    /* 
-    Update View: Play Time label, Duration and Volume slider. 
+
+    /*
+    Tracks reported by the library scan, in File View order. The play queue follows the library unless a playlist is playing.
+    Queue is filled while the user listens, as soon as it knows the track that plays, it can tell (and pre-buffer) the next one.
+    Tracks also go into the store of the Track Table, with the duration we know already (metadata cache or Library Index).
     */
-    private void updateView() {
-        Duration currentTime = model.GetPlayer().getCurrentTime();
-        view.getPlayTime().setText(Utils.formatTime(currentTime, model.getDuration()));
-        view.getDurationSlider().setDisable(model.getDuration().isUnknown());
-        if (!view.getDurationSlider().isDisabled() && model.getDuration().greaterThan(Duration.ZERO) && 
-            !view.getDurationSlider().isValueChanging()) {   
-             view.getDurationSlider().setValue(currentTime.toSeconds() / model.getDuration().toSeconds());
-        }
-
-        if (!view.getVolumeSlider().isValueChanging()) {
-            view.getVolumeSlider().setValue(model.GetPlayer().getVolume());
-           }
+    private void addLibraryTracks(LazyTreeItem root, List<LibraryEntry> entries) {
+        if (view.getFileView().getRoot() != root) {
+            return;
+        }
+        List<Path> tracks = new ArrayList<>(entries.size());
+        TrackStore store = this.trackTable.getStore();
+        for (LibraryEntry entry : entries) {
+            tracks.add(entry.getPath());
+            store.add(entry.getPath(), entry.getLastModified(), this.knownDuration(entry.getPath()));
+        }
+        this.trackTable.appended();
+        this.libraryTracks.addAll(tracks);
+        if (!this.queueFollowsLibrary) {
+            return;
+        }
+        Path nextBefore = this.playQueue.peekNext();
+        this.playQueue.addAll(tracks);
+        if (this.playQueue.current() == null && this.lastPlayed != null) {
+            this.playQueue.jumpTo(Paths.get(this.lastPlayed));
+        }
+        if (this.playQueue.current() != null && nextBefore == null) {
+            this.playback.preloadNext();
+        }
+    }
+
+    /* Play button (or the remote play command) on a track that is not playing. A track that has ended starts over. */
+    private void resume() {
+        if (atEndOfMedia) {
+            engine.seek(0);
+            atEndOfMedia = false;
+        }
+        engine.play();
     }
 
+    private int knownDuration(Path track) {
+        TrackMetadata metadata = this.metadataService.getCached(track);
+        return metadata != null && metadata.getDurationMillis() > 0 ? metadata.getDurationMillis() : this.libraryIndex.getDuration(track);
+    }
 
-    private void initPlayer() {
+    /* Track chosen in File View, Track Table or in the search results. The queue goes back to the library, if it was playing a playlist. */
+    private void playFromLibrary(Path track) {
+        if (!this.queueFollowsLibrary || !this.playQueue.contains(track)) {
+            this.queueFollowsLibrary = true;
+            this.playQueue.setTracks(this.libraryTracks);
+            if (!this.playQueue.contains(track)) {
+                // Scan has not got that far yet (or the track is new), it will be queued right here.
+                this.playQueue.add(track);
+            }
+        }
+        this.playQueue.jumpTo(track);
+        this.playback.play(track);
+    }
 
-        model.GetPlayer().currentTimeProperty().addListener(ov -> updateView());
+    /* Tracks of an opened playlist replace the queue, the first one starts playing. */
+    private void playPlaylist(List<Path> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        this.queueFollowsLibrary = false;
+        this.playQueue.setTracks(tracks);
+        this.playback.next();
+    }
 
-        model.GetPlayer().setOnPlaying(() -> {
-            if (stopRequested) {
-                model.GetPlayer().pause();
-                stopRequested = false;
-            } else {
-                view.getPlayButton().setText("||");
+    /*
+    Playback has started a track (chosen by the user, next, previous, end of media).
+    Track is shown in File View if it is part of the library, unless it is selected already (user has just double clicked it).
+    */
+    private void trackStarted(Path track) {
+        TreeItem<String> selected = this.view.getFileView().getSelectionModel().getSelectedItem();
+        if (selected == null || !track.equals(this.treeItemIndex.pathOf(selected))) {
+            if (!this.revealTrack(track)) {
+                this.view.getFileView().getSelectionModel().clearSelection();
+            }
+        }
+        this.showWaveform(track);
+        this.saveSession();
+    }
+
+    /*
+    Shows the overview of the track in the duration slider: right away when it is cached,
+    otherwise it is generated first (before anything else in the queue). The next track of the play queue is prepared
+    with the lowest priority, so skipping to it shows its overview at once.
+    */
+    private void showWaveform(Path track) {
+        this.waveformTrack = track;
+        WaveformOverview overview = this.waveformService.getCached(track);
+        this.waveformRenderer.setOverview(overview);
+        if (overview == null) {
+            this.waveformService.request(track, WaveformService.Priority.VISIBLE);
+        }
+        Path next = this.playQueue.peekNext();
+        if (next != null && !next.equals(track)) {
+            this.waveformService.request(next, WaveformService.Priority.BACKGROUND);
+        }
+    }
+
+    private void waveformReady(Path track, WaveformOverview overview) {
+        if (track.equals(this.waveformTrack) && this.waveformRenderer.getOverview() == null) {
+            this.waveformRenderer.setOverview(overview);
+        }
+    }
+
+    /*
+    Called with a batch of directories that changed on disk (see LibraryWatcher).
+    Library Index forgets them, directories that are already shown in File View are read again,
+    directories the user has not opened yet are left alone (they will be read fresh when opened).
+    */
+    private void applyLibraryChanges(LazyTreeItem root, Set<Path> changed) {
+        if (view.getFileView().getRoot() != root) {
+            return;
+        }
+        for (Path directory : changed) {
+            this.libraryIndex.invalidate(directory);
+            LazyTreeItem item = this.treeItemIndex.get(directory);
+            if (item != null) {
+                item.refresh();
+            }
+        }
+        BackgroundExecutors.io().execute(this.libraryIndex::saveIfDirty);
+
+        // Search index, Track Table, library tracks and play queue follow the same directories, listing them again is answered by Library Index.
+        // A changed directory stands for its whole subtree: a deleted or renamed Artist folder takes its albums along,
+        // a new one brings them. Directories below another changed one are covered by it.
+        LibrarySearchIndex search = this.searchIndex;
+        TrackStore store = this.trackTable.getStore();
+        BackgroundExecutors.io().execute(() -> {
+            Map<Path, List<LibraryEntry>> listings = new HashMap<>();
+            for (Path directory : changed) {
+                if (hasChangedAncestor(directory, changed)) {
+                    continue;
+                }
+                Set<Path> present = new HashSet<>();
+                List<LibraryEntry> tracks = this.libraryIndex.listTracks(directory);
+                for (LibraryEntry entry : tracks) {
+                    present.add(entry.getPath());
+                    search.add(entry.getPath(), this.metadataService.getCached(entry.getPath()));
+                }
+                search.retain(directory, present);
+                listings.put(directory, tracks);
             }
+            Platform.runLater(() -> this.applyListings(root, store, listings));
         });
+    }
+
+    private static boolean hasChangedAncestor(Path directory, Set<Path> changed) {
+        for (Path parent = directory.getParent(); parent != null; parent = parent.getParent()) {
+            if (changed.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        model.GetPlayer().setOnPaused(() -> {
-            view.getPlayButton().setText("Play");
+    /*
+    Listings of the changed directories (their whole subtrees) reach the Track Table, the library tracks and (unless a playlist plays) the play queue:
+    tracks that are gone are removed, new ones are added at the end and asked for their metadata, then the table is sorted again.
+    */
+    private void applyListings(LazyTreeItem root, TrackStore store, Map<Path, List<LibraryEntry>> listings) {
+        if (view.getFileView().getRoot() != root || this.trackTable.getStore() != store) {
+            return;
+        }
+        Set<Path> known = new HashSet<>(this.libraryTracks);
+        Set<Path> present = new HashSet<>();
+        List<Path> added = new ArrayList<>();
+        for (Map.Entry<Path, List<LibraryEntry>> listing : listings.entrySet()) {
+            Set<Path> inDirectory = new HashSet<>();
+            for (LibraryEntry entry : listing.getValue()) {
+                inDirectory.add(entry.getPath());
+                if (known.add(entry.getPath())) {
+                    added.add(entry.getPath());
+                }
+                store.add(entry.getPath(), entry.getLastModified(), this.knownDuration(entry.getPath()));
+                // New tracks and tracks rewritten in place (their size or mtime no longer matches the cache) are parsed.
+                this.metadataService.request(entry.getPath(), entry.getSize(), entry.getLastModified());
+            }
+            store.retain(listing.getKey(), inDirectory);
+            present.addAll(inDirectory);
+        }
+        this.trackTable.resortLater();
+
+        this.libraryTracks.removeIf((track) -> !present.contains(track) && hasChangedAncestor(track, listings.keySet()));
+        this.libraryTracks.addAll(added);
+        if (!this.queueFollowsLibrary) {
+            return;
+        }
+        Path nextBefore = this.playQueue.peekNext();
+        for (Path directory : listings.keySet()) {
+            this.playQueue.retain(directory, present);
+        }
+        this.playQueue.addAll(added);
+        Path next = this.playQueue.peekNext();
+        if (this.playQueue.current() != null && next != null && !next.equals(nextBefore)) {
+            this.playback.preloadNext();
+        }
+    }
+
+    /* Shows the duplicates window, the first time also starts looking (the window is built then too). */
+    private void showDuplicates() {
+        if (this.duplicatesWindow == null) {
+            this.duplicatesWindow = new DuplicatesWindow(this.primaryStage);
+            this.duplicatesWindow.getStartButton().setOnAction((event) -> this.findDuplicates());
+            this.duplicatesWindow.getStopButton().setOnAction((event) -> {
+                DuplicateFinder.Job job = this.duplicateFinder.getRunning();
+                if (job != null) {
+                    job.cancel();
+                }
+            });
+            this.duplicatesWindow.getGroups().addEventHandler(MouseEvent.MOUSE_CLICKED, (event) -> {
+                Path track = this.duplicatesWindow.getSelectedTrack();
+                if (event.getClickCount() == 2 && track != null) {
+                    this.playFromLibrary(track);
+                }
+            });
+            this.findDuplicates();
+        }
+        this.duplicatesWindow.show();
+    }
+
+    /* Starts a job over the tracks found so far. Durations are looked up on the job thread (metadata cache, Library Index). */
+    private void findDuplicates() {
+        DuplicatesWindow window = this.duplicatesWindow;
+        window.setRunning(true);
+        this.duplicateFinder.start(this.libraryTracks, this::knownDuration, new DuplicateFinder.Listener() {
+            @Override
+            public void onProgress(DuplicateFinder.Stage stage, int done, int total) {
+                Platform.runLater(() -> window.showProgress(stage, done, total));
+            }
+
+            @Override
+            public void onFinished(List<DuplicateGroup> groups, boolean cancelled) {
+                Platform.runLater(() -> {
+                    window.setRunning(false);
+                    if (cancelled) {
+                        window.getStatus().setText("Stopped, Start continues where it stopped");
+                    } else {
+                        window.showGroups(groups);
+                    }
+                });
+            }
         });
+    }
 
-        model.GetPlayer().setOnReady(() -> {
-            model.updateDuration();
-            updateView();
+    /*
+    Looks the query up in the Search Index on the search thread and shows the results.
+    Every keystroke starts a new generation, results of a query the user has already typed over are thrown away.
+    */
+    private void runSearch(String query) {
+        long generation = this.searchGeneration.incrementAndGet();
+        if (query == null || query.isBlank()) {
+            this.view.getSearchResults().getItems().clear();
+            this.view.getSearchResults().setVisible(false);
+            return;
+        }
+        LibrarySearchIndex search = this.searchIndex;
+        this.searchExecutor.execute(() -> {
+            if (generation != this.searchGeneration.get()) {
+                return;
+            }
+            List<Path> results = search.search(query, MAX_SEARCH_RESULTS);
+            Platform.runLater(() -> {
+                if (generation == this.searchGeneration.get()) {
+                    this.view.getSearchResults().getItems().setAll(results);
+                    this.view.getSearchResults().setVisible(true);
+                }
+            });
         });
+    }
+
+    /* Selects the track in File View (Tree Item Index opens only the directories on the way to it). */
+    private boolean revealTrack(Path track) {
+        TreeItem<String> item = this.treeItemIndex.resolve(track);
+        if (item == null) {
+            return false;
+        }
+        this.view.getFileView().getSelectionModel().select(item);
+        int row = this.view.getFileView().getRow(item);
+        if (row >= 0) {
+            this.view.getFileView().scrollTo(row);
+        }
+        return true;
+    }
+
+    /*
+    Called on a metadata worker for every parsed track. Tags go into the Search Index and duration into Library Index,
+    File View is repainted once the burst of parsed tracks calms down (one refresh per METADATA_REFRESH_MILLIS, not one per track).
+    When the last queued track is done, the cache is written to disk.
+    */
+    private void metadataParsed(Path track, TrackMetadata metadata) {
+        this.searchIndex.update(track, metadata);
+        if (metadata.getDurationMillis() > 0) {
+            this.libraryIndex.setDuration(track, metadata.getDurationMillis());
+            this.parsedDurations.add(Map.entry(track, metadata.getDurationMillis()));
+        }
+        if (this.metadataService.getPending() == 0) {
+            BackgroundExecutors.io().execute(this.metadataService.getCache()::saveIfDirty);
+        }
+        if (this.metadataRefreshQueued.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                this.metadataRefreshQueued.set(false);
+                if (this.metadataRefresh.getStatus() != Animation.Status.RUNNING) {
+                    this.metadataRefresh.playFromStart();
+                }
+            });
+        }
+    }
+
+    /* Burst of parsed tracks is over: durations go into the Track Table, both views paint their visible cells again. */
+    private void metadataRefreshed() {
+        TrackStore store = this.trackTable.getStore();
+        Map.Entry<Path, Integer> parsed;
+        while ((parsed = this.parsedDurations.poll()) != null) {
+            store.setDuration(parsed.getKey(), parsed.getValue());
+        }
+        this.view.getFileView().refresh();
+        this.trackTable.refresh();
+    }
+
+    private void playerReady() {
+        StartupTimeline.mark("ready-to-play");
+        model.updateDuration();
+        // First track of the session continues where the previous session stopped.
+        if (this.resumePositionMillis > 0) {
+            model.seek(Duration.millis(Math.min(this.resumePositionMillis, model.getDuration().toMillis())));
+            this.resumePositionMillis = 0;
+        }
+        // Remember parsed duration in Library Index.
+        if (this.lastPlayed != null && !this.lastPlayed.isEmpty() && model.getDuration().greaterThan(Duration.ZERO)) {
+            this.libraryIndex.setDuration(Paths.get(this.lastPlayed), (int) model.getDuration().toMillis());
+        }
+        this.viewUpdater.refresh();
+    }
+
+    /*
+    Attaches controller to the audio engine (once, engine listeners stay when the track changes) and to the Playback. 
+    */
+    private void initPlayer() {
+
+        this.engine.addListener(new AudioEngine.Listener() {
+            @Override
+            public void statusChanged(Status status) {
+                duplicateFinder.getThrottle().setPlaying(status == Status.PLAYING);
+                if (status == Status.PLAYING) {
+                    if (stopRequested) {
+                        engine.pause();
+                        stopRequested = false;
+                    } else {
+                        view.getPlayButton().setText("||");
+                        viewUpdater.start();
+                    }
+                } else if (status == Status.PAUSED) {
+                    view.getPlayButton().setText("Play");
+                    viewUpdater.stop();
+                    saveSession();
+                } else if (status == Status.STOPPED) {
+                    viewUpdater.stop();
+                }
+            }
 
-        model.GetPlayer().setOnEndOfMedia(() -> {
-            if (!model.Repeat() && !selectNextItem()) {
-                
-            } 
+            @Override
+            public void ready() {
+                playerReady();
+            }
         });
+        // Player created during startup is usually ready before we get here.
+        if (this.engine.getStatus() != Status.UNKNOWN) {
+            this.playerReady();
+        }
 
-        this.addAudioSpectrumListener();
+        this.playback.setListener(new Playback.Listener() {
+            @Override
+            public void trackChanging(Path track) {
+                // Set before the engine opens the track, pre-buffered track is ready (see playerReady) right away.
+                lastPlayed = track.toString();
+                // Position of the previous session belongs to the track that was playing then.
+                resumePositionMillis = 0;
+            }
+
+            @Override
+            public void trackStarted(Path track) {
+                MediaPlayerController.this.trackStarted(track);
+            }
 
-        /* <- Reminder to use Animation timer for more complex audio visualization. 
-              Simple visualization works fine without it.      
-        AnimationTimer timer = new AnimationTimer() {
             @Override
-            public void handle(long now) {
-                // Triggered every frame
+            public void queueFinished() {
+                viewUpdater.stop();
             }
-        };
-        timer.start();
-        */
+        });
+
+        this.addAudioSpectrumListener();
     }
         
 
     /* Listens for the magnitudes.
-       Gets an array of magnitude values every 16ms and draws them on canvas as rectangles. 
+       Gets an array of magnitude values (every 16ms, see AdaptiveSpectrum) and hands them to Spectrum Renderer, 
+       which draws them on canvas as rectangles once per frame. 
+       Adaptive Spectrum switches the analysis off while the visualizer is hidden and fits number of bands to the canvas.
+       PCM engine does not call the listener, the renderer reads the frames of its own analyzer.
        */       
     private void addAudioSpectrumListener() {
-        model.GetPlayer().setAudioSpectrumInterval(0.016); // Update every 16ms (~60fps)
-        model.GetPlayer().setAudioSpectrumNumBands(128); // Number of frequency bands
-        model.GetPlayer().setAudioSpectrumThreshold(-90);     
-        model.GetPlayer().setAudioSpectrumListener((timestamp, duration, magnitudes, phases) -> {
-            this.drawWaveform(magnitudes); 
+        this.spectrumRenderer.setSource(this.engine.getSpectrumFrames());
+        this.adaptiveSpectrum.attach(this.engine, (timestamp, duration, magnitudes, phases) -> {
+            this.spectrumRenderer.update(magnitudes); 
         });
     }
 
-    private void drawWaveform(float[] magnitudes) {
-        GraphicsContext gc = view.getCanvas().getGraphicsContext2D();
-        gc.clearRect(0, 0, view.getCanvas().getWidth(), view.getCanvas().getHeight());
-        gc.setEffect(new GaussianBlur(5));
-        //gc.setLineCap(StrokeLineCap.ROUND);
+    ////////Session////////
 
-        double width = view.getCanvas().getWidth();
-        double height = view.getCanvas().getHeight();
-        double barWidth = width / magnitudes.length;
-        double halfHeight = height / 2;
+    /* Brings back volume, repeat modes and the play queue of the previous session (position is applied in playerReady). */
+    private void restoreSession() {
+        double volume = this.userConfig.getUser_volume();
+        engine.setVolume(volume);
+        this.view.getVolumeSlider().setValue(volume);
 
-        for (int i = 0; i < magnitudes.length; i++) {
-            double magnitude = magnitudes[i] + 90; // Adjust magnitude to be positive // alternative  - mediaPlayer.getSpektrumThreshold();
-            double barHeight = magnitude * 3; // Scale bar height
+        if (this.userConfig.isUser_repeat()) {
+            view.getRepeatButton().getStyleClass().add("repeat-button-clicked");
+            model.setRepeat(true);
+        }
+        this.view.getShuffleItem().setSelected(this.userConfig.isUser_shuffle());
+        this.playQueue.setShuffle(this.userConfig.isUser_shuffle());
+        this.view.getRepeatAllItem().setSelected(this.userConfig.isUser_repeat_all());
+        this.playQueue.setRepeatAll(this.userConfig.isUser_repeat_all());
+
+        // A saved queue means a playlist was playing, otherwise the queue is filled by the library scan.
+        if (!this.userConfig.getUser_queue().isEmpty()) {
+            List<Path> tracks = new ArrayList<>(this.userConfig.getUser_queue().size());
+            for (String track : this.userConfig.getUser_queue()) {
+                tracks.add(Paths.get(track));
+            }
+            this.queueFollowsLibrary = false;
+            this.playQueue.setTracks(tracks);
+            if (this.lastPlayed != null && !this.lastPlayed.isEmpty()) {
+                this.playQueue.jumpTo(Paths.get(this.lastPlayed));
+            }
+        }
+    }
 
-            // Color of rect is based on the location in the array.
-            Color color = Color.hsb(i * -180.0 / magnitudes.length, 1.0, 1.0); 
-            gc.setFill(color);
+    /*
+    Copies the session into User Config and asks JsonConfigManager to write it (write-behind, off the FX thread).
+    Cheap enough to be called on every change, the writer merges calls that come in quick succession.
+    */
+    private void saveSession() {
+        this.userConfig.setUser_star_directory(this.filePath); 
+        this.userConfig.setUser_lastplayed_track(this.lastPlayed);
+        this.userConfig.setUser_position_millis(this.resumePositionMillis > 0 
+            ? this.resumePositionMillis : engine.getCurrentTimeMillis());
+        this.userConfig.setUser_volume(engine.getVolume());
+        this.userConfig.setUser_repeat(model.Repeat());
+        this.userConfig.setUser_shuffle(this.playQueue.isShuffle());
+        this.userConfig.setUser_repeat_all(this.playQueue.isRepeatAll());
+
+        List<String> queue = new ArrayList<>();
+        if (!this.queueFollowsLibrary) {
+            for (Path track : this.playQueue.getTracks()) {
+                queue.add(track.toString());
+            }
+        }
+        this.userConfig.setUser_queue(queue);
+        JsonConfigManager.saveConfigLater(this.userConfig);
+    }
+
+    ////////Remote Control////////
 
-            gc.fillRect(i * barWidth, halfHeight - barHeight / 2, barWidth, barHeight);
+    /* Commands of the remote control API, run on the FX thread. They do what the buttons and sliders do. */
+    private class RemoteCommands implements RemotePlayer {
 
-            // Looks better with shadows, I think.
-            DropShadow dropShadow = new DropShadow();
-            dropShadow.setOffsetY(2.0);
-            dropShadow.setOffsetX(2.0);
-            dropShadow.setColor(Color.rgb(50, 50, 50, 0.5));
-            gc.setEffect(dropShadow);
+        @Override
+        public PlayerState getState() {
+            return new PlayerState(engine.getStatus(), lastPlayed, engine.getCurrentTimeMillis(), engine.getDurationMillis(),
+                engine.getVolume(), model.Repeat());
         }
-        
-        /*  
-        Effects stay drawn even after clearing canvas.
-        It looks interesting, but it is not what we want,            
-        so we need to remove them before drawing next magnitudes.
-        */
-        gc.setEffect(null);  
-    }
-    
-    /*
-    If we are not playing song on repeat this method gets called.
-    It searches File navigation menu (File View) for the next track to play.
-     */
 
-    private boolean selectNextItem() {
-        // Get next sibling of the currently selected track.
-        TreeItem<String> siblingItem = view.getFileView().getSelectionModel().getSelectedItem().nextSibling();
-        
-        /* Checks if the sibling item exists, if not, recursively searches for the next item in the tree. */
-        siblingItem = checkSiblingItem(siblingItem);
+        @Override
+        public float[] getSpectrum() {
+            return spectrumRenderer.getMagnitudes();
+        }
 
-        // If next item is a directory, get first track inside directory.  
-        while (!siblingItem.isLeaf()) {
-               siblingItem = siblingItem.getChildren().get(0);
+        @Override
+        public void play() {
+            Status status = engine.getStatus();
+            if (status == Status.PAUSED || status == Status.READY || status == Status.STOPPED) {
+                resume();
+            }
         }
-        // Show user currently selected track and play it.
-        this.view.getFileView().getSelectionModel().select(siblingItem);
-        this.lastPlayed = this.filePath + Utils.findStarNode(siblingItem.getParent(), siblingItem.getValue());
-        model.changeMedia(this.lastPlayed);
-        initPlayer();
 
-        return true;
-    } 
-
-    private TreeItem<String> checkSiblingItem(TreeItem<String> siblingItem) {
-        // if next sibling does not exist (eg. end the end of library or tracklist).  
-        if (siblingItem == null) {
-            /*  
-              Check if the parent directory of the selected item is root directory (see. Note-root-design). 
-              If parent directory is root, then we select first item in the library (basically, we start playing from the beginning).
-            */
-            if (view.getFileView().getSelectionModel().getSelectedItem().getParent().getValue().contains(" \u2605")) {
-                siblingItem = view.getFileView().getSelectionModel().getSelectedItem().getParent().getChildren().get(0);
-            } else {
-                /* Otherwise, we are recursively going up the tree 
-                until we find next sibling that is not null or reach root directory.
-                Either way, we are getting a valid Tree Item.*/
-                this.view.getFileView().getSelectionModel().select(view.getFileView().getSelectionModel().getSelectedItem().getParent());   
-                siblingItem = checkSiblingItem(view.getFileView().getSelectionModel().getSelectedItem().nextSibling());
+        @Override
+        public void pause() {
+            Status status = engine.getStatus();
+            if (status == Status.PLAYING || status == Status.STALLED) {
+                engine.pause();
+            }
+        }
+
+        @Override
+        public boolean next() {
+            return playback.next();
+        }
+
+        @Override
+        public boolean previous() {
+            return playback.previous();
+        }
+
+        @Override
+        public void seek(double millis) {
+            Duration total = model.getDuration();
+            if (total == null || total.isUnknown() || total.isIndefinite()) {
+                return;
+            }
+            model.seek(Duration.millis(Math.min(millis, total.toMillis())));
+            viewUpdater.refresh();
+            saveSession();
+        }
+
+        @Override
+        public void setVolume(double volume) {
+            engine.setVolume(volume);
+            view.getVolumeSlider().setValue(volume);
+            saveSession();
+        }
+
+        @Override
+        public int getQueueSize() {
+            return playQueue.size();
+        }
+
+        @Override
+        public List<Path> getQueue(int offset, int limit) {
+            List<Path> tracks = playQueue.getTracks();
+            int from = Math.min(offset, tracks.size());
+            return new ArrayList<>(tracks.subList(from, Math.min(tracks.size(), from + limit)));
+        }
+
+        @Override
+        public boolean playQueued(Path track) {
+            if (!playQueue.jumpTo(track)) {
+                return false;
+            }
+            return playback.play(track);
+        }
+
+        /* Only playable tracks of the open library can be added, the remote client must not reach any other file. */
+        @Override
+        public void enqueue(Path track) {
+            if (!(view.getFileView().getRoot() instanceof LazyTreeItem)) {
+                throw new IllegalArgumentException("no library is open");
+            }
+            Path root = ((LazyTreeItem) view.getFileView().getRoot()).getPath();
+            try {
+                if (!track.toRealPath().startsWith(root.toRealPath())) {
+                    throw new IllegalArgumentException("track is not in the library");
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("no such track");
+            }
+            if (!FormatRegistry.SHARED.detect(track).isPlayable()) {
+                throw new IllegalArgumentException("track is not playable");
+            }
+            Path nextBefore = playQueue.peekNext();
+            playQueue.add(track);
+            if (playQueue.current() != null && nextBefore == null) {
+                playback.preloadNext();
             }
+            saveSession();
         }
-        return siblingItem;
     }
 
     // Note-root-design: (by design of application root directory Always marked by a star - " \u2605", even if user is using custome directory).
@@ -0,0 +1,93 @@
+package dev.staniszak.app.controller;
+
+import java.nio.file.Path;
+
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.playlist.PlayQueue;
+
+/*
+ * Playback flow without any widgets: which track plays when the current one ends, next/previous, pre-buffering of the next track.
+ *
+ * MediaPlayerController drives it from buttons, File View and the search results and follows it through the Listener
+ * (selection in File View, saved session). PlaybackSimulation drives it on a FakeAudioEngine, thousands of tracks a second.
+ * Runs on the thread of the engine (JavaFX application thread in the application).
+ */
+
+public class Playback {
+
+    public interface Listener {
+        /* Called before the track is handed to the engine. */
+        default void trackChanging(Path track) { }
+        default void trackStarted(Path track) { }
+        /* Track has ended and the queue has nothing more to play (end of the queue without repeat all). */
+        default void queueFinished() { }
+    }
+
+    private final MediaPlayerModel model;
+    private final PlayQueue queue;
+    private Listener listener = new Listener() { };
+    private long started = 0;
+
+    public Playback(MediaPlayerModel model, PlayQueue queue) {
+        this.model = model;
+        this.queue = queue;
+        // Track on repeat is looped by the engine, end of media is not reported for it.
+        model.getEngine().addListener(new AudioEngine.Listener() {
+            @Override
+            public void endOfMedia() {
+                if (!model.Repeat() && !next()) {
+                    listener.queueFinished();
+                }
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public PlayQueue getQueue() {
+        return queue;
+    }
+
+    /* Number of tracks started since the playback was created. */
+    public long getStarted() {
+        return started;
+    }
+
+    public boolean next() {
+        return play(queue.next());
+    }
+
+    public boolean previous() {
+        return play(queue.previous());
+    }
+
+    /* Plays the track the queue has moved to and pre-buffers the one after it. Null (queue has nothing there) is ignored. */
+    public boolean play(Path track) {
+        if (track == null) {
+            return false;
+        }
+        listener.trackChanging(track);
+        model.changeMedia(track.toString());
+        started++;
+        preloadNext();
+        listener.trackStarted(track);
+        return true;
+    }
+
+    /*
+    Asks model to pre-buffer the track the play queue is going to play when the current one ends,
+    so the next track starts without a gap. Not needed when the current track is on repeat.
+     */
+    public void preloadNext() {
+        if (model.Repeat()) {
+            return;
+        }
+        Path nextTrack = queue.peekNext();
+        if (nextTrack != null) {
+            model.preload(nextTrack.toString());
+        }
+    }
+}
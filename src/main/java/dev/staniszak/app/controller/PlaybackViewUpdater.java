@@ -0,0 +1,103 @@
+package dev.staniszak.app.controller;
+
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.utils.Utils;
+import dev.staniszak.app.view.MediaPlayerView;
+import javafx.animation.AnimationTimer;
+import javafx.scene.control.Slider;
+import javafx.util.Duration;
+
+/*
+ * Keeps Play Time label, Duration and Volume slider in step with the player.
+ *
+ * Instead of reacting to every change of the player's currentTime, the updater samples playback position
+ * once per frame (AnimationTimer) while the track is playing:
+ *   - Duration slider moves every frame, so it stays smooth.
+ *   - Play Time label and Volume slider are checked at most labelRateHz times a second,
+ *     and the label text is replaced only when the shown second has changed.
+ * Time is formatted into a reused StringBuilder (see Utils.formatTime).
+ * Time of every update and frames the FX thread missed while playing go to PlayerMetrics.
+ */
+
+public class PlaybackViewUpdater {
+
+    private final MediaPlayerView view;
+    private final MediaPlayerModel model;
+    private final long labelIntervalNanos;
+    private final StringBuilder timeText = new StringBuilder(24);
+
+    private long lastLabelUpdate = 0;
+    private long shownPlayedSeconds = -1;
+    private long shownTotalSeconds = -1;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            PlayerMetrics.pulse(now);
+            update(now, false);
+        }
+    };
+
+    public PlaybackViewUpdater(MediaPlayerView view, MediaPlayerModel model, double labelRateHz) {
+        this.view = view;
+        this.model = model;
+        this.labelIntervalNanos = (long) (1_000_000_000L / labelRateHz);
+    }
+
+    /* Start sampling, when the player starts playing. */
+    public void start() {
+        timer.start();
+    }
+
+    /* Stop sampling (paused or stopped player does not move). Shows the final position. */
+    public void stop() {
+        timer.stop();
+        PlayerMetrics.pulsesStopped();
+        refresh();
+    }
+
+    /* Updates everything right away (new track, player is ready, user moved the slider). */
+    public void refresh() {
+        update(System.nanoTime(), true);
+    }
+
+    private void update(long now, boolean force) {
+        long start = System.nanoTime();
+        updateView(now, force);
+        PlayerMetrics.viewUpdated(System.nanoTime() - start);
+    }
+
+    private void updateView(long now, boolean force) {
+        Duration total = model.getDuration();
+        if (total == null) {
+            return; // <- player is not ready yet.
+        }
+        double played = model.getEngine().getCurrentTimeMillis() / 1000;
+
+        Slider durationSlider = view.getDurationSlider();
+        durationSlider.setDisable(total.isUnknown());
+        if (!durationSlider.isDisabled() && total.greaterThan(Duration.ZERO) && !durationSlider.isValueChanging()) {
+            durationSlider.setValue(played / total.toSeconds());
+        }
+
+        if (!force && now - lastLabelUpdate < labelIntervalNanos) {
+            return;
+        }
+        lastLabelUpdate = now;
+
+        long playedSeconds = (long) Math.floor(played);
+        long totalSeconds = (long) Math.floor(total.toSeconds());
+        if (force || playedSeconds != shownPlayedSeconds || totalSeconds != shownTotalSeconds) {
+            shownPlayedSeconds = playedSeconds;
+            shownTotalSeconds = totalSeconds;
+            timeText.setLength(0);
+            Utils.formatTime(timeText, playedSeconds, totalSeconds);
+            view.getPlayTime().setText(timeText.toString());
+        }
+
+        if (!view.getVolumeSlider().isValueChanging()) {
+            view.getVolumeSlider().setValue(model.getEngine().getVolume());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dev.staniszak.app.controller;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import dev.staniszak.app.common.UserConfig;
+import dev.staniszak.app.library.LibraryIndex;
+import dev.staniszak.app.metadata.MetadataCache;
+import dev.staniszak.app.model.MediaPlayerModel;
+import dev.staniszak.app.utils.JsonConfigManager;
+import dev.staniszak.app.utils.StartupTimeline;
+import lombok.Getter;
+
+/*
+ * Everything the controller needs from the disk before it can start: user config, library index, metadata cache
+ * and the player of the last played track.
+ *
+ * loadAsync() reads them in parallel on the given executor (the player waits only for the config, it needs the last played track),
+ * so the window can be shown while they load. load() is the same thing on the calling thread.
+ */
+
+@Getter
+public class StartupState {
+
+    /* Default size of the metadata cache, -Dplayer.metadataCacheSize=... */
+    private static final int METADATA_CACHE_SIZE = Integer.getInteger("player.metadataCacheSize", 200_000);
+
+    private final UserConfig userConfig;
+    private final LibraryIndex libraryIndex;
+    private final MetadataCache metadataCache;
+    private final MediaPlayerModel model;
+
+    public StartupState(UserConfig userConfig, LibraryIndex libraryIndex, MetadataCache metadataCache, MediaPlayerModel model) {
+        this.userConfig = userConfig;
+        this.libraryIndex = libraryIndex;
+        this.metadataCache = metadataCache;
+        this.model = model;
+    }
+
+    public static StartupState load() {
+        return loadAsync(Runnable::run).join();
+    }
+
+    public static CompletableFuture<StartupState> loadAsync(Executor executor) {
+        CompletableFuture<UserConfig> config = CompletableFuture.supplyAsync(StartupState::loadConfig, executor);
+        CompletableFuture<LibraryIndex> index = CompletableFuture.supplyAsync(() -> {
+            LibraryIndex libraryIndex = LibraryIndex.load(JsonConfigManager.getLibraryIndexPath());
+            StartupTimeline.mark("library-index");
+            return libraryIndex;
+        }, executor);
+        CompletableFuture<MetadataCache> cache = CompletableFuture.supplyAsync(() -> {
+            MetadataCache metadataCache = MetadataCache.load(JsonConfigManager.getMetadataCachePath(), METADATA_CACHE_SIZE);
+            StartupTimeline.mark("metadata-cache");
+            return metadataCache;
+        }, executor);
+        CompletableFuture<MediaPlayerModel> model = config.thenApplyAsync((userConfig) -> {
+            MediaPlayerModel playerModel = new MediaPlayerModel(userConfig.getUser_lastplayed_track());
+            StartupTimeline.mark("player-created");
+            return playerModel;
+        }, executor);
+
+        return CompletableFuture.allOf(config, index, cache, model)
+            .thenApply((ignored) -> new StartupState(config.join(), index.join(), cache.join(), model.join()));
+    }
+
+    /* Creates default config file and audio library if they do not exist, then reads the config. */
+    private static UserConfig loadConfig() {
+        JsonConfigManager.writeDefaultConfig();
+        JsonConfigManager.initDefaultDir(JsonConfigManager.getLIB_FILE_PATH());
+        try {
+            UserConfig userConfig = JsonConfigManager.loadConfig();
+            StartupTimeline.mark("config");
+            return userConfig;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
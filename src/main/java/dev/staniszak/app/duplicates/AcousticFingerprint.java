@@ -0,0 +1,224 @@
+package dev.staniszak.app.duplicates;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import dev.staniszak.app.audio.pipeline.PcmSource;
+import dev.staniszak.app.audio.spectrum.Fft;
+
+/*
+ * Fingerprint of what a track sounds like, in the spirit of Chromaprint: the same recording gives (nearly) the same
+ * fingerprint after it has been re-encoded (other bitrate, other codec), retagged or had its volume changed,
+ * while its bytes share nothing.
+ *
+ * The beginning of the track (from the first sound, up to SECONDS) is mixed down to mono, resampled to 11025 Hz
+ * and cut into FRAME samples long frames every HOP samples (~5 per second).
+ * Every frame becomes a chroma vector: the energy of its spectrum (FFT, Hann window) between 28 Hz and 3.5 kHz
+ * folded into the 12 pitch classes, what lossy codecs leave alone. Chroma is smoothed over 3 frames and turned into
+ * 32 bits, comparisons that survive re-encoding much better than the values themselves:
+ *   bits 0-11   pitch class i is louder than the next one (i + 1),
+ *   bits 12-23  pitch class i got louder since the previous frame,
+ *   bits 24-31  pitch class i is louder than its fifth (i + 7, first 8 classes).
+ * Changes over time tell apart music with the same chords at another tempo, what the static bits alone would not.
+ *
+ * similarity() compares two fingerprints bit by bit at a few time offsets (encoders add their own padding at the start)
+ * and gives the share of equal bits at the best one: 0.5-0.8 for unrelated tracks (the more the closer their chords),
+ * 0.92-0.96 for a track re-encoded at another bitrate or sample rate (see DuplicateFinderCheck in the benchmarks).
+ *
+ * Not thread safe, every worker of DuplicateFinder has its own instance (buffers are reused between tracks).
+ */
+
+public class AcousticFingerprint {
+
+    public static final int SECONDS = Integer.getInteger("player.fingerprintSeconds", 30);
+    public static final double SAME_RECORDING = 0.88;
+
+    private static final int TARGET_RATE = 11025;
+    private static final int FRAME = 4096;
+    private static final int HOP = 2048;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final float SILENCE = 1e-4f; // <- squared sample, -40 dBFS
+    private static final int MAX_OFFSET = 6; // <- frames, ~1 s either way
+    private static final int MIN_OVERLAP = 10;
+
+    private final Fft fft = new Fft(FRAME);
+    private final float[] window = new float[FRAME];
+    private final float[] block = new float[BLOCK_FRAMES * 2];
+    private final float[] samples = new float[FRAME];
+    private final float[] re = new float[FRAME];
+    private final float[] im = new float[FRAME];
+    private final float[][] chroma = new float[3][12];
+    private final float[] smoothed = new float[12];
+    private final float[] previous = new float[12];
+    private final int[] pitchClass = pitchClasses(TARGET_RATE); // <- of every FFT bin, -1 outside of the chroma range
+
+    public AcousticFingerprint() {
+        for (int i = 0; i < FRAME; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (FRAME - 1)));
+        }
+    }
+
+    /* Fingerprint of the beginning of the track, empty when the track is silent or too short (less than a few frames). */
+    public int[] compute(PcmSource source) throws IOException {
+        // Mono samples are averaged over `factor` of them (low pass), then taken at TARGET_RATE by linear interpolation,
+        // so frames last the same time whatever the sample rate of the track.
+        int factor = Math.max(1, Math.round(source.getSampleRate() / (float) TARGET_RATE));
+        double step = source.getSampleRate() / (double) TARGET_RATE;
+        float[] history = new float[factor];
+        int[] fingerprint = new int[Math.max(0, (SECONDS * TARGET_RATE - FRAME) / HOP + 1)];
+        int count = 0;
+        int filled = 0; // <- samples in the current frame
+        long read = 0; // <- source samples
+        double next = 0; // <- source position of the next sample we take
+        float sum = 0;
+        float last = 0;
+        boolean started = false;
+        int frames;
+        while (count < fingerprint.length && (frames = source.read(block, 0, BLOCK_FRAMES)) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("interrupted");
+            }
+            for (int i = 0; i < frames * 2 && count < fingerprint.length; i += 2) {
+                float mono = (block[i] + block[i + 1]) / 2;
+                int slot = (int) (read % factor);
+                sum += mono - history[slot];
+                history[slot] = mono;
+                float current = sum / factor;
+                read++;
+                for (; next <= read - 1 && count < fingerprint.length; next += step) {
+                    float sample = last + (current - last) * (float) (next - (read - 2));
+                    if (!started) {
+                        // Leading silence is skipped, encoders and rips do not agree on how much of it there is.
+                        if (sample * sample < SILENCE) {
+                            continue;
+                        }
+                        started = true;
+                    }
+                    samples[filled++] = sample;
+                    if (filled == FRAME) {
+                        fingerprint[count] = frame(count);
+                        count++;
+                        // Next frame starts HOP samples later, the overlap is kept.
+                        System.arraycopy(samples, HOP, samples, 0, FRAME - HOP);
+                        filled = FRAME - HOP;
+                    }
+                }
+                last = current;
+            }
+        }
+        return count < MIN_OVERLAP ? new int[0] : Arrays.copyOf(fingerprint, count);
+    }
+
+    /* Share of equal bits at the best alignment of the two fingerprints, 0 when they hardly overlap. */
+    public static double similarity(int[] a, int[] b) {
+        double best = 0;
+        for (int offset = -MAX_OFFSET; offset <= MAX_OFFSET; offset++) {
+            int from = Math.max(0, -offset);
+            int to = Math.min(a.length, b.length - offset);
+            if (to - from < MIN_OVERLAP) {
+                continue;
+            }
+            int different = 0;
+            for (int i = from; i < to; i++) {
+                different += Integer.bitCount(a[i] ^ b[i + offset]);
+            }
+            best = Math.max(best, 1 - different / (32.0 * (to - from)));
+        }
+        return best;
+    }
+
+    /*
+     Share of frames that have each of the 32 bits set, 0-255. Does not depend on alignment, so it is compared first:
+     fingerprints whose summaries are far apart are not the same recording and are not compared bit by bit.
+     */
+    public static byte[] summary(int[] fingerprint) {
+        byte[] summary = new byte[32];
+        if (fingerprint.length == 0) {
+            return summary;
+        }
+        for (int bit = 0; bit < 32; bit++) {
+            int set = 0;
+            for (int bits : fingerprint) {
+                set += (bits >>> bit) & 1;
+            }
+            summary[bit] = (byte) (set * 255 / fingerprint.length);
+        }
+        return summary;
+    }
+
+    /* Mean difference of the summaries per bit, 0-255. */
+    public static int summaryDistance(byte[] a, byte[] b) {
+        int distance = 0;
+        for (int bit = 0; bit < 32; bit++) {
+            distance += Math.abs((a[bit] & 0xFF) - (b[bit] & 0xFF));
+        }
+        return distance / 32;
+    }
+
+    /* Bits of the frame in samples, index is its position in the fingerprint. */
+    private int frame(int index) {
+        for (int i = 0; i < FRAME; i++) {
+            re[i] = samples[i] * window[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+        float[] current = chroma[index % 3];
+        Arrays.fill(current, 0);
+        for (int bin = 1; bin < FRAME / 2; bin++) {
+            int pitch = pitchClass[bin];
+            if (pitch >= 0) {
+                current[pitch] += re[bin] * re[bin] + im[bin] * im[bin];
+            }
+        }
+        normalize(current);
+        for (int pitch = 0; pitch < 12; pitch++) {
+            float value = 0;
+            for (int frame = 0; frame <= Math.min(index, 2); frame++) {
+                value += chroma[(index - frame) % 3][pitch];
+            }
+            smoothed[pitch] = value;
+        }
+        int bits = 0;
+        for (int pitch = 0; pitch < 12; pitch++) {
+            if (smoothed[pitch] > smoothed[(pitch + 1) % 12]) {
+                bits |= 1 << pitch;
+            }
+            if (index > 0 && smoothed[pitch] > previous[pitch]) {
+                bits |= 1 << (12 + pitch);
+            }
+            if (pitch < 8 && smoothed[pitch] > smoothed[(pitch + 7) % 12]) {
+                bits |= 1 << (24 + pitch);
+            }
+        }
+        System.arraycopy(smoothed, 0, previous, 0, 12);
+        return bits;
+    }
+
+    private static void normalize(float[] vector) {
+        float sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        if (sum > 0) {
+            float scale = (float) (1 / Math.sqrt(sum));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+    }
+
+    /* Pitch class of every FFT bin between 28 Hz and 3.5 kHz (A4 = 440 Hz is class 9, C is 0). */
+    private static int[] pitchClasses(int rate) {
+        int[] classes = new int[FRAME / 2];
+        for (int bin = 0; bin < classes.length; bin++) {
+            double frequency = (double) bin * rate / FRAME;
+            if (frequency < 28 || frequency > 3520) {
+                classes[bin] = -1;
+                continue;
+            }
+            long note = Math.round(12 * Math.log(frequency / 440) / Math.log(2)) + 69;
+            classes[bin] = (int) Math.floorMod(note, 12L);
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,80 @@
+package dev.staniszak.app.duplicates;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * Hashes of the bytes of a track, read through a FileChannel into one direct buffer (no copies through the heap).
+ *
+ * quickHash() reads only the first and the last EDGE_BYTES of the file. Two files of the same size with the same
+ * beginning and end are almost always the same file (the audio in between would have to differ while tags, headers
+ * and the last frames do not), they are then confirmed by fullHash(), which reads the whole file.
+ * Hash is SHA-1, the same one WaveformCache uses: nobody forges music files to collide, it only has to be wide.
+ * Every block goes through the IoThrottle first.
+ *
+ * Not thread safe, every worker of DuplicateFinder has its own hasher.
+ */
+
+public class ContentHasher {
+
+    public static final int EDGE_BYTES = 64 * 1024;
+    private static final int BLOCK_BYTES = 256 * 1024;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_BYTES);
+    private final MessageDigest digest;
+    private final IoThrottle throttle;
+
+    public ContentHasher(IoThrottle throttle) {
+        this.throttle = throttle;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // <- every JVM has SHA-1
+        }
+    }
+
+    /* First 8 bytes of the hash of the first and last EDGE_BYTES (the whole file when it is smaller than both). */
+    public long quickHash(Path file, long size) throws IOException, InterruptedException {
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long head = Math.min(size, EDGE_BYTES);
+            update(channel, 0, head);
+            long tail = Math.max(head, size - EDGE_BYTES);
+            update(channel, tail, size - tail);
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /* Hash of the whole file. */
+    public byte[] fullHash(Path file) throws IOException, InterruptedException {
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(channel, 0, channel.size());
+        }
+        return digest.digest();
+    }
+
+    private void update(FileChannel channel, long position, long length) throws IOException, InterruptedException {
+        long end = position + length;
+        while (position < end) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(BLOCK_BYTES, end - position));
+            throttle.acquire(buffer.limit());
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break; // <- file got shorter while we read it, the hash just will not match anything
+            }
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+        }
+    }
+}
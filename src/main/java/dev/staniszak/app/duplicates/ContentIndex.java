@@ -0,0 +1,227 @@
+package dev.staniszak.app.duplicates;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dev.staniszak.app.utils.BinaryFiles;
+
+/*
+ * What the duplicate finder has learned about the content of every track: quick hash, full hash and acoustic fingerprint,
+ * each computed only when it was needed. This is what makes the finder resumable: the index is written to disk
+ * every now and then while a job runs and when it stops, the next job takes everything that is still valid from it
+ * and only reads the tracks it has not got to (or that have changed).
+ * An entry is valid only while size and modification time of the file are the same as when it was read.
+ *
+ * The index is loaded when a job starts and dropped when it ends, fingerprints take ~700 bytes per track.
+ * All methods are synchronized, the index is filled by the workers and saved by the job thread.
+ */
+
+public class ContentIndex {
+
+    /*
+     FORMAT:
+       int magic, int version, int entryCount,
+       entryCount * [ string path, long size, long lastModified, byte flags,
+                       (QUICK) long quickHash, (FULL) byte[HASH_BYTES] fullHash, (FINGERPRINT) int count + count * int ]
+     string = unsigned short length + UTF-8 bytes, tracks whose path does not fit are left out
+     An empty fingerprint means the track could not be decoded (or is silent), it is not tried again.
+     */
+    private static final int MAGIC = 0x44555049; // <- "DUPI"
+    private static final int VERSION = 1;
+    private static final int QUICK = 1;
+    private static final int FULL = 2;
+    private static final int FINGERPRINT = 4;
+    private static final int HASH_BYTES = 20;
+
+    /* Content of one track, never changed once it is in the index (a new value replaces the entry). */
+    public static class Entry {
+        final long size;
+        final long lastModified;
+        final boolean hasQuickHash;
+        final long quickHash;
+        final byte[] fullHash; // <- null until computed
+        final int[] fingerprint; // <- null until computed
+
+        Entry(long size, long lastModified, boolean hasQuickHash, long quickHash, byte[] fullHash, int[] fingerprint) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hasQuickHash = hasQuickHash;
+            this.quickHash = quickHash;
+            this.fullHash = fullHash;
+            this.fingerprint = fingerprint;
+        }
+
+        public boolean hasQuickHash() {
+            return hasQuickHash;
+        }
+
+        public long getQuickHash() {
+            return quickHash;
+        }
+
+        public byte[] getFullHash() {
+            return fullHash;
+        }
+
+        public int[] getFingerprint() {
+            return fingerprint;
+        }
+    }
+
+    private final Path file;
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private int changes = 0;
+
+    public ContentIndex(Path file) {
+        this.file = file;
+    }
+
+    /* Reads the index from the file. Missing or damaged file gives an empty index (the job starts from the beginning). */
+    public static ContentIndex load(Path file) {
+        ContentIndex index = new ContentIndex(file);
+        if (!Files.isRegularFile(file)) {
+            return index;
+        }
+        try {
+            index.read(BinaryFiles.read(file));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            System.err.println("Duplicate index " + file + " could not be read, tracks will be read again. " + e);
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /* Entry of the track, null when there is none or the file has changed since. */
+    public synchronized Entry get(Path track, long size, long lastModified) {
+        Entry entry = entries.get(track);
+        return entry != null && entry.size == size && entry.lastModified == lastModified ? entry : null;
+    }
+
+    public synchronized void putQuickHash(Path track, long size, long lastModified, long quickHash) {
+        Entry entry = get(track, size, lastModified);
+        put(track, entry == null ? new Entry(size, lastModified, true, quickHash, null, null)
+            : new Entry(size, lastModified, true, quickHash, entry.fullHash, entry.fingerprint));
+    }
+
+    public synchronized void putFullHash(Path track, long size, long lastModified, byte[] fullHash) {
+        Entry entry = get(track, size, lastModified);
+        put(track, entry == null ? new Entry(size, lastModified, false, 0, fullHash, null)
+            : new Entry(size, lastModified, entry.hasQuickHash, entry.quickHash, fullHash, entry.fingerprint));
+    }
+
+    public synchronized void putFingerprint(Path track, long size, long lastModified, int[] fingerprint) {
+        Entry entry = get(track, size, lastModified);
+        put(track, entry == null ? new Entry(size, lastModified, false, 0, null, fingerprint)
+            : new Entry(size, lastModified, entry.hasQuickHash, entry.quickHash, entry.fullHash, fingerprint));
+    }
+
+    /* Forgets tracks that are not in the library any more. */
+    public synchronized void retain(Collection<Path> tracks) {
+        Set<Path> kept = tracks instanceof Set ? (Set<Path>) tracks : new HashSet<>(tracks);
+        if (entries.keySet().retainAll(kept)) {
+            changes++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /* Entries added since the last save. */
+    public synchronized int getChanges() {
+        return changes;
+    }
+
+    private void put(Path track, Entry entry) {
+        entries.put(track, entry);
+        changes++;
+    }
+
+    ////////File////////
+
+    public void saveIfChanged() {
+        if (getChanges() > 0) {
+            save();
+        }
+    }
+
+    /* Snapshot is taken under the lock, the file is written outside of it, so workers are not blocked by the disk. */
+    public void save() {
+        List<Map.Entry<Path, Entry>> snapshot;
+        int saved;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.entrySet());
+            saved = changes;
+        }
+        snapshot.removeIf((item) -> !BinaryFiles.fits(item.getKey().toString()));
+        try {
+            BinaryFiles.replace(file, (out) -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Path, Entry> item : snapshot) {
+                    Entry entry = item.getValue();
+                    BinaryFiles.writeString(out, item.getKey().toString());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeByte((entry.hasQuickHash ? QUICK : 0) | (entry.fullHash != null ? FULL : 0)
+                        | (entry.fingerprint != null ? FINGERPRINT : 0));
+                    if (entry.hasQuickHash) {
+                        out.writeLong(entry.quickHash);
+                    }
+                    if (entry.fullHash != null) {
+                        out.write(entry.fullHash);
+                    }
+                    if (entry.fingerprint != null) {
+                        out.writeInt(entry.fingerprint.length);
+                        for (int bits : entry.fingerprint) {
+                            out.writeInt(bits);
+                        }
+                    }
+                }
+            });
+            synchronized (this) {
+                changes -= saved;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("unknown index format");
+        }
+        byte[] scratch = new byte[1024];
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            Path track = Path.of(BinaryFiles.readString(buffer, scratch));
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            int flags = buffer.get();
+            long quickHash = (flags & QUICK) != 0 ? buffer.getLong() : 0;
+            byte[] fullHash = null;
+            if ((flags & FULL) != 0) {
+                fullHash = new byte[HASH_BYTES];
+                buffer.get(fullHash);
+            }
+            int[] fingerprint = null;
+            if ((flags & FINGERPRINT) != 0) {
+                fingerprint = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(fingerprint);
+                buffer.position(buffer.position() + fingerprint.length * 4);
+            }
+            entries.put(track, new Entry(size, lastModified, (flags & QUICK) != 0, quickHash, fullHash, fingerprint));
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package dev.staniszak.app.duplicates;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.pipeline.PcmSource;
+
+/*
+ * Library analysis job that finds duplicate tracks, from the cheapest test to the most expensive one,
+ * every stage only looks at what the previous one could not rule out:
+ *   FILES        - size and modification time of every track (no reading),
+ *   QUICK_HASH   - tracks that share their size with another one: hash of the first and last 64 KiB (ContentHasher),
+ *   FULL_HASH    - tracks that share size and quick hash: hash of the whole file, on WORKERS threads -> IDENTICAL groups,
+ *   FINGERPRINT  - one track of every identical group and all the others: acoustic fingerprint of the first seconds
+ *                  (decoded by our own PcmSource, see AcousticFingerprint),
+ *   COMPARE      - tracks of about the same duration (DURATION_TOLERANCE_MILLIS) whose fingerprints match
+ *                  -> SAME_RECORDING groups. Tracks are sorted by duration, so only neighbours are compared,
+ *                  and a cheap summary of the fingerprint rules out most pairs before they are compared bit by bit.
+ * Tracks whose duration is not known yet (not parsed) are not fingerprinted, they can only be found as identical files.
+ *
+ * The job is resumable: every hash and fingerprint goes into the ContentIndex, which is saved every SAVE_EVERY new entries
+ * and when the job ends or is cancelled. The next job (or the same one started again) only reads what is not in it.
+ * It is throttled: all reading goes through the IoThrottle (slow while a track plays), workers run at the lowest thread priority.
+ *
+ * Listener is called on the job thread.
+ */
+
+public class DuplicateFinder {
+
+    public enum Stage { FILES, QUICK_HASH, FULL_HASH, FINGERPRINT, COMPARE }
+
+    public interface Listener {
+        void onProgress(Stage stage, int done, int total);
+
+        /* Groups sorted by kind (identical first), then by bytes they waste or by size. Empty when cancelled. */
+        void onFinished(List<DuplicateGroup> groups, boolean cancelled);
+    }
+
+    private static final int WORKERS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int SAVE_EVERY = 500;
+    private static final long PROGRESS_MILLIS = 250;
+    private static final int DURATION_TOLERANCE_MILLIS = 2000;
+    private static final int MAX_SUMMARY_DISTANCE = 16; // <- of 255, re-encoded tracks are within ~5
+
+    private final Path indexFile;
+    private final IoThrottle throttle;
+    private Job current;
+
+    public DuplicateFinder(Path indexFile, IoThrottle throttle) {
+        this.indexFile = indexFile;
+        this.throttle = throttle;
+    }
+
+    public IoThrottle getThrottle() {
+        return throttle;
+    }
+
+    /* Starts a job over the tracks, unless one is running already (that one is returned then). */
+    public synchronized Job start(List<Path> tracks, ToIntFunction<Path> durations, Listener listener) {
+        if (current != null && current.isRunning()) {
+            return current;
+        }
+        current = new Job(new ArrayList<>(tracks), durations, listener);
+        current.thread.start();
+        return current;
+    }
+
+    /* Job that runs right now, null when there is none. */
+    public synchronized Job getRunning() {
+        return current != null && current.isRunning() ? current : null;
+    }
+
+    private interface Work {
+        void run(int item) throws IOException, InterruptedException;
+    }
+
+    public class Job {
+        private final List<Path> tracks;
+        private final ToIntFunction<Path> durations;
+        private final Listener listener;
+        private final Thread thread;
+        private final ExecutorService workers;
+        private final ThreadLocal<ContentHasher> hashers = ThreadLocal.withInitial(() -> new ContentHasher(throttle));
+        private final ThreadLocal<AcousticFingerprint> fingerprinters = ThreadLocal.withInitial(AcousticFingerprint::new);
+        private volatile boolean cancelled = false;
+        private volatile boolean running = true;
+        private ContentIndex index;
+
+        // Per track (index into tracks), filled stage by stage.
+        private long[] sizes;
+        private long[] modified;
+        private boolean[] missing; // <- gone or unreadable since the scan, left out of everything
+        private long[] quickHashes;
+        private byte[][] fullHashes;
+        private int[][] fingerprints;
+
+        Job(List<Path> tracks, ToIntFunction<Path> durations, Listener listener) {
+            this.tracks = tracks;
+            this.durations = durations;
+            this.listener = listener;
+            AtomicInteger counter = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(WORKERS, (runnable) -> {
+                Thread thread = new Thread(runnable, "duplicates-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            this.thread = new Thread(this::run, "duplicates");
+            this.thread.setDaemon(true);
+            this.thread.setPriority(Thread.MIN_PRIORITY);
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        /* Stops the job, what it has computed so far is saved and reused by the next one. */
+        public void cancel() {
+            cancelled = true;
+            thread.interrupt();
+            workers.shutdownNow();
+        }
+
+        private void run() {
+            List<DuplicateGroup> groups = new ArrayList<>();
+            try {
+                this.index = ContentIndex.load(indexFile);
+                index.retain(tracks);
+                stat();
+                int[] candidates = bySize();
+                parallel(Stage.QUICK_HASH, candidates, this::quickHash);
+                candidates = byQuickHash(candidates);
+                parallel(Stage.FULL_HASH, candidates, this::fullHash);
+                List<int[]> identical = byFullHash(candidates);
+                int[] distinct = distinct(identical);
+                parallel(Stage.FINGERPRINT, distinct, this::fingerprint);
+                List<int[]> similar = compare(distinct, identical);
+                for (int[] group : identical) {
+                    groups.add(toGroup(DuplicateGroup.Kind.IDENTICAL, group, sizes[group[0]]));
+                }
+                for (int[] group : similar) {
+                    groups.add(toGroup(DuplicateGroup.Kind.SAME_RECORDING, group, 0));
+                }
+                groups.sort(Comparator.comparing(DuplicateGroup::getKind)
+                    .thenComparing(Comparator.comparingLong(DuplicateGroup::getWastedBytes).reversed())
+                    .thenComparing(Comparator.comparingInt((DuplicateGroup group) -> group.getTracks().size()).reversed()));
+            } catch (InterruptedException e) {
+                cancelled = true;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                cancelled = true;
+            } finally {
+                workers.shutdownNow();
+                Thread.interrupted(); // <- cancel() interrupts this thread, the index is written through an interruptible channel
+                if (index != null) {
+                    index.saveIfChanged();
+                }
+                running = false;
+            }
+            listener.onFinished(cancelled ? List.of() : groups, cancelled);
+        }
+
+        ////////Stages////////
+
+        private void stat() throws InterruptedException {
+            int count = tracks.size();
+            sizes = new long[count];
+            modified = new long[count];
+            missing = new boolean[count];
+            long reported = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                checkCancelled();
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(tracks.get(i), BasicFileAttributes.class);
+                    sizes[i] = attributes.size();
+                    modified[i] = attributes.lastModifiedTime().toMillis();
+                } catch (IOException e) {
+                    missing[i] = true;
+                }
+                if (System.currentTimeMillis() - reported > PROGRESS_MILLIS) {
+                    listener.onProgress(Stage.FILES, i, count);
+                    reported = System.currentTimeMillis();
+                }
+            }
+            listener.onProgress(Stage.FILES, count, count);
+        }
+
+        /*
+         Tracks whose size some other track has too. Sizes and indexes are sorted together as one long:
+         size << 24 | index, good for files up to 512 GiB and 16M tracks.
+         */
+        private int[] bySize() {
+            long[] keys = new long[tracks.size()];
+            int count = 0;
+            for (int i = 0; i < tracks.size(); i++) {
+                if (!missing[i] && sizes[i] > 0) {
+                    keys[count++] = sizes[i] << 24 | i;
+                }
+            }
+            Arrays.sort(keys, 0, count);
+            int[] candidates = new int[count];
+            int found = 0;
+            for (int from = 0, to; from < count; from = to) {
+                to = from + 1;
+                while (to < count && keys[to] >>> 24 == keys[from] >>> 24) {
+                    to++;
+                }
+                if (to - from > 1) {
+                    for (int i = from; i < to; i++) {
+                        candidates[found++] = (int) (keys[i] & 0xFFFFFF);
+                    }
+                }
+            }
+            quickHashes = new long[tracks.size()];
+            fullHashes = new byte[tracks.size()][];
+            fingerprints = new int[tracks.size()][];
+            return Arrays.copyOf(candidates, found);
+        }
+
+        private void quickHash(int track) throws IOException, InterruptedException {
+            Path path = tracks.get(track);
+            ContentIndex.Entry entry = index.get(path, sizes[track], modified[track]);
+            if (entry != null && entry.hasQuickHash()) {
+                quickHashes[track] = entry.getQuickHash();
+                return;
+            }
+            quickHashes[track] = hashers.get().quickHash(path, sizes[track]);
+            index.putQuickHash(path, sizes[track], modified[track], quickHashes[track]);
+        }
+
+        /* Candidates (sorted by size) that share size and quick hash with another one. */
+        private int[] byQuickHash(int[] candidates) {
+            List<Integer> matching = new ArrayList<>();
+            forEachRun(candidates, (run) -> {
+                Map<Long, List<Integer>> byHash = new HashMap<>();
+                for (int track : run) {
+                    if (!missing[track]) {
+                        byHash.computeIfAbsent(quickHashes[track], (hash) -> new ArrayList<>(2)).add(track);
+                    }
+                }
+                for (List<Integer> same : byHash.values()) {
+                    if (same.size() > 1) {
+                        matching.addAll(same);
+                    }
+                }
+            });
+            return matching.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private void fullHash(int track) throws IOException, InterruptedException {
+            Path path = tracks.get(track);
+            ContentIndex.Entry entry = index.get(path, sizes[track], modified[track]);
+            if (entry != null && entry.getFullHash() != null) {
+                fullHashes[track] = entry.getFullHash();
+                return;
+            }
+            fullHashes[track] = hashers.get().fullHash(path);
+            index.putFullHash(path, sizes[track], modified[track], fullHashes[track]);
+        }
+
+        /* Groups of identical files: same size (candidates are still sorted by size) and same full hash. */
+        private List<int[]> byFullHash(int[] candidates) {
+            List<int[]> groups = new ArrayList<>();
+            forEachRun(candidates, (run) -> {
+                Map<ByteBuffer, List<Integer>> byHash = new HashMap<>();
+                for (int track : run) {
+                    if (!missing[track] && fullHashes[track] != null) {
+                        byHash.computeIfAbsent(ByteBuffer.wrap(fullHashes[track]), (hash) -> new ArrayList<>(2)).add(track);
+                    }
+                }
+                for (List<Integer> same : byHash.values()) {
+                    if (same.size() > 1) {
+                        groups.add(same.stream().mapToInt(Integer::intValue).toArray());
+                    }
+                }
+            });
+            return groups;
+        }
+
+        /* Every track that still exists, but only the first one of every identical group. */
+        private int[] distinct(List<int[]> identical) {
+            boolean[] copy = new boolean[tracks.size()];
+            for (int[] group : identical) {
+                for (int i = 1; i < group.length; i++) {
+                    copy[group[i]] = true;
+                }
+            }
+            int[] distinct = new int[tracks.size()];
+            int count = 0;
+            for (int track = 0; track < tracks.size(); track++) {
+                if (!missing[track] && !copy[track] && durations.applyAsInt(tracks.get(track)) > 0) {
+                    distinct[count++] = track;
+                }
+            }
+            return Arrays.copyOf(distinct, count);
+        }
+
+        /*
+         Decodes the first AcousticFingerprint.SECONDS of the track. Decoding does not go through the throttle block by block,
+         the share of the file it reads is estimated from the duration and taken from the throttle up front.
+         Tracks we cannot decode (e.g. MP4, JavaFX plays those) get an empty fingerprint and are not tried again.
+         */
+        private void fingerprint(int track) throws IOException, InterruptedException {
+            Path path = tracks.get(track);
+            ContentIndex.Entry entry = index.get(path, sizes[track], modified[track]);
+            if (entry != null && entry.getFingerprint() != null) {
+                fingerprints[track] = entry.getFingerprint();
+                return;
+            }
+            int duration = durations.applyAsInt(path);
+            throttle.acquire((long) (sizes[track] * Math.min(1.0, AcousticFingerprint.SECONDS * 1000.0 / duration)));
+            int[] fingerprint;
+            try (PcmSource source = FormatRegistry.SHARED.detect(path).openPcm(path)) {
+                fingerprint = fingerprinters.get().compute(source);
+            } catch (IOException | RuntimeException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                fingerprint = new int[0];
+            }
+            fingerprints[track] = fingerprint;
+            index.putFingerprint(path, sizes[track], modified[track], fingerprint);
+        }
+
+        /*
+         Same recordings among the distinct tracks, as groups of tracks (identical copies included).
+         Matching pairs are joined with union-find, so A~B and B~C make one group even when A and C are a bit further apart.
+         */
+        private List<int[]> compare(int[] distinct, List<int[]> identical) throws InterruptedException {
+            int count = 0;
+            long[] keys = new long[distinct.length]; // <- duration << 32 | position in distinct
+            for (int i = 0; i < distinct.length; i++) {
+                int[] fingerprint = fingerprints[distinct[i]];
+                if (fingerprint != null && fingerprint.length > 0) {
+                    keys[count++] = (long) durations.applyAsInt(tracks.get(distinct[i])) << 32 | i;
+                }
+            }
+            Arrays.sort(keys, 0, count);
+            byte[][] summaries = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                summaries[i] = AcousticFingerprint.summary(fingerprints[distinct[(int) keys[i]]]);
+            }
+            int[] parent = new int[count];
+            for (int i = 0; i < count; i++) {
+                parent[i] = i;
+            }
+            long reported = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                checkCancelled();
+                int[] fingerprint = fingerprints[distinct[(int) keys[i]]];
+                for (int j = i + 1; j < count && (keys[j] >>> 32) - (keys[i] >>> 32) <= DURATION_TOLERANCE_MILLIS; j++) {
+                    if (AcousticFingerprint.summaryDistance(summaries[i], summaries[j]) <= MAX_SUMMARY_DISTANCE
+                        && AcousticFingerprint.similarity(fingerprint, fingerprints[distinct[(int) keys[j]]]) >= AcousticFingerprint.SAME_RECORDING) {
+                        parent[root(parent, i)] = root(parent, j);
+                    }
+                }
+                if (System.currentTimeMillis() - reported > PROGRESS_MILLIS) {
+                    listener.onProgress(Stage.COMPARE, i, count);
+                    reported = System.currentTimeMillis();
+                }
+            }
+            listener.onProgress(Stage.COMPARE, count, count);
+
+            Map<Integer, int[]> copies = new HashMap<>();
+            for (int[] group : identical) {
+                copies.put(group[0], group);
+            }
+            Map<Integer, List<Integer>> byRoot = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byRoot.computeIfAbsent(root(parent, i), (root) -> new ArrayList<>(2)).add(distinct[(int) keys[i]]);
+            }
+            List<int[]> groups = new ArrayList<>();
+            for (List<Integer> members : byRoot.values()) {
+                if (members.size() < 2) {
+                    continue;
+                }
+                List<Integer> all = new ArrayList<>();
+                for (int track : members) {
+                    int[] same = copies.get(track);
+                    if (same == null) {
+                        all.add(track);
+                    } else {
+                        for (int copy : same) {
+                            all.add(copy);
+                        }
+                    }
+                }
+                groups.add(all.stream().mapToInt(Integer::intValue).toArray());
+            }
+            return groups;
+        }
+
+        ////////Helpers////////
+
+        /*
+         Runs work for every item on the workers and waits for them. Progress is reported and the index saved (every SAVE_EVERY
+         new entries) from this thread in between. An item that fails (file gone, unreadable) is left out of the stage.
+         */
+        private void parallel(Stage stage, int[] items, Work work) throws InterruptedException {
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger done = new AtomicInteger();
+            CountDownLatch finished = new CountDownLatch(WORKERS);
+            for (int worker = 0; worker < WORKERS; worker++) {
+                workers.execute(() -> {
+                    try {
+                        for (int i; !cancelled && (i = next.getAndIncrement()) < items.length; done.incrementAndGet()) {
+                            try {
+                                work.run(items[i]);
+                            } catch (IOException e) {
+                                missing[items[i]] = true;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        cancelled = true;
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            while (!finished.await(PROGRESS_MILLIS, TimeUnit.MILLISECONDS)) {
+                listener.onProgress(stage, done.get(), items.length);
+                if (index.getChanges() >= SAVE_EVERY) {
+                    index.save();
+                }
+            }
+            checkCancelled();
+            listener.onProgress(stage, items.length, items.length);
+        }
+
+        /* Calls action with every run of tracks of the same size (items are sorted by size). */
+        private void forEachRun(int[] items, Consumer<int[]> action) {
+            for (int from = 0, to; from < items.length; from = to) {
+                to = from + 1;
+                while (to < items.length && sizes[items[to]] == sizes[items[from]]) {
+                    to++;
+                }
+                action.accept(Arrays.copyOfRange(items, from, to));
+            }
+        }
+
+        private DuplicateGroup toGroup(DuplicateGroup.Kind kind, int[] members, long size) {
+            List<Path> paths = new ArrayList<>(members.length);
+            for (int track : members) {
+                paths.add(tracks.get(track));
+            }
+            paths.sort(null);
+            return new DuplicateGroup(kind, List.copyOf(paths), size);
+        }
+
+        private void checkCancelled() throws InterruptedException {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,35 @@
+package dev.staniszak.app.duplicates;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import lombok.Getter;
+
+/*
+ * Tracks the duplicate finder considers the same:
+ *   IDENTICAL - byte for byte the same file (same size and full hash),
+ *   SAME_RECORDING - different files that sound the same (acoustic fingerprint), e.g. re-encoded or retagged copies.
+ *     Identical copies of a track are part of its SAME_RECORDING group too.
+ * Tracks are sorted by path.
+ */
+
+@Getter
+public class DuplicateGroup {
+
+    public enum Kind { IDENTICAL, SAME_RECORDING }
+
+    private final Kind kind;
+    private final List<Path> tracks;
+    private final long size; // <- bytes of one file of an IDENTICAL group, 0 for SAME_RECORDING
+
+    public DuplicateGroup(Kind kind, List<Path> tracks, long size) {
+        this.kind = kind;
+        this.tracks = tracks;
+        this.size = size;
+    }
+
+    /* Bytes a cleanup could free: all copies but one. */
+    public long getWastedBytes() {
+        return size * (tracks.size() - 1);
+    }
+}
@@ -0,0 +1,59 @@
+package dev.staniszak.app.duplicates;
+
+/*
+ * Limits how fast the duplicate finder reads the disk, a token bucket of bytes shared by all of its workers.
+ *
+ * The rate depends on what the player does: while a track plays, reading is held to playingBytesPerSecond,
+ * so the track (or the next one being buffered) never waits for the disk behind a hashing job. When nothing plays
+ * it is idleBytesPerSecond, 0 means no limit.
+ * A reader asks before every block (acquire), when the bucket is empty it sleeps for as long as the block takes at the rate.
+ */
+
+public class IoThrottle {
+
+    private final long playingBytesPerSecond;
+    private final long idleBytesPerSecond;
+    private volatile boolean playing = false;
+    private long available = 0;
+    private long refilled = System.nanoTime();
+    private long throttledNanos = 0;
+
+    public IoThrottle(long playingBytesPerSecond, long idleBytesPerSecond) {
+        this.playingBytesPerSecond = playingBytesPerSecond;
+        this.idleBytesPerSecond = idleBytesPerSecond;
+    }
+
+    /* Called by the controller whenever the engine starts or stops playing. */
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+    }
+
+    /* Blocks until bytes may be read. Bytes taken beyond the bucket are a debt the next readers wait for too. */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long rate = playing ? playingBytesPerSecond : idleBytesPerSecond;
+            long now = System.nanoTime();
+            if (rate <= 0) {
+                available = 0;
+                refilled = now;
+                return;
+            }
+            // Bucket holds a quarter of a second, a pause in reading does not turn into a burst later.
+            available = Math.min(rate / 4, available + (long) ((now - refilled) / 1e9 * rate));
+            refilled = now;
+            available -= bytes;
+            if (available >= 0) {
+                return;
+            }
+            waitNanos = (long) (-available * 1e9 / rate);
+            throttledNanos += waitNanos;
+        }
+        Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+    }
+
+    /* Time readers have spent waiting, in total. */
+    public synchronized long getThrottledMillis() {
+        return throttledNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,70 @@
+package dev.staniszak.app.library;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/*
+ * Source of directory listings for LibraryScanner and File View (LazyTreeItem).
+ * Listing contains sub directories and tracks only, sorted by name.
+ * FILE_SYSTEM always reads the disk, LibraryIndex answers from its persisted copy when the directory did not change.
+ */
+
+public interface DirectoryLister {
+
+    List<LibraryEntry> list(Path directory);
+
+    DirectoryLister FILE_SYSTEM = DirectoryLister::listFileSystem;
+
+    /* False only when the lister knows the directory is empty without reading it, File View asks this for every visible row. */
+    default boolean mayHaveEntries(Path directory) {
+        return true;
+    }
+
+    /* Tracks of the directory and of all directories below it. Empty when the directory is gone. */
+    default List<LibraryEntry> listTracks(Path directory) {
+        List<LibraryEntry> tracks = new ArrayList<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        pending.push(directory);
+        while (!pending.isEmpty()) {
+            for (LibraryEntry entry : list(pending.pop())) {
+                if (entry.isDirectory()) {
+                    pending.push(entry.getPath());
+                } else {
+                    tracks.add(entry);
+                }
+            }
+        }
+        return tracks;
+    }
+
+    /* Unreadable directories are reported and treated as empty. */
+    static List<LibraryEntry> listFileSystem(Path directory) {
+        List<LibraryEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isDirectory() || (attributes.isRegularFile()
+                            && LibraryScanner.isTrack(path, attributes.size(), attributes.lastModifiedTime().toMillis()))) {
+                        entries.add(new LibraryEntry(path, attributes.isDirectory(), 
+                            attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException e) {
+                    // File was removed while we were listing the directory, skip it.
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        entries.sort(Comparator.comparing(LibraryEntry::getName));
+        return entries;
+    }
+}
@@ -0,0 +1,233 @@
+package dev.staniszak.app.library;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.NotificationEmitter;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+/*
+ * TreeItem of File View that reads the content of its directory only when somebody needs it:
+ * the first time the item is expanded or asked for getChildren(). isLeaf() is asked for every visible row,
+ * so it never reads the directory: until the directory is loaded the lister answers it (LibraryIndex from its record).
+ * Directories that were never opened by the user (or by revealing a track that is playing) cost one object, not a whole subtree.
+ *
+ * Children are tracks first and then sub directories, both sorted by name (same order as LibraryScanner reports them).
+ * Every item that is part of the tree is registered in the TreeItemIndex of the tree, so it can be found by its Path.
+ *
+ * Under memory pressure, subtrees of collapsed directories are dropped and will be listed again on the next access.
+ * Memory pressure is the old generation still being more than MEMORY_PRESSURE full right after a collection: the JVM
+ * notifies us through the collection usage threshold of the pool (MemoryPoolMXBean), and the registered handler
+ * trims the tree (see trimCollapsed()). Usage after a collection counts live objects only, so garbage does not trigger it.
+ */
+
+public class LazyTreeItem extends TreeItem<String> {
+
+    /* Loaded directories that are currently collapsed, candidates for trimming. Weak, so removed trees are not kept alive. */
+    private static final Set<LazyTreeItem> COLLAPSED = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final double MEMORY_PRESSURE = 0.75; // <- of the maximum size of the old generation
+    private static final AtomicBoolean TRIM_PENDING = new AtomicBoolean();
+    private static volatile Runnable memoryPressureHandler;
+
+    static {
+        watchMemoryPressure();
+    }
+
+    private final Path path;
+    private final boolean directory;
+    private final DirectoryLister lister;
+    private final TreeItemIndex index;
+    private boolean loaded = false;
+
+    /* Creates root of the library. Root value is marked with a star (see Note-root-design in MediaPlayerController). */
+    public static LazyTreeItem root(Path directory, DirectoryLister lister, TreeItemIndex index) {
+        LazyTreeItem root = new LazyTreeItem(directory, directory.getFileName() + " \u2605", true, lister, index);
+        index.register(root);
+        return root;
+    }
+
+    private LazyTreeItem(Path path, String value, boolean directory, DirectoryLister lister, TreeItemIndex index) {
+        super(value);
+        this.path = path;
+        this.directory = directory;
+        this.lister = lister;
+        this.index = index;
+
+        if (directory) {
+            expandedProperty().addListener((obs, wasExpanded, isExpanded) -> {
+                if (isExpanded) {
+                    COLLAPSED.remove(this);
+                } else if (loaded) {
+                    COLLAPSED.add(this);
+                }
+            });
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /* True when the content of the directory has already been read (files are always loaded). */
+    public boolean isLoaded() {
+        return !directory || loaded;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        if (!directory) {
+            return true;
+        }
+        return loaded ? super.getChildren().isEmpty() : !lister.mayHaveEntries(path);
+    }
+
+    @Override
+    public ObservableList<TreeItem<String>> getChildren() {
+        if (directory && !loaded) {
+            loaded = true;
+            List<TreeItem<String>> children = listChildren();
+            for (TreeItem<String> child : children) {
+                index.register((LazyTreeItem) child);
+            }
+            super.getChildren().setAll(children);
+        }
+        return super.getChildren();
+    }
+
+    /* Children that have been read so far, never triggers a directory listing. */
+    List<TreeItem<String>> getLoadedChildren() {
+        return super.getChildren();
+    }
+
+    private List<TreeItem<String>> listChildren() {
+        List<TreeItem<String>> tracks = new ArrayList<>();
+        List<TreeItem<String>> directories = new ArrayList<>();
+        for (LibraryEntry entry : lister.list(path)) {
+            if (entry.isDirectory()) {
+                directories.add(new LazyTreeItem(entry.getPath(), entry.getName(), true, lister, index));
+            } else {
+                tracks.add(new LazyTreeItem(entry.getPath(), entry.getName(), false, lister, index));
+            }
+        }
+        tracks.addAll(directories);
+        return tracks;
+    }
+
+    /*
+     Reads the directory again and brings children up to date with the disk.
+     Items that are still there are kept as they are (expanded state and selection survive), 
+     removed ones are dropped and new ones are inserted at their place.
+     Directory that has not been read yet is left alone, it will be read fresh on the first access.
+     */
+    public void refresh() {
+        if (!directory || !loaded) {
+            return;
+        }
+        List<TreeItem<String>> fresh = listChildren();
+        Set<String> names = new HashSet<>();
+        for (TreeItem<String> item : fresh) {
+            names.add(item.getValue());
+        }
+
+        ObservableList<TreeItem<String>> children = super.getChildren();
+        children.removeIf(item -> {
+            if (names.contains(item.getValue())) {
+                return false;
+            }
+            index.unregister((LazyTreeItem) item);
+            return true;
+        });
+        // Both lists are in the same order, so what is left is a subsequence of the fresh listing.
+        for (int i = 0; i < fresh.size(); i++) {
+            if (i >= children.size() || !children.get(i).getValue().equals(fresh.get(i).getValue())) {
+                index.register((LazyTreeItem) fresh.get(i));
+                children.add(i, fresh.get(i));
+            }
+        }
+    }
+
+    /* Forget the content of the directory, it will be read again on the next access. */
+    private void unload() {
+        for (TreeItem<String> child : super.getChildren()) {
+            index.unregister((LazyTreeItem) child);
+        }
+        loaded = false;
+        super.getChildren().clear();
+    }
+
+    ////////Memory pressure////////
+
+    /* Handler is called on the JavaFX application thread when the heap is running low. */
+    public static void setMemoryPressureHandler(Runnable handler) {
+        memoryPressureHandler = handler;
+    }
+
+    /*
+     Drops the content of every collapsed directory, except the ones that lead to keep (e.g. currently selected track),
+     so the user does not lose the selection.
+     Must be called on the JavaFX application thread.
+     */
+    public static int trimCollapsed(TreeItem<String> keep) {
+        Set<TreeItem<String>> pinned = new HashSet<>();
+        for (TreeItem<String> item = keep; item != null; item = item.getParent()) {
+            pinned.add(item);
+        }
+
+        int trimmed = 0;
+        for (LazyTreeItem item : new ArrayList<>(COLLAPSED)) {
+            if (!item.isExpanded() && item.loaded && !pinned.contains(item)) {
+                item.unload();
+                trimmed++;
+            }
+        }
+        COLLAPSED.clear();
+        return trimmed;
+    }
+
+    /*
+     Old generation is the heap pool with a usage threshold (eden and survivor spaces have none).
+     Notification comes after every collection that leaves the pool above the threshold, a trim already waiting
+     for the FX thread is not asked for twice.
+     */
+    private static void watchMemoryPressure() {
+        boolean watching = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * MEMORY_PRESSURE));
+                watching = true;
+            }
+        }
+        if (!watching) {
+            return; // <- no pool with a known size, the tree is never trimmed
+        }
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener((notification, handback) -> {
+            Runnable handler = memoryPressureHandler;
+            if (handler != null && TRIM_PENDING.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    TRIM_PENDING.set(false);
+                    handler.run();
+                });
+            }
+        }, (notification) -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()), null);
+    }
+}
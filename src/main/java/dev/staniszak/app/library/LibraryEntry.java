@@ -0,0 +1,27 @@
+package dev.staniszak.app.library;
+
+import java.nio.file.Path;
+
+import lombok.Getter;
+
+/* Single entry of a directory listing: a sub directory or a track, with the attributes the library cares about. */
+
+@Getter
+public class LibraryEntry {
+
+    private final Path path;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified; // <- millis since epoch
+
+    public LibraryEntry(Path path, boolean directory, long size, long lastModified) {
+        this.path = path;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,381 @@
+package dev.staniszak.app.library;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dev.staniszak.app.utils.BinaryFiles;
+
+/*
+ * Persistent copy of the library: for every directory we remember its modification time,
+ * names of its sub directories and its tracks (size, modification time and duration).
+ *
+ * Index is a DirectoryLister. When the modification time of a directory is the same as the one we have stored,
+ * the listing is answered from memory and the directory is not read at all.
+ * Directory mtime changes whenever a file is added, removed or renamed inside it, so on startup
+ * only directories that actually changed since the last run are listed again.
+ * It does not change when a file is rewritten in place (a tag editor saving new tags), so tracks of an unchanged
+ * directory are still stat'ed one by one: cheap compared to a listing, and the size and mtime we hand out
+ * (MetadataCache uses them to tell whether a track has to be parsed again) are always the ones on disk.
+ *
+ * On disk the index is a compact binary file (see FORMAT below), read and replaced through BinaryFiles.
+ * Index is safe to use from several threads (scan thread, IO pool, JavaFX application thread).
+ */
+
+public class LibraryIndex implements DirectoryLister {
+
+    /*
+     FORMAT:
+       int magic, int version, string root, int directoryCount,
+       directoryCount * [ string relativePath, long lastModified,
+                          int subDirectoryCount, subDirectoryCount * string name,
+                          int trackCount, trackCount * [ string name, long size, long lastModified, int durationMillis ] ]
+     string = unsigned short length + UTF-8 bytes
+     A directory whose path or one of whose names does not fit in a string is not written, it is listed from disk instead.
+     */
+    private static final int MAGIC = 0x4C494458; // <- "LIDX"
+    private static final int VERSION = 1;
+    public static final int UNKNOWN_DURATION = -1;
+
+    /* Persisted state of one track. */
+    private static class TrackRecord {
+        final String name;
+        final long size;
+        final long lastModified;
+        volatile int durationMillis;
+
+        TrackRecord(String name, long size, long lastModified, int durationMillis) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /* Persisted state of one directory. Both arrays are sorted by name. */
+    private static class DirectoryRecord {
+        final long lastModified;
+        final String[] directories;
+        final TrackRecord[] tracks;
+
+        DirectoryRecord(long lastModified, String[] directories, TrackRecord[] tracks) {
+            this.lastModified = lastModified;
+            this.directories = directories;
+            this.tracks = tracks;
+        }
+
+        TrackRecord findTrack(String name) {
+            int low = 0;
+            int high = tracks.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compared = tracks[middle].name.compareTo(name);
+                if (compared == 0) {
+                    return tracks[middle];
+                } else if (compared < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Path file;
+    private final Map<Path, DirectoryRecord> directories = new ConcurrentHashMap<>();
+    private final Set<Path> touched = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private volatile Path root;
+    private volatile boolean dirty = false;
+
+    private LibraryIndex(Path file) {
+        this.file = file;
+    }
+
+    /* Reads the index from the file. Missing or damaged file gives an empty index (everything will be listed from disk). */
+    public static LibraryIndex load(Path file) {
+        LibraryIndex index = new LibraryIndex(file);
+        if (!Files.isRegularFile(file)) {
+            return index;
+        }
+        try {
+            index.read(BinaryFiles.read(file));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Library index " + file + " could not be read, library will be scanned from scratch. " + e);
+            index.directories.clear();
+            index.root = null;
+        }
+        return index;
+    }
+
+    ////////DirectoryLister////////
+
+    /* Answered from the record, a directory we have no record of may have anything in it. */
+    @Override
+    public boolean mayHaveEntries(Path directory) {
+        DirectoryRecord record = directories.get(directory);
+        return record == null || record.directories.length + record.tracks.length > 0;
+    }
+
+    @Override
+    public List<LibraryEntry> list(Path directory) {
+        touched.add(directory);
+
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(directory).toMillis();
+        } catch (IOException e) {
+            // Directory is gone.
+            if (directories.remove(directory) != null) {
+                dirty = true;
+            }
+            return List.of();
+        }
+
+        DirectoryRecord record = directories.get(directory);
+        if (record != null && record.lastModified == lastModified) {
+            hits.incrementAndGet();
+            List<LibraryEntry> entries = toEntries(directory, record);
+            if (refreshTracks(entries)) {
+                // Some tracks were rewritten in place, their durations are not known any more.
+                directories.put(directory, toRecord(lastModified, entries, record));
+                dirty = true;
+            }
+            return entries;
+        }
+
+        misses.incrementAndGet();
+        List<LibraryEntry> entries = DirectoryLister.FILE_SYSTEM.list(directory);
+        directories.put(directory, toRecord(lastModified, entries, record));
+        dirty = true;
+        return entries;
+    }
+
+    /* Forget what we know about the directory, next listing reads it from disk. */
+    public void invalidate(Path directory) {
+        if (directories.remove(directory) != null) {
+            dirty = true;
+        }
+    }
+
+    ////////Scan bookkeeping////////
+
+    /* Called before a full scan of the library. Index of a different library is thrown away. */
+    public void startScan(Path libraryRoot) {
+        if (!libraryRoot.equals(this.root)) {
+            directories.clear();
+            this.root = libraryRoot;
+            dirty = true;
+        }
+        touched.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /* Called after a complete (not cancelled) scan. Directories that were not seen during the scan no longer exist. */
+    public void finishScan() {
+        Iterator<Path> iterator = directories.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!touched.contains(iterator.next())) {
+                iterator.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    ////////Durations////////
+
+    /* Duration of the track in millis, or UNKNOWN_DURATION if the track was never parsed. */
+    public int getDuration(Path track) {
+        TrackRecord record = findTrack(track);
+        return record == null ? UNKNOWN_DURATION : record.durationMillis;
+    }
+
+    public void setDuration(Path track, int durationMillis) {
+        TrackRecord record = findTrack(track);
+        if (record != null && record.durationMillis != durationMillis) {
+            record.durationMillis = durationMillis;
+            dirty = true;
+        }
+    }
+
+    private TrackRecord findTrack(Path track) {
+        DirectoryRecord directory = directories.get(track.getParent());
+        return directory == null ? null : directory.findTrack(track.getFileName().toString());
+    }
+
+    ////////Conversion////////
+
+    private static List<LibraryEntry> toEntries(Path directory, DirectoryRecord record) {
+        List<LibraryEntry> entries = new ArrayList<>(record.directories.length + record.tracks.length);
+        for (String name : record.directories) {
+            entries.add(new LibraryEntry(directory.resolve(name), true, 0, 0));
+        }
+        for (TrackRecord track : record.tracks) {
+            entries.add(new LibraryEntry(directory.resolve(track.name), false, track.size, track.lastModified));
+        }
+        entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return entries;
+    }
+
+    /* Replaces size and mtime of every track with the ones on disk. True if any of them differed from the record. */
+    private static boolean refreshTracks(List<LibraryEntry> entries) {
+        boolean changed = false;
+        for (int i = 0; i < entries.size(); i++) {
+            LibraryEntry entry = entries.get(i);
+            if (entry.isDirectory()) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(entry.getPath(), BasicFileAttributes.class);
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                if (size != entry.getSize() || lastModified != entry.getLastModified()) {
+                    entries.set(i, new LibraryEntry(entry.getPath(), false, size, lastModified));
+                    changed = true;
+                }
+            } catch (IOException e) {
+                // Removed just now, the directory mtime has changed as well and the next listing reads it again.
+            }
+        }
+        return changed;
+    }
+
+    /* Durations of tracks that did not change are carried over from the previous record. */
+    private static DirectoryRecord toRecord(long lastModified, List<LibraryEntry> entries, DirectoryRecord previous) {
+        List<String> subDirectories = new ArrayList<>();
+        List<TrackRecord> tracks = new ArrayList<>();
+        for (LibraryEntry entry : entries) {
+            if (entry.isDirectory()) {
+                subDirectories.add(entry.getName());
+            } else {
+                int duration = UNKNOWN_DURATION;
+                TrackRecord old = previous == null ? null : previous.findTrack(entry.getName());
+                if (old != null && old.size == entry.getSize() && old.lastModified == entry.getLastModified()) {
+                    duration = old.durationMillis;
+                }
+                tracks.add(new TrackRecord(entry.getName(), entry.getSize(), entry.getLastModified(), duration));
+            }
+        }
+        return new DirectoryRecord(lastModified, subDirectories.toArray(new String[0]), tracks.toArray(new TrackRecord[0]));
+    }
+
+    ////////File////////
+
+    public void saveIfDirty() {
+        if (dirty) {
+            save();
+        }
+    }
+
+    /* Replaced in one step (see BinaryFiles), so a crash never leaves half of an index. */
+    public synchronized void save() {
+        Path libraryRoot = this.root;
+        if (libraryRoot == null || !BinaryFiles.fits(libraryRoot.toString())) {
+            return;
+        }
+        dirty = false;
+        try {
+            BinaryFiles.replace(file, (out) -> write(out, libraryRoot));
+        } catch (IOException e) {
+            dirty = true;
+            e.printStackTrace();
+        }
+    }
+
+    private void write(DataOutputStream out, Path libraryRoot) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        BinaryFiles.writeString(out, libraryRoot.toString());
+
+        List<Map.Entry<Path, DirectoryRecord>> records = new ArrayList<>(directories.size());
+        for (Map.Entry<Path, DirectoryRecord> entry : directories.entrySet()) {
+            if (fits(libraryRoot.relativize(entry.getKey()).toString(), entry.getValue())) {
+                records.add(entry);
+            }
+        }
+        out.writeInt(records.size());
+        for (Map.Entry<Path, DirectoryRecord> entry : records) {
+            DirectoryRecord record = entry.getValue();
+            BinaryFiles.writeString(out, libraryRoot.relativize(entry.getKey()).toString());
+            out.writeLong(record.lastModified);
+            out.writeInt(record.directories.length);
+            for (String name : record.directories) {
+                BinaryFiles.writeString(out, name);
+            }
+            out.writeInt(record.tracks.length);
+            for (TrackRecord track : record.tracks) {
+                BinaryFiles.writeString(out, track.name);
+                out.writeLong(track.size);
+                out.writeLong(track.lastModified);
+                out.writeInt(track.durationMillis);
+            }
+        }
+    }
+
+    private void read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("unknown index format");
+        }
+        byte[] scratch = new byte[1024];
+        Path libraryRoot = Path.of(BinaryFiles.readString(buffer, scratch));
+
+        int directoryCount = buffer.getInt();
+        for (int i = 0; i < directoryCount; i++) {
+            Path directory = libraryRoot.resolve(BinaryFiles.readString(buffer, scratch));
+            long lastModified = buffer.getLong();
+
+            String[] subDirectories = new String[buffer.getInt()];
+            for (int j = 0; j < subDirectories.length; j++) {
+                subDirectories[j] = BinaryFiles.readString(buffer, scratch);
+            }
+            TrackRecord[] tracks = new TrackRecord[buffer.getInt()];
+            for (int j = 0; j < tracks.length; j++) {
+                tracks[j] = new TrackRecord(BinaryFiles.readString(buffer, scratch), buffer.getLong(), buffer.getLong(), buffer.getInt());
+            }
+            // Records were written sorted, but we do not want a damaged file to break binary search.
+            Arrays.sort(tracks, (a, b) -> a.name.compareTo(b.name));
+            directories.put(directory, new DirectoryRecord(lastModified, subDirectories, tracks));
+        }
+        this.root = libraryRoot;
+    }
+
+    private static boolean fits(String relativePath, DirectoryRecord record) {
+        if (!BinaryFiles.fits(relativePath)) {
+            return false;
+        }
+        for (String name : record.directories) {
+            if (!BinaryFiles.fits(name)) {
+                return false;
+            }
+        }
+        for (TrackRecord track : record.tracks) {
+            if (!BinaryFiles.fits(track.name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
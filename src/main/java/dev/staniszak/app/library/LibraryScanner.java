@@ -0,0 +1,188 @@
+package dev.staniszak.app.library;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.utils.BackgroundExecutors;
+
+/*
+ * Walks the user library in the background.
+ *
+ * The walk itself runs on a dedicated "library-scan" thread, while directory listings are read ahead
+ * on the shared IO pool (see PREFETCH), which hides most of the latency of slow or network drives.
+ * Listings come from a DirectoryLister, with LibraryIndex unchanged directories are not read from disk at all.
+ * Entries are reported to the Listener in a stable order: depth first, sorted by file name,
+ * so consumers see the same order as the File View shows.
+ *
+ * Listener methods are called on the scan thread, never on the JavaFX application thread.
+ * Every finished (or cancelled) scan reports its size and time to PlayerMetrics.
+ */
+
+public class LibraryScanner {
+
+    /* How many directory listings are requested ahead of the walk. */
+    private static final int PREFETCH = 16;
+    /* Report progress every N tracks. */
+    private static final int PROGRESS_STEP = 500;
+
+    public interface Listener {
+        default void onDirectory(Path directory, Path parent) { }
+        default void onTrack(LibraryEntry track, Path parent) { }
+        default void onProgress(int directories, int tracks) { }
+        default void onFinished(boolean cancelled) { }
+    }
+
+    /* Handle to a running scan. */
+    public static class ScanTask {
+        private volatile boolean cancelled = false;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public CompletableFuture<Void> getDone() {
+            return done;
+        }
+    }
+
+    /* Directory waiting on the walk stack, possibly with its listing already requested. */
+    private static class Pending {
+        final Path directory;
+        CompletableFuture<List<LibraryEntry>> listing;
+
+        Pending(Path directory) {
+            this.directory = directory;
+        }
+    }
+
+    /* Shared by all scanners, scans run one after another (a cancelled scan stops at the next directory). */
+    private static final ExecutorService WALKER = Executors.newSingleThreadExecutor(BackgroundExecutors.daemonFactory("library-scan"));
+
+    private final ExecutorService listingPool;
+    private final DirectoryLister lister;
+
+    public LibraryScanner() {
+        this(DirectoryLister.FILE_SYSTEM);
+    }
+
+    public LibraryScanner(DirectoryLister lister) {
+        this(lister, BackgroundExecutors.io());
+    }
+
+    public LibraryScanner(DirectoryLister lister, ExecutorService listingPool) {
+        this.lister = lister;
+        this.listingPool = listingPool;
+    }
+
+    /* We are interested only in files the player can play, whatever their name says (see FormatRegistry). */
+    public static boolean isTrack(Path path) {
+        return FormatRegistry.SHARED.detect(path).isPlayable();
+    }
+
+    /* Same as above while listing a directory, size and modification time let the registry answer from its cache. */
+    public static boolean isTrack(Path path, long size, long lastModified) {
+        return FormatRegistry.SHARED.detect(path, size, lastModified).isPlayable();
+    }
+
+    public ScanTask scan(Path root, Listener listener) {
+        ScanTask task = new ScanTask();
+        WALKER.execute(() -> {
+            try {
+                walk(root, listener, task);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                listener.onFinished(task.isCancelled());
+                task.getDone().complete(null);
+            }
+        });
+        return task;
+    }
+
+    private void walk(Path root, Listener listener, ScanTask task) {
+        long start = System.nanoTime();
+        int directories = 0;
+        int tracks = 0;
+
+        Deque<Pending> stack = new ArrayDeque<>();
+        stack.push(new Pending(root));
+
+        while (!stack.isEmpty() && !task.isCancelled()) {
+            Pending current = stack.pop();
+            prefetch(stack);
+
+            List<LibraryEntry> entries = await(current);
+            directories++;
+            if (!current.directory.equals(root)) {
+                listener.onDirectory(current.directory, current.directory.getParent());
+            }
+
+            /* Sub directories are pushed in reverse, so the first one (by name) is visited next. */
+            List<Pending> subDirectories = new ArrayList<>();
+            for (LibraryEntry entry : entries) {
+                if (entry.isDirectory()) {
+                    subDirectories.add(new Pending(entry.getPath()));
+                } else {
+                    listener.onTrack(entry, current.directory);
+                    if (++tracks % PROGRESS_STEP == 0) {
+                        listener.onProgress(directories, tracks);
+                    }
+                }
+            }
+            for (int i = subDirectories.size() - 1; i >= 0; i--) {
+                stack.push(subDirectories.get(i));
+            }
+        }
+        listener.onProgress(directories, tracks);
+        PlayerMetrics.scanFinished(directories, tracks, System.nanoTime() - start, task.isCancelled());
+
+        // Drop listings that were requested ahead but will never be used.
+        for (Pending pending : stack) {
+            if (pending.listing != null) {
+                pending.listing.cancel(false);
+            }
+        }
+    }
+
+    /* Request listings for the directories that are going to be visited next. */
+    private void prefetch(Deque<Pending> stack) {
+        int requested = 0;
+        for (Pending pending : stack) {
+            if (requested++ == PREFETCH) {
+                break;
+            }
+            if (pending.listing == null) {
+                pending.listing = CompletableFuture.supplyAsync(() -> lister.list(pending.directory), listingPool);
+            }
+        }
+    }
+
+    private List<LibraryEntry> await(Pending pending) {
+        if (pending.listing == null) {
+            return lister.list(pending.directory);
+        }
+        try {
+            return pending.listing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package dev.staniszak.app.library;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Keeps an eye on the library directory and all of its sub directories, so File View can follow changes on disk
+ * without a restart or a full rescan.
+ *
+ * Events are coalesced: after the first event the watcher waits until the directory has been quiet for QUIET_MILLIS
+ * (but no longer than MAX_DELAY_MILLIS), so copying a whole album produces one batch of changed directories, not thousands.
+ * The batch is passed to the listener on the watcher thread.
+ *
+ * Network file systems (and systems that ran out of watch handles) do not deliver events reliably,
+ * for those the watcher polls modification times of known directories every POLL_INTERVAL_MILLIS.
+ */
+
+public class LibraryWatcher implements Closeable {
+
+    private static final long QUIET_MILLIS = 300;
+    private static final long MAX_DELAY_MILLIS = 2000;
+    private static final long POLL_INTERVAL_MILLIS = 10_000;
+
+    /* File store types that are known not to report changes made by other machines. */
+    private static final Set<String> POLLED_STORES = Set.of("nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3",
+        "fuse.sshfs", "sshfs", "9p", "afpfs", "webdav", "davfs");
+
+    private final Path root;
+    private final Consumer<Set<Path>> listener;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, Long> polled = new ConcurrentHashMap<>(); // <- directory -> last seen mtime
+    private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+    private WatchService service;
+    private volatile boolean polling = false;
+    private volatile boolean closed = false;
+    private Thread thread;
+
+    public LibraryWatcher(Path root, Consumer<Set<Path>> listener) {
+        this.root = root;
+        this.listener = listener;
+    }
+
+    public void start() {
+        try {
+            String type = Files.getFileStore(root).type().toLowerCase(Locale.ROOT); // <- "CIFS" must match "cifs" in every locale
+            polling = POLLED_STORES.contains(type);
+            service = root.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            polling = true;
+        }
+        register(root);
+
+        thread = new Thread(this::run, "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    /* Starts watching the directory. Called by the library scan for every directory it finds. */
+    public void register(Path directory) {
+        if (closed || !watched.add(directory)) {
+            return;
+        }
+        if (!polling && service != null) {
+            try {
+                keys.put(directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                return;
+            } catch (IOException e) {
+                // Usually the limit of watched directories (e.g. inotify max_user_watches), from now on we poll.
+                System.err.println("Library watcher falls back to polling: " + e);
+                polling = true;
+                for (Path known : keys.values()) {
+                    polled.putIfAbsent(known, lastModified(known));
+                }
+            }
+        }
+        polled.put(directory, lastModified(directory));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Set<Path> changed = new HashSet<>();
+
+                WatchKey key = service == null ? null : service.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (service == null) {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+                if (key != null) {
+                    collect(key, changed);
+                    // Coalesce the burst of events.
+                    long deadline = System.currentTimeMillis() + MAX_DELAY_MILLIS;
+                    while (System.currentTimeMillis() < deadline
+                           && (key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        collect(key, changed);
+                    }
+                }
+                if (polling) {
+                    poll(changed);
+                }
+
+                if (!changed.isEmpty() && !closed) {
+                    listener.accept(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher was closed.
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Too many events, we do not know what changed.
+                changed.addAll(keys.values());
+                continue;
+            }
+            changed.add(directory);
+
+            Path child = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                registerTree(child, changed);
+            }
+        }
+        if (!key.reset()) {
+            // Directory is gone, its parent has been reported already.
+            Path removed = keys.remove(key);
+            if (removed != null) {
+                watched.remove(removed);
+            }
+        }
+    }
+
+    /* Compares mtime of every known directory with the last one we have seen. */
+    private void poll(Set<Path> changed) {
+        for (Map.Entry<Path, Long> entry : polled.entrySet()) {
+            Path directory = entry.getKey();
+            long modified = lastModified(directory);
+            if (modified == 0) {
+                polled.remove(directory);
+                watched.remove(directory);
+                changed.add(directory.getParent());
+            } else if (modified != entry.getValue()) {
+                entry.setValue(modified);
+                changed.add(directory);
+                registerSubDirectories(directory, changed);
+            }
+        }
+    }
+
+    /* New directory (e.g. a copied album folder), watch it and everything inside it. */
+    private void registerTree(Path directory, Set<Path> changed) {
+        register(directory);
+        changed.add(directory);
+        registerSubDirectories(directory, changed);
+    }
+
+    private void registerSubDirectories(Path directory, Set<Path> changed) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path child : stream) {
+                if (!watched.contains(child)) {
+                    registerTree(child, changed);
+                }
+            }
+        } catch (IOException e) {
+            // Directory was removed in the meantime, its parent is in the changed set.
+        }
+    }
+
+    private static long lastModified(Path directory) {
+        try {
+            return Files.getLastModifiedTime(directory).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
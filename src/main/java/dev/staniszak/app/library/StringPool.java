@@ -0,0 +1,149 @@
+package dev.staniszak.app.library;
+
+import java.util.Arrays;
+
+/*
+ * Strings of the TrackStore (file names and folder paths), each kept once and referred to by an int id.
+ *
+ * A folder path is shared by all tracks of the folder, common names ("01 - Intro.mp3") by many folders.
+ * Lookup is an open addressing table of ids (no Integer, no map entries), ~8 bytes per distinct string on top of the string.
+ * Ids are never reused, the pool only grows (it is thrown away together with its store when the library changes).
+ *
+ * ranks() gives the alphabetical position of every string, what sorting by name or folder compares instead of the strings.
+ * Not thread safe, used on the JavaFX application thread together with its TrackStore (only a Ranking leaves it).
+ */
+
+public class StringPool {
+
+    private String[] strings = new String[1024];
+    private int[] table = new int[2048]; // <- id + 1, 0 is an empty slot
+    private int size = 0;
+    private int[] ranks = new int[0];
+    private int rankedSize = 0;
+
+    /* Id of the string, added to the pool when it is not there yet. */
+    public int intern(String value) {
+        int slot = slotOf(value);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = value;
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return size - 1;
+    }
+
+    /* Id of the string, -1 when it is not in the pool. */
+    public int find(String value) {
+        int slot = slotOf(value);
+        return table[slot] - 1;
+    }
+
+    public String get(int id) {
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     Alphabetical position (String.compareTo, the order of File View) of every string, indexed by id.
+     Computed again only after strings were added, on the calling thread. For a big library that takes a while
+     (all strings are sorted), prepareRanking() lets another thread do it.
+     */
+    public int[] ranks() {
+        if (rankedSize != size) {
+            Ranking ranking = new Ranking(strings, table, size);
+            ranking.compute();
+            apply(ranking);
+        }
+        return ranks;
+    }
+
+    /* True when ranks() would not have to compute anything. */
+    public boolean isRanked() {
+        return rankedSize == size;
+    }
+
+    /* Copy of the pool for computing the ranks on another thread, null when the ranks are up to date. */
+    public Ranking prepareRanking() {
+        return rankedSize == size ? null : new Ranking(Arrays.copyOf(strings, size), table.clone(), size);
+    }
+
+    /* Ranks computed on another thread, used unless strings were added in the meantime (they are computed again then). */
+    public void apply(Ranking ranking) {
+        if (ranking.ranks != null && ranking.size == size) {
+            this.ranks = ranking.ranks;
+            this.rankedSize = size;
+        }
+    }
+
+    /* Ranks of the strings the pool had when it was prepared. Strings are sorted as an array, then every one is looked up once. */
+    public static class Ranking {
+        private final String[] strings;
+        private final int[] table;
+        private final int size;
+        private volatile int[] ranks;
+
+        Ranking(String[] strings, int[] table, int size) {
+            this.strings = strings;
+            this.table = table;
+            this.size = size;
+        }
+
+        public void compute() {
+            String[] sorted = Arrays.copyOf(strings, size);
+            Arrays.sort(sorted);
+            int[] result = new int[size];
+            for (int rank = 0; rank < size; rank++) {
+                result[table[slotOf(strings, table, sorted[rank])] - 1] = rank;
+            }
+            this.ranks = result;
+        }
+    }
+
+    /* Bytes held by the pool: arrays, string objects and their characters (Latin-1 names take a byte per character). */
+    public long estimateBytes() {
+        long bytes = 16L + strings.length * 4L + table.length * 4L + ranks.length * 4L;
+        for (int i = 0; i < size; i++) {
+            bytes += 24 + 16 + strings[i].length(); // <- String + its byte[] header
+        }
+        return bytes;
+    }
+
+    private int slotOf(String value) {
+        return slotOf(strings, table, value);
+    }
+
+    private static int slotOf(String[] strings, int[] table, String value) {
+        int mask = table.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (table[slot] != 0 && !strings[table[slot] - 1].equals(value)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] grown = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(strings[id].hashCode()) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        this.table = grown;
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+}
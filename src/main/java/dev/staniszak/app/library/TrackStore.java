@@ -0,0 +1,390 @@
+package dev.staniszak.app.library;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+/*
+ * Every track of the library as rows of primitive columns, the model of the Track Table (see TrackTable).
+ *
+ * A row is an index into the columns:
+ *   folder, name      - ids in the StringPool (folder path and file name, each string kept once),
+ *   lastModified      - millis since epoch,
+ *   duration          - millis, LibraryIndex.UNKNOWN_DURATION until the track has been parsed.
+ * No object per track: 500k tracks are a few arrays and the strings, compared with a TreeItem with its properties
+ * and listeners per track in File View (see TrackStoreCheck in the benchmarks for the numbers).
+ *
+ * The rows in the order of the table are an int[] of row indexes. Sorting never compares strings or boxes anything:
+ * strings are compared once, as alphabetical ranks in the StringPool, then the rows are radix sorted by an int key
+ * per row (rank, duration, seconds). Rows are sorted by name first, ties of the other columns stay in name order.
+ * Removed tracks leave an empty row behind (name -1), it is left out of the order and reused by nothing.
+ *
+ * Not thread safe, used on the JavaFX application thread.
+ */
+
+public class TrackStore {
+
+    public enum Column { NAME, FOLDER, DURATION, DATE }
+
+    private static final int REMOVED = -1;
+    private static final int RADIX_BITS = 11;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+    private final StringPool strings = new StringPool();
+    private int[] folders = new int[1024];
+    private int[] names = new int[1024];
+    private long[] lastModified = new long[1024];
+    private int[] durations = new int[1024];
+    private int rows = 0;
+    private int removed = 0;
+
+    /* Row of every (folder, name), open addressing: key is folder << 32 | name, value is row + 1 (0 is empty). */
+    private long[] rowKeys = new long[2048];
+    private int[] rowValues = new int[2048];
+
+    private int[] order = new int[1024];
+    private int ordered = 0;
+    private Column sortColumn = null;
+    private boolean ascending = true;
+
+    ////////Rows////////
+
+    /* Adds the track, or updates the row it already has. Returns the row. */
+    public int add(Path track, long modified, int durationMillis) {
+        int folder = strings.intern(folderOf(track));
+        int name = strings.intern(track.getFileName().toString());
+        int row = findRow(folder, name);
+        if (row >= 0) {
+            lastModified[row] = modified;
+            if (durationMillis != LibraryIndex.UNKNOWN_DURATION) {
+                durations[row] = durationMillis;
+            }
+            return row;
+        }
+        if (rows == folders.length) {
+            grow(rows * 2);
+        }
+        row = rows++;
+        folders[row] = folder;
+        names[row] = name;
+        lastModified[row] = modified;
+        durations[row] = durationMillis;
+        putRow(folder, name, row);
+        // Unsorted until the next sort(), new rows show up at the end of the table.
+        if (ordered == order.length) {
+            order = Arrays.copyOf(order, Math.max(16, ordered * 2));
+        }
+        order[ordered++] = row;
+        return row;
+    }
+
+    public void setDuration(Path track, int durationMillis) {
+        int row = find(track);
+        if (row >= 0) {
+            durations[row] = durationMillis;
+        }
+    }
+
+    /* Row of the track, -1 when it is not in the store. */
+    public int find(Path track) {
+        Path file = track.getFileName();
+        if (file == null) {
+            return -1;
+        }
+        int folder = strings.find(folderOf(track));
+        int name = strings.find(file.toString());
+        return folder < 0 || name < 0 ? -1 : findRow(folder, name);
+    }
+
+    /*
+     Tracks of the folder and of folders below it that are not in present any more are removed
+     (folder changed on disk, see LibraryWatcher). A deleted Artist folder takes all of its albums with it.
+     */
+    public void retain(Path folder, Set<Path> present) {
+        byte[] inside = new byte[strings.size()]; // <- per folder id: 0 not known yet, 1 inside, 2 outside
+        boolean changed = false;
+        for (int row = 0; row < rows; row++) {
+            if (names[row] == REMOVED) {
+                continue;
+            }
+            int folderId = folders[row];
+            if (inside[folderId] == 0) {
+                inside[folderId] = Path.of(strings.get(folderId)).startsWith(folder) ? (byte) 1 : (byte) 2;
+            }
+            if (inside[folderId] == 1 && !present.contains(getPath(row))) {
+                removeRow(folders[row], names[row]);
+                names[row] = REMOVED;
+                removed++;
+                changed = true;
+            }
+        }
+        if (changed) {
+            int count = 0;
+            for (int i = 0; i < ordered; i++) {
+                if (names[order[i]] != REMOVED) {
+                    order[count++] = order[i];
+                }
+            }
+            ordered = count;
+        }
+    }
+
+    /* Tracks in the store. */
+    public int size() {
+        return rows - removed;
+    }
+
+    ////////Table////////
+
+    /* Row shown at the index of the table. */
+    public int rowAt(int index) {
+        return order[index];
+    }
+
+    public String getName(int row) {
+        return strings.get(names[row]);
+    }
+
+    /* Folder path as it was added (absolute). */
+    public String getFolder(int row) {
+        return strings.get(folders[row]);
+    }
+
+    public Path getPath(int row) {
+        return Path.of(strings.get(folders[row]), strings.get(names[row]));
+    }
+
+    public long getLastModified(int row) {
+        return lastModified[row];
+    }
+
+    public int getDuration(int row) {
+        return durations[row];
+    }
+
+    public Column getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    ////////Sorting////////
+
+    /* Puts the rows of the table in the order of the column, null goes back to the order the tracks were added in. */
+    public void sort(Column column, boolean ascending) {
+        this.sortColumn = column;
+        this.ascending = ascending;
+        int count = 0;
+        int[] sorted = new int[size()];
+        for (int row = 0; row < rows; row++) {
+            if (names[row] != REMOVED) {
+                sorted[count++] = row;
+            }
+        }
+        if (column != null) {
+            int[] ranks = strings.ranks();
+            int[] keys = new int[count];
+            int[] scratchKeys = new int[count];
+            int[] first = sorted;
+            int[] second = new int[count];
+            // Name first (ascending), a stable sort by the column keeps that order among equal values.
+            if (column != Column.NAME || ascending) {
+                sorted = radixSort(sorted, keys, sorted == first ? second : first, scratchKeys, Column.NAME, true, ranks);
+            }
+            if (column != Column.NAME || !ascending) {
+                sorted = radixSort(sorted, keys, sorted == first ? second : first, scratchKeys, column, ascending, ranks);
+            }
+        }
+        if (order.length < count) {
+            order = new int[Math.max(count, rows)];
+        }
+        System.arraycopy(sorted, 0, order, 0, count);
+        ordered = count;
+    }
+
+    /* Column the next resort() sorts by, the rows keep their order until then (see isRanked). */
+    public void setSort(Column column, boolean ascending) {
+        this.sortColumn = column;
+        this.ascending = ascending;
+    }
+
+    /* Sorts again by the current column, e.g. after the scan has added tracks. */
+    public void resort() {
+        sort(sortColumn, ascending);
+    }
+
+    /* False when names or folders were added since the last ranking, sort() would rank all of them on the calling thread. */
+    public boolean isRanked() {
+        return strings.isRanked();
+    }
+
+    /* Ranks of new names and folders to be computed off the FX thread before the next sort, null when there are none. */
+    public StringPool.Ranking prepareRanking() {
+        return strings.prepareRanking();
+    }
+
+    public void applyRanking(StringPool.Ranking ranking) {
+        strings.apply(ranking);
+    }
+
+    /*
+     Stable LSD radix sort of the rows by the key of the column, RADIX_BITS per pass and only as many passes
+     as the largest key needs (~2 for names and folders, 3 for dates). Descending keys are turned around (max - key),
+     so rows with equal values stay in the order they came in. Returns the array that holds the result.
+     */
+    private int[] radixSort(int[] rowsIn, int[] keysIn, int[] rowsOut, int[] keysOut, Column column, boolean ascending, int[] ranks) {
+        int count = rowsIn.length;
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            long key = key(column, rowsIn[i], ranks);
+            keysIn[i] = (int) key;
+            max = Math.max(max, key);
+        }
+        if (!ascending) {
+            for (int i = 0; i < count; i++) {
+                keysIn[i] = (int) (max - (keysIn[i] & 0xFFFFFFFFL));
+            }
+        }
+        int[] buckets = new int[1 << RADIX_BITS];
+        for (int shift = 0; shift < 64 - Long.numberOfLeadingZeros(max); shift += RADIX_BITS) {
+            Arrays.fill(buckets, 0);
+            for (int i = 0; i < count; i++) {
+                buckets[(keysIn[i] >>> shift) & RADIX_MASK]++;
+            }
+            for (int bucket = 0, position = 0; bucket < buckets.length; bucket++) {
+                int size = buckets[bucket];
+                buckets[bucket] = position;
+                position += size;
+            }
+            for (int i = 0; i < count; i++) {
+                int position = buckets[(keysIn[i] >>> shift) & RADIX_MASK]++;
+                rowsOut[position] = rowsIn[i];
+                keysOut[position] = keysIn[i];
+            }
+            int[] swap = rowsIn;
+            rowsIn = rowsOut;
+            rowsOut = swap;
+            swap = keysIn;
+            keysIn = keysOut;
+            keysOut = swap;
+        }
+        return rowsIn;
+    }
+
+    /* Value of the column as an unsigned 32 bit number. */
+    private long key(Column column, int row, int[] ranks) {
+        switch (column) {
+            case FOLDER:
+                return ranks[folders[row]];
+            case DURATION:
+                return Math.max(durations[row], -1) + 1L; // <- unknown durations first
+            case DATE:
+                return Math.min(Math.max(lastModified[row] / 1000, 0), 0xFFFFFFFFL); // <- seconds, until the year 2106
+            default:
+                return ranks[names[row]];
+        }
+    }
+
+    ////////Memory////////
+
+    /* Bytes held by the store (columns, order, row lookup and the string pool). */
+    public long estimateBytes() {
+        long columns = folders.length * 4L + names.length * 4L + lastModified.length * 8L + durations.length * 4L;
+        long lookup = rowKeys.length * 8L + rowValues.length * 4L;
+        return columns + lookup + order.length * 4L + strings.estimateBytes();
+    }
+
+    public long estimateBytesPerTrack() {
+        return size() == 0 ? 0 : estimateBytes() / size();
+    }
+
+    ////////Lookup////////
+
+    private static String folderOf(Path track) {
+        Path parent = track.getParent();
+        return parent == null ? "" : parent.toString();
+    }
+
+    private int findRow(int folder, int name) {
+        long key = rowKey(folder, name);
+        int mask = rowKeys.length - 1;
+        for (int slot = slotOf(key, mask); rowValues[slot] != 0; slot = (slot + 1) & mask) {
+            if (rowKeys[slot] == key) {
+                return rowValues[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void putRow(int folder, int name, int row) {
+        if ((rows - removed) * 2 > rowKeys.length) {
+            rehash(rowKeys.length * 2);
+        }
+        insert(rowKeys, rowValues, rowKey(folder, name), row + 1);
+    }
+
+    /* Backward shift deletion, so that lookups never need tombstones. */
+    private void removeRow(int folder, int name) {
+        long key = rowKey(folder, name);
+        int mask = rowKeys.length - 1;
+        int slot = slotOf(key, mask);
+        while (rowValues[slot] != 0 && rowKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (rowValues[slot] == 0) {
+            return;
+        }
+        int hole = slot;
+        for (int next = (hole + 1) & mask; rowValues[next] != 0; next = (next + 1) & mask) {
+            int home = slotOf(rowKeys[next], mask);
+            // Entry may move into the hole only if its home slot is not between the hole and where it sits.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                rowKeys[hole] = rowKeys[next];
+                rowValues[hole] = rowValues[next];
+                hole = next;
+            }
+        }
+        rowKeys[hole] = 0;
+        rowValues[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity];
+        for (int slot = 0; slot < rowKeys.length; slot++) {
+            if (rowValues[slot] != 0) {
+                insert(keys, values, rowKeys[slot], rowValues[slot]);
+            }
+        }
+        this.rowKeys = keys;
+        this.rowValues = values;
+    }
+
+    private static void insert(long[] keys, int[] values, long key, int value) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key, mask);
+        while (values[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    private static long rowKey(int folder, int name) {
+        return ((long) folder << 32) | (name & 0xFFFFFFFFL);
+    }
+
+    private static int slotOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private void grow(int capacity) {
+        folders = Arrays.copyOf(folders, capacity);
+        names = Arrays.copyOf(names, capacity);
+        lastModified = Arrays.copyOf(lastModified, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+    }
+}
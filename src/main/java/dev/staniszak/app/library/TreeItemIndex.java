@@ -0,0 +1,84 @@
+package dev.staniszak.app.library;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import javafx.scene.control.TreeItem;
+
+/*
+ * Two way index between files of the library and their TreeItems in File View.
+ *
+ * Path -> TreeItem is a hash map, TreeItem -> Path is stored in the LazyTreeItem itself,
+ * so selecting a track and restoring the last played one are constant time lookups,
+ * and two tracks with the same file name in different folders can never be mixed up.
+ * The index is kept up to date by LazyTreeItem whenever directories are read, refreshed or dropped.
+ *
+ * Same as the TreeItems themselves, the index must only be used on the JavaFX application thread.
+ */
+
+public class TreeItemIndex {
+
+    private final Map<Path, LazyTreeItem> items = new HashMap<>();
+
+    void register(LazyTreeItem item) {
+        items.put(item.getPath(), item);
+    }
+
+    /* Removes the item and everything that has been read below it. */
+    void unregister(LazyTreeItem item) {
+        items.remove(item.getPath(), item);
+        if (item.isDirectory()) {
+            for (TreeItem<String> child : item.getLoadedChildren()) {
+                unregister((LazyTreeItem) child);
+            }
+        }
+    }
+
+    /* TreeItem of the path, if its directory has already been read, otherwise null. */
+    public LazyTreeItem get(Path path) {
+        return items.get(path);
+    }
+
+    /* Absolute path of the file or directory shown by the item (null for items that are not part of the library). */
+    public Path pathOf(TreeItem<String> item) {
+        return item instanceof LazyTreeItem ? ((LazyTreeItem) item).getPath() : null;
+    }
+
+    /*
+     TreeItem of the path, reading directories on the way if needed: 
+     we start from the closest directory that is already in the index and go down one path element at a time.
+     Returns null if the path is not part of the library (outside of the root, removed, not a track).
+     */
+    public LazyTreeItem resolve(Path path) {
+        LazyTreeItem item = items.get(path);
+        if (item != null) {
+            return item;
+        }
+
+        Path ancestor = path.getParent();
+        while (ancestor != null && !items.containsKey(ancestor)) {
+            ancestor = ancestor.getParent();
+        }
+        if (ancestor == null) {
+            return null;
+        }
+
+        LazyTreeItem current = items.get(ancestor);
+        for (Path name : ancestor.relativize(path)) {
+            if (!current.isDirectory()) {
+                return null;
+            }
+            current.getChildren(); // <- reads the directory and registers its children.
+            current = items.get(current.getPath().resolve(name));
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    public int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,167 @@
+package dev.staniszak.app.metadata;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.staniszak.app.utils.BinaryFiles;
+
+/*
+ * Least recently used cache of parsed metadata, bounded by the number of tracks.
+ * An entry is valid only while size and modification time of the file are the same as when it was parsed,
+ * so a retagged file is parsed again.
+ *
+ * The cache survives restarts: it is written into a binary file (see FORMAT below) in LRU order
+ * and read back in LRU order, so the most recently used tracks are still the last ones to be evicted.
+ * The file is read and replaced through BinaryFiles.
+ * All methods are synchronized, the cache is used by the metadata workers and the JavaFX application thread.
+ */
+
+public class MetadataCache {
+
+    /*
+     FORMAT:
+       int magic, int version, int entryCount,
+       entryCount * [ string path, long size, long lastModified, string title, string artist, string album, int bitrate, int durationMillis,
+                       float replayGainDb, float replayGainPeak ]
+     string = unsigned short length + UTF-8 bytes, tags that do not fit are cut, tracks whose path does not fit are left out
+     Entries are ordered from the least to the most recently used.
+     */
+    private static final int MAGIC = 0x4D444341; // <- "MDCA"
+    private static final int VERSION = 2; // <- 2: ReplayGain
+
+    private static class Cached {
+        final long size;
+        final long lastModified;
+        final TrackMetadata metadata;
+
+        Cached(long size, long lastModified, TrackMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+    }
+
+    private final Path file;
+    private final LinkedHashMap<Path, Cached> entries;
+    private boolean dirty = false;
+
+    public MetadataCache(Path file, int capacity) {
+        this.file = file;
+        this.entries = new LinkedHashMap<Path, Cached>(Math.min(capacity, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Cached> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /* Reads the cache from the file. Missing or damaged file gives an empty cache. */
+    public static MetadataCache load(Path file, int capacity) {
+        MetadataCache cache = new MetadataCache(file, capacity);
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        try {
+            cache.read(BinaryFiles.read(file));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Metadata cache " + file + " could not be read, tracks will be parsed again. " + e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /* Metadata of the track, or null when the track is not cached or has changed since it was parsed. */
+    public synchronized TrackMetadata get(Path track, long size, long lastModified) {
+        Cached entry = entries.get(track);
+        return entry != null && entry.size == size && entry.lastModified == lastModified ? entry.metadata : null;
+    }
+
+    /* Metadata of the track without checking the file, for painting the tree where we do not know size and mtime. */
+    public synchronized TrackMetadata get(Path track) {
+        Cached entry = entries.get(track);
+        return entry == null ? null : entry.metadata;
+    }
+
+    public synchronized void put(Path track, long size, long lastModified, TrackMetadata metadata) {
+        entries.put(track, new Cached(size, lastModified, metadata));
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    ////////File////////
+
+    public void saveIfDirty() {
+        boolean changed;
+        synchronized (this) {
+            changed = dirty;
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /* Snapshot is taken under the lock, the file is written outside of it, so workers are not blocked by the disk. */
+    public void save() {
+        List<Map.Entry<Path, Cached>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.entrySet());
+            dirty = false;
+        }
+        snapshot.removeIf((item) -> !BinaryFiles.fits(item.getKey().toString()));
+        try {
+            BinaryFiles.replace(file, (out) -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Path, Cached> item : snapshot) {
+                    Cached entry = item.getValue();
+                    TrackMetadata metadata = entry.metadata;
+                    BinaryFiles.writeString(out, item.getKey().toString());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    BinaryFiles.writeString(out, metadata.getTitle());
+                    BinaryFiles.writeString(out, metadata.getArtist());
+                    BinaryFiles.writeString(out, metadata.getAlbum());
+                    out.writeInt(metadata.getBitrate());
+                    out.writeInt(metadata.getDurationMillis());
+                    out.writeFloat(metadata.getReplayGainDb());
+                    out.writeFloat(metadata.getReplayGainPeak());
+                }
+            });
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            e.printStackTrace();
+        }
+    }
+
+    private void read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("unknown cache format");
+        }
+        byte[] scratch = new byte[1024];
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            Path track = Path.of(BinaryFiles.readString(buffer, scratch));
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            String title = BinaryFiles.readString(buffer, scratch);
+            String artist = BinaryFiles.readString(buffer, scratch);
+            String album = BinaryFiles.readString(buffer, scratch);
+            TrackMetadata metadata = new TrackMetadata(title, artist, album,
+                buffer.getInt(), buffer.getInt(), buffer.getFloat(), buffer.getFloat());
+            entries.put(track, new Cached(size, lastModified, metadata));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package dev.staniszak.app.metadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.format.TrackFormat;
+
+/*
+ * Reads metadata of tracks in the background and keeps it in the MetadataCache.
+ *
+ * Parsing runs on its own ForkJoinPool with one worker per core. Every track is an independent task, reading a track
+ * touches only its tag and the first frames (see Mp3MetadataReader), so a whole library is tagged in parallel
+ * in roughly the time it takes the disk to deliver those few pages.
+ * A track is never queued twice, asking again while it is being parsed does nothing.
+ *
+ * The listener is called on a worker thread for every parsed track.
+ */
+
+public class MetadataService {
+
+    private static final TrackMetadata UNREADABLE = new TrackMetadata("", "", "", 0, 0);
+    private static final TrackMetadata NO_READER = new TrackMetadata("", "", "", 0, 0); // <- tags of FLAC, Ogg, MP4... are not read yet
+
+    private final MetadataCache cache;
+    private final ForkJoinPool pool;
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger parsed = new AtomicInteger();
+    private volatile BiConsumer<Path, TrackMetadata> listener = (track, metadata) -> { };
+
+    public MetadataService(MetadataCache cache) {
+        this(cache, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MetadataService(MetadataCache cache, int parallelism) {
+        this.cache = cache;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, (forkJoinPool) -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("metadata-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true); // <- asyncMode, tasks are taken in the order they were submitted
+    }
+
+    public void setListener(BiConsumer<Path, TrackMetadata> listener) {
+        this.listener = listener == null ? (track, metadata) -> { } : listener;
+    }
+
+    public MetadataCache getCache() {
+        return cache;
+    }
+
+    /* Metadata we already have, never touches the disk. Null if the track has not been parsed yet. */
+    public TrackMetadata getCached(Path track) {
+        return cache.get(track);
+    }
+
+    /* Parse the track unless the cache already knows it. Size and mtime come from the library scan. */
+    public void request(Path track, long size, long lastModified) {
+        if (cache.get(track, size, lastModified) != null || !pending.add(track)) {
+            return;
+        }
+        pool.execute(() -> parse(track, size, lastModified));
+    }
+
+    /* Same as above when we only know the path (e.g. a track painted in the tree). */
+    public void request(Path track) {
+        if (cache.get(track) != null || !pending.add(track)) {
+            return;
+        }
+        pool.execute(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(track, BasicFileAttributes.class);
+                parse(track, attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                pending.remove(track); // <- file is gone
+            }
+        });
+    }
+
+    /* Number of tracks parsed since start, for progress reporting. */
+    public int getParsed() {
+        return parsed.get();
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    private void parse(Path track, long size, long lastModified) {
+        TrackMetadata metadata;
+        try {
+            metadata = FormatRegistry.SHARED.detect(track, size, lastModified) == TrackFormat.MP3
+                ? Mp3MetadataReader.read(track)
+                : NO_READER;
+        } catch (IOException | RuntimeException e) {
+            // Damaged or unreadable file, remember that, so we do not try again on every paint.
+            metadata = UNREADABLE;
+        }
+        cache.put(track, size, lastModified, metadata);
+        pending.remove(track);
+        parsed.incrementAndGet();
+        listener.accept(track, metadata);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
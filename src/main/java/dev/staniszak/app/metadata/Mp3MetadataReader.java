@@ -0,0 +1,432 @@
+package dev.staniszak.app.metadata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reads tags and duration of an mp3 file without decoding any audio.
+ *
+ * - ID3v2 (2.2, 2.3, 2.4) at the beginning of the file: title, artist, album (and TLEN as a last resort for duration),
+ *   ReplayGain of the track from the TXXX frames written by taggers (foobar2000, mp3gain, loudgain, ...).
+ * - ID3v1 in the last 128 bytes: used when there is no ID3v2 tag.
+ * - First MPEG frame header: bitrate and sample rate. Exact duration comes from the Xing/Info or VBRI header
+ *   that encoders put into the first frame. Without it, a file with a constant bitrate is computed from its size,
+ *   and a variable bitrate file without a header is measured by walking its frame headers.
+ *
+ * The file is read with positional reads into one heap buffer per thread (see Window): the head (tag + first frames)
+ * and the tail (ID3v1), frames of the tag we do not use (e.g. cover art) are skipped without being read,
+ * the rest of the audio is touched only when frames have to be walked.
+ * No memory mapping: a mapping per region costs more than the few KB it reads, and a mapped file cannot be replaced
+ * by a tag editor on Windows while the mapping lives.
+ */
+
+public class Mp3MetadataReader {
+
+    private static final int HEAD_BYTES = 64 * 1024; // <- bytes read after the ID3v2 tag to find the first frame
+    private static final int MAX_TEXT_FRAME = HEAD_BYTES; // <- text frames bigger than the buffer are skipped
+    private static final int ID3V1_SIZE = 128;
+    private static final int CBR_CHECK_FRAMES = 4;
+
+    private static final int[][] BITRATES = {
+        // MPEG 1, layer I, II, III
+        { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+        { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+        { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+        // MPEG 2 and 2.5, layer I, II, III
+        { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+        { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+        { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+    };
+    private static final int[][] SAMPLE_RATES = {
+        { 11025, 12000, 8000 },  // MPEG 2.5
+        { 0, 0, 0 },             // reserved
+        { 22050, 24000, 16000 }, // MPEG 2
+        { 44100, 48000, 32000 }, // MPEG 1
+    };
+
+    /* One buffer per metadata worker, all reads of a file go through it. */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEAD_BYTES));
+
+    /*
+     Part of the file in the heap buffer. Bytes that are not in it are read with a positional read
+     (as much as fits from the requested position on), so consecutive small reads (frame headers) cost one read call.
+     */
+    private static class Window {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer;
+        private long start = -1; // <- file position of buffer[0]
+
+        Window(FileChannel channel, long end, ByteBuffer buffer) {
+            this.channel = channel;
+            this.end = end;
+            this.buffer = buffer;
+        }
+
+        /* Index of the file position in the buffer, with `length` bytes after it. -1 past the end of the file. */
+        int ensure(long position, int length) throws IOException {
+            if (position < 0 || length > buffer.capacity() || position + length > end) {
+                return -1;
+            }
+            if (start < 0 || position < start || position + length > start + buffer.limit()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                    // <- a read may return fewer bytes than asked for
+                }
+                buffer.flip();
+                start = position;
+                if (buffer.limit() < length) {
+                    start = -1;
+                    return -1; // <- file got shorter while we read it
+                }
+            }
+            return (int) (position - start);
+        }
+
+        /* The bytes as a buffer of their own (index 0 is the position), null past the end of the file. */
+        ByteBuffer get(long position, int length) throws IOException {
+            int index = ensure(position, length);
+            if (index < 0) {
+                return null;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(index).limit(index + length);
+            return view.slice();
+        }
+    }
+
+    /* Decoded MPEG audio frame header. */
+    static class FrameHeader {
+        int version;        // 3 = MPEG 1, 2 = MPEG 2, 0 = MPEG 2.5
+        int layer;          // 1, 2 or 3
+        int bitrate;        // kbps
+        int sampleRate;
+        int samplesPerFrame;
+        int length;         // bytes, including the header
+        boolean mono;
+
+        /* Returns null if the 4 bytes are not a valid frame header. */
+        static FrameHeader parse(int header) {
+            if ((header & 0xFFE00000) != 0xFFE00000) {
+                return null;
+            }
+            int versionBits = (header >>> 19) & 3;
+            int layerBits = (header >>> 17) & 3;
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int sampleRateIndex = (header >>> 10) & 3;
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null; // <- reserved values, or free format which we do not support.
+            }
+            FrameHeader frame = new FrameHeader();
+            frame.version = versionBits;
+            frame.layer = 4 - layerBits;
+            frame.bitrate = BITRATES[(versionBits == 3 ? 0 : 3) + frame.layer - 1][bitrateIndex];
+            frame.sampleRate = SAMPLE_RATES[versionBits][sampleRateIndex];
+            frame.mono = ((header >>> 6) & 3) == 3;
+            int padding = (header >>> 9) & 1;
+
+            if (frame.layer == 1) {
+                frame.samplesPerFrame = 384;
+                frame.length = (12 * frame.bitrate * 1000 / frame.sampleRate + padding) * 4;
+            } else {
+                frame.samplesPerFrame = (frame.layer == 3 && versionBits != 3) ? 576 : 1152;
+                frame.length = frame.samplesPerFrame / 8 * frame.bitrate * 1000 / frame.sampleRate + padding;
+            }
+            return frame;
+        }
+    }
+
+    public static TrackMetadata read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Window window = new Window(channel, size, BUFFERS.get());
+            Tags tags = new Tags();
+
+            // ID3v2 header tells us how big the tag is.
+            long audioStart = 0;
+            ByteBuffer header = window.get(0, 10);
+            if (header != null && header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3') {
+                int tagSize = syncSafe(header, 6);
+                boolean footer = (header.get(5) & 0x10) != 0;
+                audioStart = 10 + tagSize + (footer ? 10 : 0);
+                readId3v2(window, 10, (int) Math.min(tagSize, size - 10), header.get(3), header.get(5), tags);
+            }
+
+            long audioEnd = size;
+            ByteBuffer tail = window.get(size - ID3V1_SIZE, ID3V1_SIZE);
+            if (tail != null && tail.get(0) == 'T' && tail.get(1) == 'A' && tail.get(2) == 'G') {
+                audioEnd -= ID3V1_SIZE;
+                if (!tags.hasAny()) {
+                    tags.title = latin1(tail, 3, 30);
+                    tags.artist = latin1(tail, 33, 30);
+                    tags.album = latin1(tail, 63, 30);
+                }
+            }
+
+            int bitrate = 0;
+            int duration = tags.lengthMillis;
+            if (audioStart < audioEnd) {
+                long[] result = readAudio(window, audioStart, audioEnd);
+                if (result != null) {
+                    duration = (int) result[0];
+                    bitrate = (int) result[1];
+                }
+            }
+            return new TrackMetadata(tags.title, tags.artist, tags.album, bitrate, Math.max(duration, 0),
+                tags.replayGainDb, tags.replayGainPeak);
+        }
+    }
+
+    ////////MPEG////////
+
+    /* Returns { durationMillis, bitrate } or null when there are no MPEG frames in the file. */
+    private static long[] readAudio(Window window, long audioStart, long audioEnd) throws IOException {
+        ByteBuffer head = window.get(audioStart, (int) Math.min(HEAD_BYTES, audioEnd - audioStart));
+        if (head == null) {
+            return null;
+        }
+        int offset = findFirstFrame(head);
+        if (offset < 0) {
+            return null;
+        }
+        FrameHeader first = FrameHeader.parse(head.getInt(offset));
+        long audioBytes = audioEnd - audioStart - offset;
+
+        // Xing/Info (LAME, most VBR encoders) or VBRI (Fraunhofer) header knows the number of frames.
+        long frames = vbrFrameCount(head, offset, first);
+        if (frames > 0) {
+            // The header frame itself carries no audio.
+            long millis = frames * first.samplesPerFrame * 1000L / first.sampleRate;
+            return new long[] { millis, millis > 0 ? audioBytes * 8 / millis : first.bitrate };
+        }
+
+        if (isConstantBitrate(head, offset)) {
+            return new long[] { audioBytes * 8 / first.bitrate, first.bitrate };
+        }
+
+        // Variable bitrate without a header, count the frames. Window reads the audio a buffer at a time.
+        long frameStart = audioStart + offset;
+        long samples = 0;
+        int sampleRate = first.sampleRate;
+        long position = 0;
+        while (position + 4 <= audioBytes) {
+            int index = window.ensure(frameStart + position, 4);
+            FrameHeader frame = index < 0 ? null : FrameHeader.parse(window.buffer.getInt(index));
+            if (frame == null) {
+                break;
+            }
+            samples += frame.samplesPerFrame;
+            position += frame.length;
+        }
+        long millis = samples * 1000 / sampleRate;
+        return new long[] { millis, millis > 0 ? audioBytes * 8 / millis : first.bitrate };
+    }
+
+    /* First frame header that is followed by another valid frame header (a lone 0xFFE can be just noise in the data). */
+    private static int findFirstFrame(ByteBuffer buffer) {
+        for (int i = 0; i + 4 <= buffer.limit(); i++) {
+            if ((buffer.get(i) & 0xFF) != 0xFF) {
+                continue;
+            }
+            FrameHeader frame = FrameHeader.parse(buffer.getInt(i));
+            if (frame == null) {
+                continue;
+            }
+            int next = i + frame.length;
+            if (next + 4 > buffer.limit() || FrameHeader.parse(buffer.getInt(next)) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long vbrFrameCount(ByteBuffer buffer, int frameOffset, FrameHeader frame) {
+        int xing = frameOffset + 4 + (frame.version == 3 ? (frame.mono ? 17 : 32) : (frame.mono ? 9 : 17));
+        if (xing + 12 <= buffer.limit() && (matches(buffer, xing, "Xing") || matches(buffer, xing, "Info"))) {
+            int flags = buffer.getInt(xing + 4);
+            if ((flags & 1) != 0) {
+                return Integer.toUnsignedLong(buffer.getInt(xing + 8));
+            }
+        }
+        int vbri = frameOffset + 4 + 32;
+        if (vbri + 18 <= buffer.limit() && matches(buffer, vbri, "VBRI")) {
+            return Integer.toUnsignedLong(buffer.getInt(vbri + 14));
+        }
+        return 0;
+    }
+
+    private static boolean isConstantBitrate(ByteBuffer buffer, int offset) {
+        int bitrate = -1;
+        for (int i = 0; i < CBR_CHECK_FRAMES && offset + 4 <= buffer.limit(); i++) {
+            FrameHeader frame = FrameHeader.parse(buffer.getInt(offset));
+            if (frame == null) {
+                break;
+            }
+            if (bitrate != -1 && frame.bitrate != bitrate) {
+                return false;
+            }
+            bitrate = frame.bitrate;
+            offset += frame.length;
+        }
+        return true;
+    }
+
+    ////////ID3////////
+
+    private static class Tags {
+        String title = "";
+        String artist = "";
+        String album = "";
+        int lengthMillis = 0;
+        float replayGainDb = Float.NaN;
+        float replayGainPeak = Float.NaN;
+
+        boolean hasAny() {
+            return !title.isEmpty() || !artist.isEmpty() || !album.isEmpty();
+        }
+    }
+
+    /* Frames are read one at a time, only the ones we use: a tag with cover art does not cost its picture. */
+    private static void readId3v2(Window window, long tagStart, int tagSize, int majorVersion, int flags, Tags tags) throws IOException {
+        int position = 0;
+        if ((flags & 0x40) != 0) {
+            // Extended header: v2.4 size includes itself and is sync safe, v2.3 size does not include its 4 bytes.
+            ByteBuffer extended = window.get(tagStart, 4);
+            if (extended != null && tagSize >= 4) {
+                position = majorVersion >= 4 ? syncSafe(extended, 0) : extended.getInt(0) + 4;
+            }
+        }
+        boolean shortFrames = majorVersion == 2; // <- ID3v2.2 uses 3 character ids and 3 byte sizes.
+        int headerSize = shortFrames ? 6 : 10;
+
+        while (position >= 0 && position + headerSize <= tagSize) {
+            ByteBuffer frameHeader = window.get(tagStart + position, headerSize);
+            if (frameHeader == null || frameHeader.get(0) == 0) {
+                break; // <- padding
+            }
+            String id;
+            int size;
+            if (shortFrames) {
+                id = latin1(frameHeader, 0, 3);
+                size = ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8) | (frameHeader.get(5) & 0xFF);
+            } else {
+                id = latin1(frameHeader, 0, 4);
+                size = majorVersion >= 4 ? syncSafe(frameHeader, 4) : frameHeader.getInt(4);
+            }
+            int body = position + headerSize;
+            if (size <= 0 || body + size > tagSize || body + size < 0) {
+                break;
+            }
+            ByteBuffer frame = isUsed(id) && size <= MAX_TEXT_FRAME ? window.get(tagStart + body, size) : null;
+            if (frame != null) {
+                switch (id) {
+                    case "TIT2": case "TT2":
+                        tags.title = text(frame, 0, size);
+                        break;
+                    case "TPE1": case "TP1":
+                        tags.artist = text(frame, 0, size);
+                        break;
+                    case "TALB": case "TAL":
+                        tags.album = text(frame, 0, size);
+                        break;
+                    case "TLEN": case "TLE":
+                        try {
+                            tags.lengthMillis = Integer.parseInt(text(frame, 0, size).trim());
+                        } catch (NumberFormatException e) {
+                            // Ignore broken length.
+                        }
+                        break;
+                    case "TXXX": case "TXX":
+                        readUserText(frame, 0, size, tags);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            position = body + size;
+        }
+    }
+
+    private static boolean isUsed(String id) {
+        switch (id) {
+            case "TIT2": case "TT2":
+            case "TPE1": case "TP1":
+            case "TALB": case "TAL":
+            case "TLEN": case "TLE":
+            case "TXXX": case "TXX":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /* User defined text frame: encoding byte, description and value separated by a null. We want only ReplayGain of the track. */
+    private static void readUserText(ByteBuffer buffer, int offset, int size, Tags tags) {
+        String frame = fullText(buffer, offset, size);
+        int separator = frame.indexOf('\0');
+        if (separator < 0) {
+            return;
+        }
+        String description = frame.substring(0, separator).trim();
+        String value = frame.substring(separator + 1).replace("\uFEFF", "").replace("\0", "").trim();
+        try {
+            if (description.equalsIgnoreCase("REPLAYGAIN_TRACK_GAIN")) {
+                // "-6.54 dB"
+                tags.replayGainDb = Float.parseFloat(value.split(" ")[0]);
+            } else if (description.equalsIgnoreCase("REPLAYGAIN_TRACK_PEAK")) {
+                tags.replayGainPeak = Float.parseFloat(value);
+            }
+        } catch (NumberFormatException e) {
+            // Ignore broken gain, the track plays without normalization.
+        }
+    }
+
+    /* Text frame: encoding byte followed by the text. Only the first value of a multi value frame is used. */
+    private static String text(ByteBuffer buffer, int offset, int size) {
+        String value = fullText(buffer, offset, size);
+        int end = value.indexOf('\0');
+        return (end >= 0 ? value.substring(0, end) : value).trim();
+    }
+
+    /* Whole frame text, including the nulls between values. */
+    private static String fullText(ByteBuffer buffer, int offset, int size) {
+        Charset charset;
+        switch (buffer.get(offset)) {
+            case 1: charset = StandardCharsets.UTF_16; break;   // <- with BOM
+            case 2: charset = StandardCharsets.UTF_16BE; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: charset = StandardCharsets.ISO_8859_1; break;
+        }
+        byte[] bytes = new byte[size - 1];
+        buffer.duplicate().position(offset + 1).get(bytes);
+        return new String(bytes, charset);
+    }
+
+    private static String latin1(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.duplicate().position(offset).get(bytes);
+        String value = new String(bytes, StandardCharsets.ISO_8859_1);
+        int end = value.indexOf('\0');
+        return (end >= 0 ? value.substring(0, end) : value).trim();
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(offset + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int syncSafe(ByteBuffer buffer, int offset) {
+        return ((buffer.get(offset) & 0x7F) << 21) | ((buffer.get(offset + 1) & 0x7F) << 14)
+             | ((buffer.get(offset + 2) & 0x7F) << 7) | (buffer.get(offset + 3) & 0x7F);
+    }
+}
@@ -0,0 +1,43 @@
+package dev.staniszak.app.metadata;
+
+import lombok.Getter;
+
+/*
+ * What we know about a track from its tags and MPEG frame headers. Empty strings when a tag is missing.
+ * ReplayGain (REPLAYGAIN_TRACK_GAIN / _PEAK) is NaN when the track has not been analysed.
+ */
+
+@Getter
+public class TrackMetadata {
+
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final int bitrate; // <- kbps, average for VBR files
+    private final int durationMillis;
+    private final float replayGainDb;
+    private final float replayGainPeak; // <- linear, 1.0 is full scale
+
+    public TrackMetadata(String title, String artist, String album, int bitrate, int durationMillis) {
+        this(title, artist, album, bitrate, durationMillis, Float.NaN, Float.NaN);
+    }
+
+    public TrackMetadata(String title, String artist, String album, int bitrate, int durationMillis,
+                         float replayGainDb, float replayGainPeak) {
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.bitrate = bitrate;
+        this.durationMillis = durationMillis;
+        this.replayGainDb = replayGainDb;
+        this.replayGainPeak = replayGainPeak;
+    }
+
+    public boolean hasTitle() {
+        return !title.isEmpty();
+    }
+
+    public boolean hasReplayGain() {
+        return !Float.isNaN(replayGainDb);
+    }
+}
@@ -0,0 +1,98 @@
+package dev.staniszak.app.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * JDK Flight Recorder events of the player, emitted only with -Dplayer.jfrEvents=true (see PlayerMetrics).
+ * Record them with eg. java -Dplayer.jfrEvents=true -XX:StartFlightRecording=filename=player.jfr -jar ...
+ * and open the file in JDK Mission Control, next to GC pauses and thread states of the same moment.
+ */
+
+final class PlayerEvents {
+
+    private PlayerEvents() { }
+
+    @Name("dev.staniszak.app.TrackChange")
+    @Label("Track Change")
+    @Category("Audio Player")
+    @Description("From changeMedia() until the new track is ready to play")
+    @StackTrace(false)
+    static class TrackChange extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("dev.staniszak.app.TrackTransition")
+    @Label("Track Transition")
+    @Category("Audio Player")
+    @Description("From changeMedia() until the new track plays")
+    @StackTrace(false)
+    static class TrackTransition extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("dev.staniszak.app.FrameGap")
+    @Label("Frame Gap")
+    @Category("Audio Player")
+    @Description("FX thread skipped frames while a track was playing")
+    @StackTrace(false)
+    static class FrameGap extends Event {
+        @Label("Gap")
+        @Timespan(Timespan.NANOSECONDS)
+        long gap;
+
+        @Label("Missed Frames")
+        long missedFrames;
+    }
+
+    @Name("dev.staniszak.app.LibraryScan")
+    @Label("Library Scan")
+    @Category("Audio Player")
+    @StackTrace(false)
+    static class LibraryScan extends Event {
+        @Label("Scan Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long scanTime;
+
+        @Label("Directories")
+        int directories;
+
+        @Label("Tracks")
+        int tracks;
+
+        @Label("Cancelled")
+        boolean cancelled;
+    }
+
+    @Name("dev.staniszak.app.PlayerMetrics")
+    @Label("Player Metrics")
+    @Category("Audio Player")
+    @Period("1 s")
+    @StackTrace(false)
+    static class Metrics extends Event {
+        @Label("View Update P99 (ms)")
+        double viewUpdateP99Millis;
+
+        @Label("Spectrum Render P99 (ms)")
+        double spectrumRenderP99Millis;
+
+        @Label("Missed Frames")
+        long missedFrames;
+
+        @Label("Spectrum Updates")
+        long spectrumUpdates;
+
+        @Label("Spectrum Dropped")
+        long spectrumDropped;
+    }
+}
@@ -0,0 +1,427 @@
+package dev.staniszak.app.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.FlightRecorder;
+
+/*
+ * Runtime metrics of the player, so a stutter on a machine we cannot debug can be explained afterwards:
+ *   - track change and transition latency (MediaPlayerModel), time of every view update (PlaybackViewUpdater) and spectrum frame (SpectrumRenderer),
+ *   - frames the FX thread missed while playing, spectrum updates and how many of them were never drawn,
+ *   - library scan throughput (LibraryScanner), Track Table sorts and memory per track (TrackTable),
+ *   - commands of the remote control API, its event stream clients and the events they were too slow to take (RemoteControlServer),
+ *     heap and GC figures (read from the JVM when asked).
+ *
+ * Recording is static and allocation free (LongAdder counters and LatencyHistogram), it is always on.
+ * register() publishes the metrics as a JMX MXBean (see PlayerMetricsMXBean).
+ * With -Dplayer.jfrEvents=true the same moments are also JFR events (see PlayerEvents), they cost something only while a recording runs.
+ */
+
+public final class PlayerMetrics implements PlayerMetricsMXBean {
+
+    public static final String OBJECT_NAME = "dev.staniszak.app:type=PlayerMetrics";
+    private static final boolean JFR_EVENTS = Boolean.getBoolean("player.jfrEvents");
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    private static final PlayerMetrics INSTANCE = new PlayerMetrics();
+
+    private final LatencyHistogram trackChange = new LatencyHistogram();
+    private final LatencyHistogram trackTransition = new LatencyHistogram();
+    private final LatencyHistogram viewUpdate = new LatencyHistogram();
+    private final LatencyHistogram spectrumRender = new LatencyHistogram();
+    private final LongAdder missedFrames = new LongAdder();
+    private final LongAdder spectrumUpdates = new LongAdder();
+    private final LongAdder spectrumDropped = new LongAdder();
+    private final LongAdder scans = new LongAdder();
+    private final LongAdder scannedTracks = new LongAdder();
+    private volatile long lastScanNanos = 0;
+    private volatile int lastScanTracks = 0;
+    private final LatencyHistogram trackTableSort = new LatencyHistogram();
+    private volatile long trackTableTracks = 0;
+    private volatile long trackTableBytes = 0;
+    private final LatencyHistogram remoteCommand = new LatencyHistogram();
+    private volatile int remoteClients = 0;
+    private final LongAdder remoteEventsDropped = new LongAdder();
+
+    /* FX thread only. */
+    private long lastPulse = 0;
+    /* JMX thread only. */
+    private long rateUpdates = 0;
+    private long rateSince = System.nanoTime();
+
+    private boolean registered = false;
+
+    private PlayerMetrics() { }
+
+    public static PlayerMetrics get() {
+        return INSTANCE;
+    }
+
+    /* Publishes the MXBean (once) and, with -Dplayer.jfrEvents=true, the periodic JFR summary. Takes a while, call it off the FX thread. */
+    public static synchronized void register() {
+        if (INSTANCE.registered) {
+            return;
+        }
+        INSTANCE.registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        if (JFR_EVENTS) {
+            FlightRecorder.addPeriodicEvent(PlayerEvents.Metrics.class, () -> {
+                PlayerEvents.Metrics event = new PlayerEvents.Metrics();
+                event.viewUpdateP99Millis = INSTANCE.getViewUpdateP99Millis();
+                event.spectrumRenderP99Millis = INSTANCE.getSpectrumRenderP99Millis();
+                event.missedFrames = INSTANCE.getMissedFrames();
+                event.spectrumUpdates = INSTANCE.getSpectrumUpdates();
+                event.spectrumDropped = INSTANCE.getSpectrumDropped();
+                event.commit();
+            });
+        }
+    }
+
+    ////////Recording////////
+
+    public static void trackChanged(long nanos) {
+        INSTANCE.trackChange.record(nanos);
+        if (JFR_EVENTS) {
+            PlayerEvents.TrackChange event = new PlayerEvents.TrackChange();
+            if (event.shouldCommit()) {
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /* Until the new track plays, trackChanged() is reported earlier, when it is ready. */
+    public static void trackTransition(long nanos) {
+        INSTANCE.trackTransition.record(nanos);
+        if (JFR_EVENTS) {
+            PlayerEvents.TrackTransition event = new PlayerEvents.TrackTransition();
+            if (event.shouldCommit()) {
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    public static void viewUpdated(long nanos) {
+        INSTANCE.viewUpdate.record(nanos);
+    }
+
+    public static void spectrumRendered(long nanos) {
+        INSTANCE.spectrumRender.record(nanos);
+    }
+
+    /* dropped - previous update had not been drawn yet. */
+    public static void spectrumUpdated(boolean dropped) {
+        INSTANCE.spectrumUpdates.increment();
+        if (dropped) {
+            INSTANCE.spectrumDropped.increment();
+        }
+    }
+
+    /* Called with the pulse time of an AnimationTimer that runs while a track plays. A gap of more than 1.5 frames is a stutter. */
+    public static void pulse(long now) {
+        long last = INSTANCE.lastPulse;
+        INSTANCE.lastPulse = now;
+        if (last == 0) {
+            return;
+        }
+        long gap = now - last;
+        if (gap > FRAME_NANOS * 3 / 2) {
+            long missed = (gap + FRAME_NANOS / 2) / FRAME_NANOS - 1;
+            INSTANCE.missedFrames.add(missed);
+            if (JFR_EVENTS) {
+                PlayerEvents.FrameGap event = new PlayerEvents.FrameGap();
+                if (event.shouldCommit()) {
+                    event.gap = gap;
+                    event.missedFrames = missed;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /* Timer was stopped (paused track), the next pulse starts a new measurement. */
+    public static void pulsesStopped() {
+        INSTANCE.lastPulse = 0;
+    }
+
+    public static void scanFinished(int directories, int tracks, long nanos, boolean cancelled) {
+        INSTANCE.scans.increment();
+        INSTANCE.scannedTracks.add(tracks);
+        INSTANCE.lastScanTracks = tracks;
+        INSTANCE.lastScanNanos = nanos;
+        if (JFR_EVENTS) {
+            PlayerEvents.LibraryScan event = new PlayerEvents.LibraryScan();
+            if (event.shouldCommit()) {
+                event.scanTime = nanos;
+                event.directories = directories;
+                event.tracks = tracks;
+                event.cancelled = cancelled;
+                event.commit();
+            }
+        }
+    }
+
+    public static void trackTableSorted(long nanos) {
+        INSTANCE.trackTableSort.record(nanos);
+    }
+
+    /* Size of the TrackStore behind the Track Table, bytes as estimated by the store. */
+    public static void trackTableSize(long tracks, long bytes) {
+        INSTANCE.trackTableTracks = tracks;
+        INSTANCE.trackTableBytes = bytes;
+    }
+
+    /* Time of a remote command, from the request until the player thread has run it. */
+    public static void remoteCommand(long nanos) {
+        INSTANCE.remoteCommand.record(nanos);
+    }
+
+    public static void remoteClients(int clients) {
+        INSTANCE.remoteClients = clients;
+    }
+
+    /* Event the stream of a slow client had no room for, the oldest pending event was dropped. */
+    public static void remoteEventDropped() {
+        INSTANCE.remoteEventsDropped.increment();
+    }
+
+    ////////PlayerMetricsMXBean////////
+
+    @Override
+    public long getTrackChangeCount() {
+        return trackChange.getCount();
+    }
+
+    @Override
+    public double getTrackChangeMeanMillis() {
+        return trackChange.getMeanMillis();
+    }
+
+    @Override
+    public double getTrackChangeP99Millis() {
+        return trackChange.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getTrackChangeMaxMillis() {
+        return trackChange.getMaxMillis();
+    }
+
+    @Override
+    public long getTrackTransitionCount() {
+        return trackTransition.getCount();
+    }
+
+    @Override
+    public double getTrackTransitionMeanMillis() {
+        return trackTransition.getMeanMillis();
+    }
+
+    @Override
+    public double getTrackTransitionP99Millis() {
+        return trackTransition.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getTrackTransitionMaxMillis() {
+        return trackTransition.getMaxMillis();
+    }
+
+    @Override
+    public long getViewUpdateCount() {
+        return viewUpdate.getCount();
+    }
+
+    @Override
+    public double getViewUpdateMeanMillis() {
+        return viewUpdate.getMeanMillis();
+    }
+
+    @Override
+    public double getViewUpdateP99Millis() {
+        return viewUpdate.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getViewUpdateMaxMillis() {
+        return viewUpdate.getMaxMillis();
+    }
+
+    @Override
+    public long getSpectrumRenderCount() {
+        return spectrumRender.getCount();
+    }
+
+    @Override
+    public double getSpectrumRenderMeanMillis() {
+        return spectrumRender.getMeanMillis();
+    }
+
+    @Override
+    public double getSpectrumRenderP99Millis() {
+        return spectrumRender.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getSpectrumRenderMaxMillis() {
+        return spectrumRender.getMaxMillis();
+    }
+
+    @Override
+    public long getMissedFrames() {
+        return missedFrames.sum();
+    }
+
+    @Override
+    public long getSpectrumUpdates() {
+        return spectrumUpdates.sum();
+    }
+
+    @Override
+    public long getSpectrumDropped() {
+        return spectrumDropped.sum();
+    }
+
+    @Override
+    public synchronized double getSpectrumUpdateRate() {
+        long now = System.nanoTime();
+        long updates = spectrumUpdates.sum();
+        double rate = now == rateSince ? 0 : (updates - rateUpdates) * 1e9 / (now - rateSince);
+        rateUpdates = updates;
+        rateSince = now;
+        return rate;
+    }
+
+    @Override
+    public long getScans() {
+        return scans.sum();
+    }
+
+    @Override
+    public long getScannedTracks() {
+        return scannedTracks.sum();
+    }
+
+    @Override
+    public double getLastScanMillis() {
+        return lastScanNanos / 1e6;
+    }
+
+    @Override
+    public double getLastScanTracksPerSecond() {
+        long nanos = lastScanNanos;
+        return nanos == 0 ? 0 : lastScanTracks * 1e9 / nanos;
+    }
+
+    @Override
+    public long getTrackTableSortCount() {
+        return trackTableSort.getCount();
+    }
+
+    @Override
+    public double getTrackTableSortP99Millis() {
+        return trackTableSort.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getTrackTableSortMaxMillis() {
+        return trackTableSort.getMaxMillis();
+    }
+
+    @Override
+    public long getTrackTableTracks() {
+        return trackTableTracks;
+    }
+
+    @Override
+    public long getTrackTableBytesPerTrack() {
+        long tracks = trackTableTracks;
+        return tracks == 0 ? 0 : trackTableBytes / tracks;
+    }
+
+    @Override
+    public long getRemoteCommandCount() {
+        return remoteCommand.getCount();
+    }
+
+    @Override
+    public double getRemoteCommandP99Millis() {
+        return remoteCommand.getPercentileMillis(99);
+    }
+
+    @Override
+    public int getRemoteClients() {
+        return remoteClients;
+    }
+
+    @Override
+    public long getRemoteEventsDropped() {
+        return remoteEventsDropped.sum();
+    }
+
+    @Override
+    public long getHeapUsedMb() {
+        return heap().getUsed() >> 20;
+    }
+
+    @Override
+    public long getHeapCommittedMb() {
+        return heap().getCommitted() >> 20;
+    }
+
+    @Override
+    public long getHeapMaxMb() {
+        return heap().getMax() >> 20;
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static MemoryUsage heap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    @Override
+    public void reset() {
+        trackChange.reset();
+        trackTransition.reset();
+        viewUpdate.reset();
+        spectrumRender.reset();
+        missedFrames.reset();
+        spectrumUpdates.reset();
+        spectrumDropped.reset();
+        scans.reset();
+        scannedTracks.reset();
+        lastScanNanos = 0;
+        lastScanTracks = 0;
+        trackTableSort.reset();
+        remoteCommand.reset();
+        remoteEventsDropped.reset();
+    }
+}
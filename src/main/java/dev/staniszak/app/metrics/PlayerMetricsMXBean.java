@@ -0,0 +1,110 @@
+package dev.staniszak.app.metrics;
+
+/*
+ * What PlayerMetrics shows over JMX (jconsole, VisualVM, jmxterm...) as dev.staniszak.app:type=PlayerMetrics.
+ * Durations are in milliseconds.
+ */
+
+public interface PlayerMetricsMXBean {
+
+    ////////Track change: changeMedia() until the engine reports ready////////
+
+    long getTrackChangeCount();
+
+    double getTrackChangeMeanMillis();
+
+    double getTrackChangeP99Millis();
+
+    double getTrackChangeMaxMillis();
+
+    ////////Track transition: changeMedia() until the engine reports PLAYING////////
+
+    long getTrackTransitionCount();
+
+    double getTrackTransitionMeanMillis();
+
+    double getTrackTransitionP99Millis();
+
+    double getTrackTransitionMaxMillis();
+
+    ////////FX thread////////
+
+    long getViewUpdateCount();
+
+    double getViewUpdateMeanMillis();
+
+    double getViewUpdateP99Millis();
+
+    double getViewUpdateMaxMillis();
+
+    long getSpectrumRenderCount();
+
+    double getSpectrumRenderMeanMillis();
+
+    double getSpectrumRenderP99Millis();
+
+    double getSpectrumRenderMaxMillis();
+
+    /* Frames the FX thread did not deliver while a track was playing (gaps between pulses longer than a 60 fps frame). */
+    long getMissedFrames();
+
+    ////////Spectrum////////
+
+    long getSpectrumUpdates();
+
+    /* Spectrum updates that were replaced by a newer one before they could be drawn. */
+    long getSpectrumDropped();
+
+    /* Spectrum updates per second since the previous read of this attribute. */
+    double getSpectrumUpdateRate();
+
+    ////////Library scan////////
+
+    long getScans();
+
+    long getScannedTracks();
+
+    double getLastScanMillis();
+
+    double getLastScanTracksPerSecond();
+
+    ////////Track Table////////
+
+    long getTrackTableSortCount();
+
+    double getTrackTableSortP99Millis();
+
+    double getTrackTableSortMaxMillis();
+
+    long getTrackTableTracks();
+
+    /* Estimated bytes the TrackStore holds per track (columns, lookup table, string pool). */
+    long getTrackTableBytesPerTrack();
+
+    ////////Remote control////////
+
+    long getRemoteCommandCount();
+
+    double getRemoteCommandP99Millis();
+
+    /* Clients connected to the event stream. */
+    int getRemoteClients();
+
+    /* Events that were dropped because a client did not read them fast enough. */
+    long getRemoteEventsDropped();
+
+    ////////Memory////////
+
+    long getHeapUsedMb();
+
+    long getHeapCommittedMb();
+
+    long getHeapMaxMb();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    /* Clears histograms and counters (memory figures come from the JVM and stay). */
+    void reset();
+}
@@ -2,18 +2,47 @@ package dev.staniszak.app.model;
 
 import java.io.File;
 
+import dev.staniszak.app.audio.AudioEngine;
+import dev.staniszak.app.audio.JavaFxAudioEngine;
+import dev.staniszak.app.audio.PcmAudioEngine;
+import dev.staniszak.app.audio.RoutingAudioEngine;
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.metrics.PlayerMetrics;
 import dev.staniszak.app.utils.Utils;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
+import javafx.application.Platform;
 import javafx.util.Duration;
 
+/*
+ * Audio Player of the application. 
+ * Actual playing is done by an AudioEngine: JavaFX MediaPlayer in the application (or our own decoding pipeline with
+ * -Dplayer.engine=pcm, see PcmAudioEngine), FakeAudioEngine when the playback is simulated (see PlaybackSimulation).
+ * Formats JavaFX cannot play (FLAC, Ogg Vorbis) always go through our pipeline, RoutingAudioEngine picks the engine per track.
+ */
+
 public class MediaPlayerModel {
 
-    private MediaPlayer player;
+    private final AudioEngine engine;
     private Duration duration;
     private boolean repeat = false;
 
+    /* Track change latency, from changeMedia() until the engine reports ready and PLAYING (both go to PlayerMetrics). */
+    private long transitionStart = 0;
+    private long readyStart = 0;
+
     public MediaPlayerModel(String filepath) {
+        this(createEngine(), filepath);
+    }
+
+    /* Formats the preferred engine cannot play go to the other one (see RoutingAudioEngine). */
+    private static AudioEngine createEngine() {
+        if ("pcm".equals(System.getProperty("player.engine"))) {
+            return new RoutingAudioEngine(new PcmAudioEngine(Platform::runLater), new JavaFxAudioEngine(), true, FormatRegistry.SHARED);
+        }
+        return new RoutingAudioEngine(new JavaFxAudioEngine(), new PcmAudioEngine(Platform::runLater), false, FormatRegistry.SHARED);
+    }
+
+    public MediaPlayerModel(AudioEngine engine, String filepath) {
+        this.engine = engine;
         File lastPlayed = new File(filepath);
 
         /* If we cannot find the last track that played before closing application. 
@@ -25,14 +54,31 @@ public class MediaPlayerModel {
             this.duration = new Duration(0.0);     
         }
 
-        this.player = new MediaPlayer(new Media(lastPlayed.toURI().toString()));
-        this.setRepeatCycles();
+        this.engine.addListener(new AudioEngine.Listener() {
+            @Override
+            public void statusChanged(AudioEngine.Status status) {
+                if (status == AudioEngine.Status.PLAYING && transitionStart != 0) {
+                    PlayerMetrics.trackTransition(System.nanoTime() - transitionStart);
+                    transitionStart = 0;
+                }
+            }
+
+            @Override
+            public void ready() {
+                if (readyStart != 0) {
+                    PlayerMetrics.trackChanged(System.nanoTime() - readyStart);
+                    readyStart = 0;
+                }
+            }
+        });
+        this.engine.changeMedia(lastPlayed.getAbsolutePath(), false);
+        this.engine.setRepeat(repeat);
     }
 
     ////////Getters////////
 
-    public MediaPlayer GetPlayer() {
-        return this.player;
+    public AudioEngine getEngine() {
+        return this.engine;
     } 
 
     public Duration getDuration() {
@@ -45,39 +91,37 @@ public class MediaPlayerModel {
 
     public void setRepeat(boolean isrepeat) {
         this.repeat = isrepeat;
-        this.setRepeatCycles();
+        this.engine.setRepeat(isrepeat);
     }
     
     ////////Helpers Player////////
 
     public void seek(Duration duration) {
-       player.seek(duration);
+       engine.seek(duration.toMillis());
     }
 
+    /* Engine reports an unknown duration as NaN and a stream as infinity, Duration has its own constants for both. */
     public void updateDuration() {
-        this.duration = player.getMedia().getDuration();
-        // Duration can be null if media has no duration (eg. resources\no-tracks\default.mp3).  
-        if (this.duration == null) {
-            this.duration = new Duration(0.0);
+        double millis = engine.getDurationMillis();
+        if (Double.isNaN(millis)) {
+            this.duration = Duration.UNKNOWN;
+        } else if (Double.isInfinite(millis)) {
+            this.duration = Duration.INDEFINITE;
+        } else {
+            this.duration = Duration.millis(millis);
         }
     }
-     
-    public void setRepeatCycles() {
-        player.setCycleCount(repeat ? MediaPlayer.INDEFINITE : 1);
+
+    /* Engine opens the track that is going to play next, so changeMedia() can start it without a gap. */
+    public void preload(String filepath) {
+        engine.preload(filepath);
     }
 
+    /* Volume, repeat and spectrum settings are kept by the engine. */
     public void changeMedia(String filepath) {
-
-        Media selected_media = new Media( new File(filepath).toURI().toString());
-
-        Double volume = this.player.getVolume();
-        this.player.stop();
-        this.player.dispose();
-
-        this.player = new MediaPlayer(selected_media);
-        this.setRepeatCycles();
-        this.player.setVolume(volume); // <- keep volume settings.
-        this.player.play();
+        this.transitionStart = System.nanoTime();
+        this.readyStart = this.transitionStart;
+        engine.changeMedia(filepath, true);
     }
 
 }
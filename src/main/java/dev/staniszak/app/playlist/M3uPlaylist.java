@@ -0,0 +1,99 @@
+package dev.staniszak.app.playlist;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import dev.staniszak.app.metadata.TrackMetadata;
+
+/*
+ * Reads and writes M3U / M3U8 playlists.
+ *
+ * Reading accepts plain and extended (#EXTM3U) playlists: comment lines are skipped, entries can be absolute paths,
+ * paths relative to the playlist, or file: URIs. Entries that point to the web or to nothing we can parse are skipped.
+ * .m3u8 is UTF-8 by definition, plain .m3u is read as UTF-8 when it is valid UTF-8 and as Latin-1 otherwise (older players).
+ *
+ * Writing always produces an extended playlist in UTF-8, with #EXTINF lines when the metadata of the track is known.
+ * Tracks inside the playlist's directory are written relative to it, so the folder can be moved as a whole.
+ */
+
+public class M3uPlaylist {
+
+    private M3uPlaylist() { }
+
+    public static List<Path> read(Path playlist) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(playlist, StandardCharsets.UTF_8);
+        } catch (CharacterCodingException e) {
+            lines = Files.readAllLines(playlist, StandardCharsets.ISO_8859_1);
+        }
+
+        Path base = playlist.toAbsolutePath().getParent();
+        List<Path> tracks = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            String entry = line.strip();
+            if (entry.startsWith("\uFEFF")) {
+                entry = entry.substring(1).strip(); // <- byte order mark, strip() does not count it as white space
+            }
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            Path track = toPath(base, entry);
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        return tracks;
+    }
+
+    /* metadata gives tags of a track for the #EXTINF line, or null when they are not known. */
+    public static void write(Path playlist, List<Path> tracks, Function<Path, TrackMetadata> metadata) throws IOException {
+        Path base = playlist.toAbsolutePath().getParent();
+        Path temp = playlist.resolveSibling(playlist.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write("#EXTM3U");
+            out.newLine();
+            for (Path track : tracks) {
+                TrackMetadata tags = metadata.apply(track);
+                if (tags != null && tags.hasTitle()) {
+                    int seconds = tags.getDurationMillis() > 0 ? tags.getDurationMillis() / 1000 : -1;
+                    out.write("#EXTINF:" + seconds + ","
+                        + (tags.getArtist().isEmpty() ? "" : tags.getArtist() + " - ") + tags.getTitle());
+                    out.newLine();
+                }
+                Path absolute = track.toAbsolutePath();
+                out.write(base != null && absolute.startsWith(base) ? base.relativize(absolute).toString() : absolute.toString());
+                out.newLine();
+            }
+        }
+        Files.move(temp, playlist, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path toPath(Path base, String entry) {
+        try {
+            if (entry.regionMatches(true, 0, "file:", 0, 5)) {
+                return Path.of(URI.create(entry));
+            }
+            if (entry.contains("://")) {
+                return null; // <- stream URL
+            }
+            // Playlists written on Windows use backslashes.
+            if (base == null || !base.getFileSystem().getSeparator().equals("\\")) {
+                entry = entry.replace('\\', '/');
+            }
+            Path path = Path.of(entry);
+            return path.isAbsolute() || base == null ? path : base.resolve(path).normalize();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package dev.staniszak.app.playlist;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * What plays next. A flat list of tracks and the order in which they are played:
+ * order[step] is the index of the track played at that step, identity when shuffle is off, a permutation when it is on.
+ * Moving to the next or previous track is just step + 1 / step - 1, finding a track by its path is a hash lookup,
+ * so the queue does not care how big it is or how (and whether) the library is shown in File View.
+ *
+ * Tracks can be appended at any time (the library scan fills the queue while the user is already listening),
+ * with shuffle on, a new track gets a random place among the tracks that have not been played yet.
+ *
+ * Not thread safe, used on the JavaFX application thread.
+ */
+
+public class PlayQueue {
+
+    private final List<Path> tracks = new ArrayList<>();
+    private final Map<Path, Integer> indexOf = new HashMap<>(); // <- first occurrence of the track
+    private int[] order = new int[64];
+    private int[] stepOf = new int[64]; // <- inverse of order
+    private int position = -1;          // <- step that is playing, -1 before the first track
+    private boolean shuffle = false;
+    private boolean repeatAll = false;
+    private final Random random;
+
+    public PlayQueue() {
+        this(new Random());
+    }
+
+    public PlayQueue(Random random) {
+        this.random = random;
+    }
+
+    ////////Content////////
+
+    /* Replaces the whole queue, nothing is playing until next() or jumpTo(). */
+    public void setTracks(Collection<Path> newTracks) {
+        tracks.clear();
+        indexOf.clear();
+        position = -1;
+        addAll(newTracks);
+        if (shuffle) {
+            shuffleFrom(0);
+        }
+    }
+
+    public void addAll(Collection<Path> newTracks) {
+        for (Path track : newTracks) {
+            add(track);
+        }
+    }
+
+    public void add(Path track) {
+        int index = tracks.size();
+        tracks.add(track);
+        indexOf.putIfAbsent(track, index);
+        if (index == order.length) {
+            order = Arrays.copyOf(order, index * 2);
+            stepOf = Arrays.copyOf(stepOf, index * 2);
+        }
+        order[index] = index;
+        stepOf[index] = index;
+        if (shuffle && index > position + 1) {
+            swap(index, position + 1 + random.nextInt(index - position));
+        }
+    }
+
+    public void clear() {
+        setTracks(List.of());
+    }
+
+    /*
+     Drops tracks of the folder and of folders below it that are not in present (deleted or renamed on disk).
+     The rest keeps its place in the order, when the current track is dropped, next() goes on with the track that would have followed it.
+     */
+    public void retain(Path folder, Set<Path> present) {
+        int count = tracks.size();
+        int[] indexAfter = new int[count];
+        int kept = 0;
+        for (int index = 0; index < count; index++) {
+            Path track = tracks.get(index);
+            indexAfter[index] = track.startsWith(folder) && !present.contains(track) ? -1 : kept++;
+        }
+        if (kept == count) {
+            return;
+        }
+        List<Path> before = new ArrayList<>(tracks);
+        tracks.clear();
+        indexOf.clear();
+        for (int index = 0; index < count; index++) {
+            if (indexAfter[index] >= 0) {
+                tracks.add(before.get(index));
+                indexOf.putIfAbsent(before.get(index), indexAfter[index]);
+            }
+        }
+        int[] newOrder = new int[order.length];
+        int[] newStepOf = new int[stepOf.length];
+        int newPosition = -1;
+        for (int step = 0, newStep = 0; step < count; step++) {
+            int index = indexAfter[order[step]];
+            if (step == position) {
+                newPosition = index >= 0 ? newStep : newStep - 1;
+            }
+            if (index >= 0) {
+                newOrder[newStep] = index;
+                newStepOf[index] = newStep;
+                newStep++;
+            }
+        }
+        order = newOrder;
+        stepOf = newStepOf;
+        position = newPosition;
+    }
+
+    public boolean contains(Path track) {
+        return indexOf.containsKey(track);
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    /* Tracks in the order they were added (not the shuffled order). */
+    public List<Path> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    ////////Navigation////////
+
+    public Path current() {
+        return position < 0 || position >= tracks.size() ? null : tracks.get(order[position]);
+    }
+
+    /* Track that next() is going to return, without moving (for pre-buffering). */
+    public Path peekNext() {
+        int step = nextStep();
+        return step < 0 ? null : tracks.get(order[step]);
+    }
+
+    /* Moves to the next track. Null at the end of the queue, unless repeat all is on. */
+    public Path next() {
+        int step = nextStep();
+        if (step < 0) {
+            return null;
+        }
+        position = step;
+        return current();
+    }
+
+    /* Moves to the previous track. Null at the beginning of the queue, unless repeat all is on. */
+    public Path previous() {
+        if (tracks.isEmpty()) {
+            return null;
+        }
+        int step = position - 1;
+        if (step < 0) {
+            if (!repeatAll) {
+                return null;
+            }
+            step = tracks.size() - 1;
+        }
+        position = step;
+        return current();
+    }
+
+    /* Makes the track the current one. False if the track is not in the queue. */
+    public boolean jumpTo(Path track) {
+        Integer index = indexOf.get(track);
+        if (index == null) {
+            return false;
+        }
+        position = stepOf[index];
+        return true;
+    }
+
+    private int nextStep() {
+        if (tracks.isEmpty()) {
+            return -1;
+        }
+        int step = position + 1;
+        if (step >= tracks.size()) {
+            return repeatAll ? 0 : -1;
+        }
+        return step;
+    }
+
+    ////////Modes////////
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /*
+     Turning shuffle on keeps the current track where it is and shuffles everything after it.
+     Turning it off goes back to the original order, continuing from the current track.
+     */
+    public void setShuffle(boolean shuffle) {
+        if (this.shuffle == shuffle) {
+            return;
+        }
+        this.shuffle = shuffle;
+        int current = position < 0 ? -1 : order[position];
+        for (int i = 0; i < tracks.size(); i++) {
+            order[i] = i;
+            stepOf[i] = i;
+        }
+        if (shuffle) {
+            if (current >= 0) {
+                swap(0, current);
+                position = 0;
+            }
+            shuffleFrom(position + 1);
+        } else {
+            position = current;
+        }
+    }
+
+    public boolean isRepeatAll() {
+        return repeatAll;
+    }
+
+    /* With repeat all, the queue starts over after the last track. */
+    public void setRepeatAll(boolean repeatAll) {
+        this.repeatAll = repeatAll;
+    }
+
+    /* Fisher-Yates over the steps from first to the end. */
+    private void shuffleFrom(int first) {
+        for (int i = tracks.size() - 1; i > first; i--) {
+            swap(i, first + random.nextInt(i - first + 1));
+        }
+    }
+
+    private void swap(int a, int b) {
+        int trackA = order[a];
+        int trackB = order[b];
+        order[a] = trackB;
+        order[b] = trackA;
+        stepOf[trackB] = a;
+        stepOf[trackA] = b;
+    }
+}
@@ -0,0 +1,107 @@
+package dev.staniszak.app.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import dev.staniszak.app.metrics.PlayerMetrics;
+
+/*
+ * One client of GET /events (Server-Sent Events).
+ * The broadcaster only offers events, it never touches the socket: events wait in a small ring and the stream's own
+ * writer thread sends them. When the client does not keep up the ring fills, and the oldest pending event is dropped
+ * (a newer position and spectrum are right behind it anyway), so a slow client costs at most `capacity` events of memory
+ * and never holds back the broadcaster, the other clients or the player.
+ *
+ * A client that stops reading altogether blocks the writer thread in write() once the socket buffers are full.
+ * HttpServer cannot close one connection from another thread (HttpExchange.close() waits for the same write),
+ * so the thread stays there until the client goes away or the server stops. The server counts such streams
+ * against its maximum number of clients, they cannot pile up.
+ */
+
+class EventStream implements Runnable {
+
+    private final HttpExchange exchange;
+    private final Consumer<EventStream> onClosed;
+    private final byte[][] pending; // <- ring of events, shared with other streams, never changed
+    private int head = 0;
+    private int count = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    EventStream(HttpExchange exchange, int capacity, Consumer<EventStream> onClosed) {
+        this.exchange = exchange;
+        this.onClosed = onClosed;
+        this.pending = new byte[capacity][];
+    }
+
+    /* Called by the broadcaster, never blocks. */
+    synchronized void offer(byte[] event) {
+        if (closed) {
+            return;
+        }
+        if (count == pending.length) {
+            pending[head] = null;
+            head = (head + 1) % pending.length;
+            count--;
+            dropped++;
+            PlayerMetrics.remoteEventDropped();
+        }
+        pending[(head + count) % pending.length] = event;
+        count++;
+        notifyAll();
+    }
+
+    /* Writer thread stops after the events it is writing now, the connection itself is closed by the server. */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /* Writer thread: sends whatever is pending in one go, until the client goes away or the stream is closed. */
+    @Override
+    public void run() {
+        byte[][] batch = new byte[pending.length][];
+        try {
+            OutputStream out = exchange.getResponseBody();
+            int events;
+            while ((events = take(batch)) > 0) {
+                for (int i = 0; i < events; i++) {
+                    out.write(batch[i]);
+                    batch[i] = null;
+                }
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client has closed the connection (or the server is stopping), nothing to report.
+        } finally {
+            close();
+            exchange.close();
+            onClosed.accept(this);
+        }
+    }
+
+    /* Waits for events, moves all of them into the batch. 0 when the stream is closed. */
+    private synchronized int take(byte[][] batch) throws InterruptedException {
+        while (count == 0 && !closed) {
+            wait();
+        }
+        if (closed) {
+            return 0;
+        }
+        int events = count;
+        for (int i = 0; i < events; i++) {
+            batch[i] = pending[head];
+            pending[head] = null;
+            head = (head + 1) % pending.length;
+        }
+        count = 0;
+        return events;
+    }
+}
@@ -0,0 +1,45 @@
+package dev.staniszak.app.remote;
+
+import dev.staniszak.app.audio.AudioEngine;
+import lombok.Getter;
+
+/*
+ * What the player is doing, as the remote control API reports it (GET /status and the "state" events).
+ * Taken on the player thread, never changed afterwards. Times are in whole milliseconds, an unknown duration
+ * (or an endless stream) is -1, so the JSON stays plain numbers.
+ */
+
+@Getter
+public class PlayerState {
+
+    private final AudioEngine.Status status;
+    private final String track; // <- null before the first track
+    private final long positionMillis;
+    private final long durationMillis;
+    private final double volume;
+    private final boolean repeat;
+
+    public PlayerState(AudioEngine.Status status, String track, double positionMillis, double durationMillis, double volume, boolean repeat) {
+        this.status = status;
+        this.track = track;
+        this.positionMillis = Double.isFinite(positionMillis) ? Math.round(positionMillis) : 0;
+        this.durationMillis = Double.isFinite(durationMillis) ? Math.round(durationMillis) : -1;
+        this.volume = volume;
+        this.repeat = repeat;
+    }
+
+    /* The same JSON Jackson writes for GET /status, built by hand: the event stream writes one every tick. */
+    void appendJson(StringBuilder json) {
+        json.append("{\"status\":\"").append(status).append("\",\"track\":");
+        if (track == null) {
+            json.append("null");
+        } else {
+            RemoteControlServer.appendString(json, track);
+        }
+        json.append(",\"positionMillis\":").append(positionMillis)
+            .append(",\"durationMillis\":").append(durationMillis)
+            .append(",\"volume\":").append(volume)
+            .append(",\"repeat\":").append(repeat)
+            .append('}');
+    }
+}
@@ -0,0 +1,555 @@
+package dev.staniszak.app.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.utils.BackgroundExecutors;
+
+/*
+ * Local HTTP API to control the player from another program (kiosks run the player without anybody at the buttons).
+ * The controller starts it when -Dplayer.httpPort is set, it listens on -Dplayer.httpHost (127.0.0.1 by default,
+ * so the API is not reachable from the network unless asked for).
+ *
+ * Listening on localhost is not enough on its own, any web page open in a browser on the same machine can send requests to it:
+ *   - Host header must be localhost, an IP address or the host the server was started on. A page of evil.example that
+ *     re-resolves its own name to 127.0.0.1 (DNS rebinding) sends Host: evil.example and gets 403.
+ *   - POST with an Origin header (browsers send one with every cross-site POST) must come from the same host and port, 403 otherwise.
+ *   - With -Dplayer.httpToken set, every request needs the token, as "Authorization: Bearer <token>" or ?token=<token>
+ *     (browser EventSource cannot set headers), 401 otherwise. Set it whenever the API listens on the network.
+ *
+ *   GET  /status                     -> PlayerState as JSON
+ *   POST /play, /pause, /next, /previous
+ *   POST /seek?ms=90000
+ *   POST /volume?value=0.5
+ *   GET  /queue?offset=0&limit=100   -> {"size":..., "offset":..., "tracks":[...]}
+ *   POST /queue?add=/music/a.mp3     -> appends the track to the play queue
+ *   POST /queue?play=/music/a.mp3    -> plays the track of the queue
+ *   GET  /events                     -> text/event-stream of "state" events (position moves while playing),
+ *                                       "spectrum" events ({"bands":[dB, ...]}) and a keep-alive comment now and then
+ * Commands answer with the PlayerState after the command, errors with {"error": "..."}.
+ *
+ * Requests are handled by a small pool of threads (-Dplayer.httpThreads=4). Commands run on the player thread
+ * (Platform::runLater in the app), the request waits for them at most COMMAND_TIMEOUT_MILLIS (503 when the player is busy).
+ *
+ * Event stream: one broadcaster thread samples the player -Dplayer.httpEventHz times a second (a short task on the player
+ * thread, skipped while the previous one has not run yet), builds each event once and offers the same bytes to every client.
+ * Every client has its own bounded buffer and writer thread (see EventStream), at most -Dplayer.httpMaxClients of them.
+ * Nothing is sampled while nobody listens.
+ */
+
+public class RemoteControlServer {
+
+    private static final int THREADS = Integer.getInteger("player.httpThreads", 4);
+    private static final int EVENT_HZ = Integer.getInteger("player.httpEventHz", 10);
+    private static final int MAX_CLIENTS = Integer.getInteger("player.httpMaxClients", 512);
+    private static final int CLIENT_BUFFER = 32; // <- events waiting for a client, ~3 seconds of them
+    private static final long COMMAND_TIMEOUT_MILLIS = 2000;
+    private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long WRITER_STACK_BYTES = 256 * 1024;
+    private static final int BACKLOG = 1024;
+    private static final int DEFAULT_QUEUE_LIMIT = 100;
+    private static final int MAX_QUEUE_LIMIT = 5000;
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /* Runs on the player thread, with the decoded query parameters. Returns what goes back to the client as JSON. */
+    private interface Command {
+        Object run(Map<String, String> query);
+    }
+
+    /* What the broadcaster got from the player thread. */
+    private static class Sample {
+        final PlayerState state;
+        final float[] spectrum;
+
+        Sample(PlayerState state, float[] spectrum) {
+            this.state = state;
+            this.spectrum = spectrum;
+        }
+    }
+
+    private final RemotePlayer player;
+    private final Executor playerThread;
+    private final byte[] token; // <- null when no token is required
+    private final Map<String, Command> routes = new HashMap<>(); // <- "METHOD /path"
+    private final List<EventStream> clients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger streams = new AtomicInteger(); // <- writer threads still alive, stalled ones included
+    private final AtomicInteger streamIds = new AtomicInteger();
+    private final AtomicBoolean sampling = new AtomicBoolean();
+    private volatile Sample latest;
+    private volatile byte[] lastStateEvent; // <- sent to every new client first, so it knows the state without waiting for a change
+    private volatile boolean running = false;
+    private HttpServer server;
+    private String serverHost; // <- host name the server was started on, lower case
+    private ExecutorService requests;
+    private Thread broadcaster;
+
+    /* token may be null or empty, then requests are only checked for their Host and Origin. */
+    public RemoteControlServer(RemotePlayer player, Executor playerThread, String token) {
+        this.player = player;
+        this.playerThread = playerThread;
+        this.token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+
+        routes.put("GET /status", (query) -> player.getState());
+        routes.put("POST /play", (query) -> {
+            player.play();
+            return player.getState();
+        });
+        routes.put("POST /pause", (query) -> {
+            player.pause();
+            return player.getState();
+        });
+        routes.put("POST /next", (query) -> {
+            player.next();
+            return player.getState();
+        });
+        routes.put("POST /previous", (query) -> {
+            player.previous();
+            return player.getState();
+        });
+        routes.put("POST /seek", (query) -> {
+            player.seek(Math.max(0, number(query, "ms")));
+            return player.getState();
+        });
+        routes.put("POST /volume", (query) -> {
+            double volume = number(query, "value");
+            if (volume < 0 || volume > 1) {
+                throw new IllegalArgumentException("value must be in range [0.0, 1.0]");
+            }
+            player.setVolume(volume);
+            return player.getState();
+        });
+        routes.put("GET /queue", this::queue);
+        routes.put("POST /queue", (query) -> {
+            if (query.containsKey("add")) {
+                player.enqueue(Path.of(query.get("add")));
+            } else if (query.containsKey("play")) {
+                if (!player.playQueued(Path.of(query.get("play")))) {
+                    throw new IllegalArgumentException("track is not in the queue");
+                }
+            } else {
+                throw new IllegalArgumentException("add or play parameter is missing");
+            }
+            return player.getState();
+        });
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (running) {
+            return;
+        }
+        server = HttpServer.create(address, BACKLOG);
+        serverHost = address.getHostString().toLowerCase(Locale.ROOT);
+        requests = Executors.newFixedThreadPool(THREADS, BackgroundExecutors.daemonFactory("remote-http"));
+        server.setExecutor(requests);
+        server.createContext("/", this::handle);
+        server.start();
+        running = true;
+        broadcaster = new Thread(this::broadcast, "remote-events");
+        broadcaster.setDaemon(true);
+        broadcaster.start();
+    }
+
+    /* Closes every connection, stalled event streams included. */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (clients) {
+            clients.notifyAll();
+        }
+        for (EventStream client : clients) {
+            client.close();
+        }
+        server.stop(0);
+        requests.shutdownNow();
+    }
+
+    /* Address the server listens on (the actual port, when it was started on port 0). */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getClients() {
+        return clients.size();
+    }
+
+    ////////Requests////////
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String rejected = reject(exchange, method);
+        if (rejected != null) {
+            try {
+                boolean unauthorized = rejected.startsWith("token");
+                if (unauthorized) {
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                }
+                error(exchange, unauthorized ? 401 : 403, rejected);
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        if ("GET".equals(method) && "/events".equals(path)) {
+            openStream(exchange);
+            return;
+        }
+        try {
+            Command command = routes.get(method + " " + path);
+            if (command == null) {
+                boolean known = routes.containsKey("GET " + path) || routes.containsKey("POST " + path) || "/events".equals(path);
+                error(exchange, known ? 405 : 404, known ? "method not allowed" : "no such endpoint");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = CompletableFuture.supplyAsync(() -> command.run(query), playerThread)
+                    .get(COMMAND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The command still runs when the player gets to it, the client just does not wait for it.
+                error(exchange, 503, "player is busy");
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IllegalArgumentException) {
+                    error(exchange, 400, e.getCause().getMessage());
+                } else {
+                    e.printStackTrace();
+                    error(exchange, 500, String.valueOf(e.getCause()));
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error(exchange, 503, "server is stopping");
+                return;
+            }
+            PlayerMetrics.remoteCommand(System.nanoTime() - start);
+            respond(exchange, 200, objectMapper.writeValueAsBytes(result));
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage()); // <- malformed query
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /* Reason to turn the request away (see the class comment), null when it may go on. */
+    private String reject(HttpExchange exchange, String method) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host != null && !isAllowedHost(hostName(host))) {
+            return "host " + host + " is not allowed";
+        }
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (origin != null && !"GET".equals(method) && !isSameOrigin(origin, host)) {
+            return "origin " + origin + " is not allowed";
+        }
+        if (token != null) {
+            String given = exchange.getRequestHeaders().getFirst("Authorization");
+            if (given != null && given.startsWith("Bearer ")) {
+                given = given.substring("Bearer ".length()).trim();
+            } else {
+                try {
+                    given = parseQuery(exchange.getRequestURI().getRawQuery()).get("token");
+                } catch (IllegalArgumentException e) {
+                    given = null; // <- malformed query
+                }
+            }
+            // Constant time comparison, the time of a wrong answer says nothing about how much of the token was right.
+            if (given == null || !MessageDigest.isEqual(token, given.getBytes(StandardCharsets.UTF_8))) {
+                return "token is missing or wrong";
+            }
+        }
+        return null;
+    }
+
+    /* IP addresses are fine (a page cannot rebind a literal address), names only when they are ours. */
+    private boolean isAllowedHost(String name) {
+        return name.equals("localhost") || name.equals(serverHost) || name.startsWith("[") || IPV4.matcher(name).matches();
+    }
+
+    /* Origin of a browser page, e.g. http://localhost:8080, must name the same host and port as the Host header. */
+    private static boolean isSameOrigin(String origin, String host) {
+        if (host == null) {
+            return false;
+        }
+        try {
+            URI uri = new URI(origin);
+            if (uri.getHost() == null) {
+                return false; // <- "null" origin of sandboxed pages and local files
+            }
+            String originHost = uri.getHost().toLowerCase(Locale.ROOT);
+            int originPort = uri.getPort() >= 0 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+            int colon = host.lastIndexOf(':');
+            boolean hasPort = colon > host.lastIndexOf(']');
+            int hostPort = hasPort ? Integer.parseInt(host.substring(colon + 1)) : 80;
+            return originHost.equals(hostName(host)) && originPort == hostPort;
+        } catch (URISyntaxException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /* Host header without the port, lower case. */
+    private static String hostName(String host) {
+        int colon = host.lastIndexOf(':');
+        String name = colon > host.lastIndexOf(']') ? host.substring(0, colon) : host;
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private Object queue(Map<String, String> query) {
+        int offset = (int) Math.max(0, query.containsKey("offset") ? number(query, "offset") : 0);
+        int limit = (int) Math.min(MAX_QUEUE_LIMIT, Math.max(0, query.containsKey("limit") ? number(query, "limit") : DEFAULT_QUEUE_LIMIT));
+        List<String> tracks = new ArrayList<>();
+        for (Path track : player.getQueue(offset, limit)) {
+            tracks.add(track.toString());
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("size", player.getQueueSize());
+        page.put("offset", offset);
+        page.put("tracks", tracks);
+        return page;
+    }
+
+    private static double number(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException(name + " parameter is missing");
+        }
+        try {
+            double number = Double.parseDouble(value);
+            if (!Double.isFinite(number)) {
+                throw new NumberFormatException();
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number");
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void error(HttpExchange exchange, int code, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message == null ? "" : message);
+        respond(exchange, code, json.append('}').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /* JSON string literal, escaped. */
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    ////////Event stream////////
+
+    /* Response stays open after the handler returns, the stream's writer thread sends the events. */
+    private void openStream(HttpExchange exchange) {
+        if (streams.incrementAndGet() > MAX_CLIENTS) {
+            streams.decrementAndGet();
+            try {
+                error(exchange, 503, "too many event stream clients");
+            } catch (IOException e) {
+                // Client is gone already.
+            }
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        try {
+            exchange.sendResponseHeaders(200, 0);
+        } catch (IOException e) {
+            streams.decrementAndGet();
+            exchange.close();
+            return;
+        }
+        EventStream client = new EventStream(exchange, CLIENT_BUFFER, this::streamClosed);
+        byte[] state = lastStateEvent;
+        if (state != null) {
+            client.offer(state);
+        }
+        Thread writer = new Thread(null, client, "remote-events-client-" + streamIds.incrementAndGet(), WRITER_STACK_BYTES);
+        writer.setDaemon(true);
+        synchronized (clients) {
+            clients.add(client);
+            clients.notifyAll();
+        }
+        PlayerMetrics.remoteClients(clients.size());
+        writer.start();
+        if (!running) {
+            client.close(); // <- stop() has closed the others before this one was added
+        }
+    }
+
+    private void streamClosed(EventStream client) {
+        clients.remove(client);
+        streams.decrementAndGet();
+        PlayerMetrics.remoteClients(clients.size());
+    }
+
+    /* Broadcaster thread. */
+    private void broadcast() {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, EVENT_HZ);
+        StringBuilder json = new StringBuilder(2048);
+        Sample sent = null;
+        String sentState = null;
+        float[] sentSpectrum = null;
+        long lastOffer = System.nanoTime();
+        long next = System.nanoTime();
+        try {
+            while (running) {
+                synchronized (clients) {
+                    while (running && clients.isEmpty()) {
+                        clients.wait();
+                        next = System.nanoTime();
+                    }
+                }
+                requestSample();
+                next += interval;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } else {
+                    next = System.nanoTime(); // <- late (busy machine), the next tick is a whole interval away
+                }
+
+                Sample sample = latest;
+                if (sample != null && sample != sent) {
+                    sent = sample;
+                    json.setLength(0);
+                    sample.state.appendJson(json);
+                    String state = json.toString();
+                    if (!state.equals(sentState)) {
+                        sentState = state;
+                        byte[] event = event("state", state);
+                        lastStateEvent = event;
+                        offer(event);
+                        lastOffer = System.nanoTime();
+                    }
+                    if (sample.spectrum != null && !Arrays.equals(sample.spectrum, sentSpectrum)) {
+                        sentSpectrum = sample.spectrum;
+                        json.setLength(0);
+                        appendSpectrum(json, sample.spectrum);
+                        offer(event("spectrum", json));
+                        lastOffer = System.nanoTime();
+                    }
+                }
+                if (System.nanoTime() - lastOffer > KEEPALIVE_NANOS) {
+                    offer(KEEPALIVE); // <- connections of clients that went away fail here, even while nothing changes
+                    lastOffer = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Server stopped.
+        }
+    }
+
+    /* Player thread gets at most one sampling task at a time, a busy player is not flooded with them. */
+    private void requestSample() {
+        if (!sampling.compareAndSet(false, true)) {
+            return;
+        }
+        playerThread.execute(() -> {
+            try {
+                latest = new Sample(player.getState(), player.getSpectrum());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                sampling.set(false);
+            }
+        });
+    }
+
+    private void offer(byte[] event) {
+        for (EventStream client : clients) {
+            client.offer(event);
+        }
+    }
+
+    private static byte[] event(String name, CharSequence data) {
+        StringBuilder event = new StringBuilder(data.length() + name.length() + 16);
+        event.append("event: ").append(name).append("\ndata: ").append(data).append("\n\n");
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* Magnitudes with one decimal, which is more than the visualizer can show. */
+    private static void appendSpectrum(StringBuilder json, float[] magnitudes) {
+        json.append("{\"bands\":[");
+        for (int i = 0; i < magnitudes.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            int tenths = Math.round(magnitudes[i] * 10);
+            if (tenths < 0) {
+                json.append('-');
+                tenths = -tenths;
+            }
+            json.append(tenths / 10).append('.').append(tenths % 10);
+        }
+        json.append("]}");
+    }
+}
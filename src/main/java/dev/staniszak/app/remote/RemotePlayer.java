@@ -0,0 +1,48 @@
+package dev.staniszak.app.remote;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * What the remote control API (RemoteControlServer) can do with the player.
+ * Every method is called on the player thread (the executor given to the server, JavaFX application thread in the app),
+ * so implementations use the engine, Playback and the view directly, the same way the buttons do.
+ */
+
+public interface RemotePlayer {
+
+    PlayerState getState();
+
+    /* Magnitudes (dB) of the spectrum the visualizer shows right now, null when there is none. */
+    float[] getSpectrum();
+
+    ////////Transport////////
+
+    /* Starts or resumes playing, nothing happens when it is playing already. */
+    void play();
+
+    void pause();
+
+    /* False when the queue has no next (previous) track. */
+    boolean next();
+
+    boolean previous();
+
+    void seek(double millis);
+
+    /* Volume in range [0.0, 1.0]. */
+    void setVolume(double volume);
+
+    ////////Queue////////
+
+    int getQueueSize();
+
+    /* Tracks of the play queue in the order they were added, from offset on (at most limit of them). */
+    List<Path> getQueue(int offset, int limit);
+
+    /* Plays the track of the queue, false when it is not in the queue. */
+    boolean playQueued(Path track);
+
+    /* Appends the track to the play queue. IllegalArgumentException when it is not a playable track of the library. */
+    void enqueue(Path track);
+}
@@ -0,0 +1,381 @@
+package dev.staniszak.app.search;
+
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import dev.staniszak.app.metadata.TrackMetadata;
+
+/*
+ * In-memory inverted index of the library: every word of a file name, of the two folders above it
+ * and of its tags (title, artist, album) points to the tracks that contain it.
+ *
+ * Words are kept in a sorted map, so a query word matches every word it is a prefix of ("beat" finds "beatles").
+ * A query word that is not a prefix of anything is matched with a small edit distance ("beatels" finds "beatles").
+ * Every query word has to match, tracks that match more words exactly come first, otherwise they keep library order.
+ *
+ * Index is filled incrementally (tracks by the library scan, tags by the metadata service) and searched
+ * from a background thread. Writers and readers are separated by a read/write lock, so a search never sees half of an update.
+ *
+ * Updates stay cheap under the write lock: tags only link the words that are new for the track, and removed tracks
+ * are only marked dead (searches skip them), their ids are swept out of the postings in bulk once enough of them piled up.
+ */
+
+public class LibrarySearchIndex {
+
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final int MIN_SWEEP = 1024;
+
+    /* Growable list of track ids, in no particular order. */
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return;
+                }
+            }
+        }
+
+        void removeAll(BitSet dead) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!dead.get(ids[i])) {
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(ids[i]);
+            }
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+    private final List<Path> tracks = new ArrayList<>();      // <- track id -> path, null for removed tracks
+    private final List<String[]> trackWords = new ArrayList<>(); // <- track id -> its words, to undo them on removal
+    private final Map<Path, Integer> ids = new HashMap<>();
+    private final BitSet dead = new BitSet();                  // <- removed track ids still in postings
+    private int deadCount = 0;
+
+    ////////Updates////////
+
+    /* Adds the track (or replaces what we know about it). Metadata can be null when the tags have not been read yet. */
+    public void add(Path track, TrackMetadata metadata) {
+        String[] tokens = tokens(track, metadata);
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(track);
+            if (id == null) {
+                id = tracks.size();
+                tracks.add(track);
+                trackWords.add(tokens);
+                ids.put(track, id);
+                link(id, tokens);
+            } else {
+                relink(id, trackWords.get(id), tokens);
+                trackWords.set(id, tokens);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Tags arrived for a track that is already indexed. Unknown tracks are ignored (e.g. library was changed in the meantime). */
+    public void update(Path track, TrackMetadata metadata) {
+        lock.readLock().lock();
+        try {
+            if (!ids.containsKey(track)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        add(track, metadata);
+    }
+
+    public void remove(Path track) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(track);
+            if (id != null) {
+                tracks.set(id, null);
+                trackWords.set(id, null);
+                dead.set(id);
+                if (++deadCount >= Math.max(MIN_SWEEP, ids.size() / 8)) {
+                    sweep();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* Drops indexed tracks of the directory and its sub directories that are no longer there (directory changed on disk). */
+    public void retain(Path directory, Set<Path> present) {
+        List<Path> gone = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Path track : ids.keySet()) {
+                if (track.startsWith(directory) && !present.contains(track)) {
+                    gone.add(track);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Path track : gone) {
+            remove(track);
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            words.clear();
+            tracks.clear();
+            trackWords.clear();
+            ids.clear();
+            dead.clear();
+            deadCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void link(int id, String[] tokens) {
+        for (String token : tokens) {
+            words.computeIfAbsent(token, (key) -> new Postings()).add(id);
+        }
+    }
+
+    /* Only the difference: tags of a track usually add words, the words of its path stay. */
+    private void relink(int id, String[] before, String[] after) {
+        if (Arrays.equals(before, after)) {
+            return;
+        }
+        Set<String> old = new HashSet<>(Arrays.asList(before));
+        for (String token : after) {
+            if (!old.remove(token)) {
+                words.computeIfAbsent(token, (key) -> new Postings()).add(id);
+            }
+        }
+        for (String token : old) {
+            Postings postings = words.get(token);
+            if (postings != null) {
+                postings.remove(id);
+                if (postings.size == 0) {
+                    words.remove(token);
+                }
+            }
+        }
+    }
+
+    /* One pass over all postings drops the dead ids and the words that are left without tracks. */
+    private void sweep() {
+        words.values().removeIf((postings) -> {
+            postings.removeAll(dead);
+            return postings.size == 0;
+        });
+        dead.clear();
+        deadCount = 0;
+    }
+
+    ////////Search////////
+
+    /* Tracks that match every word of the query, best matches first, at most limit of them. */
+    public List<Path> search(String query, int limit) {
+        String[] terms = SEPARATOR.split(normalize(query));
+        List<String> nonEmpty = new ArrayList<>(terms.length);
+        for (String term : terms) {
+            if (!term.isEmpty()) {
+                nonEmpty.add(term);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            BitSet matched = null;
+            BitSet[] exact = new BitSet[nonEmpty.size()];
+            for (int i = 0; i < nonEmpty.size() && (matched == null || !matched.isEmpty()); i++) {
+                String term = nonEmpty.get(i);
+                exact[i] = new BitSet();
+                BitSet any = new BitSet();
+                Postings postings = words.get(term);
+                if (postings != null) {
+                    postings.addTo(exact[i]);
+                }
+                for (Postings prefixed : prefixed(term).values()) {
+                    prefixed.addTo(any);
+                }
+                any.andNot(dead);
+                if (any.isEmpty()) {
+                    fuzzy(term, any);
+                    any.andNot(dead);
+                }
+                if (matched == null) {
+                    matched = any;
+                } else {
+                    matched.and(any);
+                }
+            }
+            if (matched == null || matched.isEmpty()) {
+                return List.of();
+            }
+            return rank(matched, exact, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NavigableMap<String, Postings> prefixed(String term) {
+        return words.subMap(term, true, term + Character.MAX_VALUE, false);
+    }
+
+    /* Tracks are bucketed by the number of exactly matched words, library order is kept inside a bucket. */
+    private List<Path> rank(BitSet matched, BitSet[] exact, int limit) {
+        @SuppressWarnings("unchecked")
+        List<Path>[] buckets = new List[exact.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) {
+            int score = 0;
+            for (BitSet set : exact) {
+                if (set != null && set.get(id)) {
+                    score++;
+                }
+            }
+            if (buckets[score].size() < limit) {
+                buckets[score].add(tracks.get(id));
+            }
+        }
+        List<Path> result = new ArrayList<>(limit);
+        for (int score = buckets.length - 1; score >= 0 && result.size() < limit; score--) {
+            for (Path track : buckets[score]) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(track);
+            }
+        }
+        return result;
+    }
+
+    /* Words that start with something close to the term: one typo for short terms, two for longer ones. */
+    private void fuzzy(String term, BitSet into) {
+        if (term.length() < 3) {
+            return;
+        }
+        int maxDistance = term.length() < 6 ? 1 : 2;
+        int[] previous = new int[term.length() + maxDistance + 2];
+        int[] current = new int[previous.length];
+        for (Map.Entry<String, Postings> entry : words.entrySet()) {
+            String word = entry.getKey();
+            if (word.length() + maxDistance >= term.length()
+                && prefixDistance(term, word, maxDistance, previous, current) <= maxDistance) {
+                entry.getValue().addTo(into);
+            }
+        }
+    }
+
+    /*
+     Smallest edit distance between the term and any prefix of the word (so a half typed, misspelled word still matches).
+     Rows of the dynamic programming table go over the word, we stop as soon as every cell of a row is above the limit.
+     */
+    static int prefixDistance(String term, String word, int limit, int[] previous, int[] current) {
+        int m = term.length();
+        int n = Math.min(word.length(), m + limit);
+        for (int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+        int best = previous[m];
+        for (int j = 1; j <= n; j++) {
+            current[0] = j;
+            int rowMin = current[0];
+            char w = word.charAt(j - 1);
+            for (int i = 1; i <= m; i++) {
+                int cost = term.charAt(i - 1) == w ? 0 : 1;
+                current[i] = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+                rowMin = Math.min(rowMin, current[i]);
+            }
+            best = Math.min(best, current[m]);
+            if (rowMin > limit) {
+                break;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return best;
+    }
+
+    ////////Tokens////////
+
+    private static String[] tokens(Path track, TrackMetadata metadata) {
+        StringBuilder text = new StringBuilder(128);
+        String name = track.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        text.append(extension > 0 ? name.substring(0, extension) : name);
+
+        Path folder = track.getParent();
+        for (int i = 0; i < 2 && folder != null && folder.getFileName() != null; i++, folder = folder.getParent()) {
+            text.append(' ').append(folder.getFileName());
+        }
+        if (metadata != null) {
+            text.append(' ').append(metadata.getTitle())
+                .append(' ').append(metadata.getArtist())
+                .append(' ').append(metadata.getAlbum());
+        }
+        return Arrays.stream(SEPARATOR.split(normalize(text.toString())))
+            .filter((token) -> !token.isEmpty())
+            .distinct()
+            .toArray(String[]::new);
+    }
+
+    /* Lower case without accents, so "Bjork" finds "Björk". Root locale: with a Turkish default "TITLE" would become "tıtle". */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
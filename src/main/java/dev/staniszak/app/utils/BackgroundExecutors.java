@@ -0,0 +1,35 @@
+package dev.staniszak.app.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Shared worker threads for everything that must stay off the JavaFX application thread
+ * (file system walks, disk IO, parsing).
+ * All threads are daemons, so an unfinished background job never keeps the application alive after the window is closed.
+ */
+
+public class BackgroundExecutors {
+
+    private static final ExecutorService IO_POOL = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())), daemonFactory("io-worker"));
+
+    private BackgroundExecutors() { }
+
+    /* Pool for blocking IO work (directory listings, reading files). */
+    public static ExecutorService io() {
+        return IO_POOL;
+    }
+
+    /* Creates named daemon threads, so the worker shows up with a meaningful name in a thread dump. */
+    public static ThreadFactory daemonFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
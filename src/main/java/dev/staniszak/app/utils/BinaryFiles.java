@@ -0,0 +1,68 @@
+package dev.staniszak.app.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/*
+ * Reading and writing of the binary files the player keeps in data/ (LibraryIndex, MetadataCache, ContentIndex, WaveformCache).
+ *
+ * Files are read into memory in one go, not memory mapped: all of them are replaced on save,
+ * and on Windows a file cannot be replaced while a mapping of it is open (until the mapping is garbage collected).
+ * A save writes a temporary file next to the real one and moves it over in one step,
+ * so a crash or a reader never sees half of a file.
+ *
+ * string = unsigned short length + UTF-8 bytes
+ */
+
+public class BinaryFiles {
+
+    public static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /* Writes the content of a file, see replace(). */
+    public interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private BinaryFiles() { }
+
+    public static ByteBuffer read(Path file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+
+    /* The temporary file is per thread, so two saves running at the same time do not write into each other's file. */
+    public static void replace(Path file, Content content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            content.write(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* Whether the string can be written whole. Cheap for the usual short ones: a char takes at most 3 bytes of UTF-8. */
+    public static boolean fits(String value) {
+        return value.length() <= MAX_STRING_BYTES / 3 || value.getBytes(StandardCharsets.UTF_8).length <= MAX_STRING_BYTES;
+    }
+
+    /* Strings that do not fit are cut, callers that cannot live with that (paths) check fits() first. */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    /* Scratch is used for strings that fit in it, so reading a whole file does not allocate a byte array per string. */
+    public static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
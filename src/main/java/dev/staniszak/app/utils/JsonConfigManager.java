@@ -2,7 +2,14 @@ package dev.staniszak.app.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -11,6 +18,11 @@ import lombok.Getter;
 
 /* Class works with files that are located in the working directory but not packaged inside a jar or exe.
  * Responsible for creating, reading, and writing files. 
+ *
+ * User config is also the session state (last track, position, volume, queue...), so it is saved while the app runs,
+ * not only on close: saveConfigLater() keeps the newest snapshot and writes it on the "config-writer" thread
+ * SAVE_DELAY_MILLIS after the first change, however many changes come in between (write-behind).
+ * Every write goes to a temporary file that is then renamed over user.json, a crash or a kill never leaves half of a config.
  */
 
 public class JsonConfigManager {
@@ -18,16 +30,78 @@ public class JsonConfigManager {
     private static final String CONFIG_FILE_PATH = "data/configs/user.json"; // <- user settings
     @Getter 
     private static final String LIB_FILE_PATH = "data/default-audio-lib"; 
+    @Getter 
+    private static final String INDEX_FILE_PATH = "data/configs/library.idx"; // <- binary library index, see LibraryIndex
+    @Getter 
+    private static final String METADATA_CACHE_PATH = "data/configs/metadata.cache"; // <- parsed tags, see MetadataCache
+    @Getter 
+    private static final String WAVEFORM_CACHE_PATH = "data/waveforms"; // <- one file per track, see WaveformCache
+    @Getter 
+    private static final String DUPLICATES_INDEX_PATH = "data/configs/duplicates.idx"; // <- hashes and fingerprints, see ContentIndex
+
+    private static final long SAVE_DELAY_MILLIS = 3000;
 
     private static ObjectMapper objectMapper = new ObjectMapper();
+    private static final AtomicReference<UserConfig> pendingConfig = new AtomicReference<>();
+    private static final ScheduledExecutorService CONFIG_WRITER = 
+        Executors.newSingleThreadScheduledExecutor(BackgroundExecutors.daemonFactory("config-writer"));
 
     /* We are using Jackson ObjectMapper to save and load user settings.*/
     public static UserConfig loadConfig() throws IOException {
         return objectMapper.readValue(new File(JsonConfigManager.getExternalFile(CONFIG_FILE_PATH)), UserConfig.class);
     }
     
-    public static void saveConfig(UserConfig config) throws IOException {
-        objectMapper.writeValue(new File(JsonConfigManager.getExternalFile(CONFIG_FILE_PATH)), config);
+    /* Writes the config right away (temporary file + rename). */
+    public static synchronized void saveConfig(UserConfig config) throws IOException {
+        Path file = Paths.get(JsonConfigManager.getExternalFile(CONFIG_FILE_PATH));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.getParent());
+        objectMapper.writeValue(temp.toFile(), config);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* 
+    Write-behind save. The config is copied, so the caller can keep changing its own instance. 
+    Only the first call of a burst schedules a write, the following ones just replace the snapshot that will be written.
+    */
+    public static void saveConfigLater(UserConfig config) {
+        if (pendingConfig.getAndSet(new UserConfig(config)) == null) {
+            CONFIG_WRITER.schedule(JsonConfigManager::writePendingConfig, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* Writes the pending snapshot now (e.g. when the application is closing). */
+    public static void flushConfig() {
+        writePendingConfig();
+    }
+
+    private static synchronized void writePendingConfig() {
+        UserConfig config = pendingConfig.getAndSet(null);
+        if (config == null) {
+            return;
+        }
+        try {
+            saveConfig(config);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Library index lives next to the user settings. It is not JSON, we only manage its location. */
+    public static Path getLibraryIndexPath() {
+        return Paths.get(getExternalFile(INDEX_FILE_PATH));
+    }
+
+    public static Path getMetadataCachePath() {
+        return Paths.get(getExternalFile(METADATA_CACHE_PATH));
+    }
+
+    public static Path getWaveformCachePath() {
+        return Paths.get(getExternalFile(WAVEFORM_CACHE_PATH));
+    }
+
+    public static Path getDuplicatesIndexPath() {
+        return Paths.get(getExternalFile(DUPLICATES_INDEX_PATH));
     }
 
     /* Create a file, and any parent directory, if the file does not exist.*/ 
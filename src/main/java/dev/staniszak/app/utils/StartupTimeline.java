@@ -0,0 +1,57 @@
+package dev.staniszak.app.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Timeline of the startup: every phase is marked with the time since main() was entered.
+ * Phases are marked once, later marks of the same phase are ignored (e.g. "ready-to-play" is the first player that gets ready).
+ *
+ * With -Dplayer.logStartup=true every mark is printed as it happens, "startup: <phase> <millis> ms",
+ * StartupBenchmark reads exactly these lines.
+ * Time the JVM needed to get to main() is printed too (as "jvm-to-main"), when the OS tells us when the process started.
+ */
+
+public class StartupTimeline {
+
+    private static final long START_NANOS = System.nanoTime();
+    private static final boolean LOG = Boolean.getBoolean("player.logStartup");
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    private StartupTimeline() { }
+
+    /* Called first thing in main(), so the class (and START_NANOS) is initialized there. */
+    public static void start() {
+        if (LOG) {
+            ProcessHandle.current().info().startInstant().ifPresent((processStart) -> 
+                System.out.println("startup: jvm-to-main " + Duration.between(processStart, Instant.now()).toMillis() + " ms"));
+        }
+        mark("main");
+    }
+
+    public static synchronized void mark(String phase) {
+        if (PHASES.containsKey(phase)) {
+            return;
+        }
+        long millis = (System.nanoTime() - START_NANOS) / 1_000_000;
+        PHASES.put(phase, millis);
+        if (LOG) {
+            System.out.println("startup: " + phase + " " + millis + " ms");
+        }
+    }
+
+    public static synchronized boolean isMarked(String phase) {
+        return PHASES.containsKey(phase);
+    }
+
+    /* All phases so far, one per line. */
+    public static synchronized String report() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Long> phase : PHASES.entrySet()) {
+            out.append(String.format("%-20s %6d ms%n", phase.getKey(), phase.getValue()));
+        }
+        return out.toString();
+    }
+}
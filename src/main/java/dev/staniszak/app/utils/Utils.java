@@ -8,7 +8,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 
-import javafx.scene.control.TreeItem;
 import javafx.util.Duration;
 
 /*
@@ -24,90 +23,56 @@ public class Utils {
     /* Helper method that formats time into the appropriate format for the view */
 
     public static String formatTime(Duration played, Duration total) {
-        // By default duration is in mills, so we turn them into minutes.
-        int playedMinutes = (int)Math.floor(played.toMinutes());
-        int totalMinutes = (int)Math.floor(total.toMinutes());
-
-        int playedHours = (int)Math.floor(played.toHours());// <- get number of played hours
-        int totalHours = (int)Math.floor(total.toHours());
-
-        if (totalHours > 0) {
-            totalMinutes -= totalHours * 60; // <- if track goes more than an hour, remove minutes from total time.
-            if (playedHours > 0) {
-                playedMinutes -= playedHours * 60;  
-            }
-        } 
-
-        // Get seconds
-        int playedSeconds = (int)Math.floor(played.toSeconds()) - playedMinutes * 60;
-        int totalSeconds = (int)Math.floor(total.toSeconds()) - totalMinutes * 60;
+        StringBuilder out = new StringBuilder(24);
+        // By default duration is in mills, so we turn them into seconds.
+        formatTime(out, (long)Math.floor(played.toSeconds()), (long)Math.floor(total.toSeconds()));
+        return out.toString();
+    }
 
-        if (totalHours > 0) {
-            return String.format("%d:%02d:%02d/%d:%02d:%02d", 
-                playedHours, playedMinutes, playedSeconds,
-                totalHours, totalMinutes, totalSeconds);
+    /* 
+    Same format, but appended to a StringBuilder that the caller can reuse, 
+    so updating the play time label does not go through String.format every time.
+    eg. 01:05/03:20, or 0:01:05/1:03:20 if the track goes more than an hour.
+    */
+    public static void formatTime(StringBuilder out, long playedSeconds, long totalSeconds) {
+        if (totalSeconds >= 3600) {
+            appendHours(out, playedSeconds);
+            out.append('/');
+            appendHours(out, totalSeconds);
         } else {
-            return String.format("%02d:%02d/%02d:%02d",
-                playedMinutes, playedSeconds, totalMinutes, 
-                totalSeconds);
+            appendTwoDigits(out, playedSeconds / 60);
+            out.append(':');
+            appendTwoDigits(out, playedSeconds % 60);
+            out.append('/');
+            appendTwoDigits(out, totalSeconds / 60);
+            out.append(':');
+            appendTwoDigits(out, totalSeconds % 60);
         }
     }
 
-    /*
-    Builds a Tree of the TreeItem<String> from passed in directory.  
-    When first called, marks root directory with a star - " \u2605".
-    Marking root directory makes some search algorithms (eg. findStarNode()) easier to implement, also it looks nice.
-    */     
-
-     public static TreeItem<String> getNodesForDirectory(File directory, boolean isParent) {
-        TreeItem<String> root = new TreeItem<String>(directory.getName());
-        if (isParent) {
-          root.setValue(directory.getName() + " \u2605");
-        }
-        for(File f : directory.listFiles()) {
-            System.out.println("Loading " + f.getName());
-            if(f.isDirectory() && f.listFiles().length > 0) { // Then we call the function recursively
-                root.getChildren().add(getNodesForDirectory(f, false));
-            } else {
-                if (f.getName().endsWith(".mp3")) { // We are interested only in .mp3 files. 
-                root.getChildren().add(new TreeItem<String>(f.getName()));
-                }
-            }
-        }
-        return root;
-     }
-     
-     /*  
-     We make use of the filenames inside TreeItem<String> to build path 
-     from the selected TreeItem up to the root directory and return it.  
-     Combining this path with root directory absolute path, 
-     can give us an absolute path to the any .mp3 file, even when working with complicated file structure.
-     */
-     
-     public static String findStarNode(TreeItem<String> parent, String toReturn) {
-
-        if ( parent.getValue().contains(" \u2605")) {
-            return "\\" + toReturn; 
+    /* Length of a track on its own, eg. 03:20 or 1:03:20. */
+    public static void formatDuration(StringBuilder out, long seconds) {
+        if (seconds >= 3600) {
+            appendHours(out, seconds);
         } else {
-            return findStarNode(parent.getParent(), parent.getValue() + "\\" + toReturn);
+            appendTwoDigits(out, seconds / 60);
+            out.append(':');
+            appendTwoDigits(out, seconds % 60);
         }
+    }
 
-     }
+    private static void appendHours(StringBuilder out, long seconds) {
+        out.append(seconds / 3600).append(':');
+        appendTwoDigits(out, seconds / 60 % 60);
+        out.append(':');
+        appendTwoDigits(out, seconds % 60);
+    }
 
-     /* Searches for the TreeItem that contains exact filename.
-        We use it to search File navigation menu (File View) for the last played track.      
-     */
-     public static TreeItem<String> findTreeItemByValue(TreeItem<String> root, String value) {
-        if (root.getValue().equals(value)) {
-            return root;
-        }
-        for (TreeItem<String> child : root.getChildren()) {
-            TreeItem<String> result = findTreeItemByValue(child, value);
-            if (result != null) {
-                return result;
-            }
+    private static void appendTwoDigits(StringBuilder out, long value) {
+        if (value < 10) {
+            out.append('0');
         }
-        return null;
+        out.append(value);
     }
 
     public static String getFileName(String lastPlayed) {
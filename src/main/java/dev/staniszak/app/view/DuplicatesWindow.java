@@ -0,0 +1,121 @@
+package dev.staniszak.app.view;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import dev.staniszak.app.duplicates.DuplicateFinder;
+import dev.staniszak.app.duplicates.DuplicateGroup;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import lombok.Getter;
+
+/*
+ * Window of Tools > Find Duplicates: progress of the job and the duplicate groups it has found.
+ * Every group is a tree item with its tracks (full paths) under it. The controller starts and stops the job,
+ * closing the window only hides it, the job keeps running in the background.
+ */
+
+@Getter
+public class DuplicatesWindow {
+
+    private Stage stage;
+    private Label status;
+    private Button stopButton;
+    private Button startButton;
+    private TreeView<String> groups;
+
+    public DuplicatesWindow(Stage owner) {
+        status = new Label("");
+        status.setMinWidth(0);
+
+        startButton = new Button("Start");
+        stopButton = new Button("Stop");
+        stopButton.setDisable(true);
+
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox bar = new HBox(10, status, spacer, startButton, stopButton);
+        bar.setAlignment(Pos.CENTER_LEFT);
+
+        groups = new TreeView<>(new TreeItem<>(""));
+        groups.setShowRoot(false);
+        VBox.setVgrow(groups, Priority.ALWAYS);
+
+        VBox root = new VBox(10, bar, groups);
+        root.setPadding(new Insets(10));
+
+        stage = new Stage();
+        stage.initOwner(owner);
+        stage.setTitle("Duplicates");
+        stage.setScene(new Scene(root, 720, 480));
+    }
+
+    public void show() {
+        stage.show();
+        stage.toFront();
+    }
+
+    /* Job is running (Stop) or not (Start, which resumes where a stopped job was). */
+    public void setRunning(boolean running) {
+        startButton.setDisable(running);
+        stopButton.setDisable(!running);
+    }
+
+    public void showProgress(DuplicateFinder.Stage stage, int done, int total) {
+        String what;
+        switch (stage) {
+            case FILES:
+                what = "Reading file sizes";
+                break;
+            case QUICK_HASH:
+                what = "Comparing files of the same size";
+                break;
+            case FULL_HASH:
+                what = "Hashing candidates";
+                break;
+            case FINGERPRINT:
+                what = "Listening to tracks";
+                break;
+            default:
+                what = "Comparing fingerprints";
+        }
+        status.setText(what + ": " + done + " / " + total);
+    }
+
+    public void showGroups(List<DuplicateGroup> found) {
+        TreeItem<String> root = groups.getRoot();
+        root.getChildren().clear();
+        long wasted = 0;
+        for (DuplicateGroup group : found) {
+            String label = group.getKind() == DuplicateGroup.Kind.IDENTICAL
+                ? String.format(Locale.ROOT, "Identical files: %d x %.1f MB", group.getTracks().size(), group.getSize() / 1e6)
+                : "Same recording: " + group.getTracks().size() + " tracks";
+            TreeItem<String> item = new TreeItem<>(label);
+            for (Path track : group.getTracks()) {
+                item.getChildren().add(new TreeItem<>(track.toString()));
+            }
+            item.setExpanded(true);
+            root.getChildren().add(item);
+            wasted += group.getWastedBytes();
+        }
+        status.setText(found.isEmpty() ? "No duplicates found"
+            : String.format(Locale.ROOT, "%d groups, %.1f MB in identical copies", found.size(), wasted / 1e6));
+    }
+
+    /* Track of the selected item, null when a group (or nothing) is selected. */
+    public Path getSelectedTrack() {
+        TreeItem<String> item = groups.getSelectionModel().getSelectedItem();
+        return item == null || !item.isLeaf() || item.getParent() == groups.getRoot() ? null : Path.of(item.getValue());
+    }
+}
@@ -1,20 +1,28 @@
 package dev.staniszak.app.view;
 
+import java.nio.file.Path;
+
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.Slider;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TreeView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import lombok.Getter;
 
@@ -25,12 +33,26 @@ public class MediaPlayerView {
     private Canvas canvas;
     private Pane mediaPane;
     private MenuBar menuBar;
+    private MenuItem importPlaylistItem;
+    private MenuItem exportPlaylistItem;
+    private CheckMenuItem shuffleItem;
+    private CheckMenuItem repeatAllItem;
     private TreeView<String> fileView;
+    private TableView<Integer> trackTable; // <- flat view of the library, shown instead of File View (see TrackTable)
+    private CheckMenuItem trackTableItem;
+    private MenuItem findDuplicatesItem;
+    private TextField searchField;
+    private ListView<Path> searchResults;
+    private VBox libraryPane; // <- search box, search results and File View
     private Button playButton;
+    private Button previousButton;
+    private Button nextButton;
     private Button repeatButton;
     private Slider durationSlider;
+    private Canvas waveformCanvas; // <- behind the duration slider, see WaveformRenderer
     private Label playTime; 
     private Slider volumeSlider;
+    private Label scanStatus;
 
 
     public MediaPlayerView() {
@@ -42,6 +64,15 @@ public class MediaPlayerView {
         playButton.setMinWidth(50);
         playButton.setStyle("-fx-padding: 5px 10px; -fx-background-radius: 5px;");
 
+        // Previous and next track in the play queue
+        previousButton = new Button("<<");
+        previousButton.setMinWidth(35);
+        previousButton.setStyle("-fx-padding: 5px 10px; -fx-background-radius: 5px;");
+
+        nextButton = new Button(">>");
+        nextButton.setMinWidth(35);
+        nextButton.setStyle("-fx-padding: 5px 10px; -fx-background-radius: 5px;");
+
         // Repeat track button
         this.repeatButton = new Button("Repeat Song");
         repeatButton.setMinWidth(60);
@@ -63,10 +94,15 @@ public class MediaPlayerView {
         Label volumeLabel = new Label("Vol: ");
         volumeLabel.setMinWidth(30);
 
+        // Library scan progress label
+        scanStatus = new Label("");
+        scanStatus.setMinWidth(0);
+        scanStatus.getStyleClass().add("scan-status");
+        HBox.setMargin(scanStatus, new Insets(5, 20, 0, 0));
+
         ////////Sliders////////
 
         this.durationSlider =  new Slider();
-        HBox.setHgrow(durationSlider,Priority.ALWAYS);
         /* By default the value of the slider is in range [0.0-100.0].
            MediaPlayer accepts some values (such as volume) in range [0.0-1.0].
            We setMax() slider to match MediaPlayer.
@@ -77,6 +113,17 @@ public class MediaPlayerView {
         durationSlider.setMaxWidth(Double.MAX_VALUE);
         this.durationSlider.getStyleClass().add("duration-slider");
 
+        // Waveform of the track is drawn under the slider, its track is transparent (see mediaplayer.css).
+        this.waveformCanvas = new Canvas();
+        this.waveformCanvas.setMouseTransparent(true);
+        StackPane durationPane = new StackPane(waveformCanvas, durationSlider);
+        durationPane.setMinWidth(50);
+        durationPane.setMinHeight(28);
+        durationPane.getStyleClass().add("duration-pane");
+        this.waveformCanvas.widthProperty().bind(durationPane.widthProperty());
+        this.waveformCanvas.heightProperty().bind(durationPane.heightProperty());
+        HBox.setHgrow(durationPane, Priority.ALWAYS);
+
         // Volume slider
         volumeSlider = new Slider();
         volumeSlider.setMax(1.0);      
@@ -96,16 +143,17 @@ public class MediaPlayerView {
         ////////Combine////////
         HBox mediaControl =  new HBox();
         mediaControl.getChildren().addAll(
-                               playButton, play_spacer, 
-                               volumeLabel, volumeSlider, spacer, repeatButton);
+                               previousButton, playButton, nextButton, play_spacer, 
+                               volumeLabel, volumeSlider, spacer, scanStatus, repeatButton);
 
         mediaControl.setPadding(new Insets(5, 0, 0, 0));                       
                        
 
         HBox mediaDuration = new HBox();
         mediaDuration.getChildren().addAll(durationLabel, 
-                                           durationSlider, 
+                                           durationPane, 
                                            playTime); 
+        mediaDuration.setAlignment(Pos.CENTER_LEFT);
 
 
         VBox mediaBar =  new VBox();
@@ -129,20 +177,66 @@ public class MediaPlayerView {
 
         organiseMenu.getItems().addAll(changeDirectoryItem);
 
-        menuBar.getMenus().add(organiseMenu);
+        Menu playlistMenu = new Menu("Playlist");
+
+        importPlaylistItem = new MenuItem("Open Playlist...");
+        exportPlaylistItem = new MenuItem("Save Queue as Playlist...");
+        shuffleItem = new CheckMenuItem("Shuffle");
+        repeatAllItem = new CheckMenuItem("Repeat All");
+
+        playlistMenu.getItems().addAll(importPlaylistItem, exportPlaylistItem, new SeparatorMenuItem(), shuffleItem, repeatAllItem);
+
+        Menu viewMenu = new Menu("View");
+
+        trackTableItem = new CheckMenuItem("Track Table");
+
+        viewMenu.getItems().addAll(trackTableItem);
+
+        Menu toolsMenu = new Menu("Tools");
+
+        findDuplicatesItem = new MenuItem("Find Duplicates...");
+
+        toolsMenu.getItems().addAll(findDuplicatesItem);
+
+        menuBar.getMenus().addAll(organiseMenu, playlistMenu, viewMenu, toolsMenu);
 
         ////File viewer////
         fileView =  new TreeView<>();
+        VBox.setVgrow(fileView, Priority.ALWAYS);
+
+        ////Track Table////
+        trackTable = new TableView<>();
+        trackTable.setPlaceholder(new Label("No tracks"));
+        VBox.setVgrow(trackTable, Priority.ALWAYS);
+
+        ////Search////
+        searchField = new TextField();
+        searchField.setPromptText("Search library");
+        searchField.getStyleClass().add("search-field");
+
+        // Results are shown only while there is something in the search box.
+        searchResults = new ListView<>();
+        searchResults.setPrefHeight(200);
+        searchResults.setVisible(false);
+        searchResults.managedProperty().bind(searchResults.visibleProperty());
+
+        libraryPane = new VBox(5, searchField, searchResults, fileView);
 
         ////Root node////
         root = new BorderPane();
         root.setPadding(new Insets(10)); // -fx-padding: 10px;
-        fileView.prefWidthProperty().bind(root.widthProperty().multiply(0.2)); // adjast file selector size;
+        libraryPane.prefWidthProperty().bind(root.widthProperty().multiply(0.2)); // adjast file selector size;
         root.setTop(menuBar);
         root.setCenter(this.mediaPane);
-        root.setLeft(fileView);
+        root.setLeft(libraryPane);
         root.setBottom(mediaBar);
         BorderPane.setAlignment(mediaPane, Pos.CENTER);
     }
+
+    /* Track Table takes the place of File View in the library pane, and the other way round. */
+    public void showTrackTable(boolean show) {
+        libraryPane.getChildren().set(2, show ? trackTable : fileView);
+        trackTableItem.setSelected(show);
+    }
     ////Lombock Getters
 }
@@ -0,0 +1,34 @@
+package dev.staniszak.app.view;
+
+import java.nio.file.Path;
+
+import dev.staniszak.app.metadata.MetadataService;
+import javafx.scene.control.ListCell;
+
+/* Cell of the search results: the track described the same way as in File View, with the folder it lives in. */
+
+public class SearchResultCell extends ListCell<Path> {
+
+    private final MetadataService metadataService;
+    private final StringBuilder text = new StringBuilder(128);
+
+    public SearchResultCell(MetadataService metadataService) {
+        this.metadataService = metadataService;
+    }
+
+    @Override
+    protected void updateItem(Path track, boolean empty) {
+        super.updateItem(track, empty);
+        if (empty || track == null) {
+            setText(null);
+            return;
+        }
+        text.setLength(0);
+        TrackTreeCell.describe(text, track.getFileName().toString(), metadataService.getCached(track));
+        Path folder = track.getParent();
+        if (folder != null && folder.getFileName() != null) {
+            text.append("   (").append(folder.getFileName()).append(')');
+        }
+        setText(text.toString());
+    }
+}
@@ -0,0 +1,235 @@
+package dev.staniszak.app.view;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractList;
+
+import dev.staniszak.app.library.StringPool;
+import dev.staniszak.app.library.TrackStore;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import dev.staniszak.app.utils.BackgroundExecutors;
+import dev.staniszak.app.utils.Utils;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+/*
+ * Track Table: the whole library as one flat, sortable table, an alternative to File View for very large libraries.
+ *
+ * Items of the TableView are row indexes of a TrackStore, seen through Rows (a list over the order of the store,
+ * nothing is copied into it). TableView creates cells only for the visible rows, so a cell (and the few strings it shows)
+ * exists for what is on screen, not for every track.
+ * Clicking a column header does not go through the TableView comparator, the sort policy hands it to the store.
+ * While a scan keeps adding names, the ranks the store sorts by are computed in the background first (see resortLater),
+ * the FX thread never ranks the whole library itself.
+ * Sort times and the memory of the store are reported to PlayerMetrics.
+ */
+
+public class TrackTable {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    /* Rows of the store in its current order, as the TableView sees them. */
+    private static class Rows extends ObservableListBase<Integer> {
+        private final TrackStore store;
+        private int size = 0;
+
+        Rows(TrackStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return store.rowAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /* Store has new rows at its end. */
+        void appended() {
+            int from = size;
+            size = store.size();
+            if (size > from) {
+                beginChange();
+                nextAdd(from, size);
+                endChange();
+            }
+        }
+
+        /* Store was sorted or lost rows, the whole list is new. */
+        void replaced() {
+            beginChange();
+            nextRemove(0, new RemovedRows(size));
+            size = store.size();
+            nextAdd(0, size);
+            endChange();
+        }
+    }
+
+    /* Placeholder for the removed part of a change, listeners of the TableView only look at its size. */
+    private static class RemovedRows extends AbstractList<Integer> {
+        private final int size;
+
+        RemovedRows(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return -1;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final TableView<Integer> table;
+    private final TableColumn<Integer, String> nameColumn = new TableColumn<>("Name");
+    private final TableColumn<Integer, String> folderColumn = new TableColumn<>("Folder");
+    private final TableColumn<Integer, String> durationColumn = new TableColumn<>("Time");
+    private final TableColumn<Integer, String> dateColumn = new TableColumn<>("Modified");
+    private TrackStore store = new TrackStore();
+    private Rows rows = new Rows(store);
+    private String root = ""; // <- library directory, folders are shown relative to it
+    private boolean ranking = false; // <- ranks are being computed in the background, a resort follows
+
+    public TrackTable(TableView<Integer> table) {
+        this.table = table;
+        StringBuilder text = new StringBuilder(16);
+        nameColumn.setCellValueFactory((cell) -> new ReadOnlyObjectWrapper<>(store.getName(cell.getValue())));
+        folderColumn.setCellValueFactory((cell) -> new ReadOnlyObjectWrapper<>(relativeFolder(cell.getValue())));
+        durationColumn.setCellValueFactory((cell) -> {
+            int millis = store.getDuration(cell.getValue());
+            if (millis <= 0) {
+                return new ReadOnlyObjectWrapper<>("");
+            }
+            text.setLength(0);
+            Utils.formatDuration(text, millis / 1000);
+            return new ReadOnlyObjectWrapper<>(text.toString());
+        });
+        dateColumn.setCellValueFactory((cell) ->
+            new ReadOnlyObjectWrapper<>(DATE_FORMAT.format(Instant.ofEpochMilli(store.getLastModified(cell.getValue())))));
+        nameColumn.setPrefWidth(220);
+        folderColumn.setPrefWidth(160);
+        durationColumn.setPrefWidth(60);
+        dateColumn.setPrefWidth(120);
+        table.getColumns().setAll(nameColumn, folderColumn, durationColumn, dateColumn);
+        table.setItems(rows);
+        table.setSortPolicy((view) -> {
+            sort();
+            return true;
+        });
+    }
+
+    /* Table shows the store of a (newly loaded) library. */
+    public void setStore(TrackStore store, String root) {
+        this.store = store;
+        this.root = root;
+        this.rows = new Rows(store);
+        table.getSortOrder().clear();
+        table.setItems(rows);
+    }
+
+    public TrackStore getStore() {
+        return store;
+    }
+
+    /* Tracks were added to the store, they show up at the end until the table is sorted again (see resortLater). */
+    public void appended() {
+        rows.appended();
+    }
+
+    /*
+     Puts the store back into the order of the table header once the ranks of new names are known (they are computed
+     in the background, a whole library takes a few hundred ms), e.g. when the scan has finished or directories changed.
+     */
+    public void resortLater() {
+        if (ranking) {
+            return; // <- the round that is running sorts by whatever column is chosen when it ends
+        }
+        StringPool.Ranking next = store.prepareRanking();
+        if (next == null) {
+            resort();
+            return;
+        }
+        TrackStore target = store;
+        ranking = true;
+        BackgroundExecutors.io().execute(() -> {
+            next.compute();
+            Platform.runLater(() -> {
+                ranking = false;
+                target.applyRanking(next);
+                // Names added while this round ran (the scan goes on) are ranked by another round, not here.
+                resortLater();
+            });
+        });
+    }
+
+    private void resort() {
+        if (store.getSortColumn() != null) {
+            long start = System.nanoTime();
+            store.resort();
+            PlayerMetrics.trackTableSorted(System.nanoTime() - start);
+        }
+        rows.replaced();
+        PlayerMetrics.trackTableSize(store.size(), store.estimateBytes());
+    }
+
+    /* Store was changed in place (durations), visible cells are painted again. */
+    public void refresh() {
+        table.refresh();
+    }
+
+    /* Track of the row at the index of the table, e.g. the selected one. */
+    public Path pathAt(int index) {
+        return store.getPath(store.rowAt(index));
+    }
+
+    /*
+     Only the first column of the sort order counts, ties are always broken by name.
+     With names that have no rank yet (a scan is running) rows keep their order until the ranks are ready.
+     */
+    private void sort() {
+        TrackStore.Column column = null;
+        boolean ascending = true;
+        if (!table.getSortOrder().isEmpty()) {
+            TableColumn<Integer, ?> sortColumn = table.getSortOrder().get(0);
+            column = columnOf(sortColumn);
+            ascending = sortColumn.getSortType() == TableColumn.SortType.ASCENDING;
+        }
+        if (column != null && !store.isRanked()) {
+            store.setSort(column, ascending);
+            resortLater();
+            return;
+        }
+        long start = System.nanoTime();
+        store.sort(column, ascending);
+        PlayerMetrics.trackTableSorted(System.nanoTime() - start);
+        rows.replaced();
+    }
+
+    private TrackStore.Column columnOf(TableColumn<Integer, ?> column) {
+        if (column == folderColumn) {
+            return TrackStore.Column.FOLDER;
+        } else if (column == durationColumn) {
+            return TrackStore.Column.DURATION;
+        } else if (column == dateColumn) {
+            return TrackStore.Column.DATE;
+        }
+        return TrackStore.Column.NAME;
+    }
+
+    private String relativeFolder(int row) {
+        String folder = store.getFolder(row);
+        return folder.length() > root.length() && folder.startsWith(root) ? folder.substring(root.length() + 1) : "";
+    }
+}
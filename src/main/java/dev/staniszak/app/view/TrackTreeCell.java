@@ -0,0 +1,66 @@
+package dev.staniszak.app.view;
+
+import dev.staniszak.app.library.LazyTreeItem;
+import dev.staniszak.app.metadata.MetadataService;
+import dev.staniszak.app.metadata.TrackMetadata;
+import dev.staniszak.app.utils.Utils;
+import javafx.scene.control.TreeCell;
+
+/*
+ * Cell of File View. Tracks are shown as "Artist - Title  03:20" once their tags have been read,
+ * until then (and for files without tags) the file name is shown.
+ * A track that is painted and has not been parsed yet is queued in the MetadataService,
+ * File View is refreshed when the metadata arrives (see MediaPlayerController).
+ * Directories are shown by name.
+ */
+
+public class TrackTreeCell extends TreeCell<String> {
+
+    private final MetadataService metadataService;
+    private final StringBuilder text = new StringBuilder(96);
+
+    public TrackTreeCell(MetadataService metadataService) {
+        this.metadataService = metadataService;
+    }
+
+    @Override
+    protected void updateItem(String item, boolean empty) {
+        super.updateItem(item, empty);
+        if (empty || item == null) {
+            setText(null);
+            return;
+        }
+        if (!(getTreeItem() instanceof LazyTreeItem) || ((LazyTreeItem) getTreeItem()).isDirectory()) {
+            setText(item);
+            return;
+        }
+
+        LazyTreeItem track = (LazyTreeItem) getTreeItem();
+        TrackMetadata metadata = metadataService.getCached(track.getPath());
+        if (metadata == null) {
+            metadataService.request(track.getPath());
+            setText(item);
+            return;
+        }
+
+        text.setLength(0);
+        describe(text, item, metadata);
+        setText(text.toString());
+    }
+
+    /* "Artist - Title  03:20", or the file name when the track has no title tag. Also used by the search results. */
+    public static void describe(StringBuilder text, String fileName, TrackMetadata metadata) {
+        if (metadata != null && metadata.hasTitle()) {
+            if (!metadata.getArtist().isEmpty()) {
+                text.append(metadata.getArtist()).append(" - ");
+            }
+            text.append(metadata.getTitle());
+        } else {
+            text.append(fileName);
+        }
+        if (metadata != null && metadata.getDurationMillis() > 0) {
+            text.append("  ");
+            Utils.formatDuration(text, metadata.getDurationMillis() / 1000);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package dev.staniszak.app.visualizer;
+
+import dev.staniszak.app.audio.AudioEngine;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.stage.Stage;
+
+/*
+ * Chooses audio spectrum settings of the audio engine based on what the visualizer can actually show:
+ *
+ * 1. Analysis is switched off (spectrum listener set to null) while the visualizer is not on screen: 
+ *    the media pane is removed from the window (narrow window, see MediaPlayerController) or the window is minimized.
+ * 2. Number of bands follows the width of the canvas, so a bar is never narrower than MIN_BAR_WIDTH pixels.
+ * 3. When drawing takes longer than FRAME_BUDGET_NANOS on average, the spectrum interval is doubled (up to MAX_INTERVAL),
+ *    and brought back down once drawing is cheap again.
+ *
+ * Must be used on the JavaFX application thread.
+ */
+
+public class AdaptiveSpectrum {
+
+    private static final double BASE_INTERVAL = 0.016; // <- every 16ms (~60fps)
+    private static final double MAX_INTERVAL = 0.128;
+    private static final double THRESHOLD = -90;
+    private static final int MIN_BANDS = 16;
+    private static final double MIN_BAR_WIDTH = 6;
+    private static final long FRAME_BUDGET_NANOS = 4_000_000; // <- a quarter of a 60fps frame
+    private static final int FRAMES_PER_CHECK = 30;
+
+    private final Canvas canvas;
+    private final Node visualizer;
+    private final Stage stage;
+    private final SpectrumRenderer renderer;
+
+    private AudioEngine engine;
+    private AudioEngine.SpectrumListener listener;
+    private double interval = BASE_INTERVAL;
+    private int bands = SpectrumRenderer.MAX_BANDS;
+    private boolean active = false;
+
+    /* Frame budget bookkeeping. */
+    private long frameNanos = 0;
+    private int frames = 0;
+
+    /* visualizer - node that holds the canvas and is removed from the window when the visualizer is hidden. */
+    public AdaptiveSpectrum(Canvas canvas, Node visualizer, Stage stage, SpectrumRenderer renderer) {
+        this.canvas = canvas;
+        this.visualizer = visualizer;
+        this.stage = stage;
+        this.renderer = renderer;
+
+        this.renderer.setThreshold(THRESHOLD);
+        this.renderer.setFrameListener(this::frameRendered);
+        this.canvas.widthProperty().addListener((obs, oldWidth, newWidth) -> this.apply());
+        this.visualizer.parentProperty().addListener((obs, oldParent, newParent) -> this.apply());
+        this.stage.iconifiedProperty().addListener((obs, wasIconified, isIconified) -> this.apply());
+    }
+
+    /* Starts feeding the listener with spectrum of the engine. Engine keeps the settings when the track changes. */
+    public void attach(AudioEngine newEngine, AudioEngine.SpectrumListener newListener) {
+        this.engine = newEngine;
+        this.listener = newListener;
+        this.active = false;
+        this.engine.setSpectrumThreshold((int) THRESHOLD);
+        this.apply();
+    }
+
+    /* Stops the analysis and forgets the engine. */
+    public void detach() {
+        if (this.engine != null) {
+            this.engine.setSpectrumListener(null);
+        }
+        this.engine = null;
+        this.listener = null;
+        this.active = false;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    private boolean isVisible() {
+        return visualizer.getParent() != null && !stage.isIconified() && canvas.getWidth() > 0;
+    }
+
+    private void apply() {
+        boolean visible = isVisible();
+        if (visible) {
+            renderer.start();
+        } else {
+            renderer.stop();
+        }
+        if (engine == null) {
+            return;
+        }
+
+        if (visible) {
+            // Round to a multiple of 8, so resizing the window does not change the number of bands on every pixel.
+            int fitting = (int) (canvas.getWidth() / MIN_BAR_WIDTH) / 8 * 8;
+            bands = Math.max(MIN_BANDS, Math.min(SpectrumRenderer.MAX_BANDS, fitting));
+            if (engine.getSpectrumBands() != bands) {
+                engine.setSpectrumBands(bands);
+            }
+            if (engine.getSpectrumInterval() != interval) {
+                engine.setSpectrumInterval(interval);
+            }
+        }
+        if (visible != active) {
+            // Engine does not analyse the audio at all when there is no spectrum listener.
+            engine.setSpectrumListener(visible ? listener : null);
+            active = visible;
+        }
+    }
+
+    private void frameRendered(long nanos) {
+        frameNanos += nanos;
+        if (++frames < FRAMES_PER_CHECK) {
+            return;
+        }
+        long average = frameNanos / frames;
+        frames = 0;
+        frameNanos = 0;
+
+        if (average > FRAME_BUDGET_NANOS && interval < MAX_INTERVAL) {
+            interval = Math.min(MAX_INTERVAL, interval * 2);
+            apply();
+        } else if (average < FRAME_BUDGET_NANOS / 4 && interval > BASE_INTERVAL) {
+            interval = Math.max(BASE_INTERVAL, interval / 2);
+            apply();
+        }
+    }
+}
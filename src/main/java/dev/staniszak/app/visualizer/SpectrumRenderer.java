@@ -0,0 +1,176 @@
+package dev.staniszak.app.visualizer;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import dev.staniszak.app.audio.spectrum.SpectrumFrame;
+import dev.staniszak.app.audio.spectrum.SpscRing;
+import dev.staniszak.app.metrics.PlayerMetrics;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.effect.DropShadow;
+import javafx.scene.paint.Color;
+
+/*
+ * Audio visualizer: draws magnitudes of the audio spectrum on canvas as rectangles.
+ *
+ * Spectrum listener only copies magnitudes into a buffer (update()), drawing happens once per frame in an AnimationTimer,
+ * and only if new magnitudes have arrived since the last frame.
+ * With an engine that analyses the audio itself (see setSource), the timer takes the newest frame from the engine's ring
+ * instead, frames in between are skipped the same way, and peak hold marks are drawn above the bars.
+ * Nothing is allocated per frame: colors are computed once per band count,
+ * the shadow is a single effect set on the canvas node (instead of a new DropShadow/GaussianBlur per bar).
+ *
+ * Everything runs on the JavaFX application thread (spectrum listener is called there as well).
+ * Frame times and skipped spectrum updates are counted in PlayerMetrics.
+ */
+
+public class SpectrumRenderer {
+
+    public static final int MAX_BANDS = 128;
+    private static final double BAR_SCALE = 3; // <- Scale bar height
+    private static final double PEAK_MARK = 2;
+
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private final float[] magnitudes = new float[MAX_BANDS];
+    private final float[] peaks = new float[MAX_BANDS];
+    private boolean hasPeaks = false;
+    private int bands = 0;
+    private SpscRing<SpectrumFrame> source;
+    private boolean dirty = false;
+    private double threshold = -90; // <- magnitudes are in dB, from threshold up to 0.
+    private LongConsumer frameListener = (nanos) -> { };
+
+    /* Color of rect is based on the location in the array. Recomputed only when the number of bands changes. */
+    private Color[] palette = new Color[0];
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            // Triggered every frame
+            if (source != null) {
+                poll();
+            }
+            if (dirty) {
+                long start = System.nanoTime();
+                render();
+                long nanos = System.nanoTime() - start;
+                PlayerMetrics.spectrumRendered(nanos);
+                frameListener.accept(nanos);
+            }
+        }
+    };
+
+    public SpectrumRenderer(Canvas canvas) {
+        this.canvas = canvas;
+        this.gc = canvas.getGraphicsContext2D();
+
+        // Looks better with shadows, I think.
+        DropShadow dropShadow = new DropShadow();
+        dropShadow.setOffsetY(2.0);
+        dropShadow.setOffsetX(2.0);
+        dropShadow.setColor(Color.rgb(50, 50, 50, 0.5));
+        this.canvas.setEffect(dropShadow);
+    }
+
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    /* Gets time (in nanos) spent drawing each frame. */
+    public void setFrameListener(LongConsumer frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    /* Lowest magnitude the player reports (MediaPlayer.getAudioSpectrumThreshold()). */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /* Called by the spectrum listener. Keeps only the latest magnitudes, frames in between are simply skipped. */
+    public void update(float[] newMagnitudes) {
+        PlayerMetrics.spectrumUpdated(this.dirty);
+        int count = Math.min(newMagnitudes.length, MAX_BANDS);
+        System.arraycopy(newMagnitudes, 0, this.magnitudes, 0, count);
+        this.bands = count;
+        this.dirty = true;
+    }
+
+    /* Copy of the magnitudes drawn last (or about to be drawn), null before the first spectrum. */
+    public float[] getMagnitudes() {
+        return bands == 0 ? null : Arrays.copyOf(magnitudes, bands);
+    }
+
+    /* Ring of spectrum frames of the engine (AudioEngine.getSpectrumFrames()), null when the spectrum comes through update(). */
+    public void setSource(SpscRing<SpectrumFrame> source) {
+        this.source = source;
+        this.hasPeaks = false;
+    }
+
+    /* Takes the newest frame from the ring, older ones are released without being drawn. */
+    private void poll() {
+        SpectrumFrame frame = source.peek();
+        if (frame == null) {
+            return;
+        }
+        while (source.size() > 1) {
+            source.release();
+            PlayerMetrics.spectrumUpdated(true);
+            frame = source.peek();
+        }
+        PlayerMetrics.spectrumUpdated(this.dirty);
+        int count = Math.min(frame.getBands(), MAX_BANDS);
+        System.arraycopy(frame.getMagnitudes(), 0, this.magnitudes, 0, count);
+        System.arraycopy(frame.getPeaks(), 0, this.peaks, 0, count);
+        source.release();
+        this.bands = count;
+        this.hasPeaks = true;
+        this.dirty = true;
+    }
+
+    /* Draws the latest magnitudes. Public for benchmarks, normally called by the timer. */
+    public void render() {
+        dirty = false;
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        gc.clearRect(0, 0, width, height);
+        if (bands == 0) {
+            return;
+        }
+        if (palette.length != bands) {
+            palette = buildPalette(bands);
+        }
+
+        double barWidth = width / bands;
+        double halfHeight = height / 2;
+
+        for (int i = 0; i < bands; i++) {
+            double barHeight = (magnitudes[i] - threshold) * BAR_SCALE; // <- Adjust magnitude to be positive
+            gc.setFill(palette[i]);
+            gc.fillRect(i * barWidth, halfHeight - barHeight / 2, barWidth, barHeight);
+        }
+        if (hasPeaks) {
+            // Thin marks at the peak hold level, above and below the bar, as the bars are mirrored.
+            for (int i = 0; i < bands; i++) {
+                double peakHeight = (peaks[i] - threshold) * BAR_SCALE;
+                gc.setFill(palette[i]);
+                gc.fillRect(i * barWidth, halfHeight - peakHeight / 2 - PEAK_MARK, barWidth, PEAK_MARK);
+                gc.fillRect(i * barWidth, halfHeight + peakHeight / 2, barWidth, PEAK_MARK);
+            }
+        }
+    }
+
+    private static Color[] buildPalette(int bands) {
+        Color[] colors = new Color[bands];
+        for (int i = 0; i < bands; i++) {
+            colors[i] = Color.hsb(i * -180.0 / bands, 1.0, 1.0);
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,87 @@
+package dev.staniszak.app.visualizer;
+
+import dev.staniszak.app.waveform.WaveformOverview;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Slider;
+import javafx.scene.paint.Color;
+
+/*
+ * Draws the waveform overview of the current track on the canvas behind the duration slider:
+ * one vertical line per pixel column from the lowest to the highest sample of that part of the track,
+ * the part that has been played in the color of the labels.
+ *
+ * The slider value changes every frame while playing, but the canvas is drawn again only when the played part
+ * moves to another pixel column (or the size, or the overview, changes). Without an overview the canvas stays empty.
+ * Must be used on the JavaFX application thread.
+ */
+
+public class WaveformRenderer {
+
+    private static final Color PLAYED = Color.web("#efeb08");
+    private static final Color REMAINING = Color.web("#4A627A");
+
+    private final Canvas canvas;
+    private final GraphicsContext gc;
+    private final Slider slider;
+    private WaveformOverview overview;
+    private int drawnColumn = -1;
+
+    public WaveformRenderer(Canvas canvas, Slider slider) {
+        this.canvas = canvas;
+        this.gc = canvas.getGraphicsContext2D();
+        this.slider = slider;
+        this.slider.valueProperty().addListener((obs, oldValue, newValue) -> this.progressChanged());
+        this.canvas.widthProperty().addListener((obs, oldWidth, newWidth) -> this.render());
+        this.canvas.heightProperty().addListener((obs, oldHeight, newHeight) -> this.render());
+    }
+
+    /* Null clears the canvas (track has no overview yet). */
+    public void setOverview(WaveformOverview overview) {
+        this.overview = overview;
+        this.render();
+    }
+
+    public WaveformOverview getOverview() {
+        return overview;
+    }
+
+    private int playedColumn() {
+        return (int) (slider.getValue() / slider.getMax() * canvas.getWidth());
+    }
+
+    private void progressChanged() {
+        if (overview != null && playedColumn() != drawnColumn) {
+            render();
+        }
+    }
+
+    /* Draws the whole overview. Public for benchmarks. */
+    public void render() {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        gc.clearRect(0, 0, width, height);
+        drawnColumn = playedColumn();
+        if (overview == null || width < 1) {
+            return;
+        }
+        int columns = (int) width;
+        double middle = height / 2;
+        double scale = height / 2;
+        for (int column = 0; column < columns; column++) {
+            // Every column takes the extremes of the points under it (there are more points than pixels on most sliders).
+            int from = (int) ((long) column * WaveformOverview.POINTS / columns);
+            int to = Math.max(from + 1, (int) ((long) (column + 1) * WaveformOverview.POINTS / columns));
+            float min = overview.getMin(from);
+            float max = overview.getMax(from);
+            for (int point = from + 1; point < to; point++) {
+                min = Math.min(min, overview.getMin(point));
+                max = Math.max(max, overview.getMax(point));
+            }
+            double top = middle - max * scale;
+            double bottom = middle - min * scale;
+            gc.setFill(column < drawnColumn ? PLAYED : REMAINING);
+            gc.fillRect(column, top, 1, Math.max(1, bottom - top));
+        }
+    }
+}
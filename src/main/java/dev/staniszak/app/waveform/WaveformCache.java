@@ -0,0 +1,101 @@
+package dev.staniszak.app.waveform;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import dev.staniszak.app.utils.BinaryFiles;
+
+/*
+ * Waveform overviews on disk, one small file per track (about 4 KiB), so a cached overview is a single read.
+ *
+ * File name is the SHA-1 of the track path, size and modification time of the track are stored in the file:
+ * an overview is valid only while they match, a changed track gets a new overview written over the old one.
+ * Path is stored too, two paths with the same hash simply do not find each other's overview.
+ *
+ * Files are read and replaced through BinaryFiles, a reader never sees half an overview.
+ * Methods may be called from any thread.
+ */
+
+public class WaveformCache {
+
+    /*
+     FORMAT:
+       int magic, int version, long size, long lastModified, string path, byte[POINTS * 2] peaks
+     string = unsigned short length + UTF-8 bytes, tracks whose path does not fit are not cached
+     */
+    private static final int MAGIC = 0x5746524D; // <- "WFRM"
+    private static final int VERSION = 1;
+
+    private final Path directory;
+
+    public WaveformCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /* Overview of the track, or null when it has not been generated yet or the track has changed since. */
+    public WaveformOverview get(Path track, long size, long lastModified) {
+        Path file = fileOf(track);
+        ByteBuffer buffer;
+        try {
+            buffer = BinaryFiles.read(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getLong() != size || buffer.getLong() != lastModified) {
+                return null;
+            }
+            String path = BinaryFiles.readString(buffer, new byte[256]);
+            if (!path.equals(track.toString()) || buffer.remaining() != WaveformOverview.POINTS * 2) {
+                return null;
+            }
+            byte[] peaks = new byte[WaveformOverview.POINTS * 2];
+            buffer.get(peaks);
+            return new WaveformOverview(peaks);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.err.println("Waveform " + file + " is damaged, it will be generated again. " + e);
+            return null;
+        }
+    }
+
+    public void put(Path track, long size, long lastModified, WaveformOverview overview) {
+        if (!BinaryFiles.fits(track.toString())) {
+            return;
+        }
+        try {
+            BinaryFiles.replace(fileOf(track), (out) -> {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                BinaryFiles.writeString(out, track.toString());
+                out.write(overview.getPeaks());
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Path fileOf(Path track) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(track.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(".wfm").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // <- every JVM has SHA-1
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package dev.staniszak.app.waveform;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import dev.staniszak.app.audio.format.FormatRegistry;
+import dev.staniszak.app.audio.pipeline.PcmSource;
+
+/*
+ * Decodes a track once and reduces it to a WaveformOverview.
+ *
+ * The length of a track is not known exactly before it has been decoded (VBR files without a Xing header,
+ * damaged frames), so the decoded audio is first reduced to min/max of every CHUNK_FRAMES frames
+ * and those chunks are spread over the POINTS of the overview at the end. A 5 minute track is ~52k chunks, a few hundred KiB.
+ *
+ * Not thread safe, every worker of WaveformService has its own generator (buffers are reused between tracks).
+ */
+
+public class WaveformGenerator {
+
+    private static final int CHUNK_FRAMES = 256;
+    private static final int BLOCK_FRAMES = 4096;
+
+    private final float[] block = new float[BLOCK_FRAMES * 2];
+    private float[] chunkMin = new float[1 << 14];
+    private float[] chunkMax = new float[1 << 14];
+
+    /* Formats only JavaFX can play (MP4) have no decoder of ours, they throw an IOException and get no overview. */
+    public WaveformOverview generate(Path track) throws IOException {
+        try (PcmSource source = FormatRegistry.SHARED.detect(track).openPcm(track)) {
+            return generate(source);
+        }
+    }
+
+    public WaveformOverview generate(PcmSource source) throws IOException {
+        int chunks = 0;
+        int inChunk = 0;
+        float min = 0;
+        float max = 0;
+        int frames;
+        while ((frames = source.read(block, 0, BLOCK_FRAMES)) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("interrupted");
+            }
+            for (int i = 0, end = frames * 2; i < end; i += 2) {
+                float left = block[i];
+                float right = block[i + 1];
+                if (inChunk == 0) {
+                    min = Math.min(left, right);
+                    max = Math.max(left, right);
+                } else {
+                    min = Math.min(min, Math.min(left, right));
+                    max = Math.max(max, Math.max(left, right));
+                }
+                if (++inChunk == CHUNK_FRAMES) {
+                    chunks = addChunk(chunks, min, max);
+                    inChunk = 0;
+                }
+            }
+        }
+        if (inChunk > 0) {
+            chunks = addChunk(chunks, min, max);
+        }
+        return new WaveformOverview(reduce(chunks));
+    }
+
+    private int addChunk(int chunks, float min, float max) {
+        if (chunks == chunkMin.length) {
+            chunkMin = Arrays.copyOf(chunkMin, chunks * 2);
+            chunkMax = Arrays.copyOf(chunkMax, chunks * 2);
+        }
+        chunkMin[chunks] = min;
+        chunkMax[chunks] = max;
+        return chunks + 1;
+    }
+
+    /* Point p covers chunks [p * chunks / POINTS, (p + 1) * chunks / POINTS), a short track repeats a chunk over several points. */
+    private byte[] reduce(int chunks) {
+        byte[] peaks = new byte[WaveformOverview.POINTS * 2];
+        if (chunks == 0) {
+            return peaks;
+        }
+        for (int point = 0; point < WaveformOverview.POINTS; point++) {
+            int from = (int) ((long) point * chunks / WaveformOverview.POINTS);
+            int to = Math.max(from + 1, (int) ((long) (point + 1) * chunks / WaveformOverview.POINTS));
+            float min = chunkMin[from];
+            float max = chunkMax[from];
+            for (int chunk = from + 1; chunk < to; chunk++) {
+                min = Math.min(min, chunkMin[chunk]);
+                max = Math.max(max, chunkMax[chunk]);
+            }
+            peaks[point * 2] = toByte(min);
+            peaks[point * 2 + 1] = toByte(max);
+        }
+        return peaks;
+    }
+
+    private static byte toByte(float sample) {
+        return (byte) Math.round(Math.max(-1f, Math.min(1f, sample)) * 127);
+    }
+}
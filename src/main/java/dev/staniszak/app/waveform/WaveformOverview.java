@@ -0,0 +1,36 @@
+package dev.staniszak.app.waveform;
+
+/*
+ * Shape of a whole track in POINTS columns: lowest and highest sample of every column,
+ * both channels together, scaled to a byte (-127 = -1.0 full scale, 127 = +1.0).
+ * 2048 points are enough for any slider, 4 KiB per track on disk and in memory.
+ */
+
+public class WaveformOverview {
+
+    public static final int POINTS = 2048;
+
+    private final byte[] peaks; // <- min, max of every point
+
+    public WaveformOverview(byte[] peaks) {
+        if (peaks.length != POINTS * 2) {
+            throw new IllegalArgumentException("expected " + POINTS * 2 + " bytes, got " + peaks.length);
+        }
+        this.peaks = peaks;
+    }
+
+    /* Lowest sample of the point, in range [-1.0, 1.0]. */
+    public float getMin(int point) {
+        return peaks[point * 2] / 127f;
+    }
+
+    /* Highest sample of the point, in range [-1.0, 1.0]. */
+    public float getMax(int point) {
+        return peaks[point * 2 + 1] / 127f;
+    }
+
+    /* Raw bytes as they are stored in the cache, not a copy. */
+    byte[] getPeaks() {
+        return peaks;
+    }
+}
@@ -0,0 +1,140 @@
+package dev.staniszak.app.waveform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/*
+ * Gives every track a waveform overview: from the WaveformCache when the track has one, otherwise it is generated.
+ *
+ * Generation decodes the whole track (seconds of CPU for a long track), it runs on a small pool of its own:
+ * at most WORKERS threads at the lowest thread priority, so it never competes with the audio or the JavaFX thread.
+ * Requests are ordered by Priority:
+ *   - VISIBLE: the track shown in the slider right now, the most recent request first (user skipped through a few tracks),
+ *   - BACKGROUND: tracks that are not on screen (e.g. the next one in the play queue), in the order they were requested.
+ * At most MAX_BACKGROUND background tracks wait in the queue, more are not accepted (they are requested again when they matter).
+ * Requesting a waiting background track as VISIBLE moves it to the front.
+ *
+ * Cached overviews are read on the calling thread (one small file, well under a millisecond).
+ * The listener is called on a worker thread for every generated overview.
+ */
+
+public class WaveformService {
+
+    public enum Priority { VISIBLE, BACKGROUND }
+
+    private static final int WORKERS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int MAX_BACKGROUND = 64;
+
+    private final WaveformCache cache;
+    private final ExecutorService pool;
+    private final ConcurrentHashMap<Path, Task> pending = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger background = new AtomicInteger();
+    private final ThreadLocal<WaveformGenerator> generators = ThreadLocal.withInitial(WaveformGenerator::new);
+    private volatile BiConsumer<Path, WaveformOverview> listener = (track, overview) -> { };
+
+    public WaveformService(WaveformCache cache) {
+        this.cache = cache;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS, queue, (runnable) -> {
+            Thread thread = new Thread(runnable, "waveform-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void setListener(BiConsumer<Path, WaveformOverview> listener) {
+        this.listener = listener == null ? (track, overview) -> { } : listener;
+    }
+
+    /* Overview from the cache, null when the track has none (or has changed). Reads one small file, never decodes. */
+    public WaveformOverview getCached(Path track) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(track, BasicFileAttributes.class);
+            return cache.get(track, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* Queues generation of the overview, unless it is waiting already (with the same or a higher priority). */
+    public void request(Path track, Priority priority) {
+        Task task = new Task(track, priority, sequence.incrementAndGet());
+        Task previous = pending.putIfAbsent(track, task);
+        if (previous != null) {
+            if (priority != Priority.VISIBLE || previous.priority == Priority.VISIBLE || !queue.remove(previous)) {
+                return; // <- already waiting with the priority it needs, or being generated right now
+            }
+            background.decrementAndGet();
+            pending.put(track, task);
+        } else if (priority == Priority.BACKGROUND && background.incrementAndGet() > MAX_BACKGROUND) {
+            background.decrementAndGet();
+            pending.remove(track, task);
+            return;
+        }
+        pool.execute(task);
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        final Path track;
+        final Priority priority;
+        final long sequence;
+
+        Task(Path track, Priority priority, long sequence) {
+            this.track = track;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            // Newest visible track first, background tracks in order.
+            return priority == Priority.VISIBLE ? Long.compare(other.sequence, sequence) : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            if (priority == Priority.BACKGROUND) {
+                background.decrementAndGet();
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(track, BasicFileAttributes.class);
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                WaveformOverview overview = cache.get(track, size, lastModified);
+                if (overview == null) {
+                    overview = generators.get().generate(track);
+                    cache.put(track, size, lastModified, overview);
+                }
+                listener.accept(track, overview);
+            } catch (IOException | RuntimeException e) {
+                // Missing or undecodable track, there is nothing to draw.
+            } finally {
+                pending.remove(track, this);
+            }
+        }
+    }
+}
@@ -6,8 +6,16 @@ module dev.staniszak.app {
     requires lombok;
     requires transitive com.fasterxml.jackson.databind;
     requires java.desktop;
+    requires jlayer;
+    requires jflac.codec;
+    requires jorbis;
+    requires java.management;
+    requires jdk.jfr;
+    requires jdk.httpserver;
 
     opens dev.staniszak.app to javafx.fxml;
     exports dev.staniszak.app;
     exports dev.staniszak.app.common;
+    exports dev.staniszak.app.metrics; // <- PlayerMetricsMXBean is read by JMX clients
+    exports dev.staniszak.app.remote; // <- PlayerState is written by Jackson
 }